@@ -0,0 +1,120 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Helper methods for creating and removing the files used by the benchmarks.
+ *
+ * @author Mario Bobic
+ */
+final class BenchmarkFiles {
+
+	/**
+	 * Disable instantiation.
+	 */
+	private BenchmarkFiles() {
+	}
+
+	/**
+	 * Parses a size such as {@code 64M} or {@code 4G} with binary prefixes.
+	 *
+	 * @param size size to be parsed
+	 * @return the size in bytes
+	 */
+	public static long parseSize(String size) {
+		char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+		int shift = "KMGT".indexOf(unit);
+		if (shift == -1) {
+			return Long.parseLong(size);
+		}
+		long value = Long.parseLong(size.substring(0, size.length() - 1));
+		return value << (10 * (shift + 1));
+	}
+
+	/**
+	 * Creates a new temporary directory used by one benchmark trial.
+	 *
+	 * @return a new temporary directory
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Path createTempDir() throws IOException {
+		String parent = System.getProperty("decomposer.benchmark.dir");
+		return parent == null
+				? Files.createTempDirectory("decomposer-bench")
+				: Files.createTempDirectory(new File(parent).toPath(), "decomposer-bench");
+	}
+
+	/**
+	 * Creates a sparse file of the specified length, which takes no disk
+	 * space no matter how large it is.
+	 *
+	 * @param file file to be created
+	 * @param length length of the file
+	 * @return the created file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static File createSparseFile(File file, long length) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+		}
+		return file;
+	}
+
+	/**
+	 * Creates a file of the specified length filled with pseudo-random data,
+	 * for benchmarks whose results depend on the content of the file. The
+	 * same seed always produces the same content.
+	 *
+	 * @param file file to be created
+	 * @param length length of the file
+	 * @param seed seed of the random data
+	 * @return the created file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static File createRandomFile(File file, long length, long seed) throws IOException {
+		Random random = new Random(seed);
+		byte[] block = new byte[1024 * 1024];
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			for (long done = 0; done < length; done += block.length) {
+				random.nextBytes(block);
+				out.write(block, 0, (int) Math.min(block.length, length - done));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Recursively deletes the specified directory.
+	 *
+	 * @param dir directory to be deleted
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void deleteRecursively(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir)) {
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,45 @@
+package decomposer.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler enabled, so that every result is
+ * reported together with its allocation rate. All standard JMH command line
+ * options are accepted, for example
+ * {@code java -jar target/benchmarks.jar Decompose -p fileSize=1G -p mode=TRANSFER,MAPPED}.
+ * <p>
+ * Temporary files are created in the default temporary directory, unless the
+ * {@code decomposer.benchmark.dir} system property names another one.
+ *
+ * @author Mario Bobic
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * Disable instantiation.
+	 */
+	private BenchmarkRunner() {
+	}
+
+	/**
+	 * Runs the benchmarks selected by the command line arguments.
+	 *
+	 * @param args JMH command line arguments
+	 * @throws CommandLineOptionException if the arguments are invalid
+	 * @throws RunnerException if a benchmark has failed
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder()
+				.parent(cmd)
+				.addProfiler(GCProfiler.class)
+				.jvmArgsAppend("-Djava.awt.headless=true")
+				.build()).run();
+	}
+
+}
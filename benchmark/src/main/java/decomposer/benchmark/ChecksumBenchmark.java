@@ -0,0 +1,97 @@
+package decomposer.benchmark;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.ChecksumMode;
+import decomposer.Crc32c;
+import decomposer.benchmark.DecomposeBenchmark.ByteCounters;
+
+/**
+ * Measures the raw throughput of the checksum algorithms on a direct buffer,
+ * without any I/O, so that the cost of every {@linkplain ChecksumMode} can be
+ * told apart from the cost of copying. {@code CRC32} is included as a
+ * reference, and {@code CRC32C_PORTABLE} is the implementation used on Java 8.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChecksumBenchmark {
+
+	/** Checksum algorithm */
+	@Param({ "CRC32", "CRC32C", "CRC32C_PORTABLE", "SHA256" })
+	public String algorithm;
+
+	/** Size of the checksummed chunk */
+	@Param({ "65536", "1048576" })
+	public int chunkSize;
+
+	private ByteBuffer chunk;
+	private MessageDigest sha;
+
+	/**
+	 * Fills the chunk with random data.
+	 *
+	 * @throws NoSuchAlgorithmException if SHA-256 is not supported
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws NoSuchAlgorithmException {
+		byte[] data = new byte[chunkSize];
+		new Random(42).nextBytes(data);
+		chunk = ByteBuffer.allocateDirect(chunkSize);
+		chunk.put(data).flip();
+		sha = MessageDigest.getInstance("SHA-256");
+	}
+
+	/**
+	 * Checksums the chunk once.
+	 *
+	 * @param counters counters of the checksummed bytes
+	 * @return the checksum, so that it is not optimized away
+	 */
+	@Benchmark
+	public long checksum(ByteCounters counters) {
+		ByteBuffer b = chunk.duplicate();
+		counters.bytes += b.remaining();
+		switch (algorithm) {
+		case "CRC32":
+			CRC32 crc = new CRC32();
+			crc.update(b);
+			return crc.getValue();
+		case "CRC32C":
+			Crc32c crc32c = new Crc32c();
+			crc32c.update(b);
+			return crc32c.getValue();
+		case "CRC32C_PORTABLE":
+			Crc32c portable = Crc32c.portable();
+			portable.update(b);
+			return portable.getValue();
+		default:
+			sha.update(b);
+			return sha.digest()[0];
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+import decomposer.benchmark.DecomposeBenchmark.ByteCounters;
+
+/**
+ * Measures the throughput of decomposing files into content-defined chunks
+ * stored in a deduplicating store. The source holds random data, since the
+ * chunk boundaries depend on the content and a sparse file would collapse
+ * into a single chunk. An {@code EMPTY} store is cleared before every
+ * invocation, so every chunk is written, while a {@code FULL} store already
+ * holds all chunks, as when an unchanged file is decomposed again.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkBenchmark {
+
+	/** Size of the decomposed file */
+	@Param({ "64M", "1G" })
+	public String fileSize;
+
+	/** Average size of the chunks */
+	@Param({ "65536", "1048576" })
+	public int chunkSize;
+
+	/** Number of chunks stored at the same time */
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	/** State of the store before every invocation */
+	@Param({ "EMPTY", "FULL" })
+	public String store;
+
+	private Path dir;
+	private File source;
+	private File storeDir;
+	private DecomposerEngine decomposer;
+
+	/**
+	 * Creates the random source file, and fills the store if it is full.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkFiles.createTempDir();
+		source = BenchmarkFiles.createRandomFile(dir.resolve("source.bin").toFile(), BenchmarkFiles.parseSize(fileSize), 42);
+		storeDir = dir.resolve("store").toFile();
+		decomposer = new DecomposerEngine();
+		if ("FULL".equals(store)) {
+			decompose();
+		}
+	}
+
+	/**
+	 * Clears the store before every invocation, unless it is full.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Invocation)
+	public void clearStore() throws IOException {
+		if ("EMPTY".equals(store)) {
+			BenchmarkFiles.deleteRecursively(storeDir.toPath());
+		}
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkFiles.deleteRecursively(dir);
+	}
+
+	/**
+	 * Decomposes the source file into the store once.
+	 *
+	 * @param counters counters of the decomposed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void chunk(ByteCounters counters) throws IOException {
+		decompose();
+		counters.bytes += source.length();
+	}
+
+	/**
+	 * Decomposes the source file into the store.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void decompose() throws IOException {
+		decomposer.decompose(DecomposeJob.builder(source)
+				.outputDir(storeDir)
+				.chunkSize(chunkSize)
+				.parallelism(parallelism)
+				.build());
+	}
+
+}
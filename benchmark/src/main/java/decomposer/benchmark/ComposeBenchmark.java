@@ -0,0 +1,154 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.ComposeJob;
+import decomposer.ChecksumMode;
+import decomposer.CopyMode;
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+import decomposer.benchmark.DecomposeBenchmark.ByteCounters;
+
+/**
+ * Measures the throughput of composing pieces of sparse files of various sizes.
+ * The pieces are decomposed once per trial, and every invocation composes them
+ * into a new file. The {@code STREAM} engine is the original 4 KB stream loop,
+ * all other engines are the {@linkplain CopyMode copy modes} of the
+ * {@linkplain DecomposerEngine}.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ComposeBenchmark {
+
+	/** Size of the composed file */
+	@Param({ "1M", "64M", "1G", "4G" })
+	public String fileSize;
+
+	/** Number of pieces, where 100 is MAX_PIECES */
+	@Param({ "1", "10", "100" })
+	public int pieces;
+
+	/** Copy loop used for composing */
+	@Param({ "STREAM", "TRANSFER", "BUFFERED", "MAPPED", "PIPELINED", "ASYNC" })
+	public String engine;
+
+	/** Number of pieces read at the same time */
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	/** Size of the buffers of the buffered engine, 0 for tuned size */
+	@Param({ "0", "65536", "1048576", "8388608" })
+	public int bufferSize;
+
+	/** Number of buffers of the pipelined engines */
+	@Param({ "2", "4", "8" })
+	public int pipelineDepth;
+
+	/** Checksums stored in the pieces, ignored by the stream engine */
+	@Param({ "NONE", "CRC32C", "SHA256" })
+	public String checksum;
+
+	private Path dir;
+	private List<File> pieceFiles;
+	private File output;
+	private DecomposerEngine composer;
+
+	/**
+	 * Creates the sparse source file and decomposes it.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkFiles.createTempDir();
+		File source = BenchmarkFiles.createSparseFile(dir.resolve("source.bin").toFile(), BenchmarkFiles.parseSize(fileSize));
+		File outputDir = dir.resolve("pieces").toFile();
+		composer = new DecomposerEngine();
+		/* The stream engine only understands legacy pieces. */
+		if ("STREAM".equals(engine)) {
+			outputDir.mkdirs();
+			LegacyStreamLoop.decompose(source, outputDir, "source.bin", pieces);
+		} else {
+			composer.decompose(DecomposeJob.builder(source)
+					.outputDir(outputDir)
+					.pieces(pieces)
+					.checksum(ChecksumMode.valueOf(checksum))
+					.build());
+		}
+		Files.delete(source.toPath());
+
+		pieceFiles = new ArrayList<>(pieces);
+		for (int i = 0; i < pieces; i++) {
+			pieceFiles.add(new File(outputDir, DecomposerEngine.pieceName("source.bin", i)));
+		}
+		output = dir.resolve("composed.bin").toFile();
+	}
+
+	/**
+	 * Removes the composed file after every invocation.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Invocation)
+	public void deleteOutput() throws IOException {
+		Files.deleteIfExists(output.toPath());
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkFiles.deleteRecursively(dir);
+	}
+
+	/**
+	 * Composes the pieces once.
+	 *
+	 * @param counters counters of the composed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void compose(ByteCounters counters) throws IOException {
+		if ("STREAM".equals(engine)) {
+			LegacyStreamLoop.compose(pieceFiles, output);
+		} else {
+			composer.compose(ComposeJob.builder(pieceFiles, output)
+					.parallelism(parallelism)
+					.copyMode(CopyMode.valueOf(engine))
+					.bufferSize(bufferSize)
+					.pipelineDepth(pipelineDepth)
+					.build());
+		}
+		counters.bytes += output.length();
+	}
+
+}
@@ -0,0 +1,146 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.ChecksumMode;
+import decomposer.CopyMode;
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+
+/**
+ * Measures the throughput of decomposing sparse files of various sizes into
+ * various numbers of pieces. The {@code STREAM} engine is the original 4 KB
+ * stream loop, all other engines are the {@linkplain CopyMode copy modes} of
+ * the {@linkplain DecomposerEngine}. The number of bytes decomposed per second
+ * is reported as the {@code bytes} counter.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecomposeBenchmark {
+
+	/** Size of the decomposed file */
+	@Param({ "1M", "64M", "1G", "4G" })
+	public String fileSize;
+
+	/** Number of pieces, where 100 is MAX_PIECES */
+	@Param({ "1", "10", "100" })
+	public int pieces;
+
+	/** Copy loop used for decomposing */
+	@Param({ "STREAM", "TRANSFER", "BUFFERED", "MAPPED", "PIPELINED", "ASYNC" })
+	public String engine;
+
+	/** Number of pieces written at the same time */
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	/** Size of the buffers of the buffered engine, 0 for tuned size */
+	@Param({ "0", "65536", "1048576", "8388608" })
+	public int bufferSize;
+
+	/** Number of buffers of the pipelined engines */
+	@Param({ "2", "4", "8" })
+	public int pipelineDepth;
+
+	/** Checksums stored in the pieces, ignored by the stream engine */
+	@Param({ "NONE", "CRC32C", "SHA256" })
+	public String checksum;
+
+	private Path dir;
+	private File source;
+	private File outputDir;
+	private DecomposerEngine decomposer;
+
+	/**
+	 * Creates the sparse source file.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkFiles.createTempDir();
+		source = BenchmarkFiles.createSparseFile(dir.resolve("source.bin").toFile(), BenchmarkFiles.parseSize(fileSize));
+		outputDir = dir.resolve("pieces").toFile();
+		outputDir.mkdirs();
+		decomposer = new DecomposerEngine();
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkFiles.deleteRecursively(dir);
+	}
+
+	/**
+	 * Decomposes the source file once.
+	 *
+	 * @param counters counters of the decomposed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void decompose(ByteCounters counters) throws IOException {
+		if ("STREAM".equals(engine)) {
+			LegacyStreamLoop.decompose(source, outputDir, "source.bin", pieces);
+		} else {
+			decomposer.decompose(DecomposeJob.builder(source)
+					.outputDir(outputDir)
+					.pieces(pieces)
+					.parallelism(parallelism)
+					.copyMode(CopyMode.valueOf(engine))
+					.bufferSize(bufferSize)
+					.pipelineDepth(pipelineDepth)
+					.checksum(ChecksumMode.valueOf(checksum))
+					.build());
+		}
+		counters.bytes += source.length();
+	}
+
+	/**
+	 * Counts the bytes processed by the benchmark, reported per second.
+	 *
+	 * @author Mario Bobic
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class ByteCounters {
+		/** Number of bytes processed */
+		public long bytes;
+
+		/**
+		 * Resets the counters before every iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+import decomposer.PieceDiscovery;
+import decomposer.PieceSet;
+
+/**
+ * Measures the time of scanning a directory with many pieces for sets of
+ * pieces. A cold scan lists the directory and reads its manifests, or the
+ * headers of all pieces if the manifests are removed, while a cached scan
+ * repeats the scan of an unchanged directory.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiscoveryBenchmark {
+
+	/** Number of decomposed files, each of 50 pieces */
+	@Param({ "100", "1000" })
+	public int files;
+
+	/** True if the manifests are kept, false if the pieces are found by their headers */
+	@Param({ "true", "false" })
+	public boolean manifests;
+
+	/** Number of piece headers read at the same time */
+	@Param({ "1", "8" })
+	public int parallelism;
+
+	private Path dir;
+	private List<File> piecesDir;
+	private PieceDiscovery cached;
+
+	/**
+	 * Decomposes the small source files into one directory of pieces.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkFiles.createTempDir();
+		File sourceDir = dir.resolve("sources").toFile();
+		File outputDir = dir.resolve("pieces").toFile();
+		sourceDir.mkdirs();
+		DecomposerEngine engine = new DecomposerEngine();
+		for (int i = 0; i < files; i++) {
+			File source = BenchmarkFiles.createRandomFile(new File(sourceDir, "file" + i + ".bin"), 64 * 1024, i);
+			engine.decompose(DecomposeJob.builder(source).outputDir(outputDir).pieces(50).build());
+		}
+		if (!manifests) {
+			for (File file : outputDir.listFiles((d, name) -> name.endsWith(".manifest"))) {
+				Files.delete(file.toPath());
+			}
+		}
+		piecesDir = Collections.singletonList(outputDir);
+
+		cached = new PieceDiscovery(parallelism);
+		cached.scan(piecesDir, false);
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkFiles.deleteRecursively(dir);
+	}
+
+	/**
+	 * Scans the directory with a new discovery.
+	 *
+	 * @return sets of the pieces found
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public List<PieceSet> cold() throws IOException {
+		return new PieceDiscovery(parallelism).scan(piecesDir, false);
+	}
+
+	/**
+	 * Scans the unchanged directory again with the same discovery.
+	 *
+	 * @return sets of the pieces found
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public List<PieceSet> cached() throws IOException {
+		return cached.scan(piecesDir, false);
+	}
+
+}
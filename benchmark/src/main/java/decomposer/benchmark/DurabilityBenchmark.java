@@ -0,0 +1,147 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.ComposeJob;
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+import decomposer.Durability;
+import decomposer.Manifest;
+import decomposer.benchmark.DecomposeBenchmark.ByteCounters;
+
+/**
+ * Measures the throughput cost of every {@linkplain Durability durability},
+ * both when decomposing a file and when composing its pieces. The results
+ * depend heavily on the storage device, so the benchmark should be run with
+ * {@code decomposer.benchmark.dir} pointing to the device of interest rather
+ * than to a temporary file system kept in memory. The sync interval only
+ * applies to the batched durability.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DurabilityBenchmark {
+
+	/** Size of the decomposed file */
+	@Param({ "64M", "1G" })
+	public String fileSize;
+
+	/** Number of pieces */
+	@Param({ "10", "100" })
+	public int pieces;
+
+	/** Way of forcing the written files */
+	@Param({ "NONE", "PIECE", "BATCHED", "GROUP" })
+	public String durability;
+
+	/** Bytes written to a file between two batched syncs */
+	@Param({ "8M", "64M" })
+	public String syncInterval;
+
+	/** Number of pieces written at the same time */
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	private Path dir;
+	private File source;
+	private File decomposedDir;
+	private Manifest manifest;
+	private File output;
+	private DecomposerEngine engine;
+
+	/**
+	 * Creates the random source file and decomposes it once.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkFiles.createTempDir();
+		source = BenchmarkFiles.createRandomFile(dir.resolve("source.bin").toFile(), BenchmarkFiles.parseSize(fileSize), 42);
+		decomposedDir = dir.resolve("decomposed").toFile();
+		engine = new DecomposerEngine();
+
+		File piecesDir = dir.resolve("pieces").toFile();
+		engine.decompose(DecomposeJob.builder(source).outputDir(piecesDir).pieces(pieces).build());
+		manifest = Manifest.read(Manifest.manifestFile(piecesDir, "source.bin"));
+		output = dir.resolve("composed.bin").toFile();
+	}
+
+	/**
+	 * Removes the composed file after every invocation.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Invocation)
+	public void deleteOutput() throws IOException {
+		Files.deleteIfExists(output.toPath());
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkFiles.deleteRecursively(dir);
+	}
+
+	/**
+	 * Decomposes the source file once.
+	 *
+	 * @param counters counters of the decomposed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void decompose(ByteCounters counters) throws IOException {
+		engine.decompose(DecomposeJob.builder(source)
+				.outputDir(decomposedDir)
+				.pieces(pieces)
+				.parallelism(parallelism)
+				.durability(Durability.valueOf(durability))
+				.syncInterval(BenchmarkFiles.parseSize(syncInterval))
+				.build());
+		counters.bytes += source.length();
+	}
+
+	/**
+	 * Composes the pieces once.
+	 *
+	 * @param counters counters of the composed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void compose(ByteCounters counters) throws IOException {
+		engine.compose(ComposeJob.builder(manifest, output)
+				.parallelism(parallelism)
+				.durability(Durability.valueOf(durability))
+				.syncInterval(BenchmarkFiles.parseSize(syncInterval))
+				.build());
+		counters.bytes += output.length();
+	}
+
+}
@@ -0,0 +1,90 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import decomposer.DecomposerEngine;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * The copy loop the Swing workers used before the {@linkplain DecomposerEngine}
+ * existed: a single {@code FileInputStream} and {@code FileOutputStream} with a
+ * {@linkplain decomposer.DecomposerConstants#STD_LOADER_SIZE} byte array,
+ * allocated anew for every piece. It is kept here only as a baseline for the
+ * benchmarks and writes pieces in the same format as the engine.
+ *
+ * @author Mario Bobic
+ */
+final class LegacyStreamLoop {
+
+	/**
+	 * Disable instantiation.
+	 */
+	private LegacyStreamLoop() {
+	}
+
+	/**
+	 * Decomposes the source into the specified number of pieces.
+	 *
+	 * @param source file to be decomposed
+	 * @param outputDir directory where the pieces are written to
+	 * @param name name of the pieces
+	 * @param pieces number of pieces
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void decompose(File source, File outputDir, String name, int pieces) throws IOException {
+		long fileLength = source.length();
+		long pieceLength = fileLength / pieces;
+
+		try (FileInputStream in = new FileInputStream(source)) {
+			for (int i = 0; i < pieces; i++) {
+				long length = i == pieces - 1 ? fileLength - i * pieceLength : pieceLength;
+				File pieceFile = new File(outputDir, DecomposerEngine.pieceName(name, i));
+
+				try (FileOutputStream out = new FileOutputStream(pieceFile)) {
+					out.write(ByteBuffer.allocate(IMPLANT_LENGTH).putInt(i).array());
+
+					byte[] buff = new byte[STD_LOADER_SIZE];
+					long done = 0;
+					while (done < length) {
+						int len = in.read(buff, 0, (int) Math.min(buff.length, length - done));
+						if (len < 0) {
+							break;
+						}
+						out.write(buff, 0, len);
+						done += len;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Composes the specified pieces into the output file.
+	 *
+	 * @param pieces pieces to be composed, in order
+	 * @param output the composed file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void compose(List<File> pieces, File output) throws IOException {
+		try (FileOutputStream out = new FileOutputStream(output)) {
+			for (File piece : pieces) {
+				try (FileInputStream in = new FileInputStream(piece)) {
+					in.skip(IMPLANT_LENGTH);
+
+					byte[] buff = new byte[STD_LOADER_SIZE];
+					int len;
+					while ((len = in.read(buff)) > 0) {
+						out.write(buff, 0, len);
+					}
+				}
+			}
+		}
+	}
+
+}
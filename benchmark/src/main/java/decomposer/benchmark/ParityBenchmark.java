@@ -0,0 +1,151 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.ComposeJob;
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+import decomposer.Manifest;
+import decomposer.benchmark.DecomposeBenchmark.ByteCounters;
+
+/**
+ * Measures the cost of parity pieces, both when decomposing a file with
+ * parity and when composing it with as many pieces lost as there are parity
+ * pieces, so that all of them have to be rebuilt. No parity pieces measure
+ * plain decomposing and composing of the same pieces, for comparison. The
+ * source holds random data, so the parity is not all zeros.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParityBenchmark {
+
+	/** Size of the decomposed file */
+	@Param({ "64M", "1G" })
+	public String fileSize;
+
+	/** Number of pieces */
+	@Param({ "10", "100" })
+	public int pieces;
+
+	/** Number of parity pieces, and of pieces lost before composing */
+	@Param({ "0", "1", "2", "4" })
+	public int parityPieces;
+
+	/** Number of threads computing the parity */
+	@Param({ "1", "4" })
+	public int parallelism;
+
+	private Path dir;
+	private File source;
+	private File decomposedDir;
+	private Manifest manifest;
+	private File output;
+	private DecomposerEngine engine;
+
+	/**
+	 * Creates the random source file, decomposes it once and removes the
+	 * pieces to be rebuilt.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = BenchmarkFiles.createTempDir();
+		source = BenchmarkFiles.createRandomFile(dir.resolve("source.bin").toFile(), BenchmarkFiles.parseSize(fileSize), 42);
+		decomposedDir = dir.resolve("decomposed").toFile();
+		engine = new DecomposerEngine();
+
+		File piecesDir = dir.resolve("pieces").toFile();
+		engine.decompose(job(piecesDir));
+		manifest = Manifest.read(Manifest.manifestFile(piecesDir, "source.bin"));
+		/* Lose pieces spread over the file, not only the first ones. */
+		for (int i = 0; i < parityPieces; i++) {
+			Files.delete(manifest.getPieceFile(manifest.getEntries().get(i * pieces / parityPieces)).toPath());
+		}
+		output = dir.resolve("composed.bin").toFile();
+	}
+
+	/**
+	 * Removes the composed file after every invocation.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Invocation)
+	public void deleteOutput() throws IOException {
+		Files.deleteIfExists(output.toPath());
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkFiles.deleteRecursively(dir);
+	}
+
+	/**
+	 * Decomposes the source file with parity once.
+	 *
+	 * @param counters counters of the decomposed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void decompose(ByteCounters counters) throws IOException {
+		engine.decompose(job(decomposedDir));
+		counters.bytes += source.length();
+	}
+
+	/**
+	 * Composes the pieces once, rebuilding the lost ones.
+	 *
+	 * @param counters counters of the composed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void rebuild(ByteCounters counters) throws IOException {
+		engine.compose(ComposeJob.builder(manifest, output).parallelism(parallelism).build());
+		counters.bytes += output.length();
+	}
+
+	/**
+	 * Returns the job decomposing the source file into the specified directory.
+	 *
+	 * @param outputDir directory of the pieces
+	 * @return the decomposing job
+	 */
+	private DecomposeJob job(File outputDir) {
+		return DecomposeJob.builder(source)
+				.outputDir(outputDir)
+				.pieces(pieces)
+				.parityPieces(parityPieces)
+				.parallelism(parallelism)
+				.build();
+	}
+
+}
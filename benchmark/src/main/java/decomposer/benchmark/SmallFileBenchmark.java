@@ -0,0 +1,194 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+import decomposer.JobScheduler;
+import decomposer.Manifest;
+import decomposer.VerifyReport;
+
+/**
+ * Measures the throughput of batches of jobs over many small files, where
+ * the cost is dominated by opening, closing and creating files rather than
+ * by copying their data. Every invocation decomposes or verifies all files
+ * on a {@linkplain JobScheduler}, with the jobs running either on a fixed
+ * pool of platform threads or on virtual threads. Virtual threads require
+ * Java 21 or later, the benchmark jar has to be run on such a Java version
+ * for the two to differ.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SmallFileBenchmark {
+
+	/** Number of small files */
+	@Param({ "1000", "10000" })
+	public int files;
+
+	/** Size of every small file */
+	@Param({ "4K", "64K" })
+	public String fileSize;
+
+	/** Number of jobs running at the same time */
+	@Param({ "1", "16", "256" })
+	public int jobs;
+
+	/** Threads running the jobs, PLATFORM or VIRTUAL */
+	@Param({ "PLATFORM", "VIRTUAL" })
+	public String threads;
+
+	private Path dir;
+	private List<File> sources;
+	private List<Manifest> manifests;
+	private File decomposedDir;
+	private DecomposerEngine engine;
+
+	/**
+	 * Creates the small source files and decomposes them once.
+	 *
+	 * @throws Exception if the files can not be created or decomposed
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		if ("VIRTUAL".equals(threads) && !JobScheduler.isVirtualThreadsSupported()) {
+			throw new IllegalStateException("Virtual threads require Java 21 or later");
+		}
+		dir = BenchmarkFiles.createTempDir();
+		decomposedDir = dir.resolve("decomposed").toFile();
+		engine = new DecomposerEngine();
+
+		File sourceDir = dir.resolve("sources").toFile();
+		File piecesDir = dir.resolve("pieces").toFile();
+		sourceDir.mkdirs();
+		sources = new ArrayList<>(files);
+		manifests = new ArrayList<>(files);
+		long length = BenchmarkFiles.parseSize(fileSize);
+		for (int i = 0; i < files; i++) {
+			File source = BenchmarkFiles.createRandomFile(new File(sourceDir, "file" + i + ".bin"), length, i);
+			engine.decompose(DecomposeJob.builder(source).outputDir(piecesDir).pieces(4).build());
+			sources.add(source);
+			manifests.add(Manifest.read(Manifest.manifestFile(piecesDir, source.getName())));
+		}
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkFiles.deleteRecursively(dir);
+	}
+
+	/**
+	 * Decomposes all small files once.
+	 *
+	 * @param counters counters of the processed files
+	 * @throws Exception if any job fails
+	 */
+	@Benchmark
+	public void decompose(FileCounters counters) throws Exception {
+		try (JobScheduler scheduler = new JobScheduler(jobs, "VIRTUAL".equals(threads))) {
+			List<Future<?>> futures = new ArrayList<>(files);
+			for (File source : sources) {
+				futures.add(scheduler.submit(() -> engine.decompose(DecomposeJob.builder(source)
+						.outputDir(decomposedDir)
+						.pieces(4)
+						.build())));
+			}
+			await(futures);
+		}
+		counters.files += files;
+	}
+
+	/**
+	 * Verifies the pieces of all small files once.
+	 *
+	 * @param counters counters of the processed files
+	 * @throws Exception if any job fails
+	 */
+	@Benchmark
+	public void verify(FileCounters counters) throws Exception {
+		try (JobScheduler scheduler = new JobScheduler(jobs, "VIRTUAL".equals(threads))) {
+			List<Future<?>> futures = new ArrayList<>(files);
+			for (Manifest manifest : manifests) {
+				futures.add(scheduler.submit(() -> {
+					VerifyReport report = engine.verify(manifest, false, 1);
+					if (!report.isIntact()) {
+						throw new IOException("Pieces of " + manifest.getName() + " are damaged");
+					}
+					return report;
+				}));
+			}
+			await(futures);
+		}
+		counters.files += files;
+	}
+
+	/**
+	 * Waits for all jobs to finish, throwing the failure of the first failed
+	 * job.
+	 *
+	 * @param futures futures of the jobs
+	 * @throws Exception if any job fails
+	 */
+	private static void await(List<Future<?>> futures) throws Exception {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				throw (Exception) e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Counts the files processed by the benchmark, reported per second.
+	 *
+	 * @author Mario Bobic
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class FileCounters {
+		/** Number of files processed */
+		public long files;
+
+		/**
+		 * Resets the counters before every iteration.
+		 */
+		@Setup(Level.Iteration)
+		public void reset() {
+			files = 0;
+		}
+	}
+
+}
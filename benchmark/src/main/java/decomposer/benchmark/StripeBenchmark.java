@@ -0,0 +1,173 @@
+package decomposer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import decomposer.ComposeJob;
+import decomposer.DecomposeJob;
+import decomposer.DecomposerEngine;
+import decomposer.Manifest;
+import decomposer.benchmark.DecomposeBenchmark.ByteCounters;
+
+/**
+ * Measures the throughput of decomposing a file into pieces striped across
+ * several directories, and of composing the striped pieces. Striping only
+ * pays off if the directories are on different disks, so the directories
+ * are taken from the comma-separated {@code decomposer.benchmark.stripeDirs}
+ * property, one per stripe. Without the property, all stripes are
+ * directories of one temporary directory, which only measures the overhead
+ * of striping.
+ *
+ * @author Mario Bobic
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StripeBenchmark {
+
+	/** Size of the decomposed file */
+	@Param({ "64M", "1G" })
+	public String fileSize;
+
+	/** Number of pieces */
+	@Param({ "10", "100" })
+	public int pieces;
+
+	/** Number of directories the pieces are striped across */
+	@Param({ "1", "2", "4" })
+	public int stripes;
+
+	/** Number of pieces written or read at the same time, 0 for one per stripe */
+	@Param({ "0", "8" })
+	public int parallelism;
+
+	private List<Path> dirs = new ArrayList<>();
+	private File source;
+	private List<File> stripeRoots = new ArrayList<>();
+	private Manifest manifest;
+	private File output;
+	private DecomposerEngine engine;
+
+	/**
+	 * Creates the random source file and decomposes it once.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Path dir = BenchmarkFiles.createTempDir();
+		dirs.add(dir);
+		source = BenchmarkFiles.createRandomFile(dir.resolve("source.bin").toFile(), BenchmarkFiles.parseSize(fileSize), 42);
+		output = dir.resolve("composed.bin").toFile();
+		engine = new DecomposerEngine();
+
+		String property = System.getProperty("decomposer.benchmark.stripeDirs");
+		String[] parents = property != null ? property.split(",") : new String[0];
+		for (int s = 0; s < stripes; s++) {
+			Path root;
+			if (s < parents.length) {
+				root = Files.createTempDirectory(new File(parents[s].trim()).toPath(), "decomposer-stripe");
+				dirs.add(root);
+			} else {
+				root = Files.createDirectory(dir.resolve("stripe" + s));
+			}
+			stripeRoots.add(root.toFile());
+		}
+
+		DecomposeJob job = newJob(stripeRoots.get(0).toPath().resolve("pieces").toFile(), "pieces");
+		engine.decompose(job);
+		manifest = Manifest.read(Manifest.manifestFile(job.getOutputDir(), job.getOutputName()));
+	}
+
+	/**
+	 * Removes the composed file after every invocation.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Invocation)
+	public void deleteOutput() throws IOException {
+		Files.deleteIfExists(output.toPath());
+	}
+
+	/**
+	 * Removes all files created by the trial.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		for (int i = dirs.size() - 1; i >= 0; i--) {
+			BenchmarkFiles.deleteRecursively(dirs.get(i));
+		}
+	}
+
+	/**
+	 * Decomposes the source file once.
+	 *
+	 * @param counters counters of the decomposed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void decompose(ByteCounters counters) throws IOException {
+		engine.decompose(newJob(stripeRoots.get(0).toPath().resolve("decomposed").toFile(), "decomposed"));
+		counters.bytes += source.length();
+	}
+
+	/**
+	 * Composes the striped pieces once.
+	 *
+	 * @param counters counters of the composed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Benchmark
+	public void compose(ByteCounters counters) throws IOException {
+		engine.compose(ComposeJob.builder(manifest, output)
+				.parallelism(parallelism > 0 ? parallelism : stripes)
+				.build());
+		counters.bytes += output.length();
+	}
+
+	/**
+	 * Returns a new job striping the pieces of the source file across the
+	 * stripe directories.
+	 *
+	 * @param outputDir output directory holding the first stripe
+	 * @param name name of the subdirectory of every other stripe
+	 * @return a new decomposing job
+	 */
+	private DecomposeJob newJob(File outputDir, String name) {
+		List<File> stripeDirs = new ArrayList<>();
+		for (int s = 1; s < stripes; s++) {
+			stripeDirs.add(new File(stripeRoots.get(s), name));
+		}
+		return DecomposeJob.builder(source)
+				.outputDir(outputDir)
+				.stripeDirs(stripeDirs)
+				.pieces(pieces)
+				.parallelism(parallelism > 0 ? parallelism : stripes)
+				.build();
+	}
+
+}
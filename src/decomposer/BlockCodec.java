@@ -0,0 +1,343 @@
+package decomposer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.LongConsumer;
+import java.util.zip.DataFormatException;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * Compresses the data of a piece with a {@linkplain Codec} and decompresses
+ * it again. The data is split into blocks of {@value
+ * DecomposerConstants#COMPRESSION_BLOCK_SIZE} bytes which are compressed
+ * independently, and every block is stored as follows:
+ *
+ * <pre>
+ *  0  int    length of the stored block, with the highest bit set if the
+ *            block is stored raw
+ *  4  byte[] the stored block
+ * </pre>
+ *
+ * The original length of a block is not stored, since all blocks except the
+ * last one are full. A block is stored raw if compressing it saves less than
+ * 1/32 of its length. After several raw blocks in a
+ * row the data is assumed to be already compressed, and the following
+ * blocks are stored raw without trying to compress them, so that media and
+ * archives cost no more than a plain copy. Compressing is then retried from
+ * time to time, in case the data has changed its nature.
+ * <p>
+ * The digest of the piece is computed over the stored blocks, so pieces can
+ * be verified without being decompressed.
+ * <p>
+ * Since every block is compressed independently, a single block can also be
+ * read without decompressing the preceding ones, once the positions of all
+ * blocks have been found by reading their lengths.
+ *
+ * @author Mario Bobic
+ */
+final class BlockCodec {
+
+	/** Flag marking a block that is stored raw */
+	private static final int RAW_FLAG = 0x80000000;
+	/** Compressed blocks must save at least 1/2^shift of the block length */
+	private static final int MIN_SAVING_SHIFT = 5;
+	/** Number of raw blocks in a row after which compressing is paused */
+	private static final int RAW_STREAK = 4;
+	/** Number of blocks stored raw without trying before compressing again */
+	private static final int RAW_SKIP = 32;
+
+	/** Codec compressing the blocks */
+	private final Codec codec;
+	/** Consumer of the number of original bytes processed after every block */
+	private final LongConsumer progress;
+
+	/**
+	 * Constructs a new block codec.
+	 *
+	 * @param codec codec compressing the blocks
+	 * @param progress consumer of the number of original bytes processed
+	 *        after every block
+	 */
+	public BlockCodec(Codec codec, LongConsumer progress) {
+		this.codec = codec;
+		this.progress = progress;
+	}
+
+	/**
+	 * Compresses a range of the original file to the current position of a
+	 * piece. The original file is only read positionally, so its channel may
+	 * be shared between threads.
+	 *
+	 * @param in channel of the original file
+	 * @param offset offset of the range in the original file
+	 * @param length length of the range
+	 * @param out channel of the piece
+	 * @param digest digest of the piece, or null
+	 * @return the number of bytes stored in the piece
+	 * @throws EOFException if the original file ends before the range does
+	 * @throws IOException if an I/O error occurs
+	 */
+	public long compress(FileChannel in, long offset, long length, FileChannel out, PieceDigest digest) throws IOException {
+		byte[] src = new byte[(int) Math.min(COMPRESSION_BLOCK_SIZE, length)];
+		byte[] dst = new byte[src.length];
+		ByteBuffer word = ByteBuffer.allocate(Integer.BYTES);
+
+		long done = 0;
+		long stored = 0;
+		int rawBlocks = 0;
+		try (Codec.Compressor compressor = codec.newCompressor()) {
+			while (done < length) {
+				int n = (int) Math.min(src.length, length - done);
+				ByteBuffer block = ByteBuffer.wrap(src, 0, n);
+				while (block.hasRemaining()) {
+					if (in.read(block, offset + done + block.position()) < 0) {
+						throw new EOFException("Unexpected end of file while reading");
+					}
+				}
+
+				/* Give up as soon as the block would not save enough. */
+				int c = -1;
+				if (rawBlocks < RAW_STREAK || rawBlocks % RAW_SKIP == 0) {
+					c = compressor.compress(src, 0, n, dst, n - (n >>> MIN_SAVING_SHIFT) - 1);
+				}
+				if (c >= 0) {
+					rawBlocks = 0;
+					word.clear();
+					word.putInt(0, c);
+					block = ByteBuffer.wrap(dst, 0, c);
+				} else {
+					rawBlocks++;
+					word.clear();
+					word.putInt(0, n | RAW_FLAG);
+					block = ByteBuffer.wrap(src, 0, n);
+				}
+				stored += Integer.BYTES + block.remaining();
+				write(out, word, digest);
+				write(out, block, digest);
+				done += n;
+				progress.accept(n);
+			}
+		}
+		return stored;
+	}
+
+	/**
+	 * Decompresses the stored blocks from the current position of a piece to
+	 * a range of the composed file. The composed file is only written
+	 * positionally, so its channel may be shared between threads.
+	 *
+	 * @param in channel of the piece
+	 * @param out channel of the composed file
+	 * @param offset offset of the range in the composed file
+	 * @param length length of the range
+	 * @param storedLength number of bytes stored in the piece
+	 * @param digest digest of the piece, or null
+	 * @throws DataFormatException if the stored blocks are damaged
+	 * @throws EOFException if the piece ends before all blocks are read
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void decompress(FileChannel in, FileChannel out, long offset, long length, long storedLength,
+			PieceDigest digest) throws DataFormatException, IOException {
+		decompress(in, length, storedLength, digest, (block, done) -> {
+			while (block.hasRemaining()) {
+				out.write(block, offset + done + block.position());
+			}
+		});
+	}
+
+	/**
+	 * Decompresses the stored blocks from the current position of a piece,
+	 * passing every decompressed block to the specified sink in order.
+	 *
+	 * @param in channel of the piece
+	 * @param length length of the original data
+	 * @param storedLength number of bytes stored in the piece
+	 * @param digest digest of the piece, or null
+	 * @param sink sink of the decompressed blocks
+	 * @throws DataFormatException if the stored blocks are damaged
+	 * @throws EOFException if the piece ends before all blocks are read
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void decompress(FileChannel in, long length, long storedLength, PieceDigest digest, BlockSink sink)
+			throws DataFormatException, IOException {
+		int blockSize = (int) Math.min(COMPRESSION_BLOCK_SIZE, length);
+		byte[] src = new byte[blockSize];
+		byte[] dst = new byte[blockSize];
+		ByteBuffer word = ByteBuffer.allocate(Integer.BYTES);
+
+		long done = 0;
+		long stored = 0;
+		try (Codec.Decompressor decompressor = codec.newDecompressor()) {
+			while (done < length) {
+				int n = (int) Math.min(blockSize, length - done);
+				word.clear();
+				read(in, word, digest);
+				int w = word.getInt(0);
+				int c = w & ~RAW_FLAG;
+				boolean raw = (w & RAW_FLAG) != 0;
+				if (raw ? c != n : c >= n) {
+					throw new DataFormatException("Compressed block is damaged");
+				}
+				stored += Integer.BYTES + c;
+				if (stored > storedLength) {
+					throw new DataFormatException("Compressed data is longer than expected");
+				}
+
+				ByteBuffer block = ByteBuffer.wrap(raw ? dst : src, 0, c);
+				read(in, block, digest);
+				if (!raw) {
+					decompressor.decompress(src, c, dst, n);
+				}
+				sink.accept(ByteBuffer.wrap(dst, 0, n), done);
+				done += n;
+				progress.accept(n);
+			}
+		}
+		if (stored != storedLength) {
+			throw new DataFormatException("Compressed data is shorter than expected");
+		}
+	}
+
+	/**
+	 * Returns the positions of all stored blocks in a piece, found by reading
+	 * only the length of every block. Together with the fixed length of the
+	 * original blocks, the positions allow reading any block of the piece
+	 * without decompressing the preceding ones.
+	 *
+	 * @param in channel of the piece, read positionally
+	 * @param start position where the stored blocks start in the piece
+	 * @param length length of the original data
+	 * @param storedLength number of bytes stored in the piece
+	 * @return the positions of all blocks in the piece
+	 * @throws DataFormatException if the stored blocks are damaged
+	 * @throws EOFException if the piece ends before all blocks are found
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static long[] blockPositions(FileChannel in, long start, long length, long storedLength)
+			throws DataFormatException, IOException {
+		long[] positions = new long[(int) ((length + COMPRESSION_BLOCK_SIZE - 1) / COMPRESSION_BLOCK_SIZE)];
+		ByteBuffer word = ByteBuffer.allocate(Integer.BYTES);
+		long position = start;
+		for (int b = 0; b < positions.length; b++) {
+			positions[b] = position;
+			word.clear();
+			readFully(in, word, position);
+			position += Integer.BYTES + (word.getInt(0) & ~RAW_FLAG);
+		}
+		if (position - start != storedLength) {
+			throw new DataFormatException("Compressed data is damaged");
+		}
+		return positions;
+	}
+
+	/**
+	 * Reads and decompresses a single block of a piece.
+	 *
+	 * @param in channel of the piece, read positionally
+	 * @param position position of the block in the piece
+	 * @param n length of the original block
+	 * @param dst array receiving the original block
+	 * @param decompressor decompressor of the codec of this block codec
+	 * @throws DataFormatException if the block is damaged
+	 * @throws EOFException if the piece ends before the block does
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void readBlock(FileChannel in, long position, int n, byte[] dst, Codec.Decompressor decompressor)
+			throws DataFormatException, IOException {
+		ByteBuffer word = ByteBuffer.allocate(Integer.BYTES);
+		readFully(in, word, position);
+		int w = word.getInt(0);
+		int c = w & ~RAW_FLAG;
+		boolean raw = (w & RAW_FLAG) != 0;
+		if (raw ? c != n : c >= n) {
+			throw new DataFormatException("Compressed block is damaged");
+		}
+		if (raw) {
+			readFully(in, ByteBuffer.wrap(dst, 0, n), position + Integer.BYTES);
+		} else {
+			byte[] src = new byte[c];
+			readFully(in, ByteBuffer.wrap(src), position + Integer.BYTES);
+			decompressor.decompress(src, c, dst, n);
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of the specified buffer to the piece,
+	 * updating the digest first.
+	 *
+	 * @param out channel of the piece
+	 * @param b buffer holding the bytes
+	 * @param digest digest of the piece, or null
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void write(FileChannel out, ByteBuffer b, PieceDigest digest) throws IOException {
+		if (digest != null) {
+			digest.update(b);
+		}
+		ChannelCopier.writeFully(out, b);
+	}
+
+	/**
+	 * Reads the remaining bytes of the specified buffer from the piece, and
+	 * updates the digest with them.
+	 *
+	 * @param in channel of the piece
+	 * @param b buffer receiving the bytes
+	 * @param digest digest of the piece, or null
+	 * @throws EOFException if the piece ends before the buffer is full
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void read(FileChannel in, ByteBuffer b, PieceDigest digest) throws IOException {
+		int start = b.position();
+		while (b.hasRemaining()) {
+			if (in.read(b) < 0) {
+				throw new EOFException("Unexpected end of file while reading");
+			}
+		}
+		if (digest != null) {
+			ByteBuffer read = b.duplicate();
+			read.flip().position(start);
+			digest.update(read);
+		}
+	}
+
+	/**
+	 * Reads the remaining bytes of the specified buffer from the specified
+	 * position of the piece.
+	 *
+	 * @param in channel of the piece
+	 * @param b buffer receiving the bytes
+	 * @param position position of the first byte in the piece
+	 * @throws EOFException if the piece ends before the buffer is full
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void readFully(FileChannel in, ByteBuffer b, long position) throws IOException {
+		int start = b.position();
+		while (b.hasRemaining()) {
+			if (in.read(b, position + b.position() - start) < 0) {
+				throw new EOFException("Unexpected end of file while reading");
+			}
+		}
+	}
+
+	/**
+	 * Receives the decompressed blocks of a piece.
+	 *
+	 * @author Mario Bobic
+	 */
+	public interface BlockSink {
+		/**
+		 * Accepts one decompressed block. The buffer is reused for the next
+		 * block, so its bytes must be consumed or copied before returning.
+		 *
+		 * @param block buffer holding the block
+		 * @param offset offset of the block in the original data of the piece
+		 * @throws IOException if an I/O error occurs
+		 */
+		void accept(ByteBuffer block, long offset) throws IOException;
+	}
+
+}
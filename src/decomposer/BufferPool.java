@@ -0,0 +1,80 @@
+package decomposer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * A thread-safe pool of direct byte buffers. Buffers are pooled in size
+ * classes of powers of two between {@linkplain DecomposerConstants#MIN_BUFFER_SIZE}
+ * and {@linkplain DecomposerConstants#MAX_BUFFER_SIZE}. Every size class keeps
+ * only a bounded number of released buffers, so the pool never holds more
+ * direct memory than its bound, while jobs that run one after another reuse
+ * the same buffers instead of allocating new ones.
+ *
+ * @author Mario Bobic
+ */
+public class BufferPool {
+
+	/** Released buffers, one queue for every size class */
+	private final BlockingQueue<ByteBuffer>[] classes;
+
+	/**
+	 * Constructs a new pool keeping at most {@code retained} released
+	 * buffers of every size class.
+	 *
+	 * @param retained maximal number of released buffers per size class
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(int retained) {
+		int count = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE) + 1;
+		classes = new BlockingQueue[count];
+		for (int i = 0; i < count; i++) {
+			classes[i] = new ArrayBlockingQueue<>(retained);
+		}
+	}
+
+	/**
+	 * Returns a cleared buffer with capacity of at least {@code size} bytes,
+	 * rounded up to the size class. The size is clamped between the minimal
+	 * and maximal buffer size.
+	 *
+	 * @param size desired capacity of the buffer
+	 * @return a cleared buffer with capacity of at least {@code size} bytes
+	 */
+	public ByteBuffer acquire(int size) {
+		int sizeClass = sizeClass(size);
+		ByteBuffer buffer = classes[sizeClass].poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns the buffer to this pool. If its size class is full, the buffer
+	 * is left to the garbage collector.
+	 *
+	 * @param buffer buffer acquired from this pool
+	 */
+	public void release(ByteBuffer buffer) {
+		classes[sizeClass(buffer.capacity())].offer(buffer);
+	}
+
+	/**
+	 * Returns the index of the size class holding buffers of the specified
+	 * size.
+	 *
+	 * @param size size of the buffer
+	 * @return the index of the size class
+	 */
+	private static int sizeClass(int size) {
+		size = Math.max(MIN_BUFFER_SIZE, Math.min(size, MAX_BUFFER_SIZE));
+		int rounded = Integer.highestOneBit(size - 1) << 1;
+		return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+	}
+
+}
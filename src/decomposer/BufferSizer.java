@@ -0,0 +1,127 @@
+package decomposer;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * Picks the size of the buffer used for copying the data of one job. A sizer
+ * either always returns a fixed size, or tunes the size from the throughput
+ * measured on the first few megabytes of the job. While tuning, chunks are
+ * copied using every candidate size in turn, and the candidate with the best
+ * measured throughput is used for the rest of the job.
+ * <p>
+ * A sizer is shared by all pieces of a job and may be used from several
+ * threads at the same time.
+ *
+ * @author Mario Bobic
+ */
+class BufferSizer {
+
+	/** Candidate buffer sizes tried while tuning */
+	private static final int[] CANDIDATES = { MIN_BUFFER_SIZE, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024, MAX_BUFFER_SIZE };
+	/** Minimal number of bytes measured for every candidate */
+	private static final long PROBE_BYTES = 1024 * 1024;
+
+	/** Buffer size picked for the job, or 0 while tuning */
+	private volatile int size;
+	/** Number of bytes copied using every candidate */
+	private final long[] bytes = new long[CANDIDATES.length];
+	/** Number of nanoseconds spent copying using every candidate */
+	private final long[] nanos = new long[CANDIDATES.length];
+
+	/**
+	 * Constructs a new sizer. If the specified size is 0, the size is tuned
+	 * from measured throughput, otherwise the specified size is always used.
+	 *
+	 * @param size fixed buffer size, or 0 for tuned size
+	 */
+	public BufferSizer(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Returns the largest buffer size this sizer may return. Buffers of this
+	 * capacity may be limited to any size returned by {@linkplain #next()}.
+	 *
+	 * @return the largest buffer size this sizer may return
+	 */
+	public int maxSize() {
+		int fixed = size;
+		return fixed != 0 ? fixed : MAX_BUFFER_SIZE;
+	}
+
+	/**
+	 * Returns the size of the next chunk to be copied. While tuning, this is
+	 * the candidate with the least bytes measured so far.
+	 *
+	 * @return the size of the next chunk to be copied
+	 */
+	public int next() {
+		int fixed = size;
+		if (fixed != 0) {
+			return fixed;
+		}
+		synchronized (this) {
+			int least = 0;
+			for (int i = 1; i < CANDIDATES.length; i++) {
+				if (bytes[i] < bytes[least]) {
+					least = i;
+				}
+			}
+			return CANDIDATES[least];
+		}
+	}
+
+	/**
+	 * Records the time spent copying a chunk. Once every candidate has been
+	 * measured on enough data, the fastest one is picked.
+	 *
+	 * @param chunkSize buffer size the chunk was copied with
+	 * @param copied number of bytes copied
+	 * @param elapsed nanoseconds spent copying
+	 */
+	public void record(int chunkSize, long copied, long elapsed) {
+		if (size != 0) {
+			return;
+		}
+		synchronized (this) {
+			for (int i = 0; i < CANDIDATES.length; i++) {
+				if (CANDIDATES[i] == chunkSize) {
+					bytes[i] += copied;
+					nanos[i] += elapsed;
+				}
+			}
+
+			int best = 0;
+			for (int i = 0; i < CANDIDATES.length; i++) {
+				if (bytes[i] < Math.max(PROBE_BYTES, CANDIDATES[i])) {
+					return;
+				}
+				if (throughput(i) > throughput(best)) {
+					best = i;
+				}
+			}
+			size = CANDIDATES[best];
+		}
+	}
+
+	/**
+	 * Returns the throughput measured for the candidate with the specified
+	 * index, in bytes per nanosecond.
+	 *
+	 * @param i index of the candidate
+	 * @return the measured throughput
+	 */
+	private double throughput(int i) {
+		return (double) bytes[i] / Math.max(nanos[i], 1);
+	}
+
+	/**
+	 * Returns true if the size is still being tuned.
+	 *
+	 * @return true if the size is still being tuned
+	 */
+	public boolean isTuning() {
+		return size == 0;
+	}
+
+}
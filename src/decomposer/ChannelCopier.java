@@ -0,0 +1,571 @@
+package decomposer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.LongConsumer;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * Copies ranges of data between the original file and its pieces using one of
+ * the {@linkplain CopyMode copy modes}. One copier is used by all pieces of a
+ * job and may be used from several threads at the same time, as long as every
+ * thread works with its own piece channel.
+ *
+ * @author Mario Bobic
+ */
+class ChannelCopier {
+
+	/** Method used for unmapping buffers, or null if unmapping is not supported */
+	private static final Method UNMAP_METHOD;
+	/** Object the unmapping method is invoked on */
+	private static final Object UNMAP_TARGET;
+
+	static {
+		Method method = null;
+		Object target = null;
+		try {
+			/* Java 9 and newer unmap buffers through the Unsafe. */
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			method = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			target = field.get(null);
+		} catch (Exception e) {
+			/* Java 8 unmaps buffers through their cleaner, see unmap. */
+			method = null;
+			target = null;
+		}
+		UNMAP_METHOD = method;
+		UNMAP_TARGET = target;
+	}
+
+	/** Mode used for copying */
+	private final CopyMode mode;
+	/** Pool of the buffers used for buffered copying */
+	private final BufferPool pool;
+	/** Sizer picking the size of the buffers */
+	private final BufferSizer sizer;
+	/** Consumer of the number of bytes copied after every chunk */
+	private final LongConsumer progress;
+	/** Pipeline used for pipelined and asynchronous copying */
+	private final CopyPipeline pipeline;
+	/** True if mapped windows written to are forced before they are unmapped */
+	private final boolean forceMapped;
+
+	/**
+	 * Constructs a new copier with pipelines of the default depth.
+	 *
+	 * @param mode mode used for copying
+	 * @param pool pool of the buffers used for buffered copying
+	 * @param sizer sizer picking the size of the buffers
+	 * @param progress consumer of the number of bytes copied after every chunk
+	 */
+	public ChannelCopier(CopyMode mode, BufferPool pool, BufferSizer sizer, LongConsumer progress) {
+		this(mode, pool, sizer, progress, PIPELINE_DEPTH);
+	}
+
+	/**
+	 * Constructs a new copier. Pipelines do not tune their buffer size, so
+	 * they use the fixed size of the sizer, if any.
+	 *
+	 * @param mode mode used for copying
+	 * @param pool pool of the buffers used for buffered copying
+	 * @param sizer sizer picking the size of the buffers
+	 * @param progress consumer of the number of bytes copied after every chunk
+	 * @param depth number of buffers of every pipeline
+	 */
+	public ChannelCopier(CopyMode mode, BufferPool pool, BufferSizer sizer, LongConsumer progress, int depth) {
+		this(mode, pool, sizer, progress, depth, false);
+	}
+
+	/**
+	 * Constructs a new copier. Data written through a mapped window is not
+	 * forced by {@linkplain FileChannel#force(boolean)} on every platform, so
+	 * if the written data must be forced, every mapped window written to is
+	 * forced before it is unmapped.
+	 *
+	 * @param mode mode used for copying
+	 * @param pool pool of the buffers used for buffered copying
+	 * @param sizer sizer picking the size of the buffers
+	 * @param progress consumer of the number of bytes copied after every chunk
+	 * @param depth number of buffers of every pipeline
+	 * @param forceMapped true to force mapped windows written to
+	 */
+	public ChannelCopier(CopyMode mode, BufferPool pool, BufferSizer sizer, LongConsumer progress, int depth,
+			boolean forceMapped) {
+		this.mode = mode;
+		this.pool = pool;
+		this.sizer = sizer;
+		this.progress = progress;
+		this.pipeline = new CopyPipeline(pool, sizer.isTuning() ? PIPELINE_BUFFER_SIZE : sizer.next(), depth);
+		this.forceMapped = forceMapped;
+	}
+
+	/**
+	 * Returns the mode used for copying.
+	 *
+	 * @return the mode used for copying
+	 */
+	public CopyMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the size of the buffers used for buffered copying, or 0 if the
+	 * mode is not buffered or the size is still being tuned.
+	 *
+	 * @return the size of the buffers used for buffered copying
+	 */
+	public int getBufferSize() {
+		if (mode == CopyMode.PIPELINED || mode == CopyMode.ASYNC) {
+			return pipeline.getBufferSize();
+		}
+		return mode != CopyMode.BUFFERED || sizer.isTuning() ? 0 : sizer.next();
+	}
+
+
+	/**
+	 * Copies a range of the original file to the current position of a piece.
+	 * The original file is only read positionally, so its channel may be
+	 * shared between threads. If a digest is given, it is updated with every
+	 * chunk on its way to the piece, and the data is buffered even if the
+	 * mode of this copier is {@linkplain CopyMode#TRANSFER}.
+	 *
+	 * @param in channel of the original file
+	 * @param offset offset of the range in the original file
+	 * @param length length of the range
+	 * @param out channel of the piece
+	 * @param digest digest of the piece, or null
+	 * @throws EOFException if the original file ends before the range does
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void toPiece(FileChannel in, long offset, long length, FileChannel out, PieceDigest digest) throws IOException {
+		toPiece(in, null, offset, length, out, digest);
+	}
+
+	/**
+	 * Copies a range of the original file to the current position of a piece,
+	 * as {@linkplain #toPiece(FileChannel, long, long, FileChannel, PieceDigest)}
+	 * does. Asynchronous copying reads the range from the asynchronous
+	 * channel of the original file, if one is given, and falls back to a
+	 * reader thread otherwise.
+	 *
+	 * @param in channel of the original file
+	 * @param asyncIn asynchronous channel of the original file, or null
+	 * @param offset offset of the range in the original file
+	 * @param length length of the range
+	 * @param out channel of the piece
+	 * @param digest digest of the piece, or null
+	 * @throws EOFException if the original file ends before the range does
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void toPiece(FileChannel in, AsynchronousFileChannel asyncIn, long offset, long length, FileChannel out,
+			PieceDigest digest) throws IOException {
+		long done = 0;
+		switch (modeFor(digest)) {
+		case TRANSFER:
+			while (done < length) {
+				long n = in.transferTo(offset + done, Math.min(TRANSFER_SIZE, length - done), out);
+				checkCopied(n);
+				done += n;
+				progress.accept(n);
+			}
+			break;
+		case BUFFERED:
+			ByteBuffer buff = pool.acquire(bufferSize(length));
+			try {
+				while (done < length) {
+					int chunk = limit(buff, length - done);
+					long start = System.nanoTime();
+					int n = in.read(buff, offset + done);
+					checkCopied(n);
+					buff.flip();
+					update(digest, buff);
+					writeFully(out, buff);
+					measure(chunk, n, start);
+					done += n;
+					progress.accept(n);
+				}
+			} finally {
+				pool.release(buff);
+			}
+			break;
+		case MAPPED:
+			if (offset + length > in.size()) {
+				throw new EOFException("Unexpected end of file while copying");
+			}
+			while (done < length) {
+				int n = (int) Math.min(MAP_WINDOW_SIZE, length - done);
+				MappedByteBuffer window = in.map(MapMode.READ_ONLY, offset + done, n);
+				try {
+					update(digest, window);
+					writeFully(out, window);
+				} finally {
+					unmap(window);
+				}
+				done += n;
+				progress.accept(n);
+			}
+			break;
+		case PIPELINED:
+		case ASYNC:
+			CopyPipeline.Sink sink = (b, position) -> writeFully(out, b);
+			if (asyncIn != null) {
+				pipeline.copy(asyncIn, offset, sink, length, digest, progress);
+			} else {
+				pipeline.copy((b, position) -> in.read(b, offset + position), sink, length, digest, progress);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Copies data from the current position of a piece to a range of the
+	 * composed file. The composed file is only written positionally, so its
+	 * channel may be shared between threads. The composed file must already
+	 * be large enough to hold the range. If a digest is given, it is updated
+	 * with every chunk on its way to the composed file, and the data is
+	 * buffered even if the mode of this copier is {@linkplain CopyMode#TRANSFER}.
+	 *
+	 * @param in channel of the piece
+	 * @param out channel of the composed file
+	 * @param offset offset of the range in the composed file
+	 * @param length length of the range
+	 * @param digest digest of the piece, or null
+	 * @throws EOFException if the piece ends before the range does
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void fromPiece(FileChannel in, FileChannel out, long offset, long length, PieceDigest digest) throws IOException {
+		fromPiece(in, null, out, offset, length, digest);
+	}
+
+	/**
+	 * Copies data from the current position of a piece to a range of the
+	 * composed file, as {@linkplain #fromPiece(FileChannel, FileChannel, long,
+	 * long, PieceDigest)} does. Asynchronous copying reads the data from the
+	 * asynchronous channel of the piece, if one is given, and moves the
+	 * position of the piece past the data, and falls back to a reader thread
+	 * otherwise.
+	 *
+	 * @param in channel of the piece
+	 * @param asyncIn asynchronous channel of the piece, or null
+	 * @param out channel of the composed file
+	 * @param offset offset of the range in the composed file
+	 * @param length length of the range
+	 * @param digest digest of the piece, or null
+	 * @throws EOFException if the piece ends before the range does
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void fromPiece(FileChannel in, AsynchronousFileChannel asyncIn, FileChannel out, long offset, long length,
+			PieceDigest digest) throws IOException {
+		long done = 0;
+		switch (modeFor(digest)) {
+		case TRANSFER:
+			while (done < length) {
+				long n = out.transferFrom(in, offset + done, Math.min(TRANSFER_SIZE, length - done));
+				checkCopied(n);
+				done += n;
+				progress.accept(n);
+			}
+			break;
+		case BUFFERED:
+			ByteBuffer buff = pool.acquire(bufferSize(length));
+			try {
+				while (done < length) {
+					int chunk = limit(buff, length - done);
+					long start = System.nanoTime();
+					int n = in.read(buff);
+					checkCopied(n);
+					buff.flip();
+					update(digest, buff);
+					writeFully(out, buff, offset + done);
+					measure(chunk, n, start);
+					done += n;
+					progress.accept(n);
+				}
+			} finally {
+				pool.release(buff);
+			}
+			break;
+		case MAPPED:
+			while (done < length) {
+				int n = (int) Math.min(MAP_WINDOW_SIZE, length - done);
+				MappedByteBuffer window = out.map(MapMode.READ_WRITE, offset + done, n);
+				try {
+					while (window.hasRemaining()) {
+						checkCopied(in.read(window));
+					}
+					window.flip();
+					update(digest, window);
+					if (forceMapped) {
+						window.force();
+					}
+				} finally {
+					unmap(window);
+				}
+				done += n;
+				progress.accept(n);
+			}
+			break;
+		case PIPELINED:
+		case ASYNC:
+			CopyPipeline.Sink sink = (b, position) -> writeFully(out, b, offset + position);
+			if (asyncIn != null) {
+				long start = in.position();
+				pipeline.copy(asyncIn, start, sink, length, digest, progress);
+				in.position(start + length);
+			} else {
+				pipeline.copy((b, position) -> in.read(b), sink, length, digest, progress);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Reads data from the current position of a piece only to update the
+	 * digest of the piece, without copying the data anywhere.
+	 *
+	 * @param in channel of the piece
+	 * @param length length of the data
+	 * @param digest digest of the piece
+	 * @throws EOFException if the piece ends before the data does
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void digest(FileChannel in, long length, PieceDigest digest) throws IOException {
+		ByteBuffer buff = pool.acquire(bufferSize(length));
+		try {
+			long done = 0;
+			while (done < length) {
+				limit(buff, length - done);
+				int n = in.read(buff);
+				checkCopied(n);
+				buff.flip();
+				digest.update(buff);
+				done += n;
+				progress.accept(n);
+			}
+		} finally {
+			pool.release(buff);
+		}
+	}
+
+	/**
+	 * Returns a buffer used for carrying data of a stream between pieces,
+	 * acquired from the pool of this copier. The buffer is initially empty,
+	 * and must be given back using {@linkplain #release(ByteBuffer)}.
+	 *
+	 * @return an empty buffer used for carrying data of a stream
+	 */
+	public ByteBuffer acquirePending() {
+		ByteBuffer pending = pool.acquire(sizer.maxSize());
+		pending.limit(0);
+		return pending;
+	}
+
+	/**
+	 * Gives the specified buffer back to the pool of this copier.
+	 *
+	 * @param buffer buffer acquired from this copier
+	 */
+	public void release(ByteBuffer buffer) {
+		pool.release(buffer);
+	}
+
+	/**
+	 * Makes sure that the pending buffer holds some data of the stream,
+	 * reading the next chunk of the stream if the buffer is empty.
+	 *
+	 * @param in channel of the stream
+	 * @param pending buffer holding the data read but not yet written
+	 * @return true if the buffer holds data, false if the stream has ended
+	 * @throws IOException if an I/O error occurs
+	 */
+	public boolean fill(ReadableByteChannel in, ByteBuffer pending) throws IOException {
+		if (pending.hasRemaining()) {
+			return true;
+		}
+		int chunk = limit(pending, Long.MAX_VALUE);
+		long start = System.nanoTime();
+		int n;
+		while ((n = in.read(pending)) == 0) {
+			/* Nothing available yet, wait for the producer. */
+			Thread.yield();
+		}
+		if (n < 0) {
+			pending.limit(0);
+			return false;
+		}
+		pending.flip();
+		measure(chunk, n, start);
+		return true;
+	}
+
+	/**
+	 * Copies at most {@code max} bytes of a stream to the current position of
+	 * a piece. Data read from the stream but not written to the piece stays
+	 * in the pending buffer, to be written to the next piece.
+	 *
+	 * @param in channel of the stream
+	 * @param pending buffer holding the data read but not yet written
+	 * @param out channel of the piece
+	 * @param max maximal number of bytes to be copied
+	 * @param digest digest of the piece, or null
+	 * @return the number of bytes copied, less than {@code max} only if the
+	 *         stream has ended
+	 * @throws IOException if an I/O error occurs
+	 */
+	public long fromStream(ReadableByteChannel in, ByteBuffer pending, FileChannel out, long max, PieceDigest digest) throws IOException {
+		long done = 0;
+		while (done < max && fill(in, pending)) {
+			int limit = pending.limit();
+			int n = (int) Math.min(pending.remaining(), max - done);
+			pending.limit(pending.position() + n);
+			update(digest, pending);
+			writeFully(out, pending);
+			pending.limit(limit);
+			done += n;
+			progress.accept(n);
+		}
+		return done;
+	}
+
+	/**
+	 * Returns the mode used for copying a piece with the specified digest.
+	 * Transferred data never reaches a buffer, so it can not be digested.
+	 *
+	 * @param digest digest of the piece, or null
+	 * @return the mode used for copying the piece
+	 */
+	private CopyMode modeFor(PieceDigest digest) {
+		return digest != null && mode == CopyMode.TRANSFER ? CopyMode.BUFFERED : mode;
+	}
+
+	/**
+	 * Updates the digest, if any, with the remaining bytes of the buffer.
+	 *
+	 * @param digest digest of the piece, or null
+	 * @param b buffer holding the data
+	 */
+	private static void update(PieceDigest digest, ByteBuffer b) {
+		if (digest != null) {
+			digest.update(b);
+		}
+	}
+
+	/**
+	 * Returns the capacity of the buffer used for copying a range of the
+	 * specified length.
+	 *
+	 * @param length length of the range
+	 * @return the capacity of the buffer
+	 */
+	private int bufferSize(long length) {
+		return (int) Math.min(sizer.maxSize(), Math.max(length, 1));
+	}
+
+	/**
+	 * Clears the buffer and limits it to the size of the next chunk. The
+	 * tail of a range is copied by limiting the buffer even further, so no
+	 * buffer ever has to be reallocated.
+	 *
+	 * @param buff buffer to be limited
+	 * @param remaining number of bytes remaining in the range
+	 * @return the chunk size picked by the sizer
+	 */
+	private int limit(ByteBuffer buff, long remaining) {
+		int chunk = sizer.next();
+		buff.clear();
+		buff.limit((int) Math.min(Math.min(chunk, buff.capacity()), remaining));
+		return chunk;
+	}
+
+	/**
+	 * Reports the time spent copying a chunk to the sizer, while the sizer is
+	 * still tuning the buffer size.
+	 *
+	 * @param chunk chunk size picked by the sizer
+	 * @param n number of bytes copied
+	 * @param start time when copying of the chunk has started
+	 */
+	private void measure(int chunk, int n, long start) {
+		if (sizer.isTuning()) {
+			sizer.record(chunk, n, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Throws an exception if nothing has been copied by a single read or
+	 * transfer, which means that the data has ended before expected.
+	 *
+	 * @param n number of bytes copied
+	 * @throws EOFException if nothing has been copied
+	 */
+	private static void checkCopied(long n) throws EOFException {
+		if (n <= 0) {
+			throw new EOFException("Unexpected end of file while copying");
+		}
+	}
+
+	/**
+	 * Unmaps the specified buffer right away instead of waiting for the
+	 * garbage collector to do it. The buffer must not be used afterwards. If
+	 * unmapping is not supported by the running JVM, this method does nothing.
+	 *
+	 * @param buffer buffer to be unmapped
+	 */
+	static void unmap(MappedByteBuffer buffer) {
+		try {
+			if (UNMAP_METHOD != null) {
+				UNMAP_METHOD.invoke(UNMAP_TARGET, buffer);
+			} else {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (Exception e) {
+			/* Leave the buffer to the garbage collector. */
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of the buffer to the specified channel.
+	 *
+	 * @param out channel to write to
+	 * @param b buffer to be written
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void writeFully(WritableByteChannel out, ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Writes all remaining bytes of the buffer to the specified channel,
+	 * starting at the given file position.
+	 *
+	 * @param out channel to write to
+	 * @param b buffer to be written
+	 * @param position file position to start writing at
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void writeFully(FileChannel out, ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			position += out.write(b, position);
+		}
+	}
+
+}
@@ -0,0 +1,315 @@
+package decomposer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A write-ahead journal of a decomposing or composing job, recording which
+ * pieces have been completed and how far the unfinished pieces have got. A
+ * job that has been killed can be run again, and it will skip the completed
+ * pieces and continue the unfinished ones from their last recorded offset.
+ * <p>
+ * The journal starts with a record describing the job. A journal describing
+ * a different job is discarded, so a resumed job never mixes its data with
+ * the data of another one. The journal is followed by records appended as the
+ * pieces progress. Every record is protected by a CRC32C, and reading stops
+ * at the first torn record. A progress record is appended only after the
+ * data it covers has been forced to the storage device, so the recorded
+ * offsets are always durable.
+ *
+ * @author Mario Bobic
+ */
+final class CheckpointJournal implements AutoCloseable {
+
+	/** Magic number every journal starts with */
+	private static final int MAGIC = 0x4644434A;
+	/** Version of the journal format */
+	private static final int VERSION = 1;
+
+	/** Record of an offset reached inside a piece */
+	private static final byte PROGRESS = 1;
+	/** Record of a completed piece */
+	private static final byte DONE = 2;
+
+	/** The journal file */
+	private final File file;
+	/** Channel appending to the journal */
+	private final FileChannel channel;
+	/** ID of the file the journal belongs to */
+	private final UUID fileId;
+	/** True if the journal has been read from a previous run of the job */
+	private final boolean resumed;
+	/** Last recorded offsets inside the unfinished pieces */
+	private final Map<Integer, Long> progress = new HashMap<>();
+	/** Checksums of the completed pieces */
+	private final Map<Integer, byte[]> done = new HashMap<>();
+
+	/**
+	 * Constructs a journal appending to the specified channel.
+	 *
+	 * @param file the journal file
+	 * @param channel channel appending to the journal
+	 * @param fileId ID of the file the journal belongs to
+	 * @param resumed true if the journal is from a previous run
+	 */
+	private CheckpointJournal(File file, FileChannel channel, UUID fileId, boolean resumed) {
+		this.file = file;
+		this.channel = channel;
+		this.fileId = fileId;
+		this.resumed = resumed;
+	}
+
+	/**
+	 * Opens the journal of the job described by the specified parameters. If
+	 * the journal file exists and describes the same job, its records are
+	 * read and the job is resumed. Otherwise a new journal is started with
+	 * the specified file ID.
+	 *
+	 * @param file the journal file
+	 * @param fileId ID of the file, used if a new journal is started
+	 * @param job parameters describing the job
+	 * @return the opened journal
+	 * @throws IOException if the journal can not be read or written
+	 */
+	public static CheckpointJournal open(File file, UUID fileId, long... job) throws IOException {
+		ByteBuffer start = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + 2 * Long.BYTES + Integer.BYTES + job.length * Long.BYTES);
+		start.putInt(MAGIC).putShort((short) VERSION);
+		start.putLong(0).putLong(0);
+		start.putInt(job.length);
+		for (long param : job) {
+			start.putLong(param);
+		}
+		start.flip();
+
+		if (file.isFile()) {
+			ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			CheckpointJournal journal = resume(file, b, start);
+			if (journal != null) {
+				return journal;
+			}
+		}
+
+		start.putLong(6, fileId.getMostSignificantBits());
+		start.putLong(14, fileId.getLeastSignificantBits());
+		FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+		try {
+			ChannelCopier.writeFully(channel, seal(start));
+			channel.force(true);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new CheckpointJournal(file, channel, fileId, false);
+	}
+
+	/**
+	 * Reads the existing journal held in the specified buffer. Returns null
+	 * if the journal describes a different job or is damaged at its start.
+	 *
+	 * @param file the journal file
+	 * @param b contents of the journal
+	 * @param start expected start record with a zero file ID, ready to be read
+	 * @return the resumed journal, or null
+	 * @throws IOException if the journal can not be reopened
+	 */
+	private static CheckpointJournal resume(File file, ByteBuffer b, ByteBuffer start) throws IOException {
+		int startLength = start.remaining();
+		if (b.remaining() < startLength + Integer.BYTES || !isSealed(b, 0, startLength)) {
+			return null;
+		}
+		UUID fileId = new UUID(b.getLong(6), b.getLong(14));
+		ByteBuffer stored = ByteBuffer.allocate(startLength);
+		stored.put(b.array(), 0, startLength);
+		stored.putLong(6, 0).putLong(14, 0);
+		stored.flip();
+		if (!stored.equals(start)) {
+			return null;
+		}
+
+		Map<Integer, Long> progress = new HashMap<>();
+		Map<Integer, byte[]> done = new HashMap<>();
+		int pos = startLength + Integer.BYTES;
+		while (b.limit() - pos >= 1 + Integer.BYTES + Long.BYTES + Short.BYTES) {
+			int trailerLength = b.getShort(pos + 1 + Integer.BYTES + Long.BYTES) & 0xFFFF;
+			int length = 1 + Integer.BYTES + Long.BYTES + Short.BYTES + trailerLength;
+			if (b.limit() - pos < length + Integer.BYTES || !isSealed(b, pos, length)) {
+				break;
+			}
+			byte type = b.get(pos);
+			int index = b.getInt(pos + 1);
+			long value = b.getLong(pos + 1 + Integer.BYTES);
+			if (type == PROGRESS) {
+				progress.put(index, value);
+			} else if (type == DONE) {
+				byte[] trailer = new byte[trailerLength];
+				ByteBuffer record = b.duplicate();
+				record.position(pos + length - trailerLength);
+				record.get(trailer);
+				progress.remove(index);
+				done.put(index, trailer);
+			}
+			pos += length + Integer.BYTES;
+		}
+
+		/* Cut off a torn record, so new records follow the last valid one. */
+		FileChannel channel = FileChannel.open(file.toPath(), WRITE);
+		channel.truncate(pos);
+		channel.position(pos);
+		CheckpointJournal journal = new CheckpointJournal(file, channel, fileId, true);
+		journal.progress.putAll(progress);
+		journal.done.putAll(done);
+		return journal;
+	}
+
+	/**
+	 * Returns the ID of the file this journal belongs to. A resumed journal
+	 * returns the ID recorded by the previous run of the job.
+	 *
+	 * @return the file ID
+	 */
+	public UUID getFileId() {
+		return fileId;
+	}
+
+	/**
+	 * Returns true if this journal has been read from a previous run of the
+	 * job.
+	 *
+	 * @return true if the job is resumed
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Returns true if the specified piece has been completed.
+	 *
+	 * @param index index of the piece
+	 * @return true if the piece has been completed
+	 */
+	public synchronized boolean isDone(int index) {
+		return done.containsKey(index);
+	}
+
+	/**
+	 * Returns the checksums recorded with the specified completed piece.
+	 *
+	 * @param index index of the piece
+	 * @return the checksums of the piece, or null if it has not been completed
+	 */
+	public synchronized byte[] getTrailer(int index) {
+		return done.get(index);
+	}
+
+	/**
+	 * Returns the last durable offset inside the specified unfinished piece.
+	 *
+	 * @param index index of the piece
+	 * @return the offset inside the piece, or 0 if none has been recorded
+	 */
+	public synchronized long getProgress(int index) {
+		Long offset = progress.get(index);
+		return offset != null ? offset : 0;
+	}
+
+	/**
+	 * Records that the data of the specified piece is durable up to the
+	 * specified offset. The caller must have forced the data before.
+	 *
+	 * @param index index of the piece
+	 * @param offset offset inside the piece
+	 * @throws IOException if the record can not be written
+	 */
+	public synchronized void progress(int index, long offset) throws IOException {
+		append(PROGRESS, index, offset, new byte[0]);
+		progress.put(index, offset);
+	}
+
+	/**
+	 * Records that the specified piece has been completed. The caller must
+	 * have forced the data before.
+	 *
+	 * @param index index of the piece
+	 * @param trailer checksums of the piece
+	 * @throws IOException if the record can not be written
+	 */
+	public synchronized void done(int index, byte[] trailer) throws IOException {
+		append(DONE, index, 0, trailer);
+		progress.remove(index);
+		done.put(index, trailer);
+	}
+
+	/**
+	 * Closes this journal and deletes its file, once the job has finished.
+	 *
+	 * @throws IOException if the journal can not be deleted
+	 */
+	public void delete() throws IOException {
+		close();
+		Files.deleteIfExists(file.toPath());
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Appends a record to the journal and forces it to the storage device.
+	 *
+	 * @param type type of the record
+	 * @param index index of the piece
+	 * @param value value of the record
+	 * @param trailer checksums of the piece
+	 * @throws IOException if the record can not be written
+	 */
+	private void append(byte type, int index, long value, byte[] trailer) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(1 + Integer.BYTES + Long.BYTES + Short.BYTES + trailer.length + Integer.BYTES);
+		b.put(type).putInt(index).putLong(value).putShort((short) trailer.length).put(trailer);
+		b.flip();
+		ChannelCopier.writeFully(channel, seal(b));
+		channel.force(false);
+	}
+
+	/**
+	 * Returns a buffer holding the remaining bytes of the specified record
+	 * followed by their CRC32C.
+	 *
+	 * @param record the record, ready to be read
+	 * @return the sealed record, ready to be written
+	 */
+	private static ByteBuffer seal(ByteBuffer record) {
+		ByteBuffer sealed = ByteBuffer.allocate(record.remaining() + Integer.BYTES);
+		Crc32c crc = new Crc32c();
+		crc.update(record.duplicate());
+		sealed.put(record).putInt(crc.getValue());
+		sealed.flip();
+		return sealed;
+	}
+
+	/**
+	 * Returns true if the record at the specified position is followed by a
+	 * matching CRC32C.
+	 *
+	 * @param b contents of the journal
+	 * @param pos position of the record
+	 * @param length length of the record
+	 * @return true if the record is intact
+	 */
+	private static boolean isSealed(ByteBuffer b, int pos, int length) {
+		ByteBuffer record = b.duplicate();
+		record.limit(pos + length).position(pos);
+		Crc32c crc = new Crc32c();
+		crc.update(record);
+		return crc.getValue() == b.getInt(pos + length);
+	}
+
+}
@@ -0,0 +1,44 @@
+package decomposer;
+
+/**
+ * Checksums stored at the end of every piece. Checksums are computed while
+ * the data is being written, and verified while it is being composed, so
+ * the data is never read twice. Since the data has to pass through a buffer
+ * to be checksummed, jobs with checksums never use the
+ * {@linkplain CopyMode#TRANSFER} mode.
+ *
+ * @author Mario Bobic
+ */
+public enum ChecksumMode {
+
+	/** Pieces carry no checksum, only the implant */
+	NONE(0),
+
+	/** Pieces carry a CRC32C of their data */
+	CRC32C(Integer.BYTES),
+
+	/** Pieces carry both a CRC32C and a SHA-256 digest of their data */
+	SHA256(Integer.BYTES + 32);
+
+	/** Number of bytes the checksums take at the end of a piece */
+	private final int length;
+
+	/**
+	 * Constructs a new checksum mode.
+	 *
+	 * @param length number of bytes the checksums take at the end of a piece
+	 */
+	private ChecksumMode(int length) {
+		this.length = length;
+	}
+
+	/**
+	 * Returns the number of bytes the checksums take at the end of a piece.
+	 *
+	 * @return the length of the checksum trailer
+	 */
+	public int getLength() {
+		return length;
+	}
+
+}
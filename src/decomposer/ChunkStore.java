@@ -0,0 +1,116 @@
+package decomposer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A content-addressed store of chunks produced by content-defined chunking.
+ * Every chunk is stored once under the SHA-256 of its data, no matter how
+ * many files or versions of a file contain it, and ends with its
+ * {@linkplain ChecksumMode#SHA256 checksums} like a piece. The chunks of one
+ * file are listed in a {@linkplain Manifest manifest}, called the recipe of
+ * the file, written in the directory of the store.
+ * <p>
+ * Chunks are placed into subdirectories named after the first byte of their
+ * hash, so that no directory grows too large:
+ *
+ * <pre>
+ * store/
+ *   name.manifest
+ *   chunks/
+ *     3f/
+ *       3fa9...c2
+ * </pre>
+ *
+ * Chunks are never removed, so the store keeps every chunk of every file
+ * that has ever been decomposed into it.
+ *
+ * @author Mario Bobic
+ */
+final class ChunkStore {
+
+	/** Name of the directory holding the chunks */
+	public static final String CHUNKS_DIR = "chunks";
+
+	/** Directory of the store */
+	private final File dir;
+	/** Syncer forcing the written chunks to the storage device */
+	private final Syncer syncer;
+
+	/**
+	 * Constructs a new store in the specified directory.
+	 *
+	 * @param dir directory of the store
+	 * @param syncer syncer forcing the written chunks to the storage device
+	 */
+	public ChunkStore(File dir, Syncer syncer) {
+		this.dir = dir;
+		this.syncer = syncer;
+	}
+
+	/**
+	 * Returns the path of the chunk with the specified checksums, relative
+	 * to the directory of the store.
+	 *
+	 * @param trailer checksums of the chunk, ending with its SHA-256
+	 * @return the relative path of the chunk, separated by slashes
+	 */
+	public static String chunkPath(byte[] trailer) {
+		StringBuilder hex = new StringBuilder(64);
+		for (int i = trailer.length - 32; i < trailer.length; i++) {
+			hex.append(Character.forDigit((trailer[i] >> 4) & 0xF, 16)).append(Character.forDigit(trailer[i] & 0xF, 16));
+		}
+		return CHUNKS_DIR + "/" + hex.substring(0, 2) + "/" + hex;
+	}
+
+	/**
+	 * Stores the specified chunk unless the store already has it. A chunk is
+	 * first written to a temporary file which is then moved into place, so
+	 * a chunk is never seen half written, even if several threads store the
+	 * same chunk at the same time. Unless the syncs are grouped, the chunk is
+	 * forced before it is moved, as required by the durability of the job.
+	 *
+	 * @param data array holding the chunk
+	 * @param length length of the chunk
+	 * @param trailer checksums of the chunk, ending with its SHA-256
+	 * @return true if the chunk has been written, false if the store
+	 *         already had it
+	 * @throws IOException if the chunk can not be written
+	 */
+	public boolean put(byte[] data, int length, byte[] trailer) throws IOException {
+		File chunk = new File(dir, chunkPath(trailer));
+		if (chunk.length() == length + trailer.length) {
+			return false;
+		}
+
+		File parent = chunk.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Unable to create directory " + parent);
+		}
+		Path temp = Files.createTempFile(parent.toPath(), chunk.getName(), ".tmp");
+		try {
+			try (FileChannel out = FileChannel.open(temp, WRITE)) {
+				ChannelCopier.writeFully(out, ByteBuffer.wrap(data, 0, length));
+				ChannelCopier.writeFully(out, ByteBuffer.wrap(trailer));
+				syncer.pieceWritten(out, chunk);
+			}
+			try {
+				Files.move(temp, chunk.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, chunk.toPath(), REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,157 @@
+package decomposer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Finds content-defined chunk boundaries using a Gear rolling hash with
+ * normalized chunking, as in FastCDC. A boundary depends only on the few
+ * dozen bytes preceding it, so inserting or removing bytes in a file moves
+ * only the boundaries near the change, and all other chunks stay the same.
+ * <p>
+ * Chunks are at least a quarter and at most four times the average size.
+ * The first bytes of every chunk up to the minimal size are not hashed at
+ * all. Until the average size is reached, boundaries are found with a
+ * stricter mask than after it, which keeps the chunk sizes close to the
+ * average.
+ * <p>
+ * A chunker reads its data sequentially from a channel, holding at most two
+ * maximal chunks of data at a time. It is not thread-safe.
+ *
+ * @author Mario Bobic
+ */
+final class Chunker {
+
+	/** Random values of all bytes, fixed so that boundaries never change */
+	private static final long[] GEAR = new long[256];
+
+	static {
+		long seed = 0x46444343L;
+		for (int i = 0; i < GEAR.length; i++) {
+			/* SplitMix64, which is fully specified, unlike java.util.Random. */
+			long z = (seed += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			GEAR[i] = z ^ (z >>> 31);
+		}
+	}
+
+	/** Minimal chunk size */
+	private final int minSize;
+	/** Average chunk size */
+	private final int avgSize;
+	/** Maximal chunk size */
+	private final int maxSize;
+	/** Mask used before the average size is reached, one bit more than average */
+	private final long strictMask;
+	/** Mask used after the average size is reached, one bit less than average */
+	private final long looseMask;
+	/** Channel the data is read from */
+	private final ReadableByteChannel in;
+	/** Buffer holding the data read ahead */
+	private final byte[] buff;
+	/** Position of the next chunk in the buffer */
+	private int pos;
+	/** Number of bytes in the buffer */
+	private int limit;
+	/** True if the channel has ended */
+	private boolean eof;
+	/** True if at least one chunk has been returned */
+	private boolean started;
+
+	/**
+	 * Constructs a new chunker reading from the specified channel.
+	 *
+	 * @param in channel the data is read from
+	 * @param avgSize average chunk size, rounded down to a power of two
+	 */
+	public Chunker(ReadableByteChannel in, int avgSize) {
+		this.in = in;
+		int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+		this.avgSize = 1 << bits;
+		this.minSize = this.avgSize / 4;
+		this.maxSize = this.avgSize * 4;
+		/* The highest bits of the hash depend on the most bytes. */
+		this.strictMask = -1L << (64 - (bits + 1));
+		this.looseMask = -1L << (64 - (bits - 1));
+		this.buff = new byte[2 * maxSize];
+	}
+
+	/**
+	 * Reads and returns the next chunk, or null if the channel has ended. An
+	 * empty channel yields one empty chunk, so every file has at least one.
+	 *
+	 * @return the next chunk, or null
+	 * @throws IOException if the channel can not be read
+	 */
+	public byte[] next() throws IOException {
+		fill();
+		if (pos == limit && started) {
+			return null;
+		}
+		started = true;
+		int n = cut(buff, pos, limit - pos);
+		byte[] chunk = Arrays.copyOfRange(buff, pos, pos + n);
+		pos += n;
+		return chunk;
+	}
+
+	/**
+	 * Reads from the channel until the buffer holds at least a maximal chunk,
+	 * or the channel ends.
+	 *
+	 * @throws IOException if the channel can not be read
+	 */
+	private void fill() throws IOException {
+		if (eof || limit - pos >= maxSize) {
+			return;
+		}
+		System.arraycopy(buff, pos, buff, 0, limit - pos);
+		limit -= pos;
+		pos = 0;
+		ByteBuffer b = ByteBuffer.wrap(buff, limit, buff.length - limit);
+		while (b.hasRemaining()) {
+			if (in.read(b) < 0) {
+				eof = true;
+				break;
+			}
+		}
+		limit = b.position();
+	}
+
+	/**
+	 * Returns the length of the chunk starting at the specified offset. The
+	 * bytes must hold the rest of the data, or at least the maximal chunk
+	 * size, since a chunk cut short by the end of the bytes ends there.
+	 *
+	 * @param b array holding the data
+	 * @param off offset where the chunk starts
+	 * @param len number of bytes available from the offset
+	 * @return the length of the chunk
+	 */
+	private int cut(byte[] b, int off, int len) {
+		if (len <= minSize) {
+			return len;
+		}
+		int normal = Math.min(avgSize, len);
+		int end = Math.min(maxSize, len);
+		long hash = 0;
+		int i = minSize;
+		for (; i < normal; i++) {
+			hash = (hash << 1) + GEAR[b[off + i] & 0xFF];
+			if ((hash & strictMask) == 0) {
+				return i + 1;
+			}
+		}
+		for (; i < end; i++) {
+			hash = (hash << 1) + GEAR[b[off + i] & 0xFF];
+			if ((hash & looseMask) == 0) {
+				return i + 1;
+			}
+		}
+		return end;
+	}
+
+}
@@ -0,0 +1,100 @@
+package decomposer;
+
+import java.util.zip.DataFormatException;
+
+/**
+ * A compression codec used for compressing the data of pieces. Pieces are
+ * compressed in independent blocks, so a codec only ever sees one block at a
+ * time, and blocks which do not compress well are stored raw without being
+ * passed to the codec at all.
+ * <p>
+ * Every codec has an ID which is stored in the headers of compressed pieces.
+ * Codecs other than the built-in ones can be plugged in by registering them
+ * with {@linkplain Codecs#register(Codec)} before pieces using them are
+ * written or composed.
+ *
+ * @author Mario Bobic
+ */
+public interface Codec {
+
+	/**
+	 * Returns the ID of this codec stored in the headers of compressed
+	 * pieces. IDs up to 255 are reserved for the built-in codecs, and 0 means
+	 * that the pieces are not compressed.
+	 *
+	 * @return the ID of this codec
+	 */
+	int getId();
+
+	/**
+	 * Returns the name of this codec, used for selecting it.
+	 *
+	 * @return the name of this codec
+	 */
+	String getName();
+
+	/**
+	 * Returns a new compressor. A compressor is used by one thread at a time,
+	 * and is closed when the piece has been compressed.
+	 *
+	 * @return a new compressor
+	 */
+	Compressor newCompressor();
+
+	/**
+	 * Returns a new decompressor. A decompressor is used by one thread at a
+	 * time, and is closed when the piece has been decompressed.
+	 *
+	 * @return a new decompressor
+	 */
+	Decompressor newDecompressor();
+
+	/**
+	 * Compresses blocks of data of a single piece.
+	 *
+	 * @author Mario Bobic
+	 */
+	interface Compressor extends AutoCloseable {
+
+		/**
+		 * Compresses a block into the specified destination. If the
+		 * compressed block does not fit into {@code dstLength} bytes, the
+		 * compressor gives up and returns -1, so the block is stored raw.
+		 *
+		 * @param src array holding the block
+		 * @param off offset of the block in the array
+		 * @param length length of the block
+		 * @param dst array receiving the compressed block
+		 * @param dstLength maximal length of the compressed block
+		 * @return the length of the compressed block, or -1 if it does not fit
+		 */
+		int compress(byte[] src, int off, int length, byte[] dst, int dstLength);
+
+		@Override
+		void close();
+	}
+
+	/**
+	 * Decompresses blocks of data of a single piece.
+	 *
+	 * @author Mario Bobic
+	 */
+	interface Decompressor extends AutoCloseable {
+
+		/**
+		 * Decompresses a block into exactly {@code dstLength} bytes of the
+		 * specified destination.
+		 *
+		 * @param src array holding the compressed block
+		 * @param length length of the compressed block
+		 * @param dst array receiving the block
+		 * @param dstLength length of the block
+		 * @throws DataFormatException if the compressed block is damaged
+		 */
+		void decompress(byte[] src, int length, byte[] dst, int dstLength) throws DataFormatException;
+
+		@Override
+		void close();
+	}
+
+}
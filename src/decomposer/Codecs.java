@@ -0,0 +1,92 @@
+package decomposer;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * The registry of {@linkplain Codec codecs} used for compressing pieces.
+ * Codecs are looked up by their ID when pieces are composed, and by their
+ * name when jobs are configured.
+ *
+ * @author Mario Bobic
+ */
+public final class Codecs {
+
+	/** Deflate at the default level, a good balance of speed and ratio */
+	public static final Codec DEFLATE = new DeflateCodec("DEFLATE", Deflater.DEFAULT_COMPRESSION);
+	/** Deflate at the fastest level, for data that is mostly incompressible */
+	public static final Codec DEFLATE_FAST = new DeflateCodec("DEFLATE_FAST", Deflater.BEST_SPEED);
+
+	/** Codecs by their ID */
+	private static final Map<Integer, Codec> BY_ID = new ConcurrentHashMap<>();
+	/** Codecs by their upper case name */
+	private static final Map<String, Codec> BY_NAME = new ConcurrentHashMap<>();
+
+	static {
+		BY_ID.put(DeflateCodec.ID, DEFLATE);
+		BY_NAME.put(DEFLATE.getName(), DEFLATE);
+		BY_NAME.put(DEFLATE_FAST.getName(), DEFLATE_FAST);
+	}
+
+	/**
+	 * Disable instantiation.
+	 */
+	private Codecs() {
+	}
+
+	/**
+	 * Registers the specified codec, so pieces compressed with it can be
+	 * composed and jobs can select it by its name.
+	 *
+	 * @param codec codec to be registered
+	 * @throws IllegalArgumentException if the ID of the codec is reserved or
+	 *         already taken by another codec
+	 */
+	public static void register(Codec codec) {
+		if (codec.getId() <= 255) {
+			throw new IllegalArgumentException("Codec IDs up to 255 are reserved");
+		}
+		Codec existing = BY_ID.putIfAbsent(codec.getId(), codec);
+		if (existing != null && existing != codec) {
+			throw new IllegalArgumentException("Codec ID " + codec.getId() + " is already taken by " + existing.getName());
+		}
+		BY_NAME.put(codec.getName().toUpperCase(), codec);
+	}
+
+	/**
+	 * Returns the codec with the specified name, ignoring case.
+	 *
+	 * @param name name of the codec
+	 * @return the codec
+	 * @throws IllegalArgumentException if there is no such codec
+	 */
+	public static Codec forName(String name) {
+		Codec codec = BY_NAME.get(name.toUpperCase());
+		if (codec == null) {
+			throw new IllegalArgumentException("Unknown codec " + name);
+		}
+		return codec;
+	}
+
+	/**
+	 * Returns the codec with the specified ID, or null for ID 0, which means
+	 * that the pieces are not compressed.
+	 *
+	 * @param id ID of the codec
+	 * @return the codec, or null
+	 * @throws IOException if there is no such codec
+	 */
+	public static Codec forId(int id) throws IOException {
+		if (id == 0) {
+			return null;
+		}
+		Codec codec = BY_ID.get(id);
+		if (codec == null) {
+			throw new IOException("Pieces are compressed with unknown codec " + id);
+		}
+		return codec;
+	}
+
+}
@@ -0,0 +1,454 @@
+package decomposer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * An immutable description of a single composing job. A job tells the
+ * {@linkplain DecomposerEngine} which pieces to compose, in which order, and
+ * where to write the composed file. Jobs are created using the
+ * {@linkplain Builder} and may freely be shared between threads.
+ *
+ * @author Mario Bobic
+ */
+public final class ComposeJob {
+
+	/** Pieces to be composed */
+	private final List<File> pieces;
+	/** The composed file, or null to name it after the piece headers */
+	private final File output;
+	/** Manifest of the pieces, or null to read the piece headers */
+	private final Manifest manifest;
+	/** Maximal number of pieces copied at the same time */
+	private final int parallelism;
+	/** Mode used for copying the data */
+	private final CopyMode copyMode;
+	/** Size of the buffers used for buffered copying, or 0 for tuned size */
+	private final int bufferSize;
+	/** Number of buffers of every copy pipeline */
+	private final int pipelineDepth;
+	/** True if the checksums of the pieces are verified */
+	private final boolean verifyChecksums;
+	/** Bytes written from a piece between two checkpoints, or 0 for no journal */
+	private final long checkpointInterval;
+	/** Way of forcing the written data to the storage device */
+	private final Durability durability;
+	/** Bytes written to a file between two batched syncs */
+	private final long syncInterval;
+	/** Handler deciding whether to continue if a piece has been tampered with */
+	private final TamperHandler tamperHandler;
+	/** Listener notified about the progress of this job */
+	private final ProgressListener listener;
+
+	/**
+	 * Constructs a new job from the specified builder.
+	 *
+	 * @param builder builder containing the job properties
+	 */
+	private ComposeJob(Builder builder) {
+		pieces = Collections.unmodifiableList(new ArrayList<>(builder.pieces));
+		output = builder.output;
+		manifest = builder.manifest;
+		parallelism = builder.parallelism;
+		verifyChecksums = builder.verifyChecksums;
+		checkpointInterval = builder.checkpointInterval;
+		durability = builder.durability;
+		syncInterval = builder.syncInterval;
+		copyMode = builder.copyMode != null ? builder.copyMode
+				: parallelism > 1 || verifyChecksums ? CopyMode.BUFFERED : CopyMode.TRANSFER;
+		bufferSize = builder.bufferSize;
+		pipelineDepth = builder.pipelineDepth;
+		tamperHandler = builder.tamperHandler;
+		listener = builder.listener;
+	}
+
+	/**
+	 * Returns a new builder for a job composing the specified pieces into the
+	 * specified output file. Pieces with headers may be given in any order,
+	 * legacy pieces must be given in order.
+	 *
+	 * @param pieces pieces to be composed
+	 * @param output the composed file
+	 * @return a new builder for a job composing the specified pieces
+	 */
+	public static Builder builder(List<File> pieces, File output) {
+		if (output == null) {
+			throw new IllegalArgumentException("Output file must not be null");
+		}
+		return new Builder(pieces, output);
+	}
+
+	/**
+	 * Returns a new builder for a job composing the specified pieces, given
+	 * in any order, into a file named after their headers and placed next to
+	 * the pieces. Only pieces with headers can be composed this way.
+	 *
+	 * @param pieces pieces to be composed
+	 * @return a new builder for a job composing the specified pieces
+	 */
+	public static Builder builder(List<File> pieces) {
+		return new Builder(pieces, null);
+	}
+
+	/**
+	 * Returns a new builder for a job composing the pieces listed in the
+	 * specified manifest. The pieces are laid out by the manifest alone, and
+	 * are verified against the checksums in the manifest. If the output file
+	 * is null, the composed file is named after the manifest and placed next
+	 * to it.
+	 *
+	 * @param manifest manifest of the pieces
+	 * @param output the composed file, or null
+	 * @return a new builder for a job composing the pieces of the manifest
+	 */
+	public static Builder builder(Manifest manifest, File output) {
+		if (manifest == null) {
+			throw new IllegalArgumentException("Manifest must not be null");
+		}
+		Builder builder = new Builder(manifest.getPieceFiles(), output);
+		builder.manifest = manifest;
+		return builder;
+	}
+
+	/**
+	 * Returns an unmodifiable list of pieces to be composed.
+	 *
+	 * @return pieces to be composed
+	 */
+	public List<File> getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns the composed file, or null if it is named after the headers of
+	 * the pieces.
+	 *
+	 * @return the composed file, or null
+	 */
+	public File getOutput() {
+		return output;
+	}
+
+	/**
+	 * Returns the manifest of the pieces, or null if the pieces are laid out
+	 * by their headers.
+	 *
+	 * @return the manifest of the pieces, or null
+	 */
+	public Manifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Returns the maximal number of pieces copied at the same time. If the
+	 * parallelism is greater than one, the output is preallocated and every
+	 * piece is verified and copied to its offset by its own task.
+	 *
+	 * @return the maximal number of pieces copied at the same time
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Returns the mode used for copying the data. Unless set explicitly, the
+	 * data is transferred by sequential jobs that do not verify checksums,
+	 * and buffered by all other jobs. Pieces whose checksums are verified are
+	 * always buffered, even if the mode is {@linkplain CopyMode#TRANSFER}.
+	 *
+	 * @return the mode used for copying the data
+	 */
+	public CopyMode getCopyMode() {
+		return copyMode;
+	}
+
+	/**
+	 * Returns true if the checksums stored at the end of the pieces are
+	 * verified while the pieces are being copied. Pieces without checksums
+	 * are only checked by their implant.
+	 *
+	 * @return true if the checksums of the pieces are verified
+	 */
+	public boolean isVerifyChecksums() {
+		return verifyChecksums;
+	}
+
+	/**
+	 * Returns the number of bytes written from a piece between two checkpoints
+	 * recorded in the {@linkplain CheckpointJournal journal} of this job. If
+	 * the interval is 0, no journal is kept and the job can not be resumed.
+	 *
+	 * @return the checkpoint interval in bytes, or 0 for no journal
+	 */
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Returns the way the composed file of this job is forced to the storage
+	 * device.
+	 *
+	 * @return the durability, never null
+	 */
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * Returns the number of bytes written to the composed file between two
+	 * syncs of the {@linkplain Durability#BATCHED batched} durability.
+	 *
+	 * @return the sync interval in bytes
+	 */
+	public long getSyncInterval() {
+		return syncInterval;
+	}
+
+	/**
+	 * Returns the size of the buffers used for buffered copying. If the size
+	 * is 0, it is tuned from the throughput measured on the first few
+	 * megabytes of the job.
+	 *
+	 * @return the size of the buffers, or 0 for tuned size
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the handler deciding whether to continue if a piece has been
+	 * tampered with.
+	 *
+	 * @return the tamper handler, never null
+	 */
+	public TamperHandler getTamperHandler() {
+		return tamperHandler;
+	}
+
+	/**
+	 * Returns the number of buffers of every copy pipeline of this job, used
+	 * by the {@linkplain CopyMode#PIPELINED pipelined} and {@linkplain
+	 * CopyMode#ASYNC asynchronous} copy modes. The reader of a pipeline is
+	 * at most this many buffers ahead of its writer.
+	 *
+	 * @return the pipeline depth
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	/**
+	 * Returns the listener notified about the progress of this job.
+	 *
+	 * @return the progress listener, never null
+	 */
+	public ProgressListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * A functional interface used for deciding what to do when a piece with
+	 * an invalid implant or checksum is found. The handler is asked only once per job, no
+	 * matter how many pieces are tampered with, but it may be asked from any
+	 * thread that the job is running on.
+	 *
+	 * @author Mario Bobic
+	 */
+	@FunctionalInterface
+	public interface TamperHandler {
+
+		/** A handler that always stops composing */
+		public static final TamperHandler STOP = (piece, index) -> false;
+
+		/**
+		 * Returns true if composing should continue although the specified
+		 * piece has been tampered with.
+		 *
+		 * @param piece the tampered piece
+		 * @param index expected ordinal number of the piece
+		 * @return true if composing should continue
+		 */
+		boolean continueComposing(File piece, int index);
+	}
+
+	/**
+	 * A builder of the {@linkplain ComposeJob}. The builder itself is not
+	 * thread-safe, but the jobs it builds are.
+	 *
+	 * @author Mario Bobic
+	 */
+	public static final class Builder {
+		private final List<File> pieces;
+		private final File output;
+		private Manifest manifest;
+		private int parallelism = 1;
+		private CopyMode copyMode;
+		private int bufferSize;
+		private int pipelineDepth = PIPELINE_DEPTH;
+		private boolean verifyChecksums = true;
+		private long checkpointInterval;
+		private Durability durability = Durability.NONE;
+		private long syncInterval = SYNC_INTERVAL;
+		private TamperHandler tamperHandler = TamperHandler.STOP;
+		private ProgressListener listener = ProgressListener.NONE;
+
+		/**
+		 * Constructs a new builder for the specified pieces and output.
+		 *
+		 * @param pieces pieces to be composed
+		 * @param output the composed file, or null
+		 */
+		private Builder(List<File> pieces, File output) {
+			this.pieces = pieces;
+			this.output = output;
+		}
+
+		/**
+		 * Sets the maximal number of pieces copied at the same time.
+		 *
+		 * @param parallelism level of parallelism, 1 for sequential composing
+		 * @return this builder
+		 */
+		public Builder parallelism(int parallelism) {
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Sets the mode used for copying the data.
+		 *
+		 * @param copyMode copy mode, or null for the default mode
+		 * @return this builder
+		 */
+		public Builder copyMode(CopyMode copyMode) {
+			this.copyMode = copyMode;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the buffers used for buffered copying.
+		 *
+		 * @param bufferSize buffer size, or 0 for tuned size
+		 * @return this builder
+		 */
+		public Builder bufferSize(int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * Sets whether the checksums of the pieces are verified.
+		 *
+		 * @param verifyChecksums true to verify the checksums of the pieces
+		 * @return this builder
+		 */
+		public Builder verifyChecksums(boolean verifyChecksums) {
+			this.verifyChecksums = verifyChecksums;
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes written from a piece between two checkpoints.
+		 * Every checkpoint forces the written data to the storage device, so
+		 * a killed job can be resumed from the last checkpoint.
+		 *
+		 * @param checkpointInterval checkpoint interval in bytes, or 0 for no journal
+		 * @return this builder
+		 */
+		public Builder checkpointInterval(long checkpointInterval) {
+			this.checkpointInterval = checkpointInterval;
+			return this;
+		}
+
+		/**
+		 * Sets the number of buffers of every copy pipeline, used by the
+		 * pipelined and asynchronous copy modes.
+		 *
+		 * @param pipelineDepth pipeline depth, at least 2
+		 * @return this builder
+		 */
+		public Builder pipelineDepth(int pipelineDepth) {
+			this.pipelineDepth = pipelineDepth;
+			return this;
+		}
+
+		/**
+		 * Sets the way the written data is forced to the storage device.
+		 *
+		 * @param durability durability, or null for no forcing
+		 * @return this builder
+		 */
+		public Builder durability(Durability durability) {
+			this.durability = durability != null ? durability : Durability.NONE;
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes written to a file between two syncs of the
+		 * {@linkplain Durability#BATCHED batched} durability.
+		 *
+		 * @param syncInterval sync interval in bytes
+		 * @return this builder
+		 */
+		public Builder syncInterval(long syncInterval) {
+			this.syncInterval = syncInterval;
+			return this;
+		}
+
+		/**
+		 * Sets the handler deciding whether to continue if a piece has been
+		 * tampered with.
+		 *
+		 * @param tamperHandler tamper handler, may be null
+		 * @return this builder
+		 */
+		public Builder tamperHandler(TamperHandler tamperHandler) {
+			this.tamperHandler = tamperHandler != null ? tamperHandler : TamperHandler.STOP;
+			return this;
+		}
+
+		/**
+		 * Sets the listener notified about the progress of the job.
+		 *
+		 * @param listener progress listener, may be null
+		 * @return this builder
+		 */
+		public Builder listener(ProgressListener listener) {
+			this.listener = listener != null ? listener : ProgressListener.NONE;
+			return this;
+		}
+
+		/**
+		 * Builds and returns a new job with properties of this builder.
+		 *
+		 * @return a new job with properties of this builder
+		 * @throws IllegalArgumentException if any of the properties is invalid
+		 */
+		public ComposeJob build() {
+			if (pieces == null || pieces.isEmpty()) {
+				throw new IllegalArgumentException("No files selected");
+			}
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("Parallelism must be at least 1");
+			}
+			if (bufferSize != 0 && (bufferSize < MIN_BUFFER_SIZE || bufferSize > MAX_BUFFER_SIZE)) {
+				throw new IllegalArgumentException("Buffer size must be between " + MIN_BUFFER_SIZE + " and " + MAX_BUFFER_SIZE);
+			}
+			if (pipelineDepth < 2) {
+				throw new IllegalArgumentException("Pipeline depth must be at least 2");
+			}
+			if (checkpointInterval < 0) {
+				throw new IllegalArgumentException("Checkpoint interval must not be negative");
+			}
+			if (syncInterval <= 0) {
+				throw new IllegalArgumentException("Sync interval must be positive");
+			}
+			return new ComposeJob(this);
+		}
+	}
+
+}
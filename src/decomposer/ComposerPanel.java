@@ -5,11 +5,11 @@ import javax.swing.*;
 import java.awt.*;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import static decomposer.DecomposerConstants.*;
 
@@ -27,17 +27,22 @@ public class ComposerPanel extends JPanel {
 	private JList<File> filesList = new JList<>(listModel);
 	
 	private Long totalSize;
-	private Long pieceSize;
-	private Integer pieces;
 	
 	private JTextField totalSizeTf;
 	
 	private JButton openBtn;
+	private JButton scanBtn;
 	private JButton composeBtn;
 	
 	private JFileChooser chooser = new JFileChooser();
+	private JFileChooser dirChooser = new JFileChooser();
+	
+	/** Finds pieces in the scanned folders, caching them between scans */
+	private final PieceDiscovery discovery = new PieceDiscovery(DISCOVERY_PARALLELISM);
 
 	private JProgressBar progressBar;
+	
+	private final DecomposerEngine engine = new DecomposerEngine();
 
 	/** Indicates the user decision to continue composing
 	 * if a piece has been tampered with */
@@ -71,14 +76,24 @@ public class ComposerPanel extends JPanel {
 		progressPanel.add(progressLabel, BorderLayout.LINE_START);
 		
 		progressBar = new JProgressBar();
+		progressBar.setStringPainted(true);
 		progressPanel.add(progressBar, BorderLayout.CENTER);
 		
-		/* Add an open file button to this panel. */
+		/* Add an open file button and a scan folder button to this panel. */
+		JPanel openBtns = new JPanel(new GridLayout(1, 0, 5, 0));
+		progressPanel.add(openBtns, BorderLayout.LINE_END);
+		
 		openBtn = new JButton("Open files");
 		openBtn.addActionListener((e) -> {
 			loadFiles();
 		});
-		progressPanel.add(openBtn, BorderLayout.LINE_END);
+		openBtns.add(openBtn);
+		
+		scanBtn = new JButton("Scan folder");
+		scanBtn.addActionListener((e) -> {
+			scanFolder();
+		});
+		openBtns.add(scanBtn);
 		
 		/* Create and add the info and buttons panel. */
 		JPanel lowerInfo = new JPanel(new BorderLayout(9, 0));
@@ -110,19 +125,13 @@ public class ComposerPanel extends JPanel {
 	protected void compose() {
 		/* Reset the progress. */
 		progressBar.setValue(0);
+		progressBar.setString(null);
 		
 		/* Disable GUI components. */
-		composeBtn.setEnabled(false);
-		openBtn.setEnabled(false);
+		setButtonsEnabled(false);
 		
-		/* Execute the task on a working thread and listen for progress change. */
+		/* Execute the task on a working thread which publishes its progress. */
 		ComposeWorker worker = new ComposeWorker();
-
-		worker.addPropertyChangeListener((evt) -> {
-			if ("progress".equals(evt.getPropertyName())) {
-				progressBar.setValue((Integer) evt.getNewValue());
-			}
-		});
 		worker.execute();
 	}
 
@@ -141,38 +150,151 @@ public class ComposerPanel extends JPanel {
 		if (retVal == JFileChooser.APPROVE_OPTION) {
 			/* Get selected files and clear the previously selected. */
 			File[] files = chooser.getSelectedFiles();
-			listModel.clear();
-			
-			/* Used for setting the total size text field. */
-			totalSize = 0L;
+			setFiles(Arrays.asList(files), null);
 			
-			/* Add newly selected files to the list model. */
-			for (File file : files) {
-				listModel.addElement(file);
-				totalSize += file.length();
+			/* Sum up the data of all pieces, without implants and checksums,
+			 * on a working thread since every piece has to be opened. */
+			setButtonsEnabled(false);
+			new SwingWorker<Long, Void>() {
+				@Override
+				protected Long doInBackground() {
+					long size = 0;
+					try {
+						for (File file : files) {
+							size += DecomposerEngine.getPieceLength(file);
+						}
+					} catch (IOException e) {
+						size = 0;
+					}
+					return size;
+				}
+				
+				@Override
+				protected void done() {
+					setButtonsEnabled(true);
+					try {
+						setTotalSize(get());
+					} catch (InterruptedException | ExecutionException e) {
+						setTotalSize(0L);
+					}
+				}
+			}.execute();
+		}
+	}
+	
+	/**
+	 * Creates a dialog for the user to select a folder which is then scanned
+	 * for pieces. The pieces are grouped by their original file, and if
+	 * pieces of more than one file are found, the user picks one of them.
+	 */
+	protected void scanFolder() {
+		/* Folder chooser settings */
+		dirChooser.setDialogTitle("Scan folder");
+		dirChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		
+		int retVal = dirChooser.showOpenDialog(this);
+		if (retVal != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File dir = dirChooser.getSelectedFile();
+		
+		/* Scan on a working thread, the headers of the pieces are read there. */
+		setButtonsEnabled(false);
+		new SwingWorker<List<PieceSet>, Void>() {
+			@Override
+			protected List<PieceSet> doInBackground() throws IOException {
+				return discovery.scan(Collections.singletonList(dir), false);
 			}
 			
-			/* Correct the total size by subtracting the implant size for all pieces. */
-			totalSize -= IMPLANT_LENGTH * files.length;
-			
-			/* Set the number of pieces and the piece size. */
-			if ((pieces = files.length) != 0) {
-				pieceSize = getPieceLength(files[0]);
-			}
-
-			/* Set the total size text field if it is not negative.
-			 * The total size may be negative if the user has selected files
-			 * that have a total size smaller than the total implant size. */
-			if (totalSize > 0) {
-				totalSizeTf.setText(DecomposerPanel.humanReadableByteCount(totalSize));
-			} else {
-				totalSizeTf.setText("");
+			@Override
+			protected void done() {
+				setButtonsEnabled(true);
+				List<PieceSet> sets;
+				try {
+					sets = get();
+				} catch (InterruptedException e) {
+					return;
+				} catch (ExecutionException e) {
+					showMessage("An I/O error has occured: " + e.getCause().getMessage(), JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				
+				if (sets.isEmpty()) {
+					showMessage("No pieces found in " + dir, JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				
+				/* Let the user pick one of the files found. */
+				PieceSet set = sets.get(0);
+				if (sets.size() > 1) {
+					PieceSet[] options = sets.toArray(new PieceSet[0]);
+					set = (PieceSet) JOptionPane.showInputDialog(ComposerPanel.this, "Choose a file to compose:",
+							"Scan folder", JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+					if (set == null) {
+						return;
+					}
+				}
+				
+				setFiles(set.getPieces(), set.getLength());
+				if (!set.isComplete()) {
+					showMessage("Pieces " + set.getMissing() + " of " + set.getName() + " are missing",
+							JOptionPane.WARNING_MESSAGE);
+				}
 			}
+		}.execute();
+	}
+	
+	/**
+	 * Replaces the files in the list with the specified pieces and sets the
+	 * total size field.
+	 *
+	 * @param files pieces to be composed
+	 * @param size total size of the pieces, or null if it is not known yet
+	 */
+	private void setFiles(List<File> files, Long size) {
+		listModel.clear();
+		for (File file : files) {
+			listModel.addElement(file);
 		}
+		setTotalSize(size);
 	}
 	
-	private static long getPieceLength(File piece) {
-		return piece.length() - IMPLANT_LENGTH;
+	/**
+	 * Sets the total size text field if the total size is positive. The total
+	 * size is zero if the user has selected files that are empty or can not
+	 * be read.
+	 *
+	 * @param size total size of the pieces, or null if it is not known yet
+	 */
+	private void setTotalSize(Long size) {
+		totalSize = size;
+		if (size != null && size > 0) {
+			totalSizeTf.setText(DecomposerPanel.humanReadableByteCount(size));
+		} else {
+			totalSizeTf.setText("");
+		}
+	}
+	
+	/**
+	 * Enables or disables the buttons of this panel.
+	 *
+	 * @param enabled true if the buttons should be enabled
+	 */
+	private void setButtonsEnabled(boolean enabled) {
+		composeBtn.setEnabled(enabled);
+		openBtn.setEnabled(enabled);
+		scanBtn.setEnabled(enabled);
+	}
+	
+	/**
+	 * Shows a message of the specified type with the desired text.
+	 *
+	 * @param message desired text
+	 * @param messageType type of the message
+	 */
+	private void showMessage(String message, int messageType) {
+		String title = messageType == JOptionPane.ERROR_MESSAGE ? "Error" : "Warning";
+		JOptionPane.showMessageDialog(this, message, title, messageType);
 	}
 	
 	/**
@@ -181,7 +303,7 @@ public class ComposerPanel extends JPanel {
 	 *
 	 * @author Mario Bobic
 	 */
-	private class ComposeWorker extends SwingWorker<Void, Void> {
+	private class ComposeWorker extends SwingWorker<Void, ProgressSnapshot> {
 
 		@Override
 		protected Void doInBackground() throws Exception {
@@ -199,10 +321,26 @@ public class ComposerPanel extends JPanel {
 			/* Get one of the pieces. */
 			File piece = listModel.get(0);
 			
-			/* Parse the original file name. */
-			String pieceName = piece.getName();
-			int endIndex = pieceName.lastIndexOf('-'); // OVO JE LOŠE IMPLEMENTIRANO!!!!!!!!!!!!!!!!!!
-			String outputName = pieceName.substring(0, endIndex);
+			/* Take the original file name from the header of the piece,
+			 * or parse it from the name of a legacy piece. */
+			String outputName;
+			try {
+				PieceHeader header = PieceHeader.read(piece);
+				if (header != null) {
+					outputName = header.getName();
+				} else {
+					String pieceName = piece.getName();
+					outputName = pieceName.substring(0, Math.max(0, pieceName.lastIndexOf('-')));
+				}
+			} catch (IOException e) {
+				showError("An I/O error has occured: " + e.getMessage());
+				return null;
+			}
+			
+			if (outputName.isEmpty()) {
+				showError("Incorrect files selected");
+				return null;
+			}
 			
 			/* Create a new file with the parsed output name. */
 			File outputDir = piece.getParentFile();
@@ -214,118 +352,55 @@ public class ComposerPanel extends JPanel {
 			}
 			
 			/* If program makes it to this point, composing is good to go. */
-			FileOutputStream out = new FileOutputStream(outputFile);
-			
-			/* If piece size is less than the standard loader size,
-			 * file will be loaded and saved piece by piece. */
-			int loaderSize = getLoaderSize();
+			List<File> pieceFiles = Collections.list(listModel.elements());
+			ComposeJob job = ComposeJob.builder(pieceFiles, outputFile)
+					.tamperHandler((tampered, index) -> {
+						return continueComposing = showImplantWarning();
+					})
+					.listener((snapshot) -> {
+						publish(snapshot);
+					})
+					.build();
 			
-			/* Total number of bytes loaded.
-			 * User for merging the last piece and tracking the progress. */
-			long totalLoaded = 0;
-			
-			/* Merge all pieces of file together.
-			 * Every iteration merges one piece to the whole file. */
-			for (int i = 0; i < pieces; i++) {
-				File pieceFile = listModel.get(i);
-				
-				/* If this is the last piece */
-				if (i == pieces - 1) {
-					pieceSize = getPieceLength(pieceFile);
-					loaderSize = getLoaderSize();
-				}
-				
-				/* Reading from piece starts. */
-				try (FileInputStream in = new FileInputStream(pieceFile)) {
-					/* Check if this piece is valid. */
-					checkImplant(in, i);
-					
-					byte[] buff = new byte[loaderSize];
-					int len;
-					long iterationLoaded = 0;
-					while ((len = in.read(buff)) > 0) {
-						out.write(buff, 0, len);
-						iterationLoaded += len;
-						totalLoaded += len;
-						setProgress((int) (100 * totalLoaded / totalSize));
-						if (iterationLoaded == pieceSize) {
-							/* This piece is done */
-							break;
-						} else if (pieceSize - iterationLoaded < loaderSize) {
-							/* This will be the last iteration of this while-loop */
-							buff = new byte[(int) (pieceSize - iterationLoaded)];
-						}
-					}
-				} catch (IOException e) {
-					showError("An unknown I/O error has occured!");
-					out.close();
-					return null;
-				} catch (ArrayStoreException e) {
+			/* The user is waiting, so the job goes ahead of background jobs. */
+			try {
+				JobScheduler.shared().submit(() -> engine.compose(job), JobPriority.INTERACTIVE,
+						piece, outputFile).get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof PieceTamperedException) {
 					showError("Decomposed pieces have been modified!");
-					out.close();
-					return null;
+				} else if (e.getCause() instanceof IOException) {
+					showError("An I/O error has occured: " + e.getCause().getMessage());
+				} else {
+					throw e;
 				}
 			}
 			
-			out.close();
 			return null;
 		}
 		
+		/**
+		 * Shows the most recent progress snapshot in the progress bar.
+		 */
+		@Override
+		protected void process(List<ProgressSnapshot> snapshots) {
+			ProgressSnapshot snapshot = snapshots.get(snapshots.size() - 1);
+			progressBar.setValue(snapshot.getPercent());
+			progressBar.setString(snapshot.toString());
+		}
+		
 		/**
 		 * Simply re-enables every disabled GUI component.
 		 */
 		@Override
 		protected void done() {
 			/* Re-enable GUI components */
-			composeBtn.setEnabled(true);
-			openBtn.setEnabled(true);
+			setButtonsEnabled(true);
 			
 			/* Reset the implant warning value */
 			continueComposing = false;
 		}
 		
-		/**
-		 * Returns the optimal byte array size used for loading from the input
-		 * file. More formally, this method returns the smaller value between
-		 * the standard loader size and piece size.
-		 * 
-		 * @return the smaller value between the standard loader size and piece size
-		 */
-		private int getLoaderSize() {
-			return pieceSize < STD_LOADER_SIZE ? pieceSize.intValue() : STD_LOADER_SIZE;
-		}
-		
-		/**
-		 * Check if this piece has a valid implant, given by the {@code i}
-		 * param. If the implant is incorrect or can not be found, an
-		 * {@linkplain ArrayStoreException} is thrown.
-		 * 
-		 * @param out FileOutputStream of this piece
-		 * @param i this piece's ordinal number
-		 * @throws IOException if an I/O exception occurs
-		 * @throws ArrayStoreException if the implant is invalid
-		 */
-		private void checkImplant(FileInputStream in, int i) throws IOException, ArrayStoreException {
-			ByteBuffer b = ByteBuffer.allocate(IMPLANT_LENGTH);
-			b.putInt(i);
-			byte[] result = b.array();
-			
-			byte[] readings = new byte[result.length];
-			in.read(readings);
-
-			/* If arrays are not of the same contents, ask the user what to do.
-			 * Continue with composing or stop the process?
-			 * Note that the user is asked this only once upon composing. */
-			if (!Arrays.equals(result, readings)) {
-				if (continueComposing) return;
-				
-				continueComposing = showImplantWarning();
-				if (!continueComposing) {
-					throw new ArrayStoreException();
-				}
-			}
-		}
-
 		/**
 		 * Shows an error message with the desired text.
 		 * 
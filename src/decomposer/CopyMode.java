@@ -0,0 +1,49 @@
+package decomposer;
+
+/**
+ * Ways of copying data between the original file and its pieces. The mode is
+ * selected per job and reported in the {@linkplain JobStats}, so different
+ * modes can be compared on the same data.
+ *
+ * @author Mario Bobic
+ */
+public enum CopyMode {
+
+	/**
+	 * Data is moved by the operating system using {@code transferTo} and
+	 * {@code transferFrom}, without passing through the Java heap.
+	 */
+	TRANSFER,
+
+	/**
+	 * Data is copied through a direct buffer using positional reads and
+	 * writes.
+	 */
+	BUFFERED,
+
+	/**
+	 * The original file is mapped into memory in windows of
+	 * {@linkplain DecomposerConstants#MAP_WINDOW_SIZE} bytes, and mapped
+	 * regions are copied straight from or into the piece channels. Every
+	 * window is unmapped as soon as it has been copied, so the address space
+	 * used by a job stays bounded. A window of the composed file is forced
+	 * before it is unmapped whenever the durability of the job or its
+	 * checkpoints require the composed file to be forced.
+	 */
+	MAPPED,
+
+	/**
+	 * Data is copied through a bounded ring of direct buffers, filled by a
+	 * reader thread while the copying thread drains it, so reading and
+	 * writing overlap. The number of buffers is the pipeline depth of the job.
+	 */
+	PIPELINED,
+
+	/**
+	 * Like {@linkplain #PIPELINED}, but the ring is filled by asynchronous
+	 * reads of an {@linkplain java.nio.channels.AsynchronousFileChannel}
+	 * issued ahead, instead of by a reader thread.
+	 */
+	ASYNC
+
+}
@@ -0,0 +1,391 @@
+package decomposer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Copies a range of data through a bounded ring of buffers, which are filled
+ * by a reader and drained by a writer at the same time. While one buffer is
+ * being written, the following ones are being read, so reading from one
+ * device and writing to another overlaps fully instead of leaving each
+ * device idle half of the time.
+ * <p>
+ * The ring holds a fixed number of buffers, its depth. Once all buffers are
+ * full, the reader waits for the writer to drain one, so a slow target
+ * holds the reader back instead of filling the memory. Buffers are taken
+ * from a {@linkplain BufferPool} for the duration of a copy.
+ * <p>
+ * Data is read either by a reader thread, from any source, or by
+ * {@linkplain AsynchronousFileChannel asynchronous reads}, as many of them
+ * outstanding as the depth of the ring. Data is always written, and the
+ * digest updated, by the calling thread in the order of the range. Reader
+ * threads are never interrupted, since interrupting a thread blocked in a
+ * file channel closes the channel, which may be shared by other copies.
+ *
+ * @author Mario Bobic
+ */
+final class CopyPipeline {
+
+	/** Threads reading the data of the copies, shared by all pipelines */
+	private static final ExecutorService READERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "decomposer-reader-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Marks the end of the data of a failed reader */
+	private static final ByteBuffer FAILED = ByteBuffer.allocate(0);
+
+	/** Pool of the buffers of the ring */
+	private final BufferPool pool;
+	/** Capacity of every buffer of the ring */
+	private final int bufferSize;
+	/** Number of buffers of the ring */
+	private final int depth;
+
+	/**
+	 * Constructs a new pipeline.
+	 *
+	 * @param pool pool of the buffers of the ring
+	 * @param bufferSize capacity of every buffer of the ring
+	 * @param depth number of buffers of the ring, at least 2
+	 */
+	public CopyPipeline(BufferPool pool, int bufferSize, int depth) {
+		this.pool = pool;
+		this.bufferSize = bufferSize;
+		this.depth = depth;
+	}
+
+	/**
+	 * Returns the capacity of every buffer of the ring.
+	 *
+	 * @return the buffer size
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Copies a range of the specified length, reading it on a reader thread
+	 * and writing it on the calling thread.
+	 *
+	 * @param in source of the range
+	 * @param out sink of the range
+	 * @param length length of the range
+	 * @param digest digest updated with the range, or null
+	 * @param progress consumer of the number of bytes written after every buffer
+	 * @throws EOFException if the source ends before the range does
+	 * @throws InterruptedIOException if the calling thread is interrupted
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void copy(Source in, Sink out, long length, PieceDigest digest, LongConsumer progress) throws IOException {
+		int buffers = buffers(length);
+		BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(buffers);
+		/* One more slot, so that the failure mark always fits. */
+		BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(buffers + 1);
+		for (int i = 0; i < buffers; i++) {
+			free.add(pool.acquire(bufferSize));
+		}
+		Reader reader = new Reader(in, length, free, filled);
+		Future<?> reading = READERS.submit(reader);
+
+		try {
+			long done = 0;
+			while (done < length) {
+				ByteBuffer b = filled.take();
+				if (b == FAILED) {
+					break;
+				}
+				int n = b.remaining();
+				try {
+					if (digest != null) {
+						digest.update(b);
+					}
+					out.write(b, done);
+				} finally {
+					free.add(b);
+				}
+				done += n;
+				progress.accept(n);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while copying");
+		} finally {
+			reader.stopped = true;
+			/* Unblock the reader, and wait for it before its buffers go back to the pool. */
+			for (ByteBuffer b; (b = filled.poll()) != null; ) {
+				if (b != FAILED) {
+					free.add(b);
+				}
+			}
+			awaitUninterruptibly(reading);
+			for (ByteBuffer b : filled) {
+				if (b != FAILED) {
+					free.add(b);
+				}
+			}
+			for (ByteBuffer b : free) {
+				pool.release(b);
+			}
+		}
+		if (reader.failure != null) {
+			throw reader.failure;
+		}
+	}
+
+	/**
+	 * Copies a range of the specified length, reading it by asynchronous
+	 * reads issued ahead and writing it on the calling thread.
+	 *
+	 * @param in channel of the source
+	 * @param position position of the range in the source
+	 * @param out sink of the range
+	 * @param length length of the range
+	 * @param digest digest updated with the range, or null
+	 * @param progress consumer of the number of bytes written after every buffer
+	 * @throws EOFException if the source ends before the range does
+	 * @throws InterruptedIOException if the calling thread is interrupted
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void copy(AsynchronousFileChannel in, long position, Sink out, long length, PieceDigest digest,
+			LongConsumer progress) throws IOException {
+		int buffers = buffers(length);
+		Deque<ByteBuffer> free = new ArrayDeque<>(buffers);
+		Deque<ByteBuffer> reading = new ArrayDeque<>(buffers);
+		Deque<Future<Integer>> reads = new ArrayDeque<>(buffers);
+		for (int i = 0; i < buffers; i++) {
+			free.add(pool.acquire(bufferSize));
+		}
+
+		try {
+			long issued = 0;
+			long done = 0;
+			while (done < length) {
+				/* Keep every free buffer busy reading ahead. */
+				while (!free.isEmpty() && issued < length) {
+					ByteBuffer b = free.poll();
+					b.clear();
+					b.limit((int) Math.min(b.capacity(), length - issued));
+					reads.add(in.read(b, position + issued));
+					reading.add(b);
+					issued += b.limit();
+				}
+
+				ByteBuffer b = reading.peek();
+				int n = get(reads.peek());
+				reads.poll();
+				/* Short reads are completed before the buffer is written. */
+				while (b.hasRemaining()) {
+					if (n < 0) {
+						throw new EOFException("Unexpected end of file while copying");
+					}
+					n = get(in.read(b, position + done + b.position()));
+				}
+				reading.poll();
+				b.flip();
+				n = b.remaining();
+				try {
+					if (digest != null) {
+						digest.update(b);
+					}
+					out.write(b, done);
+				} finally {
+					free.add(b);
+				}
+				done += n;
+				progress.accept(n);
+			}
+		} finally {
+			/* Outstanding reads must finish before their buffers go back to the pool. */
+			for (Future<Integer> read : reads) {
+				awaitUninterruptibly(read);
+			}
+			for (ByteBuffer b : reading) {
+				pool.release(b);
+			}
+			for (ByteBuffer b : free) {
+				pool.release(b);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of buffers of the ring for a range of the specified
+	 * length, so that short ranges do not take more buffers than they fill.
+	 *
+	 * @param length length of the range
+	 * @return the number of buffers
+	 */
+	private int buffers(long length) {
+		return (int) Math.max(1, Math.min(depth, (length - 1) / bufferSize + 1));
+	}
+
+	/**
+	 * Returns the result of an asynchronous read, waiting for it to finish.
+	 * If the calling thread is interrupted, the read is still waited for, so
+	 * that its buffer is not reused while being read into.
+	 *
+	 * @param read the asynchronous read
+	 * @return the number of bytes read, or -1 at the end of the file
+	 * @throws InterruptedIOException if the calling thread is interrupted
+	 * @throws IOException if the read has failed
+	 */
+	private static int get(Future<Integer> read) throws IOException {
+		try {
+			return read.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		} catch (InterruptedException e) {
+			awaitUninterruptibly(read);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while copying");
+		}
+	}
+
+	/**
+	 * Waits for the specified task to finish, ignoring its failure and
+	 * keeping the interrupt status of the calling thread.
+	 *
+	 * @param future future of the task
+	 */
+	private static void awaitUninterruptibly(Future<?> future) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				future.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				break;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Fills the free buffers of the ring with the range, in order, until the
+	 * range ends or the writer stops.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static final class Reader implements Runnable {
+		/** Source of the range */
+		private final Source in;
+		/** Length of the range */
+		private final long length;
+		/** Buffers ready to be filled */
+		private final BlockingQueue<ByteBuffer> free;
+		/** Buffers ready to be written */
+		private final BlockingQueue<ByteBuffer> filled;
+		/** Set by the writer once it has stopped */
+		private volatile boolean stopped;
+		/** Failure of the reader, or null */
+		private volatile IOException failure;
+
+		/**
+		 * Constructs a new reader.
+		 *
+		 * @param in source of the range
+		 * @param length length of the range
+		 * @param free buffers ready to be filled
+		 * @param filled buffers ready to be written
+		 */
+		private Reader(Source in, long length, BlockingQueue<ByteBuffer> free, BlockingQueue<ByteBuffer> filled) {
+			this.in = in;
+			this.length = length;
+			this.free = free;
+			this.filled = filled;
+		}
+
+		@Override
+		public void run() {
+			try {
+				long done = 0;
+				while (done < length && !stopped) {
+					ByteBuffer b = free.take();
+					if (stopped) {
+						free.add(b);
+						break;
+					}
+					b.clear();
+					b.limit((int) Math.min(b.capacity(), length - done));
+					while (b.hasRemaining()) {
+						if (in.read(b, done + b.position()) < 0) {
+							free.add(b);
+							throw new EOFException("Unexpected end of file while copying");
+						}
+					}
+					b.flip();
+					done += b.remaining();
+					filled.add(b);
+				}
+			} catch (IOException | RuntimeException e) {
+				failure = e instanceof IOException ? (IOException) e : new IOException(e);
+				filled.add(FAILED);
+			} catch (InterruptedException e) {
+				failure = new InterruptedIOException("Interrupted while reading");
+				filled.add(FAILED);
+			}
+		}
+	}
+
+	/**
+	 * Source of the range of a copy.
+	 *
+	 * @author Mario Bobic
+	 */
+	interface Source {
+		/**
+		 * Reads some bytes of the range into the remaining space of the
+		 * buffer. Calls come in the order of the range.
+		 *
+		 * @param b buffer receiving the bytes
+		 * @param position position of the first byte in the range
+		 * @return the number of bytes read, or -1 at the end of the source
+		 * @throws IOException if an I/O error occurs
+		 */
+		int read(ByteBuffer b, long position) throws IOException;
+	}
+
+	/**
+	 * Sink of the range of a copy.
+	 *
+	 * @author Mario Bobic
+	 */
+	interface Sink {
+		/**
+		 * Writes all remaining bytes of the buffer. Calls come in the order
+		 * of the range.
+		 *
+		 * @param b buffer holding the bytes
+		 * @param position position of the first byte in the range
+		 * @throws IOException if an I/O error occurs
+		 */
+		void write(ByteBuffer b, long position) throws IOException;
+	}
+
+}
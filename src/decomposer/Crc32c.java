@@ -0,0 +1,167 @@
+package decomposer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * Computes the CRC32C (Castagnoli) checksum of data held in byte buffers. On
+ * Java 9 and newer the computation is delegated to
+ * {@code java.util.zip.CRC32C}, which the JVM replaces with hardware
+ * instructions. On Java 8 a portable slicing-by-8 implementation is used,
+ * which processes eight bytes per table lookup round.
+ *
+ * @author Mario Bobic
+ */
+public final class Crc32c {
+
+	/** Reversed Castagnoli polynomial */
+	private static final int POLYNOMIAL = 0x82F63B78;
+	/** Lookup tables of the portable implementation */
+	private static final int[][] TABLES = new int[8][256];
+
+	/** Constructor of the built-in checksum, or null if it is not available */
+	private static final MethodHandle NEW_BUILT_IN;
+	/** The {@code update(ByteBuffer)} method of the built-in checksum */
+	private static final MethodHandle UPDATE_BUILT_IN;
+
+	static {
+		for (int n = 0; n < 256; n++) {
+			int crc = n;
+			for (int k = 0; k < 8; k++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			}
+			TABLES[0][n] = crc;
+		}
+		for (int n = 0; n < 256; n++) {
+			for (int t = 1; t < 8; t++) {
+				int prev = TABLES[t - 1][n];
+				TABLES[t][n] = (prev >>> 8) ^ TABLES[0][prev & 0xFF];
+			}
+		}
+
+		MethodHandle newBuiltIn = null;
+		MethodHandle updateBuiltIn = null;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> builtIn = Class.forName("java.util.zip.CRC32C");
+			newBuiltIn = lookup.findConstructor(builtIn, MethodType.methodType(void.class))
+					.asType(MethodType.methodType(Checksum.class));
+			updateBuiltIn = lookup.findVirtual(Checksum.class, "update", MethodType.methodType(void.class, ByteBuffer.class));
+		} catch (ReflectiveOperationException e) {
+			/* Java 8, fall back to the portable implementation. */
+			newBuiltIn = null;
+			updateBuiltIn = null;
+		}
+		NEW_BUILT_IN = newBuiltIn;
+		UPDATE_BUILT_IN = updateBuiltIn;
+	}
+
+	/** The built-in checksum, or null if the portable implementation is used */
+	private final Checksum builtIn;
+	/** Running value of the portable implementation */
+	private int crc = 0xFFFFFFFF;
+
+	/**
+	 * Constructs a new checksum, using the built-in implementation if the
+	 * running JVM has one.
+	 */
+	public Crc32c() {
+		this(NEW_BUILT_IN != null);
+	}
+
+	/**
+	 * Constructs a new checksum using either the built-in or the portable
+	 * implementation.
+	 *
+	 * @param useBuiltIn true to use the built-in implementation
+	 */
+	private Crc32c(boolean useBuiltIn) {
+		builtIn = useBuiltIn ? newBuiltIn() : null;
+	}
+
+	/**
+	 * Returns a new checksum that always uses the portable implementation,
+	 * even if the running JVM has a built-in one. Useful for comparing the
+	 * two implementations.
+	 *
+	 * @return a new checksum using the portable implementation
+	 */
+	public static Crc32c portable() {
+		return new Crc32c(false);
+	}
+
+	/**
+	 * Updates the checksum with the remaining bytes of the specified buffer.
+	 * Upon return, the position of the buffer is equal to its limit.
+	 *
+	 * @param b buffer holding the data
+	 */
+	public void update(ByteBuffer b) {
+		if (builtIn != null) {
+			try {
+				UPDATE_BUILT_IN.invokeExact(builtIn, b);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new IllegalStateException(t);
+			}
+			return;
+		}
+
+		int c = crc;
+		int pos = b.position();
+		int limit = b.limit();
+		ByteBuffer le = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int[][] t = TABLES;
+		for (; pos + 8 <= limit; pos += 8) {
+			long v = le.getLong(pos);
+			int lo = (int) v ^ c;
+			int hi = (int) (v >>> 32);
+			c = t[7][lo & 0xFF] ^ t[6][(lo >>> 8) & 0xFF] ^ t[5][(lo >>> 16) & 0xFF] ^ t[4][lo >>> 24]
+					^ t[3][hi & 0xFF] ^ t[2][(hi >>> 8) & 0xFF] ^ t[1][(hi >>> 16) & 0xFF] ^ t[0][hi >>> 24];
+		}
+		for (; pos < limit; pos++) {
+			c = (c >>> 8) ^ t[0][(c ^ b.get(pos)) & 0xFF];
+		}
+		crc = c;
+		b.position(limit);
+	}
+
+	/**
+	 * Returns the checksum of all data this checksum has been updated with.
+	 *
+	 * @return the checksum
+	 */
+	public int getValue() {
+		return builtIn != null ? (int) builtIn.getValue() : ~crc;
+	}
+
+	/**
+	 * Returns true if the running JVM has a built-in CRC32C implementation.
+	 *
+	 * @return true if the built-in implementation is available
+	 */
+	public static boolean isBuiltInAvailable() {
+		return NEW_BUILT_IN != null;
+	}
+
+	/**
+	 * Creates a new instance of the built-in checksum.
+	 *
+	 * @return a new instance of the built-in checksum
+	 */
+	private static Checksum newBuiltIn() {
+		try {
+			return (Checksum) NEW_BUILT_IN.invokeExact();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+}
@@ -0,0 +1,797 @@
+package decomposer;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * An immutable description of a single decomposing job. A job tells the
+ * {@linkplain DecomposerEngine} which file to decompose, where to write the
+ * pieces and how many pieces to create. Jobs are created using the
+ * {@linkplain Builder} and may freely be shared between threads.
+ * <p>
+ * A job may also describe decomposing of a stream of unknown length, in which
+ * case it has no source file and pieces are cut at the target piece size.
+ * <p>
+ * The pieces may be striped across the output directory and any number of
+ * stripe directories, usually on different disks, so that the pieces are
+ * written to all disks at the same time. Pieces are placed round-robin, or
+ * in proportion to the weights of the directories, by their index alone.
+ * The manifest is written to the output directory and records the stripe
+ * directories.
+ *
+ * @author Mario Bobic
+ */
+public final class DecomposeJob {
+
+	/** File to be decomposed, or null when decomposing a stream */
+	private final File source;
+	/** Directory where the pieces are written to */
+	private final File outputDir;
+	/** Directories the pieces are striped across besides the output directory */
+	private final List<File> stripeDirs;
+	/** Directory of the pieces at every position of the stripe cycle, 0 for the output directory */
+	private final int[] stripeCycle;
+	/** Name of the pieces, without the index and extension */
+	private final String outputName;
+	/** Number of pieces to be created */
+	private final int pieces;
+	/** Target length of the data in every piece, or 0 to split by number of pieces */
+	private final long pieceSize;
+	/** Number of pieces placed in one subdirectory, or 0 for no subdirectories */
+	private final int shardSize;
+	/** Average size of content-defined chunks, or 0 for pieces of fixed size */
+	private final int chunkSize;
+	/** Maximal number of pieces written at the same time */
+	private final int parallelism;
+	/** Mode used for copying the data */
+	private final CopyMode copyMode;
+	/** Size of the buffers used for buffered copying, or 0 for tuned size */
+	private final int bufferSize;
+	/** Number of buffers of every copy pipeline */
+	private final int pipelineDepth;
+	/** Checksums stored at the end of every piece */
+	private final ChecksumMode checksum;
+	/** Codec compressing the data of every piece, or null to store it as it is */
+	private final Codec codec;
+	/** Number of parity pieces computed from the pieces */
+	private final int parityPieces;
+	/** True if a manifest is written next to the pieces */
+	private final boolean manifest;
+	/** Bytes written to a piece between two checkpoints, or 0 for no journal */
+	private final long checkpointInterval;
+	/** Way of forcing the written data to the storage device */
+	private final Durability durability;
+	/** Bytes written to a file between two batched syncs */
+	private final long syncInterval;
+	/** Listener notified about the progress of this job */
+	private final ProgressListener listener;
+
+	/**
+	 * Constructs a new job from the specified builder.
+	 *
+	 * @param builder builder containing the job properties
+	 */
+	private DecomposeJob(Builder builder) {
+		source = builder.source;
+		outputDir = builder.outputDir;
+		stripeDirs = Collections.unmodifiableList(new ArrayList<>(builder.stripeDirs));
+		stripeCycle = stripeCycle(builder.stripeWeights, 1 + stripeDirs.size());
+		outputName = builder.outputName;
+		pieces = builder.pieces;
+		pieceSize = builder.pieceSize;
+		shardSize = builder.shardSize;
+		chunkSize = builder.chunkSize;
+		parallelism = builder.parallelism;
+		checksum = builder.checksum;
+		codec = builder.codec;
+		parityPieces = builder.parityPieces;
+		manifest = builder.manifest;
+		checkpointInterval = builder.checkpointInterval;
+		durability = builder.durability;
+		syncInterval = builder.syncInterval;
+		CopyMode mode = builder.copyMode != null ? builder.copyMode
+				: parallelism > 1 ? CopyMode.BUFFERED : CopyMode.TRANSFER;
+		/* Checksummed data has to pass through a buffer. */
+		copyMode = mode == CopyMode.TRANSFER && checksum != ChecksumMode.NONE ? CopyMode.BUFFERED : mode;
+		bufferSize = builder.bufferSize;
+		pipelineDepth = builder.pipelineDepth;
+		listener = builder.listener;
+	}
+
+	/**
+	 * Returns a new builder for a job decomposing the specified file. The
+	 * pieces are by default written next to the source file, named after it.
+	 *
+	 * @param source file to be decomposed
+	 * @return a new builder for a job decomposing the specified file
+	 */
+	public static Builder builder(File source) {
+		if (source == null) {
+			throw new IllegalArgumentException("Source file must not be null");
+		}
+		return new Builder(source, source.getAbsoluteFile().getParentFile(), source.getName());
+	}
+
+	/**
+	 * Returns a new builder for a job decomposing a stream of unknown length.
+	 * The target piece size must be set before building the job.
+	 *
+	 * @param outputDir directory where the pieces are written to
+	 * @param outputName name of the pieces
+	 * @return a new builder for a job decomposing a stream
+	 */
+	public static Builder streamBuilder(File outputDir, String outputName) {
+		return new Builder(null, outputDir, null).outputName(outputName);
+	}
+
+	/**
+	 * Returns the file to be decomposed, or null if the job decomposes a
+	 * stream.
+	 *
+	 * @return the file to be decomposed, or null
+	 */
+	public File getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the directory where the pieces are written to.
+	 *
+	 * @return the directory where the pieces are written to
+	 */
+	public File getOutputDir() {
+		return outputDir;
+	}
+
+	/**
+	 * Returns an unmodifiable list of the directories the pieces are striped
+	 * across besides the output directory.
+	 *
+	 * @return the stripe directories, empty if the pieces are not striped
+	 */
+	public List<File> getStripeDirs() {
+		return stripeDirs;
+	}
+
+	/**
+	 * Returns true if the pieces are striped across several directories.
+	 *
+	 * @return true if the pieces are striped
+	 */
+	public boolean isStriped() {
+		return !stripeDirs.isEmpty();
+	}
+
+	/**
+	 * Returns the number of the directory of the piece with the specified
+	 * ordinal number, where 0 is the output directory and every following
+	 * number is a stripe directory. Parity pieces are numbered after the
+	 * pieces.
+	 *
+	 * @param i ordinal number of the piece
+	 * @return the number of the directory of the piece
+	 */
+	public int getStripe(int i) {
+		return stripeCycle[i % stripeCycle.length];
+	}
+
+	/**
+	 * Returns the directory of the piece with the specified ordinal number.
+	 *
+	 * @param i ordinal number of the piece
+	 * @return the directory of the piece
+	 * @see #getStripe(int)
+	 */
+	public File getPieceDir(int i) {
+		int stripe = getStripe(i);
+		return stripe == 0 ? outputDir : stripeDirs.get(stripe - 1);
+	}
+
+	/**
+	 * Returns the name of the pieces, without the index and extension.
+	 *
+	 * @return the name of the pieces
+	 */
+	public String getOutputName() {
+		return outputName;
+	}
+
+	/**
+	 * Returns the number of pieces to be created. This number is not used if
+	 * the target piece size is set.
+	 *
+	 * @return the number of pieces to be created
+	 */
+	public int getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns the target length of the data in every piece. If set, every
+	 * piece except the last one holds exactly this many bytes, and the number
+	 * of pieces follows from the length of the source.
+	 *
+	 * @return the target piece size, or 0 to split by number of pieces
+	 */
+	public long getPieceSize() {
+		return pieceSize;
+	}
+
+	/**
+	 * Returns the number of pieces placed in one subdirectory of the output
+	 * directory. Sharding keeps directories small when a file is split into
+	 * tens of thousands of pieces.
+	 *
+	 * @return the number of pieces per subdirectory, or 0 for no subdirectories
+	 * @see DecomposerEngine#piecePath(String, int, int, int)
+	 */
+	public int getShardSize() {
+		return shardSize;
+	}
+
+	/**
+	 * Returns the average size of content-defined chunks. If the size is not
+	 * 0, the file is cut at boundaries found in its content instead of at
+	 * fixed offsets, and the chunks are written into a deduplicating
+	 * {@linkplain ChunkStore store} in the output directory, together with a
+	 * manifest listing the chunks of the file. Chunks already in the store are
+	 * not written again, so decomposing a new version of a file writes only
+	 * the chunks around the changes.
+	 * <p>
+	 * Chunks always carry {@linkplain ChecksumMode#SHA256 SHA-256} checksums,
+	 * and are neither sharded nor journaled, since running a killed job again
+	 * skips the chunks already stored.
+	 *
+	 * @return the average chunk size, or 0 for pieces of fixed size
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the maximal number of pieces written at the same time. If the
+	 * parallelism is greater than one, every piece is written by its own task
+	 * using positional reads of the source.
+	 *
+	 * @return the maximal number of pieces written at the same time
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Returns the mode used for copying the data. Unless set explicitly, the
+	 * data is transferred by sequential jobs and buffered by parallel ones.
+	 * Jobs computing checksums never transfer the data, they buffer it instead.
+	 *
+	 * @return the mode used for copying the data
+	 */
+	public CopyMode getCopyMode() {
+		return copyMode;
+	}
+
+	/**
+	 * Returns the checksums stored at the end of every piece, computed while
+	 * the piece is being written.
+	 *
+	 * @return the checksums stored at the end of every piece
+	 */
+	public ChecksumMode getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Returns the codec compressing the data of every piece. Every piece is
+	 * compressed by its own task, so pieces are compressed in parallel if the
+	 * parallelism is greater than one. Blocks of data that do not compress
+	 * well are stored as they are. Compressed data always passes through a
+	 * buffer, regardless of the copy mode.
+	 *
+	 * @return the codec, or null if the data is stored as it is
+	 */
+	public Codec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Returns the number of parity pieces computed from the pieces, which
+	 * allow composing the file even if as many of its pieces are missing or
+	 * damaged. The parity pieces are listed in the manifest.
+	 * <p>
+	 * Parity is computed over stripes of all pieces at once, so a job with
+	 * parity pieces reads the file in a single sequential pass, writing all
+	 * pieces and parity pieces side by side, regardless of the copy mode. The
+	 * parallelism then sets the number of threads computing the parity of
+	 * every stripe. Since every stripe holds a block of every piece, there
+	 * can be at most {@value ParityCodec#MAX_TOTAL} pieces and parity pieces
+	 * together.
+	 *
+	 * @return the number of parity pieces, or 0 for none
+	 */
+	public int getParityPieces() {
+		return parityPieces;
+	}
+
+	/**
+	 * Returns true if a {@linkplain Manifest} is written next to the pieces
+	 * once all of them have been written.
+	 *
+	 * @return true if a manifest is written
+	 */
+	public boolean isManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Returns the number of bytes written to a piece between two checkpoints
+	 * recorded in the {@linkplain CheckpointJournal journal} of this job. If
+	 * the interval is 0, no journal is kept and the job can not be resumed.
+	 * Streams can not be read again, so decomposing a stream keeps no journal.
+	 *
+	 * @return the checkpoint interval in bytes, or 0 for no journal
+	 */
+	public long getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Returns the way the pieces and the manifest of this job are forced to the
+	 * storage device.
+	 *
+	 * @return the durability, never null
+	 */
+	public Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * Returns the number of bytes written to a file between two syncs of
+	 * the {@linkplain Durability#BATCHED batched} durability.
+	 *
+	 * @return the sync interval in bytes
+	 */
+	public long getSyncInterval() {
+		return syncInterval;
+	}
+
+	/**
+	 * Returns the size of the buffers used for buffered copying. If the size
+	 * is 0, it is tuned from the throughput measured on the first few
+	 * megabytes of the job.
+	 *
+	 * @return the size of the buffers, or 0 for tuned size
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the number of buffers of every copy pipeline of this job, used
+	 * by the {@linkplain CopyMode#PIPELINED pipelined} and {@linkplain
+	 * CopyMode#ASYNC asynchronous} copy modes. The reader of a pipeline is
+	 * at most this many buffers ahead of its writer.
+	 *
+	 * @return the pipeline depth
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	/**
+	 * Returns the listener notified about the progress of this job.
+	 *
+	 * @return the progress listener, never null
+	 */
+	public ProgressListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Returns the directories of the pieces in the order they are visited,
+	 * interleaved by smooth weighted round-robin, so that every directory
+	 * gets its share of every window of consecutive pieces instead of runs of
+	 * pieces in a row.
+	 *
+	 * @param weights weights of the directories, or null for equal weights
+	 * @param dirs number of directories
+	 * @return the directories of the pieces in one cycle
+	 */
+	private static int[] stripeCycle(int[] weights, int dirs) {
+		if (weights == null) {
+			int[] cycle = new int[dirs];
+			for (int d = 0; d < dirs; d++) {
+				cycle[d] = d;
+			}
+			return cycle;
+		}
+		int total = 0;
+		for (int w : weights) {
+			total += w;
+		}
+		int[] cycle = new int[total];
+		int[] current = new int[dirs];
+		for (int k = 0; k < total; k++) {
+			int best = 0;
+			for (int d = 0; d < dirs; d++) {
+				current[d] += weights[d];
+				if (current[d] > current[best]) {
+					best = d;
+				}
+			}
+			current[best] -= total;
+			cycle[k] = best;
+		}
+		return cycle;
+	}
+
+	/**
+	 * A builder of the {@linkplain DecomposeJob}. The builder itself is not
+	 * thread-safe, but the jobs it builds are.
+	 *
+	 * @author Mario Bobic
+	 */
+	public static final class Builder {
+		private final File source;
+		private File outputDir;
+		private List<File> stripeDirs = Collections.emptyList();
+		private int[] stripeWeights;
+		private String outputName;
+		private int pieces = OPTIMAL_NUM_PIECES;
+		private long pieceSize;
+		private int shardSize;
+		private int chunkSize;
+		private int parallelism = 1;
+		private CopyMode copyMode;
+		private int bufferSize;
+		private int pipelineDepth = PIPELINE_DEPTH;
+		private ChecksumMode checksum = ChecksumMode.CRC32C;
+		private Codec codec;
+		private int parityPieces;
+		private boolean manifest = true;
+		private long checkpointInterval;
+		private Durability durability = Durability.NONE;
+		private long syncInterval = SYNC_INTERVAL;
+		private ProgressListener listener = ProgressListener.NONE;
+
+		/**
+		 * Constructs a new builder with the specified initial properties.
+		 *
+		 * @param source file to be decomposed, or null for a stream
+		 * @param outputDir directory where the pieces are written to
+		 * @param outputName name of the pieces
+		 */
+		private Builder(File source, File outputDir, String outputName) {
+			this.source = source;
+			this.outputDir = outputDir;
+			this.outputName = outputName;
+		}
+
+		/**
+		 * Sets the directory where the pieces are written to.
+		 *
+		 * @param outputDir output directory
+		 * @return this builder
+		 */
+		public Builder outputDir(File outputDir) {
+			this.outputDir = outputDir;
+			return this;
+		}
+
+		/**
+		 * Sets the directories the pieces are striped across besides the
+		 * output directory, which holds the first stripe and the manifest.
+		 * The parallelism of the job should be at least the number of all
+		 * directories, so that all of them are written at the same time.
+		 *
+		 * @param stripeDirs stripe directories, or null or empty for no striping
+		 * @return this builder
+		 */
+		public Builder stripeDirs(List<File> stripeDirs) {
+			this.stripeDirs = stripeDirs != null ? new ArrayList<>(stripeDirs) : Collections.<File>emptyList();
+			return this;
+		}
+
+		/**
+		 * Sets the weights of the output directory followed by the stripe
+		 * directories. Every directory receives a share of the pieces in
+		 * proportion to its weight, for example to give a faster disk more
+		 * pieces.
+		 *
+		 * @param stripeWeights weights of all directories, or null for equal weights
+		 * @return this builder
+		 */
+		public Builder stripeWeights(int... stripeWeights) {
+			this.stripeWeights = stripeWeights != null && stripeWeights.length > 0 ? stripeWeights.clone() : null;
+			return this;
+		}
+
+		/**
+		 * Sets the name of the pieces. The default file extension is stripped
+		 * off the name if present.
+		 *
+		 * @param outputName name of the pieces
+		 * @return this builder
+		 */
+		public Builder outputName(String outputName) {
+			if (outputName != null && outputName.endsWith(FILE_EXTENSION)) {
+				outputName = outputName.substring(0, outputName.length() - FILE_EXTENSION.length());
+			}
+			this.outputName = outputName;
+			return this;
+		}
+
+		/**
+		 * Sets the number of pieces to be created.
+		 *
+		 * @param pieces number of pieces
+		 * @return this builder
+		 */
+		public Builder pieces(int pieces) {
+			this.pieces = pieces;
+			return this;
+		}
+
+		/**
+		 * Sets the target length of the data in every piece. If set, the
+		 * number of pieces is ignored.
+		 *
+		 * @param pieceSize target piece size, or 0 to split by number of pieces
+		 * @return this builder
+		 */
+		public Builder pieceSize(long pieceSize) {
+			this.pieceSize = pieceSize;
+			return this;
+		}
+
+		/**
+		 * Sets the number of pieces placed in one subdirectory of the output
+		 * directory.
+		 *
+		 * @param shardSize number of pieces per subdirectory, or 0 for no subdirectories
+		 * @return this builder
+		 */
+		public Builder shardSize(int shardSize) {
+			this.shardSize = shardSize;
+			return this;
+		}
+
+		/**
+		 * Sets the average size of content-defined chunks written into a
+		 * deduplicating store in the output directory. If set, the number of
+		 * pieces is ignored, and a piece size, sharding, checkpoints or
+		 * leaving out the manifest are rejected.
+		 *
+		 * @param chunkSize average chunk size, or 0 for pieces of fixed size
+		 * @return this builder
+		 */
+		public Builder chunkSize(int chunkSize) {
+			this.chunkSize = chunkSize;
+			return this;
+		}
+
+		/**
+		 * Sets the maximal number of pieces written at the same time.
+		 *
+		 * @param parallelism level of parallelism, 1 for sequential decomposing
+		 * @return this builder
+		 */
+		public Builder parallelism(int parallelism) {
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Sets the mode used for copying the data.
+		 *
+		 * @param copyMode copy mode, or null for the default mode
+		 * @return this builder
+		 */
+		public Builder copyMode(CopyMode copyMode) {
+			this.copyMode = copyMode;
+			return this;
+		}
+
+		/**
+		 * Sets the size of the buffers used for buffered copying.
+		 *
+		 * @param bufferSize buffer size, or 0 for tuned size
+		 * @return this builder
+		 */
+		public Builder bufferSize(int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * Sets the checksums stored at the end of every piece.
+		 *
+		 * @param checksum checksum mode, or null for no checksums
+		 * @return this builder
+		 */
+		public Builder checksum(ChecksumMode checksum) {
+			this.checksum = checksum != null ? checksum : ChecksumMode.NONE;
+			return this;
+		}
+
+		/**
+		 * Sets the codec compressing the data of every piece.
+		 *
+		 * @param codec codec, or null to store the data as it is
+		 * @return this builder
+		 */
+		public Builder codec(Codec codec) {
+			this.codec = codec;
+			return this;
+		}
+
+		/**
+		 * Sets the number of parity pieces computed from the pieces.
+		 *
+		 * @param parityPieces number of parity pieces, or 0 for none
+		 * @return this builder
+		 */
+		public Builder parityPieces(int parityPieces) {
+			this.parityPieces = parityPieces;
+			return this;
+		}
+
+		/**
+		 * Sets whether a manifest is written next to the pieces.
+		 *
+		 * @param manifest true to write a manifest
+		 * @return this builder
+		 */
+		public Builder manifest(boolean manifest) {
+			this.manifest = manifest;
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes written to a piece between two checkpoints.
+		 * Every checkpoint forces the written data to the storage device, so
+		 * a killed job can be resumed from the last checkpoint.
+		 *
+		 * @param checkpointInterval checkpoint interval in bytes, or 0 for no journal
+		 * @return this builder
+		 */
+		public Builder checkpointInterval(long checkpointInterval) {
+			this.checkpointInterval = checkpointInterval;
+			return this;
+		}
+
+		/**
+		 * Sets the number of buffers of every copy pipeline, used by the
+		 * pipelined and asynchronous copy modes.
+		 *
+		 * @param pipelineDepth pipeline depth, at least 2
+		 * @return this builder
+		 */
+		public Builder pipelineDepth(int pipelineDepth) {
+			this.pipelineDepth = pipelineDepth;
+			return this;
+		}
+
+		/**
+		 * Sets the way the written data is forced to the storage device.
+		 *
+		 * @param durability durability, or null for no forcing
+		 * @return this builder
+		 */
+		public Builder durability(Durability durability) {
+			this.durability = durability != null ? durability : Durability.NONE;
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes written to a file between two syncs of the
+		 * {@linkplain Durability#BATCHED batched} durability.
+		 *
+		 * @param syncInterval sync interval in bytes
+		 * @return this builder
+		 */
+		public Builder syncInterval(long syncInterval) {
+			this.syncInterval = syncInterval;
+			return this;
+		}
+
+		/**
+		 * Sets the listener notified about the progress of the job.
+		 *
+		 * @param listener progress listener, may be null
+		 * @return this builder
+		 */
+		public Builder listener(ProgressListener listener) {
+			this.listener = listener != null ? listener : ProgressListener.NONE;
+			return this;
+		}
+
+		/**
+		 * Builds and returns a new job with properties of this builder.
+		 *
+		 * @return a new job with properties of this builder
+		 * @throws IllegalArgumentException if any of the properties is invalid
+		 */
+		public DecomposeJob build() {
+			if (outputDir == null || outputName == null || outputName.isEmpty()) {
+				throw new IllegalArgumentException("Output path and output name must not be empty");
+			}
+			if (chunkSize != 0 && (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE)) {
+				throw new IllegalArgumentException("Chunk size must be between " + MIN_CHUNK_SIZE + " and " + MAX_CHUNK_SIZE);
+			}
+			if (chunkSize != 0 && (source == null || codec != null)) {
+				throw new IllegalArgumentException("Only uncompressed files can be split into chunks");
+			}
+			if (chunkSize != 0 && (pieceSize != 0 || shardSize != 0)) {
+				throw new IllegalArgumentException("Chunks can not have a piece size or be sharded");
+			}
+			if (chunkSize != 0 && (!manifest || checkpointInterval != 0)) {
+				throw new IllegalArgumentException("Chunks require a manifest and can not be checkpointed");
+			}
+			if (pieceSize < 0 || source == null && pieceSize == 0) {
+				throw new IllegalArgumentException("Please specify a positive piece size");
+			}
+			if (pieceSize == 0 && chunkSize == 0 && (pieces < MIN_PIECES || pieces > MAX_PIECES)) {
+				throw new IllegalArgumentException("Number of pieces must be between " + MIN_PIECES + " and " + MAX_PIECES);
+			}
+			if (shardSize < 0) {
+				throw new IllegalArgumentException("Shard size must not be negative");
+			}
+			if (parallelism < 1) {
+				throw new IllegalArgumentException("Parallelism must be at least 1");
+			}
+			if (bufferSize != 0 && (bufferSize < MIN_BUFFER_SIZE || bufferSize > MAX_BUFFER_SIZE)) {
+				throw new IllegalArgumentException("Buffer size must be between " + MIN_BUFFER_SIZE + " and " + MAX_BUFFER_SIZE);
+			}
+			if (pipelineDepth < 2) {
+				throw new IllegalArgumentException("Pipeline depth must be at least 2");
+			}
+			if (checkpointInterval < 0) {
+				throw new IllegalArgumentException("Checkpoint interval must not be negative");
+			}
+			if (syncInterval <= 0) {
+				throw new IllegalArgumentException("Sync interval must be positive");
+			}
+			if (source == null && codec != null) {
+				throw new IllegalArgumentException("Streams can not be compressed");
+			}
+			if (parityPieces < 0) {
+				throw new IllegalArgumentException("Number of parity pieces must not be negative");
+			}
+			if (parityPieces > 0 && (source == null || codec != null || chunkSize != 0)) {
+				throw new IllegalArgumentException("Parity can only be computed for uncompressed pieces of a file");
+			}
+			if (parityPieces > 0 && (!manifest || checkpointInterval != 0)) {
+				throw new IllegalArgumentException("Parity pieces require a manifest and can not be checkpointed");
+			}
+			if (!stripeDirs.isEmpty() && chunkSize != 0) {
+				throw new IllegalArgumentException("Chunks can not be striped");
+			}
+			Set<Path> dirs = new HashSet<>();
+			dirs.add(outputDir.getAbsoluteFile().toPath().normalize());
+			for (File dir : stripeDirs) {
+				if (dir == null || !dirs.add(dir.getAbsoluteFile().toPath().normalize())) {
+					throw new IllegalArgumentException("Stripe directories must differ from each other and from the output directory");
+				}
+			}
+			if (stripeWeights != null) {
+				if (stripeWeights.length != 1 + stripeDirs.size()) {
+					throw new IllegalArgumentException("There must be one stripe weight for every directory, including the output directory");
+				}
+				for (int w : stripeWeights) {
+					if (w < 1 || w > MAX_PIECES) {
+						throw new IllegalArgumentException("Stripe weights must be between 1 and " + MAX_PIECES);
+					}
+				}
+			}
+			return new DecomposeJob(this);
+		}
+	}
+
+}
@@ -0,0 +1,392 @@
+package decomposer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import decomposer.DecomposerEngine.PieceSlot;
+
+import static decomposer.DecomposerConstants.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A read-only channel over the original file of decomposed pieces, which
+ * reads any range of the file straight from its pieces, without composing
+ * it. Pieces are laid out exactly as for composing, by their manifest, their
+ * headers or, for legacy pieces, their lengths, and every position of the
+ * file is mapped to the piece holding it.
+ * <p>
+ * At most {@value #OPEN_PIECES} pieces are kept open at a time, the least
+ * recently used one is closed first. Sequential reads are served from a
+ * read-ahead window which doubles with every sequential read up to {@value
+ * DecomposerConstants#READ_AHEAD_SIZE} bytes, while random reads read only
+ * a little more than they need. Compressed pieces are read one compressed
+ * block at a time, found without decompressing the preceding blocks.
+ * <p>
+ * The checksums of the pieces are not verified, since only whole pieces can
+ * be verified. Pieces should be {@linkplain DecomposerEngine#verify verified}
+ * first if they may have been damaged. The channel is thread-safe, but reads
+ * are served one at a time.
+ *
+ * @author Mario Bobic
+ */
+public final class DecomposedFileChannel implements SeekableByteChannel {
+
+	/** Maximal number of pieces open at the same time */
+	private static final int OPEN_PIECES = 8;
+
+	/** Name of the original file */
+	private final String name;
+	/** All pieces in the order of the original file */
+	private final List<PieceSlot> slots;
+	/** Offset of every piece in the original file */
+	private final long[] starts;
+	/** Length of the original file */
+	private final long size;
+	/** Open pieces, from the least to the most recently used */
+	private final LinkedHashMap<Integer, FileChannel> open = new LinkedHashMap<>(16, 0.75f, true);
+	/** Positions of the blocks of every compressed piece read so far */
+	private final Map<Integer, long[]> blocks = new HashMap<>();
+
+	/** Decompressor of compressed pieces, or null if none has been read */
+	private Codec.Decompressor decompressor;
+	/** Codec of the decompressor */
+	private Codec decompressorCodec;
+	/** Data read ahead, allocated upon the first read */
+	private byte[] window;
+	/** Position of the data read ahead in the original file */
+	private long windowStart;
+	/** Length of the data read ahead */
+	private int windowLength;
+	/** Current position in the original file */
+	private long position;
+	/** Position where the previous read ended, or -1 */
+	private long lastEnd = -1;
+	/** Number of bytes read ahead by the next read */
+	private int readAhead = MIN_BUFFER_SIZE;
+	/** True until this channel is closed */
+	private boolean isOpen = true;
+
+	/**
+	 * Constructs a new channel over the specified pieces.
+	 *
+	 * @param name name of the original file
+	 * @param slots all pieces in the order of the original file
+	 */
+	private DecomposedFileChannel(String name, List<PieceSlot> slots) {
+		this.name = name;
+		this.slots = slots;
+		this.starts = new long[slots.size()];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = slots.get(i).offset;
+		}
+		PieceSlot last = slots.get(slots.size() - 1);
+		this.size = last.offset + last.length;
+	}
+
+	/**
+	 * Opens a channel over the original file of the pieces listed in the
+	 * specified manifest. No piece is opened until it is read.
+	 *
+	 * @param manifest manifest listing the pieces
+	 * @return a channel over the original file
+	 * @throws IOException if a piece is missing, or the codec of the pieces
+	 *         is unknown
+	 */
+	public static DecomposedFileChannel open(Manifest manifest) throws IOException {
+		if (!manifest.getMissing().isEmpty()) {
+			throw new IOException("Piece " + (manifest.getMissing().get(0) + 1) + " of " + manifest.getName() + " is missing");
+		}
+		return new DecomposedFileChannel(manifest.getName(), DecomposerEngine.layout(manifest));
+	}
+
+	/**
+	 * Opens a channel over the original file of the specified pieces. Pieces
+	 * with headers may be given in any order, but must form a complete file.
+	 * Legacy pieces are laid out in the given order.
+	 *
+	 * @param pieces the piece files
+	 * @return a channel over the original file
+	 * @throws IllegalArgumentException if there are no pieces
+	 * @throws IOException if the pieces do not form a complete file or can
+	 *         not be read
+	 */
+	public static DecomposedFileChannel open(List<File> pieces) throws IOException {
+		if (pieces.isEmpty()) {
+			throw new IllegalArgumentException("There must be at least one piece");
+		}
+		List<PieceSlot> slots = DecomposerEngine.layout(pieces);
+		PieceHeader header = slots.get(0).header;
+		return new DecomposedFileChannel(header != null ? header.getName() : pieces.get(0).getName(), slots);
+	}
+
+	/**
+	 * Returns a new input stream reading the original file from the current
+	 * position of this channel. Closing the stream closes this channel.
+	 *
+	 * @return a new input stream
+	 */
+	public InputStream newInputStream() {
+		return Channels.newInputStream(this);
+	}
+
+	/**
+	 * Returns the name of the original file.
+	 *
+	 * @return the name of the original file
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (position >= size) {
+			return -1;
+		}
+
+		/* Sequential reads double the read-ahead, random reads start over. */
+		readAhead = position == lastEnd ? Math.min(2 * readAhead, READ_AHEAD_SIZE) : MIN_BUFFER_SIZE;
+		int total = 0;
+		while (dst.hasRemaining() && position < size) {
+			if (position >= windowStart && position < windowStart + windowLength) {
+				int n = (int) Math.min(dst.remaining(), windowStart + windowLength - position);
+				dst.put(window, (int) (position - windowStart), n);
+				position += n;
+				total += n;
+				continue;
+			}
+
+			int index = pieceAt(position);
+			PieceSlot slot = slots.get(index);
+			long inPiece = position - slot.offset;
+			long left = slot.length - inPiece;
+			if (slot.codec != null) {
+				readBlock(index, slot, (int) (inPiece / COMPRESSION_BLOCK_SIZE));
+			} else if (dst.remaining() >= readAhead) {
+				/* Reads larger than the read-ahead go straight to the buffer. */
+				ByteBuffer b = dst.duplicate();
+				b.limit(b.position() + (int) Math.min(b.remaining(), left));
+				int n = channel(index).read(b, slot.dataStart + inPiece);
+				if (n < 0) {
+					throw new EOFException("Piece " + slot.file.getName() + " is shorter than expected");
+				}
+				dst.position(b.position());
+				position += n;
+				total += n;
+			} else {
+				readAhead(index, slot, inPiece, (int) Math.min(readAhead, left));
+			}
+		}
+		lastEnd = position;
+		return total;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized DecomposedFileChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Position must not be negative");
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return isOpen;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!isOpen) {
+			return;
+		}
+		isOpen = false;
+		window = null;
+		if (decompressor != null) {
+			decompressor.close();
+		}
+		IOException failure = null;
+		for (FileChannel in : open.values()) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		open.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Returns the index of the piece holding the specified position, which
+	 * must be inside the original file. Empty pieces hold no position.
+	 *
+	 * @param position position in the original file
+	 * @return the index of the piece
+	 */
+	private int pieceAt(long position) {
+		int low = 0;
+		int high = starts.length - 1;
+		/* Finds the last piece starting at or before the position. */
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (starts[mid] <= position) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Reads the specified number of bytes of an uncompressed piece into the
+	 * read-ahead window.
+	 *
+	 * @param index index of the piece
+	 * @param slot the piece
+	 * @param inPiece position of the first byte in the data of the piece
+	 * @param length number of bytes to be read
+	 * @throws IOException if the piece can not be read
+	 */
+	private void readAhead(int index, PieceSlot slot, long inPiece, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(window(), 0, length);
+		FileChannel in = channel(index);
+		while (b.hasRemaining()) {
+			if (in.read(b, slot.dataStart + inPiece + b.position()) < 0) {
+				throw new EOFException("Piece " + slot.file.getName() + " is shorter than expected");
+			}
+		}
+		windowStart = slot.offset + inPiece;
+		windowLength = length;
+	}
+
+	/**
+	 * Reads and decompresses one block of a compressed piece into the
+	 * read-ahead window.
+	 *
+	 * @param index index of the piece
+	 * @param slot the piece
+	 * @param block index of the block in the piece
+	 * @throws IOException if the piece can not be read or is damaged
+	 */
+	private void readBlock(int index, PieceSlot slot, int block) throws IOException {
+		FileChannel in = channel(index);
+		int n = (int) Math.min(COMPRESSION_BLOCK_SIZE, slot.length - (long) block * COMPRESSION_BLOCK_SIZE);
+		try {
+			long[] positions = blocks.get(index);
+			if (positions == null) {
+				positions = BlockCodec.blockPositions(in, slot.dataStart, slot.length, slot.storedLength);
+				blocks.put(index, positions);
+			}
+			if (decompressorCodec != slot.codec) {
+				if (decompressor != null) {
+					decompressor.close();
+				}
+				decompressor = slot.codec.newDecompressor();
+				decompressorCodec = slot.codec;
+			}
+			BlockCodec.readBlock(in, positions[block], n, window(), decompressor);
+		} catch (DataFormatException e) {
+			windowLength = 0;
+			throw new IOException("Piece " + slot.file.getName() + " is damaged", e);
+		}
+		windowStart = slot.offset + (long) block * COMPRESSION_BLOCK_SIZE;
+		windowLength = n;
+	}
+
+	/**
+	 * Returns the read-ahead window, allocating it upon the first read. The
+	 * window holds at least one block of a compressed piece.
+	 *
+	 * @return the read-ahead window
+	 */
+	private byte[] window() {
+		if (window == null) {
+			window = new byte[Math.max(READ_AHEAD_SIZE, COMPRESSION_BLOCK_SIZE)];
+		}
+		windowLength = 0;
+		return window;
+	}
+
+	/**
+	 * Returns the open channel of the specified piece, opening it if needed
+	 * and closing the least recently used piece if too many are open.
+	 *
+	 * @param index index of the piece
+	 * @return the channel of the piece
+	 * @throws IOException if the piece can not be opened
+	 */
+	private FileChannel channel(int index) throws IOException {
+		FileChannel in = open.get(index);
+		if (in != null) {
+			return in;
+		}
+		if (open.size() >= OPEN_PIECES) {
+			Iterator<FileChannel> eldest = open.values().iterator();
+			FileChannel closed = eldest.next();
+			eldest.remove();
+			closed.close();
+		}
+		File piece = slots.get(index).file;
+		if (!piece.isFile()) {
+			throw new FileNotFoundException("Piece " + (index + 1) + " of " + name + " is missing");
+		}
+		in = FileChannel.open(piece.toPath(), READ);
+		open.put(index, in);
+		return in;
+	}
+
+	/**
+	 * Throws if this channel has been closed.
+	 *
+	 * @throws ClosedChannelException if this channel has been closed
+	 */
+	private void ensureOpen() throws ClosedChannelException {
+		if (!isOpen) {
+			throw new ClosedChannelException();
+		}
+	}
+
+}
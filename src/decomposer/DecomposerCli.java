@@ -0,0 +1,942 @@
+package decomposer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * A headless command line entry point which decomposes or composes many files
+ * or whole directory trees in one invocation. Jobs run on a bounded
+ * {@linkplain JobScheduler}, and a machine-readable summary with one JSON
+ * object per job is printed to the standard output, followed by one object
+ * summarizing the whole run. The pieces listed in {@linkplain Manifest
+ * manifests} can also be verified without composing them.
+ * <p>
+ * The exit code is 0 if all jobs have succeeded, 1 if any of them has failed
+ * or any verified piece is missing or corrupted, and 2 if the arguments are
+ * invalid.
+ *
+ * @author Mario Bobic
+ */
+public class DecomposerCli {
+
+	/** Exit code when all jobs have succeeded */
+	public static final int EXIT_OK = 0;
+	/** Exit code when any of the jobs has failed */
+	public static final int EXIT_FAILED = 1;
+	/** Exit code when the arguments are invalid */
+	public static final int EXIT_USAGE = 2;
+
+	/** Pattern of the piece file names, capturing the name and the index */
+	private static final Pattern PIECE_PATTERN = Pattern.compile("(.+)-(\\d+)" + Pattern.quote(FILE_EXTENSION));
+
+	/** Usage message printed upon invalid arguments */
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: DecomposerCli decompose [options] <file|dir>...",
+			"       DecomposerCli decompose [options] --stdin <name>",
+			"       DecomposerCli compose [options] <piece|dir>...",
+			"       DecomposerCli verify [options] <manifest|dir>...",
+			"",
+			"Options:",
+			"  -n, --pieces <n>         number of pieces (default " + OPTIMAL_NUM_PIECES + ")",
+			"  -s, --piece-size <size>  target piece size, e.g. 64M, instead of number of pieces",
+			"      --shard <n>          place every <n> pieces into their own subdirectory",
+			"      --chunk <size>       cut content-defined chunks of about <size>, e.g. 1M, into a",
+			"                           deduplicating store in the output directory",
+			"  -o, --output <dir>       output directory (default next to the input), keeping the",
+			"                           subdirectories of input directories",
+			"      --stripe <dir>       also place new pieces into <dir>, round-robin with the output",
+			"                           directory and other stripe directories; use -p to write all",
+			"                           directories at the same time",
+			"      --stripe-weights <w,w,...>",
+			"                           weights of the output directory and the stripe directories,",
+			"                           placing pieces in proportion to them instead of round-robin",
+			"  -r, --recursive          process directory trees recursively",
+			"  -j, --jobs <n>           number of jobs running at the same time (default 1), at most as",
+			"                           many as the limit of every storage device used by the jobs",
+			"                           (" + HDD_CONCURRENCY + " on a rotational disk, " + SSD_CONCURRENCY + " on a solid state drive, " + NVME_CONCURRENCY + " on NVMe)",
+			"  -p, --parallelism <n>    number of pieces of one job processed at the same time (default 1)",
+			"      --virtual-threads    run every job on its own virtual thread on Java 21 or later, so",
+			"                           thousands of jobs on small files can run at the same time;",
+			"                           only -j and --device-limit limit them, not the probed limits",
+			"      --device-limit <dir>=<n>",
+			"                           run at most <n> jobs at the same time on the storage device of",
+			"                           <dir>, instead of the limit probed from the kind of the device,",
+			"                           also with --virtual-threads",
+			"  -m, --mode <mode>        copy mode: TRANSFER, BUFFERED, MAPPED, PIPELINED or ASYNC",
+			"  -b, --buffer-size <size> buffer size of buffered copying (default tuned)",
+			"      --depth <n>          number of buffers of pipelined copying (default " + PIPELINE_DEPTH + ")",
+			"  -c, --checksum <mode>    checksums of new pieces: NONE, CRC32C or SHA256 (default CRC32C)",
+			"  -z, --compress <codec>   compress new pieces: DEFLATE or DEFLATE_FAST",
+			"      --parity <n>         write <n> parity pieces, so as many lost pieces can be rebuilt",
+			"      --no-verify          do not verify the checksums of the composed pieces",
+			"      --stdin <name>       decompose the standard input into pieces named <name>",
+			"      --stdout             compose a single file to the standard output, printing the",
+			"                           summary to the standard error",
+			"      --no-manifest        do not write a manifest next to the new pieces",
+			"      --checkpoint <size>  journal progress every <size> bytes, so a killed job can be resumed",
+			"      --durability <mode>  force written files to disk: NONE, PIECE, BATCHED or GROUP (default NONE)",
+			"      --sync-interval <size>",
+			"                           bytes written between two syncs of BATCHED durability (default 64M)",
+			"      --quick              do not hash pieces unchanged since their manifest was written");
+
+	/** Standard output receiving the summary */
+	private final PrintStream out;
+	/** Standard error receiving the error messages */
+	private final PrintStream err;
+
+	private String command;
+	private List<String> inputs = new ArrayList<>();
+	private int pieces = OPTIMAL_NUM_PIECES;
+	private long pieceSize;
+	private int shardSize;
+	private int chunkSize;
+	private File outputDir;
+	private List<File> stripeDirs = new ArrayList<>();
+	private int[] stripeWeights;
+	private boolean recursive;
+	private int jobs = 1;
+	private boolean virtualThreads;
+	private Map<File, Integer> deviceLimits = new LinkedHashMap<>();
+	private int parallelism = 1;
+	private CopyMode mode;
+	private int bufferSize;
+	private int pipelineDepth = PIPELINE_DEPTH;
+	private ChecksumMode checksum = ChecksumMode.CRC32C;
+	private Codec codec;
+	private int parityPieces;
+	private boolean verify = true;
+	private String stdinName;
+	private boolean toStdout;
+	private boolean writeManifest = true;
+	private boolean quick;
+	private long checkpointInterval;
+	private Durability durability = Durability.NONE;
+	private long syncInterval = SYNC_INTERVAL;
+
+	/**
+	 * Constructs a new command line interface printing to the specified
+	 * streams.
+	 *
+	 * @param out stream receiving the summary
+	 * @param err stream receiving the error messages
+	 */
+	public DecomposerCli(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Runs the command line interface and exits with its exit code.
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		System.exit(new DecomposerCli(System.out, System.err).run(args));
+	}
+
+	/**
+	 * Runs the command described by the specified arguments and returns the
+	 * exit code.
+	 *
+	 * @param args command line arguments
+	 * @return the exit code
+	 */
+	public int run(String[] args) {
+		List<Task> tasks;
+		try {
+			parseArgs(args);
+			if ("verify".equals(command)) {
+				return verify(manifestFiles());
+			}
+			tasks = "decompose".equals(command) ? decomposeTasks() : composeTasks();
+			if (toStdout && tasks.size() != 1) {
+				throw new IllegalArgumentException("Exactly one file can be composed to the standard output");
+			}
+		} catch (IllegalArgumentException | IOException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		/* The standard output receives the composed data instead of the summary. */
+		PrintStream summary = toStdout ? err : out;
+		long start = System.nanoTime();
+		long totalBytes = 0;
+		int failed = 0;
+
+		JobScheduler scheduler = scheduler();
+		try {
+			List<Future<JobStats>> futures = new ArrayList<>(tasks.size());
+			for (Task task : tasks) {
+				futures.add(scheduler.submit(task::call, JobPriority.BATCH, task.files));
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				String input = tasks.get(i).input;
+				try {
+					JobStats stats = futures.get(i).get();
+					totalBytes += stats.getBytes();
+					summary.println(jobSummary(input, stats));
+				} catch (ExecutionException e) {
+					failed++;
+					Throwable cause = e.getCause();
+					summary.println(jobFailure(input, cause));
+					err.println(command + " " + input + ": " + cause.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			err.println("Interrupted");
+			return EXIT_FAILED;
+		} finally {
+			scheduler.close();
+		}
+
+		long duration = System.nanoTime() - start;
+		summary.println(String.format("{\"summary\":%s,\"jobs\":%d,\"failed\":%d,\"bytes\":%d,\"durationMs\":%d,\"throughput\":%.0f}",
+				json(command), tasks.size(), failed, totalBytes, duration / 1_000_000,
+				duration == 0 ? 0.0 : totalBytes * 1e9 / duration));
+		summary.flush();
+
+		return failed == 0 ? EXIT_OK : EXIT_FAILED;
+	}
+
+	/**
+	 * Parses the command line arguments into the fields of this object.
+	 *
+	 * @param args command line arguments
+	 * @throws IllegalArgumentException if the arguments are invalid
+	 */
+	private void parseArgs(String[] args) {
+		if (args.length == 0 || !("decompose".equals(args[0]) || "compose".equals(args[0]) || "verify".equals(args[0]))) {
+			throw new IllegalArgumentException("Please specify decompose, compose or verify");
+		}
+		command = args[0];
+
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+			case "-n": case "--pieces":
+				pieces = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "-s": case "--piece-size":
+				pieceSize = parseSize(value(args, ++i, arg));
+				break;
+			case "--shard":
+				shardSize = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "--chunk":
+				chunkSize = parseIntSize(value(args, ++i, arg));
+				break;
+			case "-o": case "--output":
+				outputDir = new File(value(args, ++i, arg));
+				break;
+			case "--stripe":
+				stripeDirs.add(new File(value(args, ++i, arg)));
+				break;
+			case "--stripe-weights":
+				stripeWeights = Stream.of(value(args, ++i, arg).split(","))
+						.mapToInt((w) -> Integer.parseInt(w.trim()))
+						.toArray();
+				break;
+			case "-r": case "--recursive":
+				recursive = true;
+				break;
+			case "-j": case "--jobs":
+				jobs = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "--virtual-threads":
+				virtualThreads = true;
+				break;
+			case "--device-limit":
+				deviceLimit(value(args, ++i, arg));
+				break;
+			case "-p": case "--parallelism":
+				parallelism = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "-m": case "--mode":
+				mode = CopyMode.valueOf(value(args, ++i, arg).toUpperCase());
+				break;
+			case "-b": case "--buffer-size":
+				bufferSize = parseIntSize(value(args, ++i, arg));
+				break;
+			case "--depth":
+				pipelineDepth = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "-c": case "--checksum":
+				checksum = ChecksumMode.valueOf(value(args, ++i, arg).toUpperCase());
+				break;
+			case "-z": case "--compress":
+				codec = Codecs.forName(value(args, ++i, arg));
+				break;
+			case "--parity":
+				parityPieces = Integer.parseInt(value(args, ++i, arg));
+				break;
+			case "--no-verify":
+				verify = false;
+				break;
+			case "--stdin":
+				stdinName = value(args, ++i, arg);
+				break;
+			case "--stdout":
+				toStdout = true;
+				break;
+			case "--no-manifest":
+				writeManifest = false;
+				break;
+			case "--quick":
+				quick = true;
+				break;
+			case "--checkpoint":
+				checkpointInterval = parseSize(value(args, ++i, arg));
+				break;
+			case "--durability":
+				durability = Durability.valueOf(value(args, ++i, arg).toUpperCase());
+				break;
+			case "--sync-interval":
+				syncInterval = parseSize(value(args, ++i, arg));
+				break;
+			default:
+				if (arg.startsWith("-")) {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+				inputs.add(arg);
+			}
+		}
+
+		if (jobs < 1) {
+			throw new IllegalArgumentException("Number of jobs must be at least 1");
+		}
+		if (inputs.isEmpty() && stdinName == null) {
+			throw new IllegalArgumentException("Please specify at least one input");
+		}
+		if (stdinName != null && (!"decompose".equals(command) || !inputs.isEmpty())) {
+			throw new IllegalArgumentException("Standard input can only be decomposed on its own");
+		}
+		if (toStdout && !"compose".equals(command)) {
+			throw new IllegalArgumentException("Only composing can write to the standard output");
+		}
+	}
+
+	/**
+	 * Creates one decomposing task for every input file, or one task
+	 * decomposing the standard input. Files found in an input directory are
+	 * decomposed into the same subdirectories of the output directory, and of
+	 * every stripe directory, as they are found in.
+	 *
+	 * @return the decomposing tasks
+	 * @throws IllegalArgumentException if the pieces of two files would
+	 *         overwrite each other
+	 * @throws IOException if a directory can not be listed
+	 */
+	private List<Task> decomposeTasks() throws IOException {
+		DecomposerEngine engine = new DecomposerEngine();
+		List<Task> tasks = new ArrayList<>();
+
+		if (stdinName != null) {
+			File dir = outputDir != null ? outputDir : new File(".");
+			DecomposeJob job = configure(DecomposeJob.streamBuilder(dir, stdinName)).build();
+			tasks.add(new Task("-", () -> engine.decompose(job, System.in), dirs(job, dir)));
+			return tasks;
+		}
+
+		/* Pieces of every job by their directory and name, to find jobs overwriting each other. */
+		Map<File, File> targets = new HashMap<>();
+		for (String input : inputs) {
+			File root = new File(input);
+			for (File file : listFiles(root)) {
+				String name = file.getName();
+				if (name.endsWith(FILE_EXTENSION) || name.endsWith(MANIFEST_EXTENSION) || name.endsWith(JOURNAL_EXTENSION)
+						|| name.endsWith(PARITY_EXTENSION)) {
+					continue;
+				}
+				DecomposeJob.Builder builder = configure(DecomposeJob.builder(file));
+				if (outputDir != null) {
+					/* A directory tree keeps its structure under the output and stripe directories. */
+					Path relative = root.isDirectory() ? root.toPath().relativize(file.toPath()).getParent() : null;
+					builder.outputDir(relative != null ? new File(outputDir, relative.toString()) : outputDir);
+					if (relative != null) {
+						builder.stripeDirs(stripeDirs.stream()
+								.map((dir) -> new File(dir, relative.toString()))
+								.collect(Collectors.toList()));
+					}
+				}
+				DecomposeJob job = builder.build();
+				List<File> dirs = new ArrayList<>(job.getStripeDirs());
+				dirs.add(job.getOutputDir());
+				for (File dir : dirs) {
+					File target = normalize(new File(dir, job.getOutputName()));
+					File previous = targets.putIfAbsent(target, file);
+					if (previous != null) {
+						throw new IllegalArgumentException("Files " + previous + " and " + file
+								+ " would both be decomposed into " + target);
+					}
+				}
+				tasks.add(new Task(file.getPath(), () -> engine.decompose(job), dirs(job, file)));
+			}
+		}
+		return tasks;
+	}
+
+	/**
+	 * Creates one composing task for every set of pieces found among the
+	 * inputs. Pieces listed in a manifest among the inputs or next to them
+	 * are planned by the manifest alone, without reading their headers. Other
+	 * pieces with headers are grouped by the ID of their original file and
+	 * ordered by the engine. Legacy pieces are grouped by their file name and
+	 * ordered by the index in it. A missing output directory is created.
+	 *
+	 * @return the composing tasks
+	 * @throws IOException if a directory can not be listed, or the output
+	 *         directory can not be created
+	 */
+	private List<Task> composeTasks() throws IOException {
+		/* A missing output directory is created, as decomposing does. */
+		if (outputDir != null && !toStdout && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Unable to create directory " + outputDir);
+		}
+		DecomposerEngine engine = new DecomposerEngine();
+		Map<String, List<File>> sets = new TreeMap<>();
+		Map<String, String> names = new HashMap<>();
+		Map<File, Manifest> manifests = new HashMap<>();
+		Map<File, Manifest> planned = new TreeMap<>();
+		Set<File> covered = new HashSet<>();
+
+		/* Manifests are planned first, since striped pieces may be found among
+		 * the inputs before the manifest listing them. */
+		List<List<File>> inputFiles = new ArrayList<>(inputs.size());
+		for (String input : inputs) {
+			List<File> files = listFiles(new File(input));
+			inputFiles.add(files);
+			for (File file : files) {
+				if (file.getName().endsWith(MANIFEST_EXTENSION)) {
+					plan(manifest(manifests, normalize(file)), planned, covered);
+				}
+			}
+		}
+
+		for (List<File> files : inputFiles) {
+			for (File file : files) {
+				Matcher m = PIECE_PATTERN.matcher(file.getName());
+				if (!m.matches() || covered.contains(normalize(file))) {
+					continue;
+				}
+				File dir = normalize(file).getParentFile();
+				Manifest manifest = manifest(manifests, Manifest.manifestFile(dir, m.group(1)));
+				if (manifest != null && lists(manifest, file, pieceIndex(file))) {
+					plan(manifest, planned, covered);
+					continue;
+				}
+
+				PieceHeader header;
+				try {
+					header = PieceHeader.read(file);
+				} catch (IOException e) {
+					err.println("Skipping " + file + ": " + e.getMessage());
+					continue;
+				}
+				String key = header != null ? header.getFileId().toString() : new File(dir, m.group(1)).getPath();
+				names.putIfAbsent(key, header != null ? header.getName() : m.group(1));
+				sets.computeIfAbsent(key, (k) -> new ArrayList<>()).add(file);
+			}
+		}
+
+		List<Task> tasks = new ArrayList<>();
+		for (Map.Entry<File, Manifest> set : planned.entrySet()) {
+			File original = set.getKey();
+			File output = outputDir != null ? new File(outputDir, original.getName()) : original;
+			Manifest manifest = set.getValue();
+			ComposeJob job = ComposeJob.builder(manifest, output)
+					.parallelism(parallelism)
+					.copyMode(mode)
+					.bufferSize(bufferSize)
+					.pipelineDepth(pipelineDepth)
+					.verifyChecksums(verify)
+					.checkpointInterval(checkpointInterval)
+					.durability(durability)
+					.syncInterval(syncInterval)
+					.build();
+			List<File> files = new ArrayList<>(manifest.getStripeDirs());
+			files.add(manifest.getFile());
+			files.add(output);
+			tasks.add(new Task(original.getPath(), () -> compose(engine, job), files.toArray(new File[0])));
+		}
+		for (Map.Entry<String, List<File>> set : sets.entrySet()) {
+			List<File> pieces = set.getValue();
+			pieces.sort(Comparator.comparingInt(DecomposerCli::pieceIndex));
+			File original = new File(DecomposerEngine.commonDir(pieces), names.get(set.getKey()));
+			File output = outputDir != null ? new File(outputDir, original.getName()) : original;
+			ComposeJob.Builder builder = ComposeJob.builder(pieces, output)
+					.parallelism(parallelism)
+					.copyMode(mode)
+					.bufferSize(bufferSize)
+					.pipelineDepth(pipelineDepth)
+					.verifyChecksums(verify)
+					.checkpointInterval(checkpointInterval)
+					.durability(durability)
+					.syncInterval(syncInterval);
+			ComposeJob job = builder.build();
+			tasks.add(new Task(original.getPath(), () -> compose(engine, job), pieces.get(0), output));
+		}
+		return tasks;
+	}
+
+	/**
+	 * Runs the specified composing job, writing the composed file to the
+	 * standard output if requested.
+	 *
+	 * @param engine engine running the job
+	 * @param job the composing job
+	 * @return statistics of the finished job
+	 * @throws IOException if the job fails or the standard output can not
+	 *         be written
+	 */
+	private JobStats compose(DecomposerEngine engine, ComposeJob job) throws IOException {
+		if (!toStdout) {
+			return engine.compose(job);
+		}
+		JobStats stats = engine.compose(job, out);
+		/* Print streams swallow their errors, such as a closed pipe. */
+		if (out.checkError()) {
+			throw new IOException("Standard output can not be written");
+		}
+		return stats;
+	}
+
+	/**
+	 * Plans composing of the pieces listed in the specified manifest, unless
+	 * it has already been planned, and marks its pieces as covered.
+	 *
+	 * @param manifest the manifest, or null
+	 * @param planned manifests planned so far, by their composed file
+	 * @param covered pieces of the planned manifests
+	 */
+	private static void plan(Manifest manifest, Map<File, Manifest> planned, Set<File> covered) {
+		if (manifest == null) {
+			return;
+		}
+		File original = new File(manifest.getFile().getParentFile(), manifest.getName());
+		if (planned.putIfAbsent(original, manifest) == null) {
+			for (File piece : manifest.getPieceFiles()) {
+				covered.add(normalize(piece));
+			}
+		}
+	}
+
+	/**
+	 * Returns the manifest read from the specified file, reading every
+	 * manifest only once.
+	 *
+	 * @param manifests manifests read so far, null for missing or damaged ones
+	 * @param file the manifest file
+	 * @return the manifest, or null if it does not exist or is damaged
+	 */
+	private Manifest manifest(Map<File, Manifest> manifests, File file) {
+		if (!manifests.containsKey(file)) {
+			manifests.put(file, readManifest(file));
+		}
+		return manifests.get(file);
+	}
+
+	/**
+	 * Returns the absolute and normalized form of the specified file, so that
+	 * equal paths given in different forms are equal.
+	 *
+	 * @param file file to be normalized
+	 * @return the normalized file
+	 */
+	private static File normalize(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toFile();
+	}
+
+	/**
+	 * Returns a new scheduler running the requested number of jobs at the
+	 * same time and on every device, warning if virtual threads are requested
+	 * but not supported.
+	 *
+	 * @return a new job scheduler
+	 */
+	private JobScheduler scheduler() {
+		if (virtualThreads && !JobScheduler.isVirtualThreadsSupported()) {
+			err.println("Virtual threads require Java 21 or later, running jobs on " + jobs + " platform threads");
+		}
+		JobScheduler scheduler = new JobScheduler(jobs, virtualThreads);
+		for (Map.Entry<File, Integer> limit : deviceLimits.entrySet()) {
+			try {
+				scheduler.setDeviceLimit(limit.getKey(), limit.getValue());
+			} catch (IOException e) {
+				err.println("Ignoring the device limit of " + limit.getKey() + ": " + e.getMessage());
+			}
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Verifies the pieces listed in every specified manifest, printing one
+	 * JSON object per manifest and one summarizing the whole run.
+	 *
+	 * @param manifestFiles manifests to be verified
+	 * @return the exit code
+	 */
+	private int verify(List<File> manifestFiles) {
+		DecomposerEngine engine = new DecomposerEngine();
+		long start = System.nanoTime();
+		int failed = 0;
+
+		JobScheduler scheduler = scheduler();
+		try {
+			List<Future<VerifyReport>> futures = new ArrayList<>(manifestFiles.size());
+			for (File file : manifestFiles) {
+				futures.add(scheduler.submit(() -> engine.verify(Manifest.read(file), quick, parallelism), JobPriority.BATCH, file));
+			}
+
+			for (int i = 0; i < manifestFiles.size(); i++) {
+				File file = manifestFiles.get(i);
+				try {
+					VerifyReport report = futures.get(i).get();
+					if (!report.isIntact()) {
+						failed++;
+					}
+					out.println(String.format("{\"job\":%s,\"input\":%s,\"status\":%s,\"verified\":%d,\"unchanged\":%d,\"missing\":%s,\"corrupted\":%s}",
+							json(command), json(file.getPath()), json(report.isIntact() ? "ok" : "damaged"),
+							report.getVerified().size(), report.getUnchanged().size(),
+							report.getMissing(), report.getCorrupted()));
+				} catch (ExecutionException e) {
+					failed++;
+					Throwable cause = e.getCause();
+					out.println(jobFailure(file.getPath(), cause));
+					err.println(command + " " + file + ": " + cause.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			err.println("Interrupted");
+			return EXIT_FAILED;
+		} finally {
+			scheduler.close();
+		}
+
+		long duration = System.nanoTime() - start;
+		out.println(String.format("{\"summary\":%s,\"jobs\":%d,\"failed\":%d,\"durationMs\":%d}",
+				json(command), manifestFiles.size(), failed, duration / 1_000_000));
+		out.flush();
+
+		return failed == 0 ? EXIT_OK : EXIT_FAILED;
+	}
+
+	/**
+	 * Returns the manifest files found among the inputs.
+	 *
+	 * @return the manifest files
+	 * @throws IOException if a directory can not be listed
+	 */
+	private List<File> manifestFiles() throws IOException {
+		List<File> files = new ArrayList<>();
+		for (String input : inputs) {
+			for (File file : listFiles(new File(input))) {
+				if (file.getName().endsWith(MANIFEST_EXTENSION)) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Reads the specified manifest, if it exists. A damaged manifest is
+	 * reported and ignored, so its pieces are composed by their headers.
+	 *
+	 * @param file the manifest file
+	 * @return the manifest, or null if it does not exist or is damaged
+	 */
+	private Manifest readManifest(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return Manifest.read(file);
+		} catch (IOException e) {
+			err.println("Ignoring " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if the specified piece is listed in the manifest under the
+	 * specified index.
+	 *
+	 * @param manifest the manifest
+	 * @param piece the piece file
+	 * @param index index in the file name of the piece
+	 * @return true if the manifest lists the piece
+	 */
+	private static boolean lists(Manifest manifest, File piece, int index) {
+		return index < manifest.getCount() && manifest.getEntries().get(index).getFileName().equals(piece.getName());
+	}
+
+	/**
+	 * Returns the index in the file name of the specified piece.
+	 *
+	 * @param piece the piece file
+	 * @return the index in the file name of the piece
+	 */
+	private static int pieceIndex(File piece) {
+		Matcher m = PIECE_PATTERN.matcher(piece.getName());
+		return m.matches() ? Integer.parseInt(m.group(2)) : 0;
+	}
+
+	/**
+	 * Returns the specified file together with all directories the pieces of
+	 * the specified job are written to.
+	 *
+	 * @param job decomposing job
+	 * @param file file read by the job
+	 * @return files read or written by the job
+	 */
+	private static File[] dirs(DecomposeJob job, File file) {
+		List<File> files = new ArrayList<>(job.getStripeDirs());
+		files.add(file);
+		files.add(job.getOutputDir());
+		return files.toArray(new File[0]);
+	}
+
+	/**
+	 * Applies the common options to the specified decomposing job builder.
+	 *
+	 * @param builder decomposing job builder
+	 * @return the same builder
+	 */
+	private DecomposeJob.Builder configure(DecomposeJob.Builder builder) {
+		return builder
+				.pieces(pieces)
+				.pieceSize(pieceSize)
+				.shardSize(shardSize)
+				.stripeDirs(stripeDirs)
+				.stripeWeights(stripeWeights)
+				.chunkSize(chunkSize)
+				.parallelism(parallelism)
+				.copyMode(mode)
+				.bufferSize(bufferSize)
+				.pipelineDepth(pipelineDepth)
+				.checksum(checksum)
+				.codec(codec)
+				.parityPieces(parityPieces)
+				.manifest(writeManifest)
+				.checkpointInterval(checkpointInterval)
+				.durability(durability)
+				.syncInterval(syncInterval);
+	}
+
+	/**
+	 * Returns the specified file if it is a regular file, or the regular
+	 * files in the specified directory. Directories are walked recursively
+	 * only if the recursive option has been set.
+	 *
+	 * @param input file or directory
+	 * @return regular files of the input, sorted by path
+	 * @throws IOException if a directory can not be listed
+	 */
+	private List<File> listFiles(File input) throws IOException {
+		if (!input.isDirectory()) {
+			if (!input.isFile()) {
+				throw new IllegalArgumentException("File " + input + " doesn't exist");
+			}
+			List<File> files = new ArrayList<>();
+			files.add(input);
+			return files;
+		}
+
+		try (Stream<Path> paths = recursive ? Files.walk(input.toPath()) : Files.list(input.toPath())) {
+			return paths.filter(Files::isRegularFile)
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Returns the value of the option at the specified index.
+	 *
+	 * @param args command line arguments
+	 * @param i index of the value
+	 * @param option name of the option
+	 * @return the value of the option
+	 * @throws IllegalArgumentException if the value is missing
+	 */
+	private static String value(String[] args, int i, String option) {
+		if (i >= args.length) {
+			throw new IllegalArgumentException("Missing value of option " + option);
+		}
+		return args[i];
+	}
+
+	/**
+	 * Parses a device limit such as {@code /mnt/disk=2} into the limits of
+	 * this object.
+	 *
+	 * @param limit limit to be parsed
+	 * @throws IllegalArgumentException if the limit is invalid
+	 */
+	private void deviceLimit(String limit) {
+		int eq = limit.lastIndexOf('=');
+		if (eq <= 0) {
+			throw new IllegalArgumentException("Device limit must be given as <dir>=<n>: " + limit);
+		}
+		int n = Integer.parseInt(limit.substring(eq + 1));
+		if (n < 1) {
+			throw new IllegalArgumentException("Device limit must be at least 1");
+		}
+		deviceLimits.put(new File(limit.substring(0, eq)), n);
+	}
+
+	/**
+	 * Parses a size such as {@code 4096}, {@code 64K}, {@code 64M} or
+	 * {@code 2G}, using binary prefixes.
+	 *
+	 * @param size size to be parsed
+	 * @return the size in bytes
+	 * @throws NumberFormatException if the size is empty, invalid or too large
+	 */
+	public static long parseSize(String size) {
+		if (size.isEmpty()) {
+			throw new NumberFormatException("Size must not be empty");
+		}
+		char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+		int shift = "KMGT".indexOf(unit);
+		if (shift == -1) {
+			return Long.parseLong(size);
+		}
+		long value = Long.parseLong(size.substring(0, size.length() - 1));
+		try {
+			return Math.multiplyExact(value, 1L << (10 * (shift + 1)));
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException("Size " + size + " is too large");
+		}
+	}
+
+	/**
+	 * Parses a size as {@linkplain #parseSize(String)} does, for options
+	 * which hold the size in an int.
+	 *
+	 * @param size size to be parsed
+	 * @return the size in bytes
+	 * @throws NumberFormatException if the size is empty, invalid or too large
+	 */
+	static int parseIntSize(String size) {
+		long value = parseSize(size);
+		if (value != (int) value) {
+			throw new NumberFormatException("Size " + size + " is too large");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Returns the JSON summary of a finished job.
+	 *
+	 * @param input input of the job
+	 * @param stats statistics of the job
+	 * @return the JSON summary of the job
+	 */
+	private String jobSummary(String input, JobStats stats) {
+		return String.format("{\"job\":%s,\"input\":%s,\"status\":\"ok\",\"bytes\":%d,\"pieces\":%d,\"mode\":%s,\"durationMs\":%d,\"throughput\":%.0f}",
+				json(command), json(input), stats.getBytes(), stats.getPieces(), json(stats.getCopyMode().name()),
+				stats.getDurationNanos() / 1_000_000, stats.getThroughput());
+	}
+
+	/**
+	 * Returns the JSON summary of a failed job.
+	 *
+	 * @param input input of the job
+	 * @param cause cause of the failure
+	 * @return the JSON summary of the job
+	 */
+	private String jobFailure(String input, Throwable cause) {
+		return String.format("{\"job\":%s,\"input\":%s,\"status\":\"failed\",\"error\":%s}",
+				json(command), json(input), json(String.valueOf(cause.getMessage())));
+	}
+
+	/**
+	 * Returns the specified string as a quoted and escaped JSON string.
+	 *
+	 * @param s string to be quoted
+	 * @return the JSON string
+	 */
+	private static String json(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * A single job of this command line interface together with its input.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static class Task {
+		/** Input of the job, used in the summary */
+		private final String input;
+		/** The job itself */
+		private final Callable<JobStats> job;
+		/** Files read or written by the job, locating its storage devices */
+		private final File[] files;
+
+		/**
+		 * Constructs a new job with the specified input.
+		 *
+		 * @param input input of the job
+		 * @param job the job itself
+		 * @param files files read or written by the job
+		 */
+		public Task(String input, Callable<JobStats> job, File... files) {
+			this.input = input;
+			this.job = job;
+			this.files = files;
+		}
+
+		/**
+		 * Runs the job.
+		 *
+		 * @return statistics of the job
+		 * @throws Exception if the job has failed
+		 */
+		public JobStats call() throws Exception {
+			return job.call();
+		}
+	}
+
+}
@@ -9,6 +9,12 @@ public interface DecomposerConstants {
 
 	/** Default file extension */
 	public static final String FILE_EXTENSION = ".decomposed";
+	/** File extension of the manifest written next to the pieces */
+	public static final String MANIFEST_EXTENSION = ".manifest";
+	/** File extension of the checkpoint journal of a running job */
+	public static final String JOURNAL_EXTENSION = ".journal";
+	/** File extension of the parity pieces written next to the pieces */
+	public static final String PARITY_EXTENSION = ".parity";
 	/** Default implant length used for storing recovery information into the pieces */
 	public static final int IMPLANT_LENGTH = Integer.SIZE / 8;
 	
@@ -21,5 +27,39 @@ public interface DecomposerConstants {
 	
 	/** Standard loader size used for loading bytes of data */
 	public static final int STD_LOADER_SIZE = 4096;
+	/** Maximal number of bytes transferred between two channels at once */
+	public static final int TRANSFER_SIZE = 8 * 1024 * 1024;
+	/** Minimal size of the buffers used for positional reads and writes */
+	public static final int MIN_BUFFER_SIZE = 64 * 1024;
+	/** Maximal size of the buffers used for positional reads and writes */
+	public static final int MAX_BUFFER_SIZE = 8 * 1024 * 1024;
+	/** Interval in milliseconds between two published progress snapshots */
+	public static final long PROGRESS_INTERVAL = 100;
+	/** Size of the window in which files are mapped into memory */
+	public static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+	/** Size of the blocks in which the data of compressed pieces is compressed */
+	public static final int COMPRESSION_BLOCK_SIZE = 1024 * 1024;
+	/** Minimal average size of content-defined chunks */
+	public static final int MIN_CHUNK_SIZE = 4 * 1024;
+	/** Maximal average size of content-defined chunks */
+	public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+	/** Length of the block every piece adds to a stripe of parity */
+	public static final int PARITY_BLOCK_SIZE = 128 * 1024;
+	/** Maximal number of bytes read ahead by a sequential reader of decomposed pieces */
+	public static final int READ_AHEAD_SIZE = 4 * 1024 * 1024;
+	/** Default number of bytes written to a file between two batched syncs */
+	public static final long SYNC_INTERVAL = 64 * 1024 * 1024;
+	/** Default number of buffers of a copy pipeline */
+	public static final int PIPELINE_DEPTH = 4;
+	/** Size of the buffers of a copy pipeline unless the job sets a buffer size */
+	public static final int PIPELINE_BUFFER_SIZE = 1024 * 1024;
+	/** Default number of jobs running at the same time on a rotational disk */
+	public static final int HDD_CONCURRENCY = 1;
+	/** Default number of jobs running at the same time on a solid state drive */
+	public static final int SSD_CONCURRENCY = 4;
+	/** Default number of jobs running at the same time on an NVMe drive */
+	public static final int NVME_CONCURRENCY = 8;
+	/** Number of piece headers read at the same time while scanning directories */
+	public static final int DISCOVERY_PARALLELISM = 8;
 
 }
@@ -0,0 +1,2129 @@
+package decomposer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+
+import decomposer.ProgressSnapshot.PieceState;
+
+import static decomposer.DecomposerConstants.*;
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A headless engine that does the actual composing and decomposing of files.
+ * The engine holds no state of a running job, every job is fully described by
+ * a {@linkplain DecomposeJob} or a {@linkplain ComposeJob}. Therefore one
+ * engine may run any number of jobs at the same time.
+ * <p>
+ * Every piece is written or read by its own task, and data is copied by a
+ * {@linkplain ChannelCopier} in the {@linkplain CopyMode} of the job. Jobs with
+ * parallelism greater than one run their tasks concurrently on a bounded
+ * pool, sequential jobs run them on the calling thread.
+ *
+ * @author Mario Bobic
+ */
+public class DecomposerEngine {
+
+	/** Factory of daemon threads running the pieces of parallel jobs */
+	private static final ThreadFactory WORKER_FACTORY = new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "decomposer-worker-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	};
+
+	/** Marks the end of the data queued for composing to a stream */
+	private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+	/** Pool of the buffers shared by all jobs of this engine */
+	private final BufferPool pool;
+
+	/**
+	 * Constructs a new engine with its own pool of buffers.
+	 */
+	public DecomposerEngine() {
+		this(new BufferPool(2 * Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Constructs a new engine using the specified pool of buffers, which may
+	 * be shared with other engines.
+	 *
+	 * @param pool pool of the buffers
+	 */
+	public DecomposerEngine(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Decomposes the file described by the specified job into pieces. Every
+	 * piece starts with a {@linkplain PieceHeader} describing the piece, and
+	 * ends with the checksums of its data, if the job computes any. All pieces
+	 * are of equal length, except the last one which also holds the remainder.
+	 * <p>
+	 * If the job has a {@linkplain Codec codec}, the data of every piece is
+	 * compressed in blocks by the task writing the piece, so pieces are
+	 * compressed in parallel. Blocks which do not compress well are stored
+	 * as they are.
+	 * <p>
+	 * If the job has a checkpoint interval, its progress is recorded in a
+	 * journal next to the pieces. Running the same job again after it has
+	 * been killed skips the completed pieces and continues the others from
+	 * their last checkpoint. Compressed pieces have no checkpoints, they are
+	 * either complete or written again.
+	 * <p>
+	 * The pieces and the manifest are forced to the storage device as
+	 * required by the {@linkplain Durability durability} of the job. Batched
+	 * syncs of compressed pieces happen at block boundaries.
+	 * <p>
+	 * If the job has parity pieces, all pieces are written in a single pass
+	 * computing the parity, as described in {@link #decomposeParity}.
+	 *
+	 * @param job job describing the decomposing
+	 * @return statistics of the finished job
+	 * @throws IllegalArgumentException if the job has no source file
+	 * @throws IOException if the source can not be read or a piece can not be written
+	 */
+	public JobStats decompose(DecomposeJob job) throws IOException {
+		long start = System.nanoTime();
+
+		File source = job.getSource();
+		if (source == null) {
+			throw new IllegalArgumentException("Job has no source file, decompose it from a stream");
+		}
+		if (!source.isFile()) {
+			throw new FileNotFoundException("File " + source.getName() + " doesn't exist");
+		}
+
+		File outputDir = createOutputDir(job);
+		if (job.getChunkSize() > 0) {
+			return decomposeChunks(job, outputDir, start);
+		}
+
+		try (FileChannel in = FileChannel.open(source.toPath(), READ);
+				AsynchronousFileChannel asyncIn = job.getCopyMode() == CopyMode.ASYNC
+						? AsynchronousFileChannel.open(source.toPath(), READ) : null) {
+			long fileLength = in.size();
+
+			/* Split either by the target piece size or by the number of pieces. */
+			int pieces;
+			long pieceLength;
+			if (job.getPieceSize() > 0) {
+				pieceLength = job.getPieceSize();
+				long count = Math.max(1, (fileLength - 1) / pieceLength + 1);
+				if (count > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("Piece size is too small for a file of " + fileLength + " bytes");
+				}
+				pieces = (int) count;
+			} else {
+				pieces = job.getPieces();
+				pieceLength = fileLength / pieces;
+			}
+			ProgressTracker tracker = new ProgressTracker(fileLength, pieces, job.getListener());
+			if (job.getParityPieces() > 0) {
+				return decomposeParity(job, in, outputDir, pieces, pieceLength, tracker, start);
+			}
+			ChannelCopier copier = new ChannelCopier(job.getCopyMode(), pool, new BufferSizer(job.getBufferSize()), tracker::add,
+					job.getPipelineDepth());
+			BlockCodec blocks = job.getCodec() != null ? new BlockCodec(job.getCodec(), tracker::add) : null;
+			Syncer syncer = new Syncer(job.getDurability(), job.getSyncInterval());
+			long interval = job.getCheckpointInterval();
+			CheckpointJournal journal = interval == 0 ? null
+					: CheckpointJournal.open(new File(outputDir, job.getOutputName() + JOURNAL_EXTENSION), UUID.randomUUID(),
+							fileLength, source.lastModified(), pieces, pieceLength, PieceDigest.flags(job.getChecksum()),
+							job.getShardSize(), job.getCodec() != null ? job.getCodec().getId() : 0);
+			UUID fileId = journal != null ? journal.getFileId() : UUID.randomUUID();
+			PieceHeader[] headers = new PieceHeader[pieces];
+			byte[][] trailers = new byte[pieces][];
+
+			/* Every task creates one new piece file. */
+			List<Callable<Void>> tasks = new ArrayList<>(pieces);
+			for (int i = 0; i < pieces; i++) {
+				final int index = i;
+				final long offset = i * pieceLength;
+				final long length = getLength(i, pieces, pieceLength, fileLength);
+				final File pieceFile = pieceFile(job, i, pieces);
+				final PieceHeader header = new PieceHeader(fileId, i, pieces, offset, length,
+						fileLength, source.getName(), job.getChecksum(), job.getCodec());
+				headers[i] = header;
+				if (isNewShard(job, i)) {
+					createParentDir(pieceFile);
+				}
+
+				tasks.add(tracked(tracker, index, () -> {
+					if (journal != null && journal.isDone(index)) {
+						PieceHeader written = readComplete(pieceFile, header, journal.getTrailer(index));
+						if (written != null) {
+							headers[index] = written;
+							trailers[index] = journal.getTrailer(index);
+							tracker.add(length);
+							return null;
+						}
+					}
+
+					try (FileChannel out = FileChannel.open(pieceFile.toPath(), CREATE, READ, WRITE)) {
+						PieceDigest digest = PieceDigest.create(job.getChecksum());
+						if (blocks != null) {
+							/* The stored length is patched into the header once it is known. */
+							out.truncate(0);
+							out.position(header.getHeaderLength());
+							long stored = 0;
+							for (long done = 0; done < length; ) {
+								long n = syncer.step(length - done, COMPRESSION_BLOCK_SIZE);
+								stored += blocks.compress(in, offset + done, n, out, digest);
+								done += n;
+								if (done < length) {
+									syncer.stepWritten(out);
+								}
+							}
+							headers[index] = header.withStoredLength(stored);
+							ChannelCopier.writeFully(out, headers[index].toBuffer(), 0);
+						} else {
+							long done = journal != null ? journal.getProgress(index) : 0;
+							if (done > 0 && out.size() >= header.getHeaderLength() + done) {
+								/* Continue after the last checkpoint, hashing the data already written. */
+								out.position(header.getHeaderLength());
+								if (digest != null) {
+									copier.digest(out, done, digest);
+								} else {
+									out.position(header.getHeaderLength() + done);
+									tracker.add(done);
+								}
+							} else {
+								done = 0;
+								out.truncate(0);
+							}
+							ChannelCopier.writeFully(out, header.toBuffer(), 0);
+							out.position(header.getHeaderLength() + done);
+
+							while (done < length) {
+								long n = syncer.step(length - done, 1);
+								if (journal != null) {
+									n = Math.min(interval, n);
+								}
+								copier.toPiece(in, asyncIn, offset + done, n, out, digest);
+								done += n;
+								if (journal != null && done < length) {
+									out.force(false);
+									journal.progress(index, done);
+								} else if (done < length) {
+									syncer.stepWritten(out);
+								}
+							}
+						}
+						trailers[index] = writeTrailer(out, digest);
+						out.truncate(out.position());
+						syncer.pieceWritten(out, pieceFile);
+						if (journal != null) {
+							out.force(false);
+							journal.done(index, trailers[index]);
+						}
+					} catch (EOFException e) {
+						throw new EOFException("File " + source.getName() + " has changed while decomposing");
+					}
+					return null;
+				}));
+			}
+
+			tracker.start(PROGRESS_INTERVAL);
+			try {
+				runAll(tasks, job.getParallelism());
+				syncer.sync();
+				if (job.isManifest()) {
+					writeManifest(job, outputDir, Arrays.asList(headers), Arrays.asList(trailers),
+							Collections.<Manifest.Entry>emptyList(), syncer);
+				}
+				if (journal != null) {
+					journal.delete();
+				}
+			} finally {
+				tracker.finish();
+				if (journal != null) {
+					journal.close();
+				}
+			}
+			return new JobStats(fileLength, pieces, System.nanoTime() - start, copier.getMode(), copier.getBufferSize());
+		}
+	}
+
+	/**
+	 * Decomposes the file described by the specified job into pieces and
+	 * {@linkplain ParityCodec parity pieces}. The file is read once, stripe by
+	 * stripe, where a stripe holds one block at the same position of every
+	 * piece. The blocks of a stripe are appended to their pieces, and the
+	 * parity of the stripe is appended to the parity pieces, so all pieces and
+	 * parity pieces grow side by side and are hashed in order.
+	 * <p>
+	 * Parity pieces hold no header, only the parity followed by its checksums.
+	 * Their data is as long as the longest piece, since shorter pieces are
+	 * padded with zeros, and they are listed in the manifest of the file. If
+	 * the parallelism of the job is greater than one, every stripe is split
+	 * into ranges whose parity is computed in parallel.
+	 *
+	 * @param job job describing the decomposing
+	 * @param in channel of the source file
+	 * @param outputDir directory of the pieces
+	 * @param pieces number of pieces
+	 * @param pieceLength length of all pieces except the last one
+	 * @param tracker tracker of the job
+	 * @param start time when the job has started
+	 * @return statistics of the finished job
+	 * @throws IllegalArgumentException if there are too many pieces for parity
+	 * @throws IOException if the source can not be read or a piece can not be written
+	 */
+	private JobStats decomposeParity(DecomposeJob job, FileChannel in, File outputDir, int pieces, long pieceLength,
+			ProgressTracker tracker, long start) throws IOException {
+		File source = job.getSource();
+		long fileLength = in.size();
+		int parityPieces = job.getParityPieces();
+		ParityCodec parity = new ParityCodec(pieces, parityPieces);
+		long stripeLength = Math.max(pieceLength, getLength(pieces - 1, pieces, pieceLength, fileLength));
+		int blockSize = (int) Math.max(1, Math.min(PARITY_BLOCK_SIZE, stripeLength));
+
+		UUID fileId = UUID.randomUUID();
+		PieceHeader[] headers = new PieceHeader[pieces];
+		byte[][] trailers = new byte[pieces + parityPieces][];
+		FileChannel[] outs = new FileChannel[pieces + parityPieces];
+		PieceDigest[] digests = new PieceDigest[pieces + parityPieces];
+		byte[][] data = new byte[pieces][blockSize];
+		byte[][] blocks = new byte[parityPieces][blockSize];
+		int parallelism = job.getParallelism();
+		ExecutorService executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, WORKER_FACTORY) : null;
+		Syncer syncer = new Syncer(job.getDurability(), job.getSyncInterval());
+		File[] files = new File[outs.length];
+
+		tracker.start(PROGRESS_INTERVAL);
+		try {
+			for (int i = 0; i < outs.length; i++) {
+				File file;
+				if (i < pieces) {
+					headers[i] = new PieceHeader(fileId, i, pieces, i * pieceLength,
+							getLength(i, pieces, pieceLength, fileLength), fileLength, source.getName(), job.getChecksum());
+					file = pieceFile(job, i, pieces);
+					if (isNewShard(job, i)) {
+						createParentDir(file);
+					}
+					tracker.setState(i, PieceState.RUNNING);
+				} else {
+					file = new File(job.getPieceDir(i), parityName(job.getOutputName(), i - pieces, parityPieces));
+				}
+				files[i] = file;
+				outs[i] = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+				digests[i] = PieceDigest.create(job.getChecksum());
+				if (i < pieces) {
+					ChannelCopier.writeFully(outs[i], headers[i].toBuffer());
+				}
+			}
+
+			/* Every stripe is read once and written to all pieces and parity pieces. */
+			long unsynced = 0;
+			for (long s = 0; s < stripeLength; s += blockSize) {
+				int n = (int) Math.min(blockSize, stripeLength - s);
+				for (int i = 0; i < pieces; i++) {
+					int length = (int) Math.max(0, Math.min(n, headers[i].getLength() - s));
+					ByteBuffer block = ByteBuffer.wrap(data[i], 0, length);
+					try {
+						readFully(in, block, headers[i].getOffset() + s);
+					} catch (EOFException e) {
+						throw new EOFException("File " + source.getName() + " has changed while decomposing");
+					}
+					Arrays.fill(data[i], length, n, (byte) 0);
+					write(outs[i], block, digests[i]);
+					tracker.add(length);
+				}
+				codeStripe(executor, parallelism, n, (from, to) -> parity.encode(data, blocks, from, to));
+				for (int j = 0; j < parityPieces; j++) {
+					write(outs[pieces + j], ByteBuffer.wrap(blocks[j], 0, n), digests[pieces + j]);
+				}
+				unsynced += n;
+				if (syncer.isDue(unsynced) && s + n < stripeLength) {
+					for (FileChannel out : outs) {
+						syncer.stepWritten(out);
+					}
+					unsynced = 0;
+				}
+			}
+
+			for (int i = 0; i < outs.length; i++) {
+				trailers[i] = writeTrailer(outs[i], digests[i]);
+				syncer.pieceWritten(outs[i], files[i]);
+				if (i < pieces) {
+					tracker.setState(i, PieceState.DONE);
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			for (FileChannel out : outs) {
+				if (out != null) {
+					out.close();
+				}
+			}
+			tracker.finish();
+		}
+
+		List<Manifest.Entry> parityEntries = new ArrayList<>(parityPieces);
+		for (int j = 0; j < parityPieces; j++) {
+			String name = parityName(job.getOutputName(), j, parityPieces);
+			File file = files[pieces + j];
+			parityEntries.add(new Manifest.Entry(j, name, job.getStripe(pieces + j), 0, stripeLength, stripeLength,
+					file.length(), file.lastModified(), trailers[pieces + j]));
+		}
+		syncer.sync();
+		writeManifest(job, outputDir, Arrays.asList(headers), Arrays.asList(trailers).subList(0, pieces), parityEntries,
+				syncer);
+		return new JobStats(fileLength, pieces, System.nanoTime() - start, CopyMode.BUFFERED, blockSize);
+	}
+
+	/**
+	 * Decomposes the file described by the specified job into content-defined
+	 * chunks, stored in a {@linkplain ChunkStore} in the output directory, and
+	 * writes the manifest listing the chunks of the file. The file is read
+	 * once, sequentially, by the calling thread, which finds the chunk
+	 * boundaries. Every chunk is then hashed and stored by its own task, so
+	 * that chunks are hashed in parallel if the parallelism is greater than
+	 * one. At most two chunks per thread are waiting to be stored at a time.
+	 *
+	 * @param job job describing the decomposing
+	 * @param outputDir directory of the store
+	 * @param start time when the job has started
+	 * @return statistics of the finished job
+	 * @throws IOException if the source can not be read or a chunk can not be written
+	 */
+	private JobStats decomposeChunks(DecomposeJob job, File outputDir, long start) throws IOException {
+		File source = job.getSource();
+		Syncer syncer = new Syncer(job.getDurability(), job.getSyncInterval());
+		ChunkStore store = new ChunkStore(outputDir, syncer);
+		int parallelism = job.getParallelism();
+
+		try (FileChannel in = FileChannel.open(source.toPath(), READ)) {
+			long fileLength = in.size();
+			ProgressTracker tracker = new ProgressTracker(fileLength, 0, job.getListener());
+			Chunker chunker = new Chunker(in, job.getChunkSize());
+			List<Manifest.Entry> entries = Collections.synchronizedList(new ArrayList<>());
+			Semaphore waiting = new Semaphore(2 * parallelism);
+			ExecutorService executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, WORKER_FACTORY) : null;
+			Deque<Future<Void>> futures = new ArrayDeque<>();
+
+			tracker.start(PROGRESS_INTERVAL);
+			try {
+				long offset = 0;
+				byte[] chunk;
+				for (int i = 0; (chunk = chunker.next()) != null; i++) {
+					final int index = i;
+					final long chunkOffset = offset;
+					final byte[] data = chunk;
+					offset += data.length;
+
+					/* Every task stores one chunk, unless the store already has it. */
+					Callable<Void> task = () -> {
+						try {
+							PieceDigest digest = PieceDigest.create(ChecksumMode.SHA256);
+							digest.update(ByteBuffer.wrap(data));
+							byte[] trailer = digest.trailer().array();
+							store.put(data, data.length, trailer);
+							String path = ChunkStore.chunkPath(trailer);
+							File chunkFile = new File(outputDir, path);
+							entries.add(new Manifest.Entry(index, path, chunkOffset, data.length, data.length,
+									chunkFile.length(), chunkFile.lastModified(), trailer));
+							tracker.add(data.length);
+						} finally {
+							waiting.release();
+						}
+						return null;
+					};
+
+					waiting.acquireUninterruptibly();
+					if (executor == null) {
+						call(task);
+						continue;
+					}
+					futures.add(executor.submit(task));
+					/* Fail early instead of reading the rest of the file. */
+					while (!futures.isEmpty() && futures.peek().isDone()) {
+						await(futures.poll());
+					}
+				}
+				while (!futures.isEmpty()) {
+					await(futures.poll());
+				}
+			} finally {
+				if (executor != null) {
+					executor.shutdownNow();
+				}
+				tracker.finish();
+			}
+
+			entries.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+			syncer.sync();
+			File manifestFile = Manifest.manifestFile(outputDir, job.getOutputName());
+			new Manifest(manifestFile, UUID.randomUUID(), source.getName(),
+					fileLength, ChecksumMode.SHA256, 0, entries, Collections.<Manifest.Entry>emptyList()).write();
+			syncer.fileWritten(manifestFile);
+			syncer.sync();
+			return new JobStats(fileLength, entries.size(), System.nanoTime() - start, CopyMode.BUFFERED, 0);
+		}
+	}
+
+	/**
+	 * Decomposes a stream of unknown length into pieces of the target piece
+	 * size of the job. Every piece is written as soon as it fills up, and the
+	 * next piece is created only if the stream has more data, so the number of
+	 * pieces is known only when the stream ends. It is reported in the
+	 * returned statistics, and patched into the headers of all pieces once
+	 * the stream has ended.
+	 * <p>
+	 * Streams can only be read in order, so the pieces are always written
+	 * one after another through buffers, regardless of the parallelism and
+	 * copy mode of the job. The stream is not closed by this method.
+	 *
+	 * @param job job describing the decomposing
+	 * @param in channel of the stream
+	 * @return statistics of the finished job
+	 * @throws IllegalArgumentException if the job has no target piece size
+	 * @throws IOException if the stream can not be read or a piece can not be written
+	 */
+	public JobStats decompose(DecomposeJob job, ReadableByteChannel in) throws IOException {
+		long start = System.nanoTime();
+
+		long pieceSize = job.getPieceSize();
+		if (pieceSize <= 0) {
+			throw new IllegalArgumentException("Decomposing a stream requires a target piece size");
+		}
+
+		File outputDir = createOutputDir(job);
+		ProgressTracker tracker = new ProgressTracker(-1, 0, job.getListener());
+		ChannelCopier copier = new ChannelCopier(CopyMode.BUFFERED, pool, new BufferSizer(job.getBufferSize()), tracker::add);
+		ByteBuffer pending = copier.acquirePending();
+		Syncer syncer = new Syncer(job.getDurability(), job.getSyncInterval());
+		UUID fileId = UUID.randomUUID();
+
+		tracker.start(PROGRESS_INTERVAL);
+		try {
+			/* Create pieces while the stream has more data, but at least one.
+			 * Headers are written with unknown totals, and patched later. */
+			List<PieceHeader> headers = new ArrayList<>();
+			List<byte[]> trailers = new ArrayList<>();
+			long total = 0;
+			do {
+				int index = headers.size();
+				File pieceFile = pieceFile(job, index, 0);
+				if (isNewShard(job, index)) {
+					createParentDir(pieceFile);
+				}
+				try (FileChannel out = FileChannel.open(pieceFile.toPath(), CREATE, WRITE, TRUNCATE_EXISTING)) {
+					PieceDigest digest = PieceDigest.create(job.getChecksum());
+					PieceHeader header = new PieceHeader(fileId, index, 0, total, 0, -1, job.getOutputName(), job.getChecksum());
+					ChannelCopier.writeFully(out, header.toBuffer());
+					long length = 0;
+					while (length < pieceSize) {
+						long n = syncer.step(pieceSize - length, 1);
+						long copied = copier.fromStream(in, pending, out, n, digest);
+						length += copied;
+						if (copied < n) {
+							break;
+						}
+						syncer.stepWritten(out);
+					}
+					trailers.add(writeTrailer(out, digest));
+					headers.add(new PieceHeader(fileId, index, 0, total, length, -1, job.getOutputName(), job.getChecksum()));
+					total += length;
+				}
+			} while (copier.fill(in, pending));
+
+			int pieces = headers.size();
+			renamePieces(job, pieces);
+			for (int i = 0; i < pieces; i++) {
+				File pieceFile = pieceFile(job, i, pieces);
+				PieceHeader header = headers.get(i).withTotals(pieces, total);
+				try (FileChannel out = FileChannel.open(pieceFile.toPath(), WRITE)) {
+					ChannelCopier.writeFully(out, header.toBuffer(), 0);
+					syncer.pieceWritten(out, pieceFile);
+				}
+				headers.set(i, header);
+			}
+			syncer.sync();
+			if (job.isManifest()) {
+				writeManifest(job, outputDir, headers, trailers, Collections.<Manifest.Entry>emptyList(), syncer);
+			}
+
+			return new JobStats(total, pieces, System.nanoTime() - start, copier.getMode(), copier.getBufferSize());
+		} finally {
+			copier.release(pending);
+			tracker.finish();
+		}
+	}
+
+	/**
+	 * Renames the pieces of a decomposed stream, which have been named before
+	 * the number of pieces was known, so that their indexes are padded to
+	 * the width of the largest index. Pieces of streams with at most one
+	 * hundred pieces or shards already have their final names.
+	 *
+	 * @param job job describing the decomposing
+	 * @param pieces number of pieces
+	 * @throws IOException if a piece can not be renamed
+	 */
+	private static void renamePieces(DecomposeJob job, int pieces) throws IOException {
+		Set<File> oldDirs = new LinkedHashSet<>();
+		for (int i = 0; i < pieces; i++) {
+			File from = pieceFile(job, i, 0);
+			File to = pieceFile(job, i, pieces);
+			if (!from.equals(to)) {
+				createParentDir(to);
+				Files.move(from.toPath(), to.toPath(), REPLACE_EXISTING);
+				oldDirs.add(from.getParentFile());
+			}
+		}
+		for (File dir : oldDirs) {
+			if (!dir.equals(job.getOutputDir()) && !job.getStripeDirs().contains(dir)) {
+				/* Only succeeds for shards left empty. */
+				dir.delete();
+			}
+		}
+	}
+
+	/**
+	 * Decomposes an input stream of unknown length into pieces of the target
+	 * piece size of the job. The stream is not closed by this method.
+	 *
+	 * @param job job describing the decomposing
+	 * @param in the input stream
+	 * @return statistics of the finished job
+	 * @throws IllegalArgumentException if the job has no target piece size
+	 * @throws IOException if the stream can not be read or a piece can not be written
+	 * @see #decompose(DecomposeJob, ReadableByteChannel)
+	 */
+	public JobStats decompose(DecomposeJob job, InputStream in) throws IOException {
+		return decompose(job, Channels.newChannel(in));
+	}
+
+	/**
+	 * Composes the pieces described by the specified job into one file. Pieces
+	 * with {@linkplain PieceHeader headers} may be given in any order, they are
+	 * ordered, checked for completeness and placed by their headers alone.
+	 * Legacy pieces are composed in the order of the job, and the implant of
+	 * every such piece is checked against its position.
+	 * <p>
+	 * The checksums at the end of every piece, if any, are verified while its
+	 * data is being copied. The job's tamper handler is asked what to do upon
+	 * the first invalid implant or checksum.
+	 * <p>
+	 * The composed file is preallocated to its total size, so that every
+	 * piece can be copied to its own offset, possibly at the same time as
+	 * other pieces. Compressed pieces are decompressed by the task copying
+	 * the piece, so they are decompressed in parallel as well.
+	 * <p>
+	 * If the job has a checkpoint interval, its progress is recorded in a
+	 * journal next to the composed file. An existing composed file is then
+	 * continued, instead of being refused, if its journal describes the same
+	 * job. Without a checkpoint interval, the composed file is deleted if
+	 * composing fails.
+	 * <p>
+	 * The composed file is forced to the storage device as required by the
+	 * {@linkplain Durability durability} of the job. Compressed pieces are
+	 * decompressed as a whole, so batched syncs force them once complete.
+	 * <p>
+	 * If the manifest of the job lists parity pieces, missing pieces and
+	 * pieces whose size or checksums are wrong are not reported to the tamper
+	 * handler, but set aside. Once all other pieces are composed, the lost
+	 * pieces are rebuilt from them and the parity pieces, as described in
+	 * {@link #rebuild}.
+	 *
+	 * @param job job describing the composing
+	 * @return statistics of the finished job
+	 * @throws IllegalArgumentException if the job has no output file and the
+	 *         pieces have no headers
+	 * @throws FileAlreadyExistsException if the output file already exists
+	 *         and can not be continued
+	 * @throws PieceTamperedException if a piece has been tampered with and
+	 *         the tamper handler decided to stop
+	 * @throws IOException if a piece is missing or can not be read, or the
+	 *         output can not be written
+	 */
+	public JobStats compose(ComposeJob job) throws IOException {
+		long start = System.nanoTime();
+
+		/* Every piece's offset in the composed file is known up front. */
+		Manifest manifest = job.getManifest();
+		List<PieceSlot> slots = manifest != null ? layout(manifest) : layout(job.getPieces());
+		PieceSlot last = slots.get(slots.size() - 1);
+		long totalSize = last.offset + last.length;
+
+		File output = job.getOutput();
+		if (output == null) {
+			String name = manifest != null ? manifest.getName() : last.header != null ? last.header.getName() : null;
+			if (name == null) {
+				throw new IllegalArgumentException("Output file must be set when composing pieces without headers");
+			}
+			File dir = manifest != null ? manifest.getFile().getAbsoluteFile().getParentFile() : commonDir(job.getPieces());
+			output = new File(dir, name);
+		}
+
+		/* An existing output is only continued if its journal describes this job. */
+		long interval = job.getCheckpointInterval();
+		CheckpointJournal journal = null;
+		if (interval > 0) {
+			File journalFile = new File(output.getPath() + JOURNAL_EXTENSION);
+			if (!output.exists()) {
+				Files.deleteIfExists(journalFile.toPath());
+			}
+			UUID fileId = manifest != null ? manifest.getFileId()
+					: last.header != null ? last.header.getFileId() : new UUID(0, 0);
+			journal = CheckpointJournal.open(journalFile, fileId, fileId.getMostSignificantBits(),
+					fileId.getLeastSignificantBits(), totalSize, slots.size());
+		}
+		boolean resumed = journal != null && journal.isResumed();
+		if (output.exists() && !resumed) {
+			if (journal != null) {
+				journal.delete();
+			}
+			throw new FileAlreadyExistsException("File " + output.getName() + " already exists");
+		}
+		final CheckpointJournal checkpoints = journal;
+		final File composed = output;
+		Syncer syncer = new Syncer(job.getDurability(), job.getSyncInterval());
+		boolean repairable = manifest != null && !manifest.getParity().isEmpty();
+		Set<Integer> lost = new ConcurrentSkipListSet<>();
+
+		TamperGuard guard = new TamperGuard(job.getTamperHandler());
+		ProgressTracker tracker = new ProgressTracker(totalSize, slots.size(), job.getListener());
+		/* Mapped writes must be forced by themselves whenever the composed file is forced. */
+		ChannelCopier copier = new ChannelCopier(job.getCopyMode(), pool, new BufferSizer(job.getBufferSize()), tracker::add,
+				job.getPipelineDepth(), job.getDurability() != Durability.NONE || checkpoints != null);
+
+		File created = resumed ? output : createNew(output);
+		try (RandomAccessFile raf = new RandomAccessFile(created, "rw")) {
+			raf.setLength(totalSize);
+			FileChannel out = raf.getChannel();
+
+			/* Every task merges one piece to the whole file. */
+			List<Callable<Void>> tasks = new ArrayList<>(slots.size());
+			for (int i = 0; i < slots.size(); i++) {
+				final int index = i;
+				final PieceSlot slot = slots.get(i);
+				final File piece = slot.file;
+
+				tasks.add(tracked(tracker, index, () -> {
+					if (checkpoints != null && checkpoints.isDone(index)) {
+						tracker.add(slot.length);
+						return null;
+					}
+					if (repairable && (!piece.isFile() || piece.length() != slot.size)) {
+						lost.add(index);
+						tracker.add(slot.length);
+						return null;
+					}
+
+					try (FileChannel in = FileChannel.open(piece.toPath(), READ)) {
+						if (slot.expected != null) {
+							if (in.size() != slot.size) {
+								guard.corrupted(piece, index);
+							}
+						} else if (slot.header == null) {
+							guard.check(slot.implant, piece, index);
+						}
+						PieceDigest digest = job.isVerifyChecksums() ? PieceDigest.create(slot.checksum) : null;
+						in.position(slot.dataStart);
+						if (slot.codec != null) {
+							try {
+								new BlockCodec(slot.codec, tracker::add).decompress(in, out, slot.offset, slot.length,
+										slot.storedLength, digest);
+							} catch (DataFormatException e) {
+								/* The rest of a damaged piece can not be read, nor its checksums. */
+								guard.corrupted(piece, index);
+								digest = null;
+							}
+						} else {
+							long done = checkpoints != null ? checkpoints.getProgress(index) : 0;
+							if (done > 0) {
+								/* Continue after the last checkpoint, hashing the data already copied. */
+								if (digest != null) {
+									copier.digest(in, done, digest);
+								} else {
+									in.position(slot.dataStart + done);
+									tracker.add(done);
+								}
+							}
+
+							try (AsynchronousFileChannel asyncIn = job.getCopyMode() == CopyMode.ASYNC
+									? AsynchronousFileChannel.open(piece.toPath(), READ) : null) {
+								while (done < slot.length) {
+									long n = syncer.step(slot.length - done, 1);
+									if (checkpoints != null) {
+										n = Math.min(interval, n);
+									}
+									copier.fromPiece(in, asyncIn, out, slot.offset + done, n, digest);
+									done += n;
+									if (checkpoints != null && done < slot.length) {
+										out.force(false);
+										checkpoints.progress(index, done);
+									} else if (done < slot.length) {
+										syncer.stepWritten(out);
+									}
+								}
+							}
+						}
+						if (digest != null && !digest.matches(slot.expected != null
+								? ByteBuffer.wrap(slot.expected) : readFully(in, slot.checksum.getLength()))) {
+							if (repairable) {
+								lost.add(index);
+								return null;
+							}
+							guard.corrupted(piece, index);
+						}
+						syncer.pieceWritten(out, composed);
+						if (checkpoints != null) {
+							out.force(false);
+							checkpoints.done(index, new byte[0]);
+						}
+					} catch (EOFException e) {
+						throw new EOFException("Piece " + piece.getName() + " has changed while composing");
+					}
+					return null;
+				}));
+			}
+
+			tracker.start(PROGRESS_INTERVAL);
+			try {
+				runAll(tasks, job.getParallelism());
+				if (!lost.isEmpty()) {
+					rebuild(manifest, slots, lost, out, guard, job.getParallelism());
+					syncer.pieceWritten(out, composed);
+					if (checkpoints != null) {
+						out.force(false);
+						for (int index : lost) {
+							checkpoints.done(index, new byte[0]);
+						}
+					}
+				}
+				syncer.fileWritten(composed);
+				syncer.sync();
+				if (checkpoints != null) {
+					checkpoints.delete();
+				}
+			} finally {
+				tracker.finish();
+				if (checkpoints != null) {
+					checkpoints.close();
+				}
+			}
+			return new JobStats(totalSize, slots.size(), System.nanoTime() - start, copier.getMode(), copier.getBufferSize());
+		} catch (IOException | RuntimeException e) {
+			/* Without a journal the file can not be continued, and its full size
+			 * would make it look composed, so it is deleted. */
+			if (checkpoints == null) {
+				try {
+					Files.deleteIfExists(created.toPath());
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Composes the pieces described by the specified job into a channel, such
+	 * as a pipe or the standard output, instead of a file. The output file of
+	 * the job is ignored. Pieces are laid out exactly as for composing to a
+	 * file, and their implants and checksums are checked the same way.
+	 * <p>
+	 * Pieces are read in order by a single reader thread into pooled buffers,
+	 * which the calling thread writes to the channel. Up to as many buffers
+	 * as the pipeline depth of the job are read ahead, so reading the next
+	 * piece overlaps writing the current one, and a slow consumer stops the
+	 * reader instead of filling the memory. The parallelism and the copy mode
+	 * of the job do not apply.
+	 * <p>
+	 * Since the data can not be taken back once written, the checksums of a
+	 * piece are verified only after its data has been written, and a damaged
+	 * piece is reported to the tamper handler too late to keep its data out
+	 * of the channel. Lost pieces can not be rebuilt from parity pieces, so
+	 * missing pieces are an error. The channel is not closed by this method.
+	 *
+	 * @param job job describing the composing
+	 * @param out channel receiving the composed data
+	 * @return statistics of the finished job
+	 * @throws IllegalArgumentException if the job has a checkpoint interval
+	 * @throws PieceTamperedException if a piece has been tampered with and
+	 *         the tamper handler decided to stop
+	 * @throws IOException if a piece is missing or can not be read, or the
+	 *         channel can not be written
+	 */
+	public JobStats compose(ComposeJob job, WritableByteChannel out) throws IOException {
+		long start = System.nanoTime();
+		if (job.getCheckpointInterval() > 0) {
+			throw new IllegalArgumentException("Composing to a stream can not be checkpointed");
+		}
+
+		Manifest manifest = job.getManifest();
+		if (manifest != null && !manifest.getMissing().isEmpty()) {
+			throw new IOException("Piece " + (manifest.getMissing().get(0) + 1) + " of " + manifest.getName() + " is missing");
+		}
+		List<PieceSlot> slots = manifest != null ? layout(manifest) : layout(job.getPieces());
+		PieceSlot last = slots.get(slots.size() - 1);
+		long totalSize = last.offset + last.length;
+
+		int bufferSize = job.getBufferSize() != 0 ? job.getBufferSize() : PIPELINE_BUFFER_SIZE;
+		BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(job.getPipelineDepth());
+		TamperGuard guard = new TamperGuard(job.getTamperHandler());
+		ProgressTracker tracker = new ProgressTracker(totalSize, slots.size(), job.getListener());
+
+		ExecutorService reader = Executors.newSingleThreadExecutor(WORKER_FACTORY);
+		tracker.start(PROGRESS_INTERVAL);
+		try {
+			Future<Void> reading = reader.submit(() -> {
+				try {
+					for (int i = 0; i < slots.size(); i++) {
+						final int index = i;
+						call(tracked(tracker, index, () -> {
+							readPiece(slots.get(index), index, job, guard, queue, bufferSize);
+							return null;
+						}));
+					}
+				} finally {
+					queue.put(END_OF_STREAM);
+				}
+				return null;
+			});
+
+			/* Write what has been read until the reader is done, then check how it ended. */
+			for (ByteBuffer b = queue.take(); b != END_OF_STREAM; b = queue.take()) {
+				int n = b.remaining();
+				try {
+					ChannelCopier.writeFully(out, b);
+				} finally {
+					pool.release(b);
+				}
+				tracker.add(n);
+			}
+			await(reading);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while composing");
+		} finally {
+			reader.shutdownNow();
+			release(queue, reader);
+			tracker.finish();
+		}
+		return new JobStats(totalSize, slots.size(), System.nanoTime() - start, CopyMode.BUFFERED, bufferSize);
+	}
+
+	/**
+	 * Composes the pieces described by the specified job into an output
+	 * stream, which is flushed but not closed.
+	 *
+	 * @param job job describing the composing
+	 * @param out stream receiving the composed data
+	 * @return statistics of the finished job
+	 * @throws IllegalArgumentException if the job has a checkpoint interval
+	 * @throws PieceTamperedException if a piece has been tampered with and
+	 *         the tamper handler decided to stop
+	 * @throws IOException if a piece is missing or can not be read, or the
+	 *         stream can not be written
+	 * @see #compose(ComposeJob, WritableByteChannel)
+	 */
+	public JobStats compose(ComposeJob job, OutputStream out) throws IOException {
+		JobStats stats = compose(job, Channels.newChannel(out));
+		out.flush();
+		return stats;
+	}
+
+	/**
+	 * Reads the data of one piece into pooled buffers and queues them to be
+	 * written in order, checking the implant or size of the piece first and
+	 * its checksums last.
+	 *
+	 * @param slot the piece
+	 * @param index index of the piece
+	 * @param job job describing the composing
+	 * @param guard guard of the job
+	 * @param queue queue of the buffers to be written
+	 * @param bufferSize size of the buffers
+	 * @throws IOException if the piece can not be read or has been tampered with
+	 */
+	private void readPiece(PieceSlot slot, int index, ComposeJob job, TamperGuard guard, BlockingQueue<ByteBuffer> queue,
+			int bufferSize) throws IOException {
+		File piece = slot.file;
+		if (!piece.isFile()) {
+			throw new FileNotFoundException("Piece " + piece.getName() + " is missing");
+		}
+		try (FileChannel in = FileChannel.open(piece.toPath(), READ)) {
+			if (slot.expected != null) {
+				if (in.size() != slot.size) {
+					guard.corrupted(piece, index);
+				}
+			} else if (slot.header == null) {
+				guard.check(slot.implant, piece, index);
+			}
+			PieceDigest digest = job.isVerifyChecksums() ? PieceDigest.create(slot.checksum) : null;
+			in.position(slot.dataStart);
+			if (slot.codec != null) {
+				try {
+					new BlockCodec(slot.codec, n -> {}).decompress(in, slot.length, slot.storedLength, digest, (block, offset) -> {
+						ByteBuffer b = pool.acquire(block.remaining());
+						b.put(block);
+						b.flip();
+						put(queue, b);
+					});
+				} catch (DataFormatException e) {
+					/* The rest of a damaged piece can not be read, nor its checksums. */
+					guard.corrupted(piece, index);
+					return;
+				}
+			} else {
+				for (long done = 0; done < slot.length; ) {
+					ByteBuffer b = pool.acquire(bufferSize);
+					try {
+						b.limit((int) Math.min(bufferSize, slot.length - done));
+						while (b.hasRemaining()) {
+							if (in.read(b) < 0) {
+								throw new EOFException("Piece " + piece.getName() + " has changed while composing");
+							}
+						}
+						b.flip();
+						if (digest != null) {
+							digest.update(b);
+						}
+					} catch (IOException | RuntimeException e) {
+						pool.release(b);
+						throw e;
+					}
+					done += b.remaining();
+					put(queue, b);
+				}
+			}
+			if (digest != null && !digest.matches(slot.expected != null
+					? ByteBuffer.wrap(slot.expected) : readFully(in, slot.checksum.getLength()))) {
+				guard.corrupted(piece, index);
+			}
+		}
+	}
+
+	/**
+	 * Queues a buffer to be written, waiting while the queue is full. The
+	 * buffer goes back to the pool if it can not be queued.
+	 *
+	 * @param queue queue of the buffers to be written
+	 * @param b buffer to be written
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	private void put(BlockingQueue<ByteBuffer> queue, ByteBuffer b) throws InterruptedIOException {
+		try {
+			queue.put(b);
+		} catch (InterruptedException e) {
+			pool.release(b);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the output");
+		}
+	}
+
+	/**
+	 * Returns the buffers left in the queue to the pool once composing to a
+	 * stream has ended. The queue is drained until the reader has stopped,
+	 * so a reader blocked on a full queue is never stuck and every buffer it
+	 * queues on its way out is released as well.
+	 *
+	 * @param queue queue of the buffers to be written
+	 * @param reader executor of the reader, already shut down
+	 */
+	private void release(BlockingQueue<ByteBuffer> queue, ExecutorService reader) {
+		boolean interrupted = false;
+		boolean stopped = false;
+		while (!stopped) {
+			for (ByteBuffer b; (b = queue.poll()) != null; ) {
+				if (b != END_OF_STREAM) {
+					pool.release(b);
+				}
+			}
+			try {
+				stopped = reader.awaitTermination(10, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		for (ByteBuffer b; (b = queue.poll()) != null; ) {
+			if (b != END_OF_STREAM) {
+				pool.release(b);
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Verifies the pieces listed in the specified manifest against their
+	 * checksums in the manifest. Pieces are checked in parallel, and the data
+	 * of a piece is read only if its checksums must be computed. A quick
+	 * verify trusts pieces whose size and modification time have not changed
+	 * since the manifest was written, so verifying untouched pieces costs a
+	 * single read of the manifest.
+	 *
+	 * @param manifest manifest listing the pieces
+	 * @param quick true to skip hashing of unchanged pieces
+	 * @param parallelism maximal number of pieces verified at the same time
+	 * @return report of the verify
+	 * @throws IOException if a piece can not be read
+	 */
+	public VerifyReport verify(Manifest manifest, boolean quick, int parallelism) throws IOException {
+		List<Integer> verified = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> unchanged = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> missing = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> corrupted = Collections.synchronizedList(new ArrayList<>());
+		ChannelCopier copier = new ChannelCopier(CopyMode.BUFFERED, pool, new BufferSizer(0), n -> {});
+
+		/* Every task verifies one piece. */
+		List<Callable<Void>> tasks = new ArrayList<>(manifest.getCount());
+		for (Manifest.Entry entry : manifest.getEntries()) {
+			final File piece = manifest.getPieceFile(entry);
+
+			tasks.add(() -> {
+				if (!piece.isFile()) {
+					missing.add(entry.getIndex());
+				} else if (piece.length() != entry.getSize()) {
+					corrupted.add(entry.getIndex());
+				} else if ((quick && entry.isUnchanged(piece)) || manifest.getChecksum() == ChecksumMode.NONE) {
+					unchanged.add(entry.getIndex());
+				} else {
+					PieceDigest digest = PieceDigest.create(manifest.getChecksum());
+					try (FileChannel in = FileChannel.open(piece.toPath(), READ)) {
+						in.position(entry.getDataStart());
+						copier.digest(in, entry.getStoredLength(), digest);
+					} catch (EOFException e) {
+						throw new EOFException("Piece " + piece.getName() + " has changed while verifying");
+					}
+					(digest.matches(ByteBuffer.wrap(entry.getChecksum())) ? verified : corrupted).add(entry.getIndex());
+				}
+				return null;
+			});
+		}
+		runAll(tasks, parallelism);
+
+		for (List<Integer> list : Arrays.asList(verified, unchanged, missing, corrupted)) {
+			Collections.sort(list);
+		}
+		return new VerifyReport(verified, unchanged, missing, corrupted);
+	}
+
+	/**
+	 * Rebuilds the lost pieces of a composed file from the other pieces, which
+	 * have already been composed and verified, and the parity pieces listed in
+	 * the manifest. One parity piece of the right size is used per lost piece,
+	 * and the file is rebuilt stripe by stripe, reading the other pieces back
+	 * from the composed file itself. Parity pieces are verified while they
+	 * are read, and if any of them is damaged, the pieces are rebuilt again
+	 * from the remaining parity pieces. The rebuilt data is finally verified
+	 * against the checksums in the manifest.
+	 * <p>
+	 * If more pieces are lost than there are intact parity pieces, the lost
+	 * pieces are reported as missing or to the tamper handler, as they would
+	 * be without parity. If the tamper handler decides to continue, the data
+	 * of the lost pieces is copied into place as it is, unverified, so the
+	 * composed file has no holes where the pieces belong.
+	 *
+	 * @param manifest manifest listing the pieces and parity pieces
+	 * @param slots all pieces in the order of the composed file
+	 * @param lost indexes of the lost pieces
+	 * @param out channel of the composed file
+	 * @param guard guard of the composing job
+	 * @param parallelism number of ranges of every stripe rebuilt at the same time
+	 * @throws PieceTamperedException if a lost piece can not be rebuilt and
+	 *         the tamper handler decided to stop
+	 * @throws IOException if a lost piece is missing or too short and can not
+	 *         be rebuilt, or an I/O error occurs
+	 */
+	private static void rebuild(Manifest manifest, List<PieceSlot> slots, Set<Integer> lost, FileChannel out,
+			TamperGuard guard, int parallelism) throws IOException {
+		int[] lostIndexes = new int[lost.size()];
+		int count = 0;
+		for (int index : lost) {
+			lostIndexes[count++] = index;
+		}
+
+		Set<Integer> damaged = new HashSet<>();
+		PieceDigest[] digests = new PieceDigest[slots.size()];
+		while (true) {
+			/* Only parity pieces of the right size are worth reading. */
+			List<Manifest.Entry> rows = new ArrayList<>(lostIndexes.length);
+			for (Manifest.Entry entry : manifest.getParity()) {
+				File file = manifest.getPieceFile(entry);
+				if (rows.size() < lostIndexes.length && !damaged.contains(entry.getIndex())
+						&& file.isFile() && file.length() == entry.getSize()) {
+					rows.add(entry);
+				}
+			}
+			if (rows.size() < lostIndexes.length) {
+				for (int index : lostIndexes) {
+					File piece = slots.get(index).file;
+					if (!piece.isFile()) {
+						throw new IOException("Piece " + (index + 1) + " of " + manifest.getName() + " is missing");
+					}
+					guard.corrupted(piece, index);
+				}
+				for (int index : lostIndexes) {
+					copyUnverified(manifest, slots.get(index), out);
+				}
+				return;
+			}
+
+			List<Integer> bad = rebuild(manifest, slots, lostIndexes, rows, out, digests, parallelism);
+			if (bad.isEmpty()) {
+				break;
+			}
+			damaged.addAll(bad);
+		}
+
+		for (int index : lostIndexes) {
+			PieceSlot slot = slots.get(index);
+			if (digests[index] != null && !digests[index].matches(ByteBuffer.wrap(slot.expected))) {
+				guard.corrupted(slot.file, index);
+			}
+		}
+	}
+
+	/**
+	 * Copies the data of a lost piece which can not be rebuilt into its place
+	 * in the composed file, without verifying it, once the tamper handler has
+	 * decided to continue composing.
+	 *
+	 * @param manifest manifest listing the piece
+	 * @param slot the lost piece
+	 * @param out channel of the composed file
+	 * @throws IOException if the piece is too short or its compressed blocks
+	 *         are damaged, or an I/O error occurs
+	 */
+	private static void copyUnverified(Manifest manifest, PieceSlot slot, FileChannel out) throws IOException {
+		try (FileChannel in = FileChannel.open(slot.file.toPath(), READ)) {
+			if (in.size() < slot.dataStart + slot.storedLength) {
+				throw new IOException("Piece " + (slot.implant + 1) + " of " + manifest.getName()
+						+ " is too short and can not be rebuilt");
+			}
+			in.position(slot.dataStart);
+			if (slot.codec != null) {
+				try {
+					new BlockCodec(slot.codec, (n) -> {}).decompress(in, out, slot.offset, slot.length,
+							slot.storedLength, null);
+				} catch (DataFormatException e) {
+					throw new IOException("Piece " + (slot.implant + 1) + " of " + manifest.getName()
+							+ " is damaged and can not be rebuilt", e);
+				}
+			} else {
+				long done = 0;
+				while (done < slot.length) {
+					long n = out.transferFrom(in, slot.offset + done, slot.length - done);
+					if (n <= 0) {
+						throw new EOFException("Piece " + slot.file.getName() + " has changed while composing");
+					}
+					done += n;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the lost pieces of a composed file from the specified parity
+	 * pieces, computing the digests of the rebuilt pieces and verifying the
+	 * parity pieces on the way.
+	 *
+	 * @param manifest manifest listing the pieces and parity pieces
+	 * @param slots all pieces in the order of the composed file
+	 * @param lost indexes of the lost pieces, in ascending order
+	 * @param rows entries of the parity pieces used, one per lost piece
+	 * @param out channel of the composed file
+	 * @param digests array receiving the digests of the rebuilt pieces
+	 * @param parallelism number of ranges of every stripe rebuilt at the same time
+	 * @return indexes of the parity pieces whose checksums do not match
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static List<Integer> rebuild(Manifest manifest, List<PieceSlot> slots, int[] lost,
+			List<Manifest.Entry> rows, FileChannel out, PieceDigest[] digests, int parallelism) throws IOException {
+		int[] rowIndexes = new int[rows.size()];
+		for (int r = 0; r < rowIndexes.length; r++) {
+			rowIndexes[r] = rows.get(r).getIndex();
+		}
+		ParityCodec.Rebuilder rebuilder = new ParityCodec(slots.size(), manifest.getParity().size())
+				.rebuilder(lost, rowIndexes);
+		long stripeLength = rows.get(0).getLength();
+		int blockSize = (int) Math.max(1, Math.min(PARITY_BLOCK_SIZE, stripeLength));
+		boolean[] isLost = new boolean[slots.size()];
+		byte[][] data = new byte[slots.size()][blockSize];
+		for (int index : lost) {
+			isLost[index] = true;
+			digests[index] = PieceDigest.create(manifest.getChecksum());
+		}
+		byte[][] blocks = new byte[rows.size()][blockSize];
+		PieceDigest[] parityDigests = new PieceDigest[rows.size()];
+		FileChannel[] ins = new FileChannel[rows.size()];
+		ExecutorService executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, WORKER_FACTORY) : null;
+
+		try {
+			for (int r = 0; r < ins.length; r++) {
+				ins[r] = FileChannel.open(manifest.getPieceFile(rows.get(r)).toPath(), READ);
+				parityDigests[r] = PieceDigest.create(manifest.getChecksum());
+			}
+
+			for (long s = 0; s < stripeLength; s += blockSize) {
+				int n = (int) Math.min(blockSize, stripeLength - s);
+				for (int i = 0; i < slots.size(); i++) {
+					if (!isLost[i]) {
+						PieceSlot slot = slots.get(i);
+						int length = (int) Math.max(0, Math.min(n, slot.length - s));
+						readFully(out, ByteBuffer.wrap(data[i], 0, length), slot.offset + s);
+						Arrays.fill(data[i], length, n, (byte) 0);
+					}
+				}
+				for (int r = 0; r < ins.length; r++) {
+					ByteBuffer block = ByteBuffer.wrap(blocks[r], 0, n);
+					readFully(ins[r], block, s);
+					if (parityDigests[r] != null) {
+						parityDigests[r].update(block);
+					}
+				}
+				codeStripe(executor, parallelism, n, (from, to) -> rebuilder.rebuild(data, blocks, from, to));
+				for (int index : lost) {
+					PieceSlot slot = slots.get(index);
+					int length = (int) Math.max(0, Math.min(n, slot.length - s));
+					ByteBuffer block = ByteBuffer.wrap(data[index], 0, length);
+					if (digests[index] != null) {
+						digests[index].update(block);
+					}
+					while (block.hasRemaining()) {
+						out.write(block, slot.offset + s + block.position());
+					}
+				}
+			}
+		} catch (EOFException e) {
+			throw new EOFException("Parity of " + manifest.getName() + " has changed while composing");
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			for (FileChannel in : ins) {
+				if (in != null) {
+					in.close();
+				}
+			}
+		}
+
+		List<Integer> bad = new ArrayList<>();
+		for (int r = 0; r < rows.size(); r++) {
+			if (parityDigests[r] != null && !parityDigests[r].matches(ByteBuffer.wrap(rows.get(r).getChecksum()))) {
+				bad.add(rows.get(r).getIndex());
+			}
+		}
+		return bad;
+	}
+
+	/**
+	 * Lays out the pieces listed in the specified manifest, without opening
+	 * any of them. Missing pieces are allowed only if the manifest lists
+	 * enough parity pieces to rebuild them from.
+	 *
+	 * @param manifest manifest listing the pieces
+	 * @return the pieces in the order of the composed file
+	 * @throws IOException if a piece is missing
+	 */
+	static List<PieceSlot> layout(Manifest manifest) throws IOException {
+		List<Integer> missing = manifest.getMissing();
+		if (missing.size() > manifest.getParity().size()) {
+			throw new IOException("Piece " + (missing.get(0) + 1) + " of " + manifest.getName() + " is missing");
+		}
+		List<PieceSlot> slots = new ArrayList<>(manifest.getCount());
+		for (Manifest.Entry entry : manifest.getEntries()) {
+			File piece = manifest.getPieceFile(entry);
+			slots.add(new PieceSlot(piece, manifest.getChecksum(), Codecs.forId(manifest.getCodecId()), entry));
+		}
+		return slots;
+	}
+
+	/**
+	 * Reads the headers or implants of the specified pieces and lays the
+	 * pieces out in the composed file. Pieces with headers are ordered by
+	 * their index, and must all belong to the same file and be complete.
+	 * Legacy pieces are laid out in the given order.
+	 *
+	 * @param pieces pieces to be composed
+	 * @return the pieces in the order of the composed file
+	 * @throws IOException if the pieces do not form a complete file or can
+	 *         not be read
+	 */
+	static List<PieceSlot> layout(List<File> pieces) throws IOException {
+		List<PieceSlot> slots = new ArrayList<>(pieces.size());
+		int withHeaders = 0;
+		for (File piece : pieces) {
+			PieceHeader header = PieceHeader.read(piece);
+			if (header != null) {
+				withHeaders++;
+				slots.add(new PieceSlot(piece, header));
+			} else {
+				slots.add(new PieceSlot(piece, readImplant(piece)));
+			}
+		}
+
+		if (withHeaders == 0) {
+			long offset = 0;
+			for (PieceSlot slot : slots) {
+				slot.offset = offset;
+				offset += slot.length;
+			}
+			return slots;
+		}
+		if (withHeaders != slots.size()) {
+			throw new IOException("Pieces with and without headers can not be composed together");
+		}
+
+		slots.sort((a, b) -> Integer.compare(a.header.getIndex(), b.header.getIndex()));
+		PieceHeader first = slots.get(0).header;
+		long offset = 0;
+		for (int i = 0; i < slots.size(); i++) {
+			PieceHeader header = slots.get(i).header;
+			String name = slots.get(i).file.getName();
+			if (!header.getFileId().equals(first.getFileId())) {
+				throw new IOException("Piece " + name + " belongs to another file than piece " + slots.get(0).file.getName());
+			}
+			if (header.getIndex() < i) {
+				throw new IOException("Piece " + (header.getIndex() + 1) + " of " + first.getName() + " is given twice");
+			}
+			if (header.getIndex() > i) {
+				throw new IOException("Piece " + (i + 1) + " of " + first.getName() + " is missing");
+			}
+			if (header.getCount() != first.getCount() || header.getOffset() != offset) {
+				throw new IOException("Header of piece " + name + " is damaged");
+			}
+			offset += header.getLength();
+		}
+		if (slots.size() < first.getCount()) {
+			throw new IOException("Piece " + (slots.size() + 1) + " of " + first.getName() + " is missing");
+		}
+		if (slots.size() > first.getCount() || offset != first.getOriginalLength()) {
+			throw new IOException("Pieces of " + first.getName() + " are incomplete or damaged");
+		}
+		return slots;
+	}
+
+	/**
+	 * Returns the header of the specified piece if it has been completely
+	 * written by a previous run of a job, which means it has the expected
+	 * header and size, and ends with the checksums recorded in the journal.
+	 * The header is read from the piece, since the length of compressed data
+	 * is not known in advance.
+	 *
+	 * @param piece the piece file
+	 * @param header expected header of the piece
+	 * @param trailer checksums recorded in the journal
+	 * @return the header of the complete piece, or null
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static PieceHeader readComplete(File piece, PieceHeader header, byte[] trailer) throws IOException {
+		if (piece.length() < header.getHeaderLength() + trailer.length) {
+			return null;
+		}
+		try (FileChannel in = FileChannel.open(piece.toPath(), READ)) {
+			PieceHeader written = PieceHeader.read(in, piece);
+			if (written == null || !written.getFileId().equals(header.getFileId()) || written.getIndex() != header.getIndex()
+					|| written.getLength() != header.getLength() || written.getCodecId() != header.getCodecId()) {
+				return null;
+			}
+			long size = written.getHeaderLength() + written.getStoredLength() + trailer.length;
+			if (in.size() != size) {
+				return null;
+			}
+			in.position(size - trailer.length);
+			return readFully(in, trailer.length).equals(ByteBuffer.wrap(trailer)) ? written : null;
+		}
+	}
+
+	/**
+	 * Writes the checksums of the piece, if any, to its end.
+	 *
+	 * @param out channel of the piece
+	 * @param digest digest of the piece, or null
+	 * @return the written checksums, empty if there are none
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static byte[] writeTrailer(FileChannel out, PieceDigest digest) throws IOException {
+		if (digest == null) {
+			return new byte[0];
+		}
+		ByteBuffer trailer = digest.trailer();
+		ChannelCopier.writeFully(out, trailer);
+		return trailer.array();
+	}
+
+	/**
+	 * Writes the manifest of the finished decomposing job next to its pieces,
+	 * and forces it as required by the durability of the job.
+	 *
+	 * @param job job describing the decomposing
+	 * @param outputDir directory of the pieces
+	 * @param headers headers of all pieces, ordered by index
+	 * @param trailers checksums of all pieces, ordered by index
+	 * @param parity entries of all parity pieces, ordered by index
+	 * @param syncer syncer of the job
+	 * @throws IOException if the manifest can not be written
+	 */
+	private static void writeManifest(DecomposeJob job, File outputDir, List<PieceHeader> headers,
+			List<byte[]> trailers, List<Manifest.Entry> parity, Syncer syncer) throws IOException {
+		List<Manifest.Entry> entries = new ArrayList<>(headers.size());
+		int pieces = headers.size();
+		for (int i = 0; i < pieces; i++) {
+			PieceHeader header = headers.get(i);
+			String path = piecePath(job.getOutputName(), i, pieces, job.getShardSize());
+			File pieceFile = pieceFile(job, i, pieces);
+			entries.add(new Manifest.Entry(i, path, job.getStripe(i), header.getOffset(), header.getLength(),
+					header.getStoredLength(), pieceFile.length(), pieceFile.lastModified(), trailers.get(i)));
+		}
+		List<File> stripeDirs = new ArrayList<>(job.getStripeDirs().size());
+		for (File dir : job.getStripeDirs()) {
+			stripeDirs.add(dir.getAbsoluteFile().toPath().normalize().toFile());
+		}
+		PieceHeader first = headers.get(0);
+		File manifestFile = Manifest.manifestFile(outputDir, job.getOutputName());
+		new Manifest(manifestFile, first.getFileId(), first.getName(), first.getOriginalLength(), job.getChecksum(),
+				first.getCodecId(), stripeDirs, entries, parity).write();
+		syncer.fileWritten(manifestFile);
+		syncer.sync();
+	}
+
+	/**
+	 * Makes sure that the output directory and the stripe directories of the
+	 * job exist before creating the pieces.
+	 *
+	 * @param job job describing the decomposing
+	 * @return the output directory
+	 * @throws IOException if a directory can not be created
+	 */
+	private static File createOutputDir(DecomposeJob job) throws IOException {
+		File outputDir = job.getOutputDir();
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Unable to create directory " + outputDir);
+		}
+		for (File dir : job.getStripeDirs()) {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Unable to create directory " + dir);
+			}
+		}
+		return outputDir;
+	}
+
+	/**
+	 * Returns the file name of the piece with the specified ordinal number,
+	 * padded to at least two digits.
+	 *
+	 * @param name name of the pieces, without the index and extension
+	 * @param i ordinal number of the piece
+	 * @return the file name of the piece
+	 */
+	public static String pieceName(String name, int i) {
+		return pieceName(name, i, 0);
+	}
+
+	/**
+	 * Returns the file name of the piece with the specified ordinal number.
+	 * The index is padded to the width of the largest index, but at least to
+	 * two digits, so the names of all pieces sort in order.
+	 *
+	 * @param name name of the pieces, without the index and extension
+	 * @param i ordinal number of the piece
+	 * @param count number of pieces, or 0 if it is not known
+	 * @return the file name of the piece
+	 */
+	public static String pieceName(String name, int i, int count) {
+		return name + "-" + pad(i, count - 1) + FILE_EXTENSION;
+	}
+
+	/**
+	 * Returns the file name of the parity piece with the specified ordinal
+	 * number. Parity pieces are never sharded.
+	 *
+	 * @param name name of the pieces, without the index and extension
+	 * @param i ordinal number of the parity piece
+	 * @param count number of parity pieces
+	 * @return the file name of the parity piece
+	 */
+	public static String parityName(String name, int i, int count) {
+		return name + "-" + pad(i, count - 1) + PARITY_EXTENSION;
+	}
+
+	/**
+	 * Returns the path of the piece with the specified ordinal number,
+	 * relative to the output directory. If the pieces are sharded, every
+	 * {@code shardSize} pieces are placed into their own subdirectory, named
+	 * after the ordinal number of the shard.
+	 *
+	 * @param name name of the pieces, without the index and extension
+	 * @param i ordinal number of the piece
+	 * @param count number of pieces, or 0 if it is not known
+	 * @param shardSize number of pieces per subdirectory, or 0 for no sharding
+	 * @return the relative path of the piece, separated by slashes
+	 */
+	public static String piecePath(String name, int i, int count, int shardSize) {
+		String piece = pieceName(name, i, count);
+		if (shardSize <= 0) {
+			return piece;
+		}
+		int shards = (int) ((count + (long) shardSize - 1) / shardSize);
+		return pad(i / shardSize, shards - 1) + "/" + piece;
+	}
+
+	/**
+	 * Returns the piece file with the specified ordinal number, in the output
+	 * directory or the stripe directory of the piece.
+	 *
+	 * @param job job describing the decomposing
+	 * @param i ordinal number of the piece
+	 * @param count number of pieces, or 0 if it is not known
+	 * @return the piece file
+	 */
+	private static File pieceFile(DecomposeJob job, int i, int count) {
+		return new File(job.getPieceDir(i), piecePath(job.getOutputName(), i, count, job.getShardSize()));
+	}
+
+	/**
+	 * Returns true if the piece with the specified ordinal number may be the
+	 * first one of its shard in its directory, so the shard directory may
+	 * have to be created. Striped pieces of one shard are spread across
+	 * several directories, so every striped piece may be the first one.
+	 *
+	 * @param job job describing the decomposing
+	 * @param i ordinal number of the piece
+	 * @return true if the shard directory of the piece may not exist yet
+	 */
+	private static boolean isNewShard(DecomposeJob job, int i) {
+		return job.getShardSize() > 0 && (job.isStriped() || i % job.getShardSize() == 0);
+	}
+
+	/**
+	 * Pads the specified number with zeros to the width of the specified
+	 * largest number, but at least to two digits.
+	 *
+	 * @param n number to be padded
+	 * @param max largest number of the same kind
+	 * @return the padded number
+	 */
+	private static String pad(int n, int max) {
+		String digits = Integer.toString(n);
+		int width = Math.max(2, Integer.toString(Math.max(max, 0)).length());
+		StringBuilder sb = new StringBuilder(width);
+		for (int i = digits.length(); i < width; i++) {
+			sb.append('0');
+		}
+		return sb.append(digits).toString();
+	}
+
+	/**
+	 * Creates the parent directory of the specified piece, if the pieces are
+	 * sharded and it does not exist yet.
+	 *
+	 * @param pieceFile the piece file
+	 * @throws IOException if the directory can not be created
+	 */
+	private static void createParentDir(File pieceFile) throws IOException {
+		File dir = pieceFile.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create directory " + dir);
+		}
+	}
+
+	/**
+	 * Returns the deepest directory containing all the specified pieces. For
+	 * pieces sharded into subdirectories, this is the directory holding the
+	 * shards.
+	 *
+	 * @param pieces the piece files
+	 * @return the common directory of the pieces
+	 */
+	static File commonDir(List<File> pieces) {
+		Path common = pieces.get(0).getAbsoluteFile().toPath().getParent();
+		for (File piece : pieces) {
+			Path dir = piece.getAbsoluteFile().toPath().getParent();
+			while (!dir.startsWith(common)) {
+				common = common.getParent();
+			}
+		}
+		return common.toFile();
+	}
+
+	/**
+	 * Returns the length of the original file data stored in the specified
+	 * piece, that is the piece length without the header and checksums.
+	 *
+	 * @param piece the piece file
+	 * @return the length of the data stored in the piece
+	 * @throws IOException if the header of the piece can not be read
+	 */
+	public static long getPieceLength(File piece) throws IOException {
+		PieceHeader header = PieceHeader.read(piece);
+		return header != null ? header.getLength() : getPieceLength(piece, readImplant(piece));
+	}
+
+	/**
+	 * Returns the length of the original file data stored in the specified
+	 * piece with the specified implant.
+	 *
+	 * @param piece the piece file
+	 * @param implant implant of the piece
+	 * @return the length of the data stored in the piece
+	 */
+	private static long getPieceLength(File piece, int implant) {
+		return Math.max(0, piece.length() - IMPLANT_LENGTH - PieceDigest.modeOf(implant).getLength());
+	}
+
+	/**
+	 * Returns the length of the original file data stored in the piece with
+	 * the specified ordinal number. The last piece takes everything that is
+	 * left after all other pieces.
+	 *
+	 * @param i ordinal number of the piece
+	 * @param pieces number of pieces
+	 * @param pieceLength length of all pieces except the last one
+	 * @param fileLength length of the original file
+	 * @return the length of the data stored in the piece
+	 */
+	private static long getLength(int i, int pieces, long pieceLength, long fileLength) {
+		return i == pieces - 1 ? fileLength - i * pieceLength : pieceLength;
+	}
+
+	/**
+	 * Wraps the task of a single piece so that it marks the state of the
+	 * piece in the specified tracker.
+	 *
+	 * @param tracker tracker of the job
+	 * @param piece ordinal number of the piece
+	 * @param task task writing or reading the piece
+	 * @return the wrapped task
+	 */
+	private static Callable<Void> tracked(ProgressTracker tracker, int piece, Callable<Void> task) {
+		return () -> {
+			tracker.setState(piece, PieceState.RUNNING);
+			try {
+				task.call();
+			} catch (Exception | Error e) {
+				tracker.setState(piece, PieceState.FAILED);
+				throw e;
+			}
+			tracker.setState(piece, PieceState.DONE);
+			return null;
+		};
+	}
+
+	/**
+	 * Runs all the specified tasks using at most {@code parallelism} threads
+	 * and waits for them to finish. If any of the tasks fails, the remaining
+	 * tasks are cancelled and the failure is rethrown.
+	 *
+	 * @param tasks tasks to be run
+	 * @param parallelism maximal number of tasks running at the same time
+	 * @throws IOException if any of the tasks has failed
+	 */
+	private static void runAll(List<Callable<Void>> tasks, int parallelism) throws IOException {
+		/* Sequential jobs simply run on the calling thread. */
+		if (parallelism == 1 || tasks.size() <= 1) {
+			for (Callable<Void> task : tasks) {
+				call(task);
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), WORKER_FACTORY);
+		try {
+			List<Future<Void>> futures = new ArrayList<>(tasks.size());
+			for (Callable<Void> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			for (Future<Void> future : futures) {
+				await(future);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs the specified task on the calling thread.
+	 *
+	 * @param task task to be run
+	 * @throws IOException if the task has failed
+	 */
+	private static void call(Callable<Void> task) throws IOException {
+		try {
+			task.call();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Waits for the specified task to finish, and rethrows its failure.
+	 *
+	 * @param future future of the task
+	 * @throws IOException if the task has failed
+	 */
+	private static void await(Future<Void> future) throws IOException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the pieces");
+		}
+	}
+
+	/**
+	 * Codes one stripe of parity, split into ranges coded by the specified
+	 * executor at the same time, or as a whole on the calling thread if there
+	 * is no executor.
+	 *
+	 * @param executor executor coding the ranges, or null
+	 * @param parallelism number of ranges
+	 * @param length length of the stripe
+	 * @param coder coder of one range of the stripe
+	 * @throws IOException if coding has failed
+	 */
+	private static void codeStripe(ExecutorService executor, int parallelism, int length, RangeCoder coder)
+			throws IOException {
+		if (executor == null) {
+			coder.code(0, length);
+			return;
+		}
+
+		/* Ranges are aligned to cache lines, so no two threads write the same one. */
+		int range = ((length + parallelism - 1) / parallelism + 63) & ~63;
+		List<Future<Void>> futures = new ArrayList<>(parallelism);
+		for (int from = 0; from < length; from += range) {
+			final int start = from;
+			final int end = Math.min(length, from + range);
+			futures.add(executor.submit(() -> {
+				coder.code(start, end);
+				return null;
+			}));
+		}
+		for (Future<Void> future : futures) {
+			await(future);
+		}
+	}
+
+	/**
+	 * Codes one range of a stripe of parity.
+	 *
+	 * @author Mario Bobic
+	 */
+	private interface RangeCoder {
+		/**
+		 * Codes the specified range of the stripe.
+		 *
+		 * @param from start of the range, inclusive
+		 * @param to end of the range, exclusive
+		 */
+		void code(int from, int to);
+	}
+
+	/**
+	 * Checks the implants of the pieces of one composing job. The tamper
+	 * handler of the job is asked only upon the first invalid implant, and
+	 * its decision applies to all other pieces, even if they are checked
+	 * concurrently.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static class TamperGuard {
+		/** Handler deciding what to do with tampered pieces */
+		private final ComposeJob.TamperHandler handler;
+		/** Decision of the handler, or null if it has not been asked yet */
+		private Boolean continueComposing;
+
+		/**
+		 * Constructs a new guard using the specified handler.
+		 *
+		 * @param handler handler deciding what to do with tampered pieces
+		 */
+		public TamperGuard(ComposeJob.TamperHandler handler) {
+			this.handler = handler;
+		}
+
+		/**
+		 * Checks the implant of the specified piece.
+		 *
+		 * @param implant implant read from the piece
+		 * @param piece the piece file
+		 * @param i expected ordinal number of the piece
+		 * @throws PieceTamperedException if the piece has been tampered with
+		 *         and composing should not continue
+		 */
+		public void check(int implant, File piece, int i) throws PieceTamperedException {
+			if ((implant & PieceDigest.INDEX_MASK) != i) {
+				tampered(piece, i, new PieceTamperedException(piece));
+			}
+		}
+
+		/**
+		 * Reports that the checksums of the specified piece do not match its
+		 * data.
+		 *
+		 * @param piece the piece file
+		 * @param i ordinal number of the piece
+		 * @throws PieceTamperedException if composing should not continue
+		 */
+		public void corrupted(File piece, int i) throws PieceTamperedException {
+			tampered(piece, i, new PieceTamperedException(piece,
+					"Checksum of decomposed piece " + piece.getName() + " does not match its data"));
+		}
+
+		/**
+		 * Asks the handler what to do with a tampered piece, unless it has
+		 * already been asked, and throws the exception if composing should
+		 * not continue.
+		 *
+		 * @param piece the tampered piece
+		 * @param i ordinal number of the piece
+		 * @param e exception thrown if composing should not continue
+		 * @throws PieceTamperedException if composing should not continue
+		 */
+		private synchronized void tampered(File piece, int i, PieceTamperedException e) throws PieceTamperedException {
+			if (continueComposing == null) {
+				continueComposing = handler.continueComposing(piece, i);
+			}
+			if (!continueComposing) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * A piece laid out in the composed file.
+	 *
+	 * @author Mario Bobic
+	 */
+	static final class PieceSlot {
+		/** The piece file */
+		final File file;
+		/** Header of the piece, or null for legacy pieces */
+		final PieceHeader header;
+		/** Implant of a legacy piece */
+		final int implant;
+		/** Position where the data starts in the piece */
+		final long dataStart;
+		/** Checksums stored at the end of the piece */
+		final ChecksumMode checksum;
+		/** Length of the data */
+		final long length;
+		/** Codec compressing the data, or null if it is not compressed */
+		final Codec codec;
+		/** Length of the data as stored in the piece */
+		final long storedLength;
+		/** Size of the piece file listed in a manifest, or -1 */
+		final long size;
+		/** Checksums listed in a manifest, or null to read them from the piece */
+		final byte[] expected;
+		/** Offset of the data in the composed file */
+		long offset;
+
+		/**
+		 * Constructs a slot of a piece with a header.
+		 *
+		 * @param file the piece file
+		 * @param header header of the piece
+		 * @throws IOException if the codec of the piece is unknown
+		 */
+		public PieceSlot(File file, PieceHeader header) throws IOException {
+			this.file = file;
+			this.header = header;
+			this.implant = header.getIndex();
+			this.dataStart = header.getHeaderLength();
+			this.checksum = header.getChecksum();
+			this.length = header.getLength();
+			this.codec = Codecs.forId(header.getCodecId());
+			this.storedLength = header.getStoredLength();
+			this.offset = header.getOffset();
+			this.size = -1;
+			this.expected = null;
+		}
+
+		/**
+		 * Constructs a slot of a piece listed in a manifest.
+		 *
+		 * @param file the piece file
+		 * @param checksum checksums stored at the end of the piece
+		 * @param codec codec compressing the data, or null
+		 * @param entry entry of the piece in the manifest
+		 */
+		public PieceSlot(File file, ChecksumMode checksum, Codec codec, Manifest.Entry entry) {
+			this.file = file;
+			this.header = null;
+			this.implant = entry.getIndex();
+			this.dataStart = entry.getDataStart();
+			this.checksum = checksum;
+			this.length = entry.getLength();
+			this.codec = codec;
+			this.storedLength = entry.getStoredLength();
+			this.offset = entry.getOffset();
+			this.size = entry.getSize();
+			this.expected = entry.getChecksum();
+		}
+
+		/**
+		 * Constructs a slot of a legacy piece. The offset is set once all
+		 * preceding pieces are known.
+		 *
+		 * @param file the piece file
+		 * @param implant implant of the piece
+		 */
+		public PieceSlot(File file, int implant) {
+			this.file = file;
+			this.header = null;
+			this.implant = implant;
+			this.dataStart = IMPLANT_LENGTH;
+			this.checksum = PieceDigest.modeOf(implant);
+			this.length = getPieceLength(file, implant);
+			this.codec = null;
+			this.storedLength = length;
+			this.size = -1;
+			this.expected = null;
+		}
+	}
+
+	/**
+	 * Reads the implant of the specified piece. Pieces too short to hold an
+	 * implant get an implant that matches no ordinal number.
+	 *
+	 * @param piece the piece file
+	 * @return the implant of the piece
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static int readImplant(File piece) throws IOException {
+		try (FileChannel in = FileChannel.open(piece.toPath(), READ)) {
+			return readFully(in, IMPLANT_LENGTH).getInt();
+		} catch (EOFException e) {
+			return PieceDigest.INDEX_MASK;
+		}
+	}
+
+	/**
+	 * Reads exactly {@code length} bytes from the current position of the
+	 * specified channel into a new buffer.
+	 *
+	 * @param in channel to read from
+	 * @param length number of bytes to be read
+	 * @return a buffer holding the bytes, ready to be read
+	 * @throws EOFException if the channel ends before the bytes are read
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static ByteBuffer readFully(ReadableByteChannel in, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		while (b.hasRemaining()) {
+			if (in.read(b) < 0) {
+				throw new EOFException("Unexpected end of file while reading");
+			}
+		}
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Reads the remaining bytes of the specified buffer from the specified
+	 * position of the channel, without changing the position of the channel.
+	 *
+	 * @param in channel to read from
+	 * @param b buffer receiving the bytes
+	 * @param position position of the first byte in the channel
+	 * @throws EOFException if the channel ends before the buffer is full
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void readFully(FileChannel in, ByteBuffer b, long position) throws IOException {
+		int start = b.position();
+		while (b.hasRemaining()) {
+			if (in.read(b, position + b.position() - start) < 0) {
+				throw new EOFException("Unexpected end of file while reading");
+			}
+		}
+		b.position(start);
+	}
+
+	/**
+	 * Writes the remaining bytes of the specified buffer to the current
+	 * position of the channel, updating the digest first.
+	 *
+	 * @param out channel to write to
+	 * @param b buffer holding the bytes
+	 * @param digest digest of the piece, or null
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void write(FileChannel out, ByteBuffer b, PieceDigest digest) throws IOException {
+		if (digest != null) {
+			digest.update(b);
+		}
+		ChannelCopier.writeFully(out, b);
+	}
+
+	/**
+	 * Atomically creates the specified file, failing if it already exists.
+	 *
+	 * @param file file to be created
+	 * @return the created file
+	 * @throws FileAlreadyExistsException if the file already exists
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static File createNew(File file) throws IOException {
+		if (!file.createNewFile()) {
+			throw new FileAlreadyExistsException("File " + file.getName() + " already exists");
+		}
+		return file;
+	}
+
+}
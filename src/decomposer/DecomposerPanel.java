@@ -7,11 +7,12 @@ import java.awt.*;
 import java.awt.event.*;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static decomposer.DecomposerConstants.*;
 
@@ -25,11 +26,15 @@ import static decomposer.DecomposerConstants.*;
 public class DecomposerPanel extends JPanel {
 	private static final long serialVersionUID = 1L;
 	
+	/** Pattern of the byte counts entered as the piece size */
+	private static final Pattern BYTE_COUNT_PATTERN = Pattern.compile("\\s*(\\d+(?:\\.\\d+)?)\\s*([kKMGTPE]?)(?:i?B)?\\s*");
+	
 	private String fileParent;
 	private String fileName;
 	private Long fileLength;
 	private Long pieceSize;
 	private Integer pieces;
+	private long targetPieceSize = -1;
 	
 	private JTextField filePathTf;
 	private JTextField fileNameTf;
@@ -38,6 +43,7 @@ public class DecomposerPanel extends JPanel {
 	private JTextField newNameTf;
 	private JTextField piecesTf;
 	private JTextField pieceSizeTf;
+	private JCheckBox bySizeCb;
 	
 	private JButton newBtn;
 	private JButton decomposeBtn;
@@ -46,6 +52,8 @@ public class DecomposerPanel extends JPanel {
 	
 	private JProgressBar progressBar;
 	
+	private final DecomposerEngine engine = new DecomposerEngine();
+	
 	private MouseListener loadMouseListener = new MouseListener() {
 		public void mouseReleased(MouseEvent e) {}
 		public void mousePressed(MouseEvent e) {}
@@ -159,13 +167,9 @@ public class DecomposerPanel extends JPanel {
 		/* Listen for every update upon the pieces text field
 		 * and update the pieces size text field. */
 		DocListener piecesListener = (e) -> {
-			try {
-				pieces = Integer.parseInt(piecesTf.getText());
-				if (pieces < MIN_PIECES || pieces > MAX_PIECES) throw new NumberFormatException();
-				setPieces(fileLength, pieces);
-			} catch (Exception exc) {
-				pieces = -1;
-				pieceSizeTf.setText("");
+			/* The number of pieces follows from the piece size in size mode. */
+			if (!bySizeCb.isSelected()) {
+				updatePieces();
 			}
 		};
 		piecesTf.getDocument().addDocumentListener(piecesListener);
@@ -180,6 +184,7 @@ public class DecomposerPanel extends JPanel {
 		progressPanel.add(progressLabel, BorderLayout.LINE_START);
 		
 		progressBar = new JProgressBar();
+		progressBar.setStringPainted(true);
 		progressPanel.add(progressBar, BorderLayout.CENTER);
 		
 		/* Add a new file button to this panel. */
@@ -203,6 +208,29 @@ public class DecomposerPanel extends JPanel {
 		lowerInfo.add(pieceSizeLbl, BorderLayout.LINE_START);
 		lowerInfo.add(pieceSizeTf, BorderLayout.CENTER);
 		
+		/* In size mode the piece size is entered and the pieces are counted. */
+		bySizeCb = new JCheckBox("Split by size");
+		lowerInfo.add(bySizeCb, BorderLayout.LINE_END);
+		bySizeCb.addActionListener((e) -> {
+			boolean bySize = bySizeCb.isSelected();
+			pieceSizeTf.setEditable(bySize);
+			piecesTf.setEditable(!bySize);
+			if (bySize) {
+				setPieceSize(fileLength, pieceSizeTf.getText());
+			} else {
+				updatePieces();
+			}
+		});
+		
+		/* Listen for every update upon the piece size text field
+		 * and update the pieces text field in size mode. */
+		DocListener pieceSizeListener = (e) -> {
+			if (bySizeCb.isSelected()) {
+				setPieceSize(fileLength, pieceSizeTf.getText());
+			}
+		};
+		pieceSizeTf.getDocument().addDocumentListener(pieceSizeListener);
+		
 		/* This is what this program is all about. */
 		decomposeBtn = new JButton("Decompose");
 		lowerBtns.add(decomposeBtn);
@@ -223,6 +251,7 @@ public class DecomposerPanel extends JPanel {
 
 		/* Reset the progress. */
 		progressBar.setValue(0);
+		progressBar.setString(null);
 		
 		/* Disable GUI components. */
 		decomposeBtn.setEnabled(false);
@@ -232,19 +261,15 @@ public class DecomposerPanel extends JPanel {
 		newPathTf.setEnabled(false);
 		newNameTf.setEnabled(false);
 		piecesTf.setEnabled(false);
+		pieceSizeTf.setEnabled(false);
+		bySizeCb.setEnabled(false);
 		
 		filePathTf.removeMouseListener(loadMouseListener);
 		fileNameTf.removeMouseListener(loadMouseListener);
 		newPathTf.removeMouseListener(saveMouseListener);
 
-		/* Execute the task on a working thread and listen for progress change. */
+		/* Execute the task on a working thread which publishes its progress. */
 		DecomposeWorker worker = new DecomposeWorker();
-
-		worker.addPropertyChangeListener((evt) -> {
-			if ("progress".equals(evt.getPropertyName())) {
-				progressBar.setValue((Integer) evt.getNewValue());
-			}
-		});
 		worker.execute();
 	}
 
@@ -273,9 +298,12 @@ public class DecomposerPanel extends JPanel {
 			
 			newPathTf.setText(fileParent);
 			newNameTf.setText(fileName + FILE_EXTENSION);
-			piecesTf.setText(Integer.toString(OPTIMAL_NUM_PIECES));
-			
-			setPieces(fileLength, OPTIMAL_NUM_PIECES);
+			if (bySizeCb.isSelected()) {
+				setPieceSize(fileLength, pieceSizeTf.getText());
+			} else {
+				piecesTf.setText(Integer.toString(OPTIMAL_NUM_PIECES));
+				setPieces(fileLength, OPTIMAL_NUM_PIECES);
+			}
 		}
 	}
 	
@@ -315,20 +343,74 @@ public class DecomposerPanel extends JPanel {
 		pieceSizeTf.setText(humanReadableByteCount(pieceSize));
 	}
 	
+	/**
+	 * Reads the number of pieces entered by the user and updates the piece
+	 * size, or invalidates the number of pieces if it is out of range.
+	 */
+	private void updatePieces() {
+		try {
+			pieces = Integer.parseInt(piecesTf.getText());
+			if (pieces < MIN_PIECES || pieces > MAX_PIECES) throw new NumberFormatException();
+			setPieces(fileLength, pieces);
+		} catch (Exception exc) {
+			pieces = -1;
+			pieceSizeTf.setText("");
+		}
+	}
+	
+	/**
+	 * Sets the target piece size entered by the user in size mode, and shows
+	 * the number of pieces of the given file length. There is no upper limit
+	 * on the number of pieces in size mode.
+	 * 
+	 * @param fileLength length of the file in bytes, may be null
+	 * @param text entered piece size, such as 64 MiB or 64M
+	 */
+	private void setPieceSize(Long fileLength, String text) {
+		targetPieceSize = parseByteCount(text);
+		pieces = -1;
+		if (targetPieceSize <= 0) {
+			targetPieceSize = -1;
+			piecesTf.setText("");
+			return;
+		}
+		long length = fileLength != null ? fileLength : 0;
+		long count = Math.max(1, (length - 1) / targetPieceSize + 1);
+		if (count <= Integer.MAX_VALUE) {
+			pieces = (int) count;
+			piecesTf.setText(Integer.toString(pieces));
+		} else {
+			piecesTf.setText("");
+		}
+	}
+	
+	/**
+	 * Parses a byte count such as {@code 4096}, {@code 64M}, {@code 64 MiB} or
+	 * {@code 1.5 GiB}, as shown by {@linkplain #humanReadableByteCount(long)}.
+	 * 
+	 * @param text byte count to be parsed
+	 * @return the number of bytes, or -1 if the text is not a valid byte count
+	 */
+	private static long parseByteCount(String text) {
+		Matcher m = BYTE_COUNT_PATTERN.matcher(text);
+		if (!m.matches()) {
+			return -1;
+		}
+		int exp = m.group(2).isEmpty() ? 0 : "KMGTPE".indexOf(Character.toUpperCase(m.group(2).charAt(0))) + 1;
+		double bytes = Double.parseDouble(m.group(1)) * Math.pow(1024, exp);
+		return bytes < Long.MAX_VALUE ? (long) bytes : -1;
+	}
+	
 	/**
 	 * Converts the number of bytes to a human readable byte count with binary
-	 * prefixes.
+	 * prefixes, as {@linkplain ProgressSnapshot#humanReadableByteCount(long)}
+	 * does.
 	 * 
 	 * @param bytes number of bytes
 	 * @return human readable byte count with binary prefixes
 	 */
 	public static String humanReadableByteCount(long bytes) {
-		/* Use the natural 1024 units and binary prefixes. */
-		int unit = 1024;
-		if (bytes < unit) return bytes + " B";
-		int exp = (int) (Math.log(bytes) / Math.log(unit));
-		String pre = "kMGTPE".charAt(exp - 1) + "i";
-		return String.format("%.1f %sB", bytes / Math.pow(unit, exp), pre);
+		return ProgressSnapshot.humanReadableByteCount(bytes);
 	}
 	
 	/**
@@ -358,7 +440,7 @@ public class DecomposerPanel extends JPanel {
 	 *
 	 * @author Mario Bobic
 	 */
-	private class DecomposeWorker extends SwingWorker<Void, Void> {
+	private class DecomposeWorker extends SwingWorker<Void, ProgressSnapshot> {
 		
 		/**
 		 * Creates new piece files in background.
@@ -386,7 +468,12 @@ public class DecomposerPanel extends JPanel {
 				return null;
 			}
 			
-			if (pieces == -1) {
+			boolean bySize = bySizeCb.isSelected();
+			if (bySize && (targetPieceSize <= 0 || pieces == -1)) {
+				showError("Please enter a valid piece size");
+				return null;
+			}
+			if (!bySize && pieces == -1) {
 				showError("Please enter a valid number of pieces between " + MIN_PIECES + " and " + MAX_PIECES);
 				return null;
 			}
@@ -397,77 +484,41 @@ public class DecomposerPanel extends JPanel {
 				newNameTf.setText(outputName);
 			}
 			
-			/* If the user has manually entered the output directory,
-			 * make sure that they exist before creating the file. */
-			File outputDir = new File(outputParent);
-			if (!outputDir.exists()) {
-				outputDir.mkdirs();
-			}
-			
 			/* If program makes it to this point, decomposing is good to go. */
-			File inputFile = new File(fileParent, fileName);
-			outputName = outputName.replace(FILE_EXTENSION, "");
-			FileInputStream in = new FileInputStream(inputFile);
+			DecomposeJob job = DecomposeJob.builder(new File(fileParent, fileName))
+					.outputDir(new File(outputParent))
+					.outputName(outputName)
+					.pieces(bySize ? OPTIMAL_NUM_PIECES : pieces)
+					.pieceSize(bySize ? targetPieceSize : 0)
+					.listener((snapshot) -> {
+						publish(snapshot);
+					})
+					.build();
 			
-			/* If piece size is less than the standard loader size,
-			 * file will be loaded and saved piece by piece. */
-			int loaderSize = getLoaderSize();
-			
-			/* Total number of bytes loaded.
-			 * User for creating the last piece and tracking the progress. */
-			long totalLoaded = 0;
-			
-			/* Remembers the piece size because it may be changed during the
-			 * writing of the last piece. */
-			long rememberedPieceSize = pieceSize;
-			
-			/* Create the desired number of pieces.
-			 * Every iteration creates one new piece file. */
-			for (int i = 0; i < pieces; i++) {
-				String index = (i < 10 ? "-0" : "-") + i;
-				File newFile = new File(outputDir, outputName + index + FILE_EXTENSION);
-				
-				/* If this is the last piece */
-				if (i == pieces - 1) {
-					pieceSize = fileLength - totalLoaded;
-					loaderSize = getLoaderSize();
-				}
-				
-				/* Writing to file starts. */
-				try (FileOutputStream out = new FileOutputStream(newFile)) {
-					/* Information to be implanted into all the pieces. */
-					putImplant(out, i);
-					
-					byte[] buff = new byte[loaderSize];
-					int len;
-					long iterationLoaded = 0;
-					while ((len = in.read(buff)) > 0) {
-						out.write(buff, 0, len);
-						iterationLoaded += len;
-						totalLoaded += len;
-						setProgress((int) (100 * totalLoaded / fileLength));
-						if (iterationLoaded == pieceSize) {
-							/* This piece is done */
-							break;
-						} else if (pieceSize - iterationLoaded < loaderSize) {
-							/* This will be the last iteration of this while-loop */
-							buff = new byte[(int) (pieceSize - iterationLoaded)];
-						}
-					}
-				} catch (IOException e) {
-					showError("An unknown I/O error has occured!");
-					in.close();
-					return null;
+			/* The user is waiting, so the job goes ahead of background jobs. */
+			try {
+				JobScheduler.shared().submit(() -> engine.decompose(job), JobPriority.INTERACTIVE,
+						job.getSource(), job.getOutputDir()).get();
+			} catch (ExecutionException e) {
+				if (!(e.getCause() instanceof IOException)) {
+					throw e;
 				}
+				showError("An I/O error has occured: " + e.getCause().getMessage());
 			}
 			
-			/* Restore the remembered piece size. */
-			pieceSize = rememberedPieceSize;
-			
-			in.close();
 			return null;
 		}
 
+		/**
+		 * Shows the most recent progress snapshot in the progress bar.
+		 */
+		@Override
+		protected void process(List<ProgressSnapshot> snapshots) {
+			ProgressSnapshot snapshot = snapshots.get(snapshots.size() - 1);
+			progressBar.setValue(snapshot.getPercent());
+			progressBar.setString(snapshot.toString());
+		}
+		
 		/**
 		 * Simply re-enables every disabled GUI component.
 		 */
@@ -481,6 +532,8 @@ public class DecomposerPanel extends JPanel {
 			newPathTf.setEnabled(true);
 			newNameTf.setEnabled(true);
 			piecesTf.setEnabled(true);
+			pieceSizeTf.setEnabled(true);
+			bySizeCb.setEnabled(true);
 			
 			/* Re-enable mouse listeners */
 			filePathTf.addMouseListener(loadMouseListener);
@@ -488,32 +541,6 @@ public class DecomposerPanel extends JPanel {
 			newPathTf.addMouseListener(saveMouseListener);
 		}
 		
-		/**
-		 * Returns the optimal byte array size used for loading from the input
-		 * file. More formally, this method returns the smaller value between
-		 * the standard loader size and piece size.
-		 * 
-		 * @return the smaller value between the standard loader size and piece size
-		 */
-		private int getLoaderSize() {
-			return pieceSize < STD_LOADER_SIZE ? pieceSize.intValue() : STD_LOADER_SIZE;
-		}
-		
-		/**
-		 * Writes the implant out to the file output stream, with this piece's
-		 * ordinal number.
-		 * 
-		 * @param out FileOutputStream of this piece
-		 * @param i this piece's ordinal number
-		 * @throws IOException if an I/O exception occurs
-		 */
-		private void putImplant(FileOutputStream out, int i) throws IOException {
-			ByteBuffer b = ByteBuffer.allocate(IMPLANT_LENGTH);
-			b.putInt(i);
-			byte[] result = b.array();
-			out.write(result);
-		}
-		
 		/**
 		 * Shows an error message with the desired text.
 		 * 
@@ -0,0 +1,102 @@
+package decomposer;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A codec compressing blocks with the JDK's {@linkplain Deflater}, without
+ * the zlib wrapper, since pieces carry their own checksums. All compression
+ * levels produce the same format and share one codec ID, so a piece can be
+ * decompressed no matter which level it has been compressed with.
+ *
+ * @author Mario Bobic
+ */
+final class DeflateCodec implements Codec {
+
+	/** ID of the deflate codec */
+	static final int ID = 1;
+
+	/** Name of the codec */
+	private final String name;
+	/** Compression level of the deflater */
+	private final int level;
+
+	/**
+	 * Constructs a new deflate codec.
+	 *
+	 * @param name name of the codec
+	 * @param level compression level of the deflater
+	 */
+	DeflateCodec(String name, int level) {
+		this.name = name;
+		this.level = level;
+	}
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Compressor newCompressor() {
+		Deflater deflater = new Deflater(level, true);
+		return new Compressor() {
+			@Override
+			public int compress(byte[] src, int off, int length, byte[] dst, int dstLength) {
+				deflater.reset();
+				deflater.setInput(src, off, length);
+				deflater.finish();
+				int n = 0;
+				while (!deflater.finished() && n < dstLength) {
+					n += deflater.deflate(dst, n, dstLength - n);
+				}
+				return deflater.finished() ? n : -1;
+			}
+
+			@Override
+			public void close() {
+				deflater.end();
+			}
+		};
+	}
+
+	@Override
+	public Decompressor newDecompressor() {
+		Inflater inflater = new Inflater(true);
+		return new Decompressor() {
+			@Override
+			public void decompress(byte[] src, int length, byte[] dst, int dstLength) throws DataFormatException {
+				inflater.reset();
+				inflater.setInput(src, 0, length);
+				int n = 0;
+				while (n < dstLength) {
+					int inflated = inflater.inflate(dst, n, dstLength - n);
+					if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+						break;
+					}
+					n += inflated;
+				}
+				if (n != dstLength) {
+					throw new DataFormatException("Compressed block is shorter than expected");
+				}
+			}
+
+			@Override
+			public void close() {
+				inflater.end();
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
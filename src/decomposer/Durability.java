@@ -0,0 +1,48 @@
+package decomposer;
+
+/**
+ * Ways of making the files written by a job survive a power loss. Until its
+ * data is forced to the storage device, a file may end up truncated or with
+ * holes, while its header and name look valid. Forcing costs throughput, so
+ * the durability is selected per job and can be compared on the same data.
+ * <p>
+ * Every durability except {@linkplain #NONE} also forces the manifest and
+ * the directories of the written files once the job is done, so that the
+ * names of new files survive as well. Pieces are always forced before the
+ * manifest listing them is written.
+ *
+ * @author Mario Bobic
+ */
+public enum Durability {
+
+	/**
+	 * Nothing is forced, the operating system writes the data back whenever
+	 * it decides to. This is the fastest, but a power loss may leave damaged
+	 * pieces which are only found when they are verified or composed.
+	 */
+	NONE,
+
+	/**
+	 * Every piece is forced as soon as it is complete, so a power loss never
+	 * damages a piece that has been finished. When composing, the composed
+	 * file is forced after every piece.
+	 */
+	PIECE,
+
+	/**
+	 * The data of every piece is forced every time another sync interval of
+	 * bytes has been written to it, and once more when it is complete. This
+	 * bounds the dirty data of every file, so the write-back is spread over
+	 * the job instead of piling up at its end.
+	 */
+	BATCHED,
+
+	/**
+	 * Nothing is forced while the pieces are being written. Once all pieces
+	 * are complete, they are all forced one after the other, followed by
+	 * their directories, so the storage device can write back all pieces in
+	 * one go.
+	 */
+	GROUP
+
+}
@@ -0,0 +1,25 @@
+package decomposer;
+
+/**
+ * Priorities of the jobs waiting in a {@linkplain JobScheduler}. Waiting jobs
+ * are started in the order of their priority, and jobs of the same priority
+ * in the order they were submitted.
+ *
+ * @author Mario Bobic
+ */
+public enum JobPriority {
+
+	/**
+	 * Jobs started by a user who is waiting for them, such as the jobs of the
+	 * graphical user interface. They go ahead of all batch jobs waiting for
+	 * the same storage devices.
+	 */
+	INTERACTIVE,
+
+	/**
+	 * Jobs of a batch running in the background, started whenever no
+	 * interactive job is waiting for their storage devices.
+	 */
+	BATCH
+
+}
@@ -0,0 +1,520 @@
+package decomposer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * A bounded scheduler of composing and decomposing jobs. At most the given
+ * number of jobs run at the same time, while the others wait in the queue.
+ * Every job may in addition use its own level of parallelism for its pieces,
+ * so the total number of busy threads is bounded by the global concurrency
+ * times the parallelism of the jobs.
+ * <p>
+ * Jobs may name the files and directories they read and write. Those are
+ * grouped by their {@linkplain FileStore file stores}, and every store has
+ * its own limit of jobs running on it at the same time, so that jobs on a
+ * rotational disk do not fight over its head while jobs on an idle solid
+ * state drive wait in the queue. The limits are probed from the kind of the
+ * underlying device where the operating system tells it, and may be set
+ * explicitly. A job waiting for a busy store does not hold back the jobs
+ * behind it which use other stores, but it does hold back the jobs behind it
+ * which use the same store, so no job waits forever.
+ * <p>
+ * Waiting jobs are started in the order of their {@linkplain JobPriority
+ * priority}, so interactive jobs go ahead of batch jobs.
+ * <p>
+ * On Java 21 and later, jobs may run on virtual threads, one per job, which
+ * makes a high concurrency cheap when jobs mostly wait for the file system,
+ * as they do on many small files. The number of virtual threads is bounded
+ * only by the concurrency of the scheduler, the limits probed from the kinds
+ * of the devices are not applied, since they are tuned for large sequential
+ * copies rather than for many small files. Limits set explicitly with
+ * {@linkplain #setDeviceLimit(File, int)} apply either way. On older versions
+ * of Java the scheduler falls back to a fixed pool of platform threads, and
+ * the probed limits apply.
+ *
+ * @author Mario Bobic
+ */
+public class JobScheduler implements AutoCloseable {
+
+	/** Factory method of an executor starting a virtual thread per task, or null if unsupported */
+	private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+	/** Scheduler shared by the jobs of the graphical user interface */
+	private static JobScheduler shared;
+
+	/** Executor running the jobs */
+	private final ExecutorService executor;
+	/** True if the executor starts a virtual thread per job */
+	private final boolean virtual;
+	/** Maximal number of jobs running at the same time */
+	private final int concurrency;
+	/** Jobs waiting to be started, in the order they are started in */
+	private final TreeSet<Waiting> waiting = new TreeSet<>();
+	/** Stores used by jobs, by the existing path they were resolved from */
+	private final Map<Path, Device> paths = new HashMap<>();
+	/** Stores used by jobs, by their file store */
+	private final Map<FileStore, Device> devices = new HashMap<>();
+
+	/** Number of jobs submitted so far, ordering jobs of the same priority */
+	private long submitted;
+	/** Number of jobs running */
+	private int running;
+	/** True once no more jobs are accepted */
+	private boolean shutdown;
+
+	/**
+	 * Constructs a new scheduler running at most {@code concurrency} jobs at
+	 * the same time.
+	 *
+	 * @param concurrency maximal number of jobs running at the same time
+	 */
+	public JobScheduler(int concurrency) {
+		this(concurrency, false);
+	}
+
+	/**
+	 * Constructs a new scheduler running at most {@code concurrency} jobs at
+	 * the same time, on virtual threads if requested and supported by the
+	 * running Java version, or on a fixed pool of platform threads otherwise.
+	 * Jobs on virtual threads are not limited by the probed limits of the
+	 * storage devices, only by the concurrency and the explicitly set limits.
+	 *
+	 * @param concurrency maximal number of jobs running at the same time
+	 * @param virtualThreads true to run every job on its own virtual thread
+	 */
+	public JobScheduler(int concurrency, boolean virtualThreads) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency must be at least 1");
+		}
+		this.concurrency = concurrency;
+		ExecutorService virtual = virtualThreads ? newVirtualExecutor() : null;
+		if (virtual != null) {
+			executor = virtual;
+			this.virtual = true;
+		} else {
+			AtomicInteger count = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(concurrency, (r) -> {
+				Thread t = new Thread(r, "decomposer-job-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+			this.virtual = false;
+		}
+	}
+
+	/**
+	 * Returns the scheduler shared by all jobs of the graphical user
+	 * interface, creating it upon the first call. Its jobs run on platform
+	 * threads, and it is never closed.
+	 *
+	 * @return the shared scheduler
+	 */
+	public static synchronized JobScheduler shared() {
+		if (shared == null) {
+			shared = new JobScheduler(NVME_CONCURRENCY);
+		}
+		return shared;
+	}
+
+	/**
+	 * Returns true if virtual threads are supported by the running Java
+	 * version.
+	 *
+	 * @return true if virtual threads are supported
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return VIRTUAL_EXECUTOR != null;
+	}
+
+	/**
+	 * Returns true if this scheduler runs its jobs on virtual threads.
+	 *
+	 * @return true if jobs run on virtual threads
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Sets the maximal number of jobs running at the same time on the store
+	 * of the specified file, instead of the probed one. Jobs already running
+	 * are not affected.
+	 *
+	 * @param file file or directory on the store, which need not exist yet
+	 * @param limit maximal number of jobs running on the store
+	 * @throws IllegalArgumentException if the limit is less than 1
+	 * @throws IOException if the store of the file can not be determined
+	 */
+	public void setDeviceLimit(File file, int limit) throws IOException {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Device limit must be at least 1");
+		}
+		Device device = device(file);
+		if (device == null) {
+			throw new IOException("Can not determine the storage device of " + file);
+		}
+		synchronized (this) {
+			device.limit = limit;
+			dispatch();
+		}
+	}
+
+	/**
+	 * Returns the maximal number of jobs running at the same time on the
+	 * store of the specified file, either set or probed. Stores of a scheduler
+	 * running on virtual threads are not probed and are limited only by the
+	 * concurrency, unless a limit has been set.
+	 *
+	 * @param file file or directory on the store, which need not exist yet
+	 * @return the maximal number of jobs running on the store
+	 * @throws IOException if the store of the file can not be determined
+	 */
+	public int getDeviceLimit(File file) throws IOException {
+		Device device = device(file);
+		if (device == null) {
+			throw new IOException("Can not determine the storage device of " + file);
+		}
+		synchronized (this) {
+			return device.limit;
+		}
+	}
+
+	/**
+	 * Submits a batch job using no particular storage device, to be run as
+	 * soon as fewer than the maximal number of jobs are running.
+	 *
+	 * @param <T> type of the job result
+	 * @param job job to be run
+	 * @return a future holding the result of the job
+	 */
+	public <T> Future<T> submit(Callable<T> job) {
+		return submit(job, JobPriority.BATCH);
+	}
+
+	/**
+	 * Submits a job to be run as soon as fewer than the maximal number of
+	 * jobs are running on the scheduler and on the stores of all specified
+	 * files, and no job of a higher priority is waiting for the same stores.
+	 * Files whose store can not be determined do not limit the job.
+	 *
+	 * @param <T> type of the job result
+	 * @param job job to be run
+	 * @param priority priority of the job
+	 * @param files files and directories read or written by the job, which
+	 *        need not exist yet
+	 * @return a future holding the result of the job
+	 * @throws RejectedExecutionException if the scheduler has been shut down
+	 */
+	public <T> Future<T> submit(Callable<T> job, JobPriority priority, File... files) {
+		Set<Device> used = new LinkedHashSet<>();
+		for (File file : files) {
+			Device device = device(file);
+			if (device != null) {
+				used.add(device);
+			}
+		}
+
+		FutureTask<T> task = new FutureTask<>(job);
+		synchronized (this) {
+			if (shutdown) {
+				throw new RejectedExecutionException("Scheduler has been shut down");
+			}
+			waiting.add(new Waiting(task, priority, submitted++, new ArrayList<>(used)));
+			dispatch();
+		}
+		return task;
+	}
+
+	/**
+	 * Stops accepting new jobs and waits for all submitted jobs to finish.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitTermination() throws InterruptedException {
+		synchronized (this) {
+			shutdown = true;
+			while (!waiting.isEmpty() || running > 0) {
+				wait();
+			}
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Stops accepting new jobs, cancels the waiting ones and interrupts the
+	 * running ones.
+	 */
+	@Override
+	public void close() {
+		List<Waiting> cancelled;
+		synchronized (this) {
+			shutdown = true;
+			cancelled = new ArrayList<>(waiting);
+			waiting.clear();
+			notifyAll();
+		}
+		for (Waiting w : cancelled) {
+			w.task.cancel(false);
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Starts every waiting job which may run, in the order of the queue. A
+	 * job which can not start reserves its stores for the rest of the pass,
+	 * so jobs behind it can not keep taking them.
+	 */
+	private synchronized void dispatch() {
+		if (running >= concurrency || waiting.isEmpty()) {
+			return;
+		}
+		Set<Device> reserved = new HashSet<>();
+		for (Iterator<Waiting> it = waiting.iterator(); it.hasNext() && running < concurrency;) {
+			Waiting w = it.next();
+			boolean free = true;
+			for (Device device : w.devices) {
+				if (reserved.contains(device) || device.running >= device.limit) {
+					free = false;
+				}
+			}
+			if (!free) {
+				reserved.addAll(w.devices);
+				continue;
+			}
+
+			it.remove();
+			running++;
+			for (Device device : w.devices) {
+				device.running++;
+			}
+			try {
+				executor.execute(() -> {
+					try {
+						w.task.run();
+					} finally {
+						finished(w);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				/* The scheduler has been closed in the meantime. */
+				w.task.cancel(false);
+				running--;
+				for (Device device : w.devices) {
+					device.running--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the stores of a finished job and starts the jobs which may
+	 * run now.
+	 *
+	 * @param w the finished job
+	 */
+	private synchronized void finished(Waiting w) {
+		running--;
+		for (Device device : w.devices) {
+			device.running--;
+		}
+		dispatch();
+		notifyAll();
+	}
+
+	/**
+	 * Returns the store of the specified file, which is the store of its
+	 * nearest existing ancestor if the file does not exist yet. Files are
+	 * resolved by their directory, so the stores of many files in the same
+	 * directory are determined only once.
+	 *
+	 * @param file file or directory on the store
+	 * @return the store of the file, or null if it can not be determined
+	 */
+	private Device device(File file) {
+		Path path = file.getAbsoluteFile().toPath().normalize();
+		if (!Files.isDirectory(path)) {
+			path = path.getParent();
+		}
+		while (path != null && !Files.exists(path)) {
+			path = path.getParent();
+		}
+		if (path == null) {
+			return null;
+		}
+
+		synchronized (this) {
+			Device device = paths.get(path);
+			if (device != null) {
+				return device;
+			}
+		}
+		FileStore store;
+		try {
+			store = Files.getFileStore(path);
+		} catch (IOException e) {
+			return null;
+		}
+		synchronized (this) {
+			Device device = devices.get(store);
+			if (device == null) {
+				device = new Device(virtual ? concurrency : Math.min(probeLimit(store), concurrency));
+				devices.put(store, device);
+			}
+			paths.put(path, device);
+			return device;
+		}
+	}
+
+	/**
+	 * Probes the maximal number of jobs running at the same time on the
+	 * specified store from the kind of its device. Only Linux tells the kind
+	 * of a device, through the {@code rotational} flag of its block device.
+	 * Stores of unknown devices, such as network and memory file systems, are
+	 * limited only by the concurrency of the scheduler.
+	 *
+	 * @param store the file store
+	 * @return the maximal number of jobs running on the store
+	 */
+	static int probeLimit(FileStore store) {
+		String name = store.name();
+		if (!name.startsWith("/dev/")) {
+			return Integer.MAX_VALUE;
+		}
+		try {
+			/* Device mapper names are links to the actual block devices. */
+			String device = Paths.get(name).toRealPath().getFileName().toString();
+			Path block = Paths.get("/sys/class/block", device).toRealPath();
+			Path rotational = block.resolve("queue/rotational");
+			if (!Files.exists(rotational)) {
+				/* Partitions have the queue of the whole disk. */
+				rotational = block.getParent().resolve("queue/rotational");
+			}
+			List<String> lines = Files.readAllLines(rotational);
+			if (lines.isEmpty()) {
+				return Integer.MAX_VALUE;
+			}
+			if (lines.get(0).trim().equals("1")) {
+				return HDD_CONCURRENCY;
+			}
+			return device.startsWith("nvme") ? NVME_CONCURRENCY : SSD_CONCURRENCY;
+		} catch (IOException | RuntimeException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Returns a new executor starting a virtual thread per task, or null if
+	 * virtual threads are not supported.
+	 *
+	 * @return a new executor of virtual threads, or null
+	 */
+	private static ExecutorService newVirtualExecutor() {
+		if (VIRTUAL_EXECUTOR == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up the factory method of an executor starting a virtual thread
+	 * per task, which only exists on Java 21 and later. The method is looked
+	 * up reflectively, so this class still runs on Java 8.
+	 *
+	 * @return the factory method, or null if it does not exist
+	 */
+	private static Method virtualExecutorFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A store used by jobs, with its limit and the number of jobs running on
+	 * it. Guarded by the scheduler.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static class Device {
+		/** Maximal number of jobs running on this store */
+		private int limit;
+		/** Number of jobs running on this store */
+		private int running;
+
+		/**
+		 * Constructs a new store with the specified limit.
+		 *
+		 * @param limit maximal number of jobs running on this store
+		 */
+		public Device(int limit) {
+			this.limit = limit;
+		}
+	}
+
+	/**
+	 * A job waiting to be started, ordered by its priority and then by the
+	 * order of submission.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static class Waiting implements Comparable<Waiting> {
+		/** The job */
+		private final FutureTask<?> task;
+		/** Priority of the job */
+		private final JobPriority priority;
+		/** Order of submission of the job */
+		private final long sequence;
+		/** Stores used by the job */
+		private final List<Device> devices;
+
+		/**
+		 * Constructs a new waiting job.
+		 *
+		 * @param task the job
+		 * @param priority priority of the job
+		 * @param sequence order of submission of the job
+		 * @param devices stores used by the job
+		 */
+		public Waiting(FutureTask<?> task, JobPriority priority, long sequence, List<Device> devices) {
+			this.task = task;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.devices = devices;
+		}
+
+		@Override
+		public int compareTo(Waiting other) {
+			int c = priority.compareTo(other.priority);
+			return c != 0 ? c : Long.compare(sequence, other.sequence);
+		}
+	}
+
+}
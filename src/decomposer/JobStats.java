@@ -0,0 +1,102 @@
+package decomposer;
+
+/**
+ * Immutable statistics of a finished composing or decomposing job.
+ *
+ * @author Mario Bobic
+ */
+public final class JobStats {
+
+	/** Number of bytes of the original file processed by the job */
+	private final long bytes;
+	/** Number of pieces written or read by the job */
+	private final int pieces;
+	/** Duration of the job in nanoseconds */
+	private final long durationNanos;
+	/** Mode used for copying the data */
+	private final CopyMode copyMode;
+	/** Size of the buffers used for buffered copying, or 0 if none were used */
+	private final int bufferSize;
+
+	/**
+	 * Constructs new job statistics.
+	 *
+	 * @param bytes number of bytes processed
+	 * @param pieces number of pieces written or read
+	 * @param durationNanos duration of the job in nanoseconds
+	 * @param copyMode mode used for copying the data
+	 * @param bufferSize size of the buffers used, or 0 if none were used
+	 */
+	public JobStats(long bytes, int pieces, long durationNanos, CopyMode copyMode, int bufferSize) {
+		this.bytes = bytes;
+		this.pieces = pieces;
+		this.durationNanos = durationNanos;
+		this.copyMode = copyMode;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Returns the number of bytes of the original file processed by the job.
+	 *
+	 * @return the number of bytes processed
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of pieces written or read by the job.
+	 *
+	 * @return the number of pieces
+	 */
+	public int getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns the duration of the job in nanoseconds.
+	 *
+	 * @return the duration of the job in nanoseconds
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * Returns the mode used for copying the data.
+	 *
+	 * @return the mode used for copying the data
+	 */
+	public CopyMode getCopyMode() {
+		return copyMode;
+	}
+
+	/**
+	 * Returns the size of the buffers used for buffered copying.
+	 *
+	 * @return the size of the buffers used, or 0 if none were used
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the throughput of the job in bytes per second.
+	 *
+	 * @return the throughput in bytes per second
+	 */
+	public double getThroughput() {
+		return durationNanos == 0 ? 0 : bytes * 1e9 / durationNanos;
+	}
+
+	@Override
+	public String toString() {
+		String mode = copyMode == CopyMode.BUFFERED && bufferSize != 0
+				? copyMode + " (" + ProgressSnapshot.humanReadableByteCount(bufferSize) + ")"
+				: copyMode.toString();
+		return String.format("%d bytes in %d pieces, %s, %.3f s, %s/s",
+				bytes, pieces, mode, durationNanos / 1e9,
+				ProgressSnapshot.humanReadableByteCount((long) getThroughput()));
+	}
+
+}
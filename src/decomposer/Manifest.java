@@ -0,0 +1,685 @@
+package decomposer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static decomposer.DecomposerConstants.*;
+import static java.nio.file.StandardCopyOption.*;
+
+/**
+ * An index of all pieces of one decomposed file, written next to the pieces
+ * when decomposing has finished. The manifest holds the size, offset,
+ * modification time and checksums of every piece, so composing can be
+ * planned, missing pieces can be found and unchanged pieces can be verified
+ * by reading this one file instead of opening every piece.
+ * <p>
+ * If the pieces carry checksums, the manifest also holds a hash of the whole
+ * file, which is the SHA-256 of the checksums of all pieces in order. Every
+ * piece whose data matches its checksum therefore also proves the integrity
+ * of the whole file.
+ * <p>
+ * Manifests of {@linkplain Codec compressed} pieces are written in version 2,
+ * which adds the ID of the codec and the length of the stored data of every
+ * piece. Manifests listing {@linkplain ParityCodec parity pieces} are written
+ * in version 3, which adds the entries of the parity pieces after the
+ * entries of the pieces, and otherwise equals version 2. Manifests of
+ * pieces {@linkplain DecomposeJob#isStriped striped} across several
+ * directories are written in version 4, which adds the absolute paths of the
+ * stripe directories, and the number of the directory of every entry, where
+ * 0 is the directory of the manifest. Manifests of other pieces keep writing
+ * version 1.
+ *
+ * @author Mario Bobic
+ */
+public final class Manifest {
+
+	/** Magic number every manifest starts with */
+	public static final int MAGIC = 0x4644434D;
+	/** Latest version of the manifest format */
+	public static final int VERSION = 4;
+
+	/** File this manifest has been read from or written to */
+	private final File file;
+	/** ID shared by all pieces of the original file */
+	private final UUID fileId;
+	/** Name of the original file */
+	private final String name;
+	/** Length of the original file */
+	private final long originalLength;
+	/** Checksums stored at the end of every piece */
+	private final ChecksumMode checksum;
+	/** ID of the codec compressing the pieces, or 0 if they are not compressed */
+	private final int codecId;
+	/** Directories of the striped pieces besides the directory of the manifest */
+	private final List<File> stripeDirs;
+	/** Entries of all pieces, ordered by index */
+	private final List<Entry> entries;
+	/** Entries of all parity pieces, ordered by index */
+	private final List<Entry> parity;
+	/** Hash of the whole file, or null if pieces carry no checksums */
+	private final byte[] fileHash;
+
+	/**
+	 * Constructs a new manifest.
+	 *
+	 * @param file file of the manifest
+	 * @param fileId ID shared by all pieces of the original file
+	 * @param name name of the original file
+	 * @param originalLength length of the original file
+	 * @param checksum checksums stored at the end of every piece
+	 * @param codecId ID of the codec compressing the pieces, or 0
+	 * @param entries entries of all pieces, ordered by index
+	 * @param parity entries of all parity pieces, ordered by index
+	 */
+	Manifest(File file, UUID fileId, String name, long originalLength, ChecksumMode checksum, int codecId,
+			List<Entry> entries, List<Entry> parity) {
+		this(file, fileId, name, originalLength, checksum, codecId, Collections.<File>emptyList(), entries, parity);
+	}
+
+	/**
+	 * Constructs a new manifest of striped pieces.
+	 *
+	 * @param file file of the manifest
+	 * @param fileId ID shared by all pieces of the original file
+	 * @param name name of the original file
+	 * @param originalLength length of the original file
+	 * @param checksum checksums stored at the end of every piece
+	 * @param codecId ID of the codec compressing the pieces, or 0
+	 * @param stripeDirs absolute directories of the striped pieces besides
+	 *        the directory of the manifest
+	 * @param entries entries of all pieces, ordered by index
+	 * @param parity entries of all parity pieces, ordered by index
+	 */
+	Manifest(File file, UUID fileId, String name, long originalLength, ChecksumMode checksum, int codecId,
+			List<File> stripeDirs, List<Entry> entries, List<Entry> parity) {
+		this.file = file;
+		this.fileId = fileId;
+		this.name = name;
+		this.originalLength = originalLength;
+		this.checksum = checksum;
+		this.codecId = codecId;
+		this.stripeDirs = Collections.unmodifiableList(new ArrayList<>(stripeDirs));
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+		this.parity = Collections.unmodifiableList(new ArrayList<>(parity));
+		this.fileHash = checksum == ChecksumMode.NONE ? null : hash(entries);
+	}
+
+	/**
+	 * Returns the manifest file of the pieces with the specified name.
+	 *
+	 * @param dir directory of the pieces
+	 * @param outputName name of the pieces, without the index and extension
+	 * @return the manifest file
+	 */
+	public static File manifestFile(File dir, String outputName) {
+		return new File(dir, outputName + MANIFEST_EXTENSION);
+	}
+
+	/**
+	 * Returns the file this manifest has been read from or written to. The
+	 * pieces are in the same directory, unless they are striped.
+	 *
+	 * @return the manifest file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the ID shared by all pieces of the original file.
+	 *
+	 * @return the file ID
+	 */
+	public UUID getFileId() {
+		return fileId;
+	}
+
+	/**
+	 * Returns the name of the original file.
+	 *
+	 * @return the name of the original file
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the length of the original file.
+	 *
+	 * @return the length of the original file
+	 */
+	public long getOriginalLength() {
+		return originalLength;
+	}
+
+	/**
+	 * Returns the checksums stored at the end of every piece.
+	 *
+	 * @return the checksums stored at the end of every piece
+	 */
+	public ChecksumMode getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Returns the ID of the {@linkplain Codec codec} compressing the data of
+	 * the pieces, or 0 if the data is stored as it is.
+	 *
+	 * @return the ID of the codec, or 0
+	 */
+	public int getCodecId() {
+		return codecId;
+	}
+
+	/**
+	 * Returns the number of pieces.
+	 *
+	 * @return the number of pieces
+	 */
+	public int getCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns an unmodifiable list of entries of all pieces, ordered by index.
+	 *
+	 * @return entries of all pieces
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns an unmodifiable list of entries of all parity pieces, ordered by
+	 * index. The data of every parity piece is as long as the longest piece,
+	 * starts right at the beginning of the parity piece, and is followed by
+	 * its checksums.
+	 *
+	 * @return entries of all parity pieces, empty if there are none
+	 */
+	public List<Entry> getParity() {
+		return parity;
+	}
+
+	/**
+	 * Returns the hash of the whole file, or null if the pieces carry no
+	 * checksums.
+	 *
+	 * @return a copy of the hash of the whole file, or null
+	 */
+	public byte[] getFileHash() {
+		return fileHash == null ? null : fileHash.clone();
+	}
+
+	/**
+	 * Returns an unmodifiable list of the absolute directories of the striped
+	 * pieces besides the directory of the manifest.
+	 *
+	 * @return the stripe directories, empty if the pieces are not striped
+	 */
+	public List<File> getStripeDirs() {
+		return stripeDirs;
+	}
+
+	/**
+	 * Returns the file of the piece described by the specified entry. A
+	 * striped piece which is not found in its stripe directory, but next to
+	 * the manifest, is returned from there, so striped pieces may be gathered
+	 * into one directory.
+	 *
+	 * @param entry entry of the piece
+	 * @return the piece file
+	 */
+	public File getPieceFile(Entry entry) {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (entry.stripe == 0) {
+			return new File(dir, entry.getFileName());
+		}
+		File piece = new File(stripeDirs.get(entry.stripe - 1), entry.getFileName());
+		File gathered = new File(dir, entry.getFileName());
+		return !piece.exists() && gathered.exists() ? gathered : piece;
+	}
+
+	/**
+	 * Returns the files of all pieces, ordered by index.
+	 *
+	 * @return the files of all pieces
+	 */
+	public List<File> getPieceFiles() {
+		List<File> files = new ArrayList<>(entries.size());
+		for (Entry entry : entries) {
+			files.add(getPieceFile(entry));
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the indexes of the pieces whose files do not exist. No piece is
+	 * opened, only the presence of the files is checked.
+	 *
+	 * @return the indexes of the missing pieces
+	 */
+	public List<Integer> getMissing() {
+		List<Integer> missing = new ArrayList<>();
+		for (Entry entry : entries) {
+			if (!getPieceFile(entry).isFile()) {
+				missing.add(entry.getIndex());
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Writes this manifest to its file. The manifest is first written to a
+	 * temporary file which then replaces the manifest file, so a manifest is
+	 * never seen half written.
+	 *
+	 * @throws IOException if the manifest can not be written
+	 */
+	public void write() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		int version = !stripeDirs.isEmpty() ? 4 : !parity.isEmpty() ? 3 : codecId != 0 ? 2 : 1;
+		out.writeShort(version);
+		out.writeLong(fileId.getMostSignificantBits());
+		out.writeLong(fileId.getLeastSignificantBits());
+		out.writeUTF(name);
+		out.writeLong(originalLength);
+		out.writeInt(PieceDigest.flags(checksum));
+		if (version >= 2) {
+			out.writeInt(codecId);
+		}
+		if (version >= 4) {
+			out.writeInt(stripeDirs.size());
+			for (File dir : stripeDirs) {
+				out.writeUTF(dir.getPath());
+			}
+		}
+		writeEntries(out, entries, version);
+		if (version >= 3) {
+			writeEntries(out, parity, version);
+		}
+		if (fileHash != null) {
+			out.write(fileHash);
+		}
+		out.writeInt(crc(bytes.toByteArray()));
+		out.flush();
+
+		Path target = file.toPath();
+		Path temp = target.resolveSibling(file.getName() + ".tmp");
+		Files.write(temp, bytes.toByteArray());
+		try {
+			Files.move(temp, target, REPLACE_EXISTING, ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Writes the number of the specified entries, followed by the entries.
+	 *
+	 * @param out stream to write to
+	 * @param entries entries to be written
+	 * @param version format version of the manifest
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void writeEntries(DataOutputStream out, List<Entry> entries, int version) throws IOException {
+		out.writeInt(entries.size());
+		for (Entry entry : entries) {
+			out.writeInt(entry.index);
+			out.writeUTF(entry.fileName);
+			if (version >= 4) {
+				out.writeInt(entry.stripe);
+			}
+			out.writeLong(entry.offset);
+			out.writeLong(entry.length);
+			if (version >= 2) {
+				out.writeLong(entry.storedLength);
+			}
+			out.writeLong(entry.size);
+			out.writeLong(entry.lastModified);
+			out.write(entry.checksum);
+		}
+	}
+
+	/**
+	 * Reads the manifest from the specified file.
+	 *
+	 * @param file the manifest file
+	 * @return the manifest
+	 * @throws IOException if the file is not a valid manifest, or can not be read
+	 */
+	public static Manifest read(File file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		if (bytes.length < Integer.BYTES
+				|| crc(Arrays.copyOf(bytes, bytes.length - Integer.BYTES)) != ByteBuffer.wrap(bytes, bytes.length - Integer.BYTES, Integer.BYTES).getInt()) {
+			throw new IOException("Manifest " + file.getName() + " is damaged");
+		}
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File " + file.getName() + " is not a manifest");
+			}
+			int version = in.readShort();
+			if (version < 1 || version > VERSION) {
+				throw new IOException("Manifest " + file.getName() + " has unsupported format version " + version);
+			}
+			UUID fileId = new UUID(in.readLong(), in.readLong());
+			String name = in.readUTF();
+			long originalLength = in.readLong();
+			ChecksumMode checksum = PieceDigest.modeOf(in.readInt());
+			int codecId = version >= 2 ? in.readInt() : 0;
+			List<File> stripeDirs = new ArrayList<>();
+			if (version >= 4) {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					File dir = new File(in.readUTF());
+					if (!dir.isAbsolute()) {
+						throw new IOException("Manifest " + file.getName() + " is damaged");
+					}
+					stripeDirs.add(dir);
+				}
+			}
+			List<Entry> entries = readEntries(in, file, checksum, version, stripeDirs.size(), bytes.length);
+			List<Entry> parity = version >= 3 ? readEntries(in, file, checksum, version, stripeDirs.size(), bytes.length)
+					: Collections.<Entry>emptyList();
+
+			Manifest manifest = new Manifest(file, fileId, name, originalLength, checksum, codecId, stripeDirs,
+					entries, parity);
+			if (manifest.fileHash != null) {
+				byte[] fileHash = new byte[manifest.fileHash.length];
+				in.readFully(fileHash);
+				if (!MessageDigest.isEqual(fileHash, manifest.fileHash)) {
+					throw new IOException("Manifest " + file.getName() + " is damaged");
+				}
+			}
+			return manifest;
+		} catch (EOFException e) {
+			throw new IOException("Manifest " + file.getName() + " is damaged");
+		}
+	}
+
+	/**
+	 * Reads the number of entries, followed by the entries.
+	 *
+	 * @param in stream to read from
+	 * @param file the manifest file
+	 * @param checksum checksums stored at the end of every piece
+	 * @param version format version of the manifest
+	 * @param stripes number of stripe directories
+	 * @param maxCount upper bound of the number of entries
+	 * @return the entries
+	 * @throws EOFException if the manifest ends before all entries are read
+	 * @throws IOException if an entry is damaged
+	 */
+	private static List<Entry> readEntries(DataInputStream in, File file, ChecksumMode checksum, int version,
+			int stripes, int maxCount) throws IOException {
+		int count = in.readInt();
+		List<Entry> entries = new ArrayList<>(Math.max(0, Math.min(count, maxCount)));
+		for (int i = 0; i < count; i++) {
+			int index = in.readInt();
+			String fileName = in.readUTF();
+			int stripe = version >= 4 ? in.readInt() : 0;
+			long offset = in.readLong();
+			long length = in.readLong();
+			long storedLength = version >= 2 ? in.readLong() : length;
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			byte[] sum = new byte[checksum.getLength()];
+			in.readFully(sum);
+			if (index != i || storedLength < 0 || !isRelativePath(fileName) || stripe < 0 || stripe > stripes) {
+				throw new IOException("Manifest " + file.getName() + " is damaged");
+			}
+			entries.add(new Entry(index, fileName, stripe, offset, length, storedLength, size, lastModified, sum));
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns true if the specified path of a piece stays inside the directory
+	 * of the manifest, which means it is relative, separated by slashes and
+	 * has no empty, current or parent directory segments.
+	 *
+	 * @param path path of a piece
+	 * @return true if the path is a valid relative path
+	 */
+	private static boolean isRelativePath(String path) {
+		if (path.contains("\\")) {
+			return false;
+		}
+		for (String segment : path.split("/", -1)) {
+			if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the hash of the whole file, computed from the checksums of all
+	 * pieces in order.
+	 *
+	 * @param entries entries of all pieces, ordered by index
+	 * @return the hash of the whole file
+	 */
+	private static byte[] hash(List<Entry> entries) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			for (Entry entry : entries) {
+				sha.update(entry.checksum);
+			}
+			return sha.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	}
+
+	/**
+	 * Returns the CRC32C of the specified bytes, protecting the manifest
+	 * itself.
+	 *
+	 * @param bytes bytes of the manifest
+	 * @return the CRC32C of the bytes
+	 */
+	private static int crc(byte[] bytes) {
+		Crc32c crc = new Crc32c();
+		crc.update(ByteBuffer.wrap(bytes));
+		return crc.getValue();
+	}
+
+	/**
+	 * An entry of a single piece in the manifest.
+	 *
+	 * @author Mario Bobic
+	 */
+	public static final class Entry {
+		/** Index of the piece */
+		private final int index;
+		/** Path of the piece, relative to the directory of the manifest or its stripe */
+		private final String fileName;
+		/** Number of the stripe directory of the piece, or 0 for the directory of the manifest */
+		private final int stripe;
+		/** Offset of the data in the original file */
+		private final long offset;
+		/** Length of the data */
+		private final long length;
+		/** Length of the data as stored in the piece */
+		private final long storedLength;
+		/** Size of the piece file */
+		private final long size;
+		/** Last modification time of the piece file */
+		private final long lastModified;
+		/** Checksums stored at the end of the piece */
+		private final byte[] checksum;
+
+		/**
+		 * Constructs a new entry.
+		 *
+		 * @param index index of the piece
+		 * @param fileName path of the piece, relative to the manifest
+		 * @param offset offset of the data in the original file
+		 * @param length length of the data
+		 * @param storedLength length of the data as stored in the piece
+		 * @param size size of the piece file
+		 * @param lastModified last modification time of the piece file
+		 * @param checksum checksums stored at the end of the piece
+		 */
+		Entry(int index, String fileName, long offset, long length, long storedLength, long size,
+				long lastModified, byte[] checksum) {
+			this(index, fileName, 0, offset, length, storedLength, size, lastModified, checksum);
+		}
+
+		/**
+		 * Constructs a new entry of a striped piece.
+		 *
+		 * @param index index of the piece
+		 * @param fileName path of the piece, relative to its directory
+		 * @param stripe number of the stripe directory of the piece, or 0 for
+		 *        the directory of the manifest
+		 * @param offset offset of the data in the original file
+		 * @param length length of the data
+		 * @param storedLength length of the data as stored in the piece
+		 * @param size size of the piece file
+		 * @param lastModified last modification time of the piece file
+		 * @param checksum checksums stored at the end of the piece
+		 */
+		Entry(int index, String fileName, int stripe, long offset, long length, long storedLength, long size,
+				long lastModified, byte[] checksum) {
+			this.index = index;
+			this.fileName = fileName;
+			this.stripe = stripe;
+			this.offset = offset;
+			this.length = length;
+			this.storedLength = storedLength;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+		}
+
+		/**
+		 * Returns the index of the piece.
+		 *
+		 * @return the index of the piece
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the path of the piece, relative to the directory of the
+		 * manifest or its stripe directory and separated by slashes. Unless
+		 * the pieces are sharded into subdirectories, this is just the file
+		 * name of the piece.
+		 *
+		 * @return the relative path of the piece
+		 */
+		public String getFileName() {
+			return fileName;
+		}
+
+		/**
+		 * Returns the number of the stripe directory of the piece, where 0 is
+		 * the directory of the manifest.
+		 *
+		 * @return the number of the stripe directory of the piece
+		 */
+		public int getStripe() {
+			return stripe;
+		}
+
+		/**
+		 * Returns the offset of the data in the original file.
+		 *
+		 * @return the offset of the data
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the length of the data.
+		 *
+		 * @return the length of the data
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns the length of the data as stored in the piece, which
+		 * differs from the length of the data only if it is compressed.
+		 *
+		 * @return the length of the stored data
+		 */
+		public long getStoredLength() {
+			return storedLength;
+		}
+
+		/**
+		 * Returns the size of the piece file, including its header and
+		 * checksums.
+		 *
+		 * @return the size of the piece file
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the last modification time of the piece file, as it was
+		 * when the manifest was written.
+		 *
+		 * @return the last modification time of the piece file
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the checksums stored at the end of the piece.
+		 *
+		 * @return a copy of the checksums
+		 */
+		public byte[] getChecksum() {
+			return checksum.clone();
+		}
+
+		/**
+		 * Returns true if the specified piece file has the same size and
+		 * modification time as when the manifest was written.
+		 *
+		 * @param piece the piece file
+		 * @return true if the piece file is unchanged
+		 */
+		public boolean isUnchanged(File piece) {
+			return piece.length() == size && piece.lastModified() == lastModified;
+		}
+
+		/**
+		 * Returns the position where the data starts in the piece file.
+		 *
+		 * @return the position of the data in the piece file
+		 */
+		long getDataStart() {
+			return size - storedLength - checksum.length;
+		}
+	}
+
+}
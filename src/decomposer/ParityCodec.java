@@ -0,0 +1,275 @@
+package decomposer;
+
+import java.util.Arrays;
+
+/**
+ * Computes parity pieces from the data of all pieces, and rebuilds lost
+ * pieces from the remaining pieces and the parity. Pieces are processed in
+ * stripes, where every stripe holds one block at the same position of every
+ * piece, and shorter pieces are padded with zeros.
+ * <p>
+ * A single parity piece is the XOR of all pieces. More parity pieces form a
+ * systematic Reed-Solomon code over GF(2^8) whose parity rows are a Cauchy
+ * matrix with every column scaled so that the first row holds only ones.
+ * Every square submatrix of such a matrix is invertible, so any {@code k}
+ * lost pieces can be rebuilt from any {@code k} parity pieces, as long as
+ * there are at most 256 pieces and parity pieces in total.
+ * <p>
+ * Multiplication is table-driven: every coefficient has its own row of
+ * products, and every block is processed by a tight loop over byte arrays,
+ * which the JIT compiler unrolls, and vectorizes for plain XOR. Every byte
+ * of a stripe is coded independently of the others, so a stripe can be split
+ * into ranges coded by several threads.
+ *
+ * @author Mario Bobic
+ */
+final class ParityCodec {
+
+	/** Maximal number of pieces and parity pieces together */
+	public static final int MAX_TOTAL = 256;
+
+	/** Logarithms of all nonzero field elements */
+	private static final int[] LOG = new int[256];
+	/** Powers of the generator, twice over so that sums of logarithms need no modulo */
+	private static final int[] EXP = new int[510];
+	/** Products of all pairs of field elements */
+	private static final byte[][] MUL = new byte[256][256];
+
+	static {
+		/* GF(2^8) with the polynomial x^8 + x^4 + x^3 + x^2 + 1 and generator 2. */
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			EXP[i] = x;
+			EXP[i + 255] = x;
+			LOG[x] = i;
+			x <<= 1;
+			if (x >= 256) {
+				x ^= 0x11D;
+			}
+		}
+		for (int a = 1; a < 256; a++) {
+			for (int b = 1; b < 256; b++) {
+				MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+			}
+		}
+	}
+
+	/** Number of pieces */
+	private final int dataCount;
+	/** Number of parity pieces */
+	private final int parityCount;
+	/** Coefficients of every piece in every parity piece */
+	private final int[][] matrix;
+
+	/**
+	 * Constructs a new codec.
+	 *
+	 * @param dataCount number of pieces
+	 * @param parityCount number of parity pieces
+	 * @throws IllegalArgumentException if there are too many pieces
+	 */
+	public ParityCodec(int dataCount, int parityCount) {
+		if (dataCount + parityCount > MAX_TOTAL) {
+			throw new IllegalArgumentException("At most " + MAX_TOTAL + " pieces and parity pieces are supported");
+		}
+		this.dataCount = dataCount;
+		this.parityCount = parityCount;
+		this.matrix = new int[parityCount][dataCount];
+		for (int i = 0; i < dataCount; i++) {
+			/* Cauchy coefficients 1 / (x_j + y_i), divided by 1 / (x_0 + y_i). */
+			for (int j = 0; j < parityCount; j++) {
+				matrix[j][i] = multiply(inverse((dataCount + j) ^ i), dataCount ^ i);
+			}
+		}
+	}
+
+	/**
+	 * Computes a range of one stripe of all parity pieces. Disjoint ranges of
+	 * the same stripe may be computed by different threads at the same time.
+	 *
+	 * @param data blocks of all pieces, padded with zeros
+	 * @param parity blocks receiving the parity
+	 * @param from start of the range in the blocks, inclusive
+	 * @param to end of the range in the blocks, exclusive
+	 */
+	public void encode(byte[][] data, byte[][] parity, int from, int to) {
+		for (int j = 0; j < parityCount; j++) {
+			byte[] p = parity[j];
+			Arrays.fill(p, from, to, (byte) 0);
+			for (int i = 0; i < dataCount; i++) {
+				multiplyAdd(p, data[i], matrix[j][i], from, to);
+			}
+		}
+	}
+
+	/**
+	 * Returns a rebuilder of the specified lost pieces.
+	 *
+	 * @param lost indexes of the lost pieces
+	 * @param rows indexes of the parity pieces used for rebuilding, as many
+	 *        as there are lost pieces
+	 * @return a rebuilder of the lost pieces
+	 */
+	public Rebuilder rebuilder(int[] lost, int[] rows) {
+		return new Rebuilder(lost, rows);
+	}
+
+	/**
+	 * Rebuilds a fixed set of lost pieces, stripe by stripe.
+	 *
+	 * @author Mario Bobic
+	 */
+	public final class Rebuilder {
+		/** Indexes of the lost pieces */
+		private final int[] lost;
+		/** Indexes of the parity pieces used for rebuilding */
+		private final int[] rows;
+		/** Inverse of the coefficients of the lost pieces in the used parity pieces */
+		private final int[][] inverse;
+		/** True for every lost piece */
+		private final boolean[] isLost;
+
+		/**
+		 * Constructs a new rebuilder.
+		 *
+		 * @param lost indexes of the lost pieces
+		 * @param rows indexes of the parity pieces used for rebuilding
+		 */
+		private Rebuilder(int[] lost, int[] rows) {
+			this.lost = lost;
+			this.rows = rows;
+			this.isLost = new boolean[dataCount];
+			for (int e : lost) {
+				isLost[e] = true;
+			}
+			int[][] m = new int[lost.length][lost.length];
+			for (int r = 0; r < rows.length; r++) {
+				for (int c = 0; c < lost.length; c++) {
+					m[r][c] = matrix[rows[r]][lost[c]];
+				}
+			}
+			this.inverse = invert(m);
+		}
+
+		/**
+		 * Rebuilds a range of one stripe of the lost pieces. The parity blocks
+		 * are overwritten. Disjoint ranges of the same stripe may be rebuilt
+		 * by different threads at the same time.
+		 *
+		 * @param data blocks of all pieces, padded with zeros, where the
+		 *        blocks of the lost pieces receive the rebuilt data
+		 * @param parity blocks of the used parity pieces, in the order of
+		 *        the rows of this rebuilder
+		 * @param from start of the range in the blocks, inclusive
+		 * @param to end of the range in the blocks, exclusive
+		 */
+		public void rebuild(byte[][] data, byte[][] parity, int from, int to) {
+			/* Subtract the known pieces, leaving only the lost ones in the parity. */
+			for (int r = 0; r < rows.length; r++) {
+				for (int i = 0; i < dataCount; i++) {
+					if (!isLost[i]) {
+						multiplyAdd(parity[r], data[i], matrix[rows[r]][i], from, to);
+					}
+				}
+			}
+			for (int c = 0; c < lost.length; c++) {
+				byte[] d = data[lost[c]];
+				Arrays.fill(d, from, to, (byte) 0);
+				for (int r = 0; r < rows.length; r++) {
+					multiplyAdd(d, parity[r], inverse[c][r], from, to);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the product of the source and the coefficient to the destination,
+	 * which in GF(2^8) is XOR.
+	 *
+	 * @param dst destination block
+	 * @param src source block
+	 * @param c coefficient
+	 * @param from start of the range in the blocks, inclusive
+	 * @param to end of the range in the blocks, exclusive
+	 */
+	private static void multiplyAdd(byte[] dst, byte[] src, int c, int from, int to) {
+		if (c == 0) {
+			return;
+		}
+		if (c == 1) {
+			for (int i = from; i < to; i++) {
+				dst[i] ^= src[i];
+			}
+			return;
+		}
+		byte[] t = MUL[c];
+		for (int i = from; i < to; i++) {
+			dst[i] ^= t[src[i] & 0xFF];
+		}
+	}
+
+	/**
+	 * Returns the product of two field elements.
+	 *
+	 * @param a first element
+	 * @param b second element
+	 * @return the product
+	 */
+	private static int multiply(int a, int b) {
+		return MUL[a][b] & 0xFF;
+	}
+
+	/**
+	 * Returns the multiplicative inverse of a nonzero field element.
+	 *
+	 * @param a nonzero element
+	 * @return the inverse
+	 */
+	private static int inverse(int a) {
+		return EXP[255 - LOG[a]];
+	}
+
+	/**
+	 * Inverts the specified square matrix by Gauss-Jordan elimination.
+	 *
+	 * @param m matrix to be inverted, which is destroyed
+	 * @return the inverse
+	 * @throws IllegalStateException if the matrix is singular, which can not
+	 *         happen for submatrices of a Cauchy matrix
+	 */
+	private static int[][] invert(int[][] m) {
+		int n = m.length;
+		int[][] inv = new int[n][n];
+		for (int i = 0; i < n; i++) {
+			inv[i][i] = 1;
+		}
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			while (pivot < n && m[pivot][col] == 0) {
+				pivot++;
+			}
+			if (pivot == n) {
+				throw new IllegalStateException("Parity matrix is singular");
+			}
+			int[] t = m[col]; m[col] = m[pivot]; m[pivot] = t;
+			t = inv[col]; inv[col] = inv[pivot]; inv[pivot] = t;
+
+			int scale = inverse(m[col][col]);
+			for (int k = 0; k < n; k++) {
+				m[col][k] = multiply(m[col][k], scale);
+				inv[col][k] = multiply(inv[col][k], scale);
+			}
+			for (int row = 0; row < n; row++) {
+				int f = m[row][col];
+				if (row != col && f != 0) {
+					for (int k = 0; k < n; k++) {
+						m[row][k] ^= multiply(f, m[col][k]);
+						inv[row][k] ^= multiply(f, inv[col][k]);
+					}
+				}
+			}
+		}
+		return inv;
+	}
+
+}
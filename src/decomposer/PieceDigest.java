@@ -0,0 +1,134 @@
+package decomposer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the checksums of the data of a single piece, as selected by a
+ * {@linkplain ChecksumMode}. The checksums are written as a trailer right
+ * after the data of the piece, and the implant of the piece is flagged so
+ * that the trailer can be found when composing.
+ * <p>
+ * A digest belongs to a single piece and must not be shared between threads.
+ *
+ * @author Mario Bobic
+ */
+final class PieceDigest {
+
+	/** Implant flag of pieces ending with a CRC32C */
+	static final int CRC32C_FLAG = 0x80000000;
+	/** Implant flag of pieces ending with a SHA-256 digest */
+	static final int SHA256_FLAG = 0x40000000;
+	/** Mask of the ordinal number in the implant */
+	static final int INDEX_MASK = ~(CRC32C_FLAG | SHA256_FLAG);
+
+	/** Checksums computed by this digest */
+	private final ChecksumMode mode;
+	/** CRC32C of the data */
+	private final Crc32c crc = new Crc32c();
+	/** SHA-256 of the data, or null if not computed */
+	private final MessageDigest sha;
+
+	/**
+	 * Constructs a new digest computing the checksums of the specified mode.
+	 *
+	 * @param mode checksums to be computed, other than NONE
+	 */
+	private PieceDigest(ChecksumMode mode) {
+		this.mode = mode;
+		if (mode == ChecksumMode.SHA256) {
+			try {
+				sha = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA-256 is not supported", e);
+			}
+		} else {
+			sha = null;
+		}
+	}
+
+	/**
+	 * Returns a new digest computing the checksums of the specified mode, or
+	 * null if the mode is {@linkplain ChecksumMode#NONE}.
+	 *
+	 * @param mode checksums to be computed
+	 * @return a new digest, or null if no checksums are computed
+	 */
+	public static PieceDigest create(ChecksumMode mode) {
+		return mode == ChecksumMode.NONE ? null : new PieceDigest(mode);
+	}
+
+	/**
+	 * Returns the implant flags of pieces carrying checksums of the specified
+	 * mode.
+	 *
+	 * @param mode checksum mode of the piece
+	 * @return the implant flags
+	 */
+	public static int flags(ChecksumMode mode) {
+		switch (mode) {
+		case CRC32C:
+			return CRC32C_FLAG;
+		case SHA256:
+			return CRC32C_FLAG | SHA256_FLAG;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the checksum mode of a piece with the specified implant.
+	 *
+	 * @param implant implant of the piece
+	 * @return the checksum mode of the piece
+	 */
+	public static ChecksumMode modeOf(int implant) {
+		if ((implant & SHA256_FLAG) != 0) {
+			return ChecksumMode.SHA256;
+		}
+		return (implant & CRC32C_FLAG) != 0 ? ChecksumMode.CRC32C : ChecksumMode.NONE;
+	}
+
+	/**
+	 * Updates the checksums with the remaining bytes of the specified buffer.
+	 * The position of the buffer is left unchanged, so the same bytes can be
+	 * written afterwards.
+	 *
+	 * @param b buffer holding the data
+	 */
+	public void update(ByteBuffer b) {
+		if (sha != null) {
+			sha.update(b.duplicate());
+		}
+		crc.update(b.duplicate());
+	}
+
+	/**
+	 * Returns a buffer holding the checksums of all data this digest has been
+	 * updated with, ready to be written at the end of the piece.
+	 *
+	 * @return a buffer holding the checksum trailer
+	 */
+	public ByteBuffer trailer() {
+		ByteBuffer b = ByteBuffer.allocate(mode.getLength());
+		b.putInt(crc.getValue());
+		if (sha != null) {
+			b.put(sha.digest());
+		}
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Returns true if the specified trailer read from the end of the piece
+	 * holds the checksums of all data this digest has been updated with.
+	 *
+	 * @param trailer checksum trailer read from the piece
+	 * @return true if the checksums match
+	 */
+	public boolean matches(ByteBuffer trailer) {
+		return MessageDigest.isEqual(trailer().array(), trailer.array());
+	}
+
+}
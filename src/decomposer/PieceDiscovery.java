@@ -0,0 +1,577 @@
+package decomposer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static decomposer.DecomposerConstants.*;
+
+/**
+ * Finds the pieces in one or more directories and groups them into sets of
+ * pieces of the same original file. Every directory is listed once with a
+ * directory stream, and pieces are grouped by the manifests found in the
+ * directories, which lists the pieces without opening them. The headers of
+ * the pieces no manifest lists are read concurrently, and the pieces are
+ * grouped by the ID of the original file. Legacy pieces have no header and
+ * are grouped by their file name.
+ * <p>
+ * The listing of every directory, its manifests and the headers of its
+ * pieces are cached until the last modified time of the directory changes,
+ * so scanning a directory again costs a single file attribute read as long
+ * as no file was created, removed or renamed in it. The sets found are
+ * cached as well and returned again while none of their directories has
+ * changed. A piece overwritten in
+ * place does not change the time of its directory and is not read again,
+ * {@linkplain #clear()} forgets everything cached.
+ *
+ * @author Mario Bobic
+ */
+public final class PieceDiscovery {
+
+	/** Pattern of piece file names, the name of the original file and the index */
+	private static final Pattern PIECE_PATTERN = Pattern.compile("(.+)-(\\d+)" + Pattern.quote(FILE_EXTENSION));
+
+	/** Counts the threads of all discoveries, used in the names of threads */
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	/** Number of piece headers read at the same time */
+	private final int parallelism;
+	/** Cached listings, by normalized directory path */
+	private final Map<Path, Listing> cache = new ConcurrentHashMap<>();
+	/** Cached results of scans, by scanned directories */
+	private final Map<String, Result> results = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs a new discovery reading up to the specified number of piece
+	 * headers at the same time.
+	 *
+	 * @param parallelism number of piece headers read at the same time
+	 * @throws IllegalArgumentException if parallelism is less than 1
+	 */
+	public PieceDiscovery(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Finds the pieces in the specified directories and returns them grouped
+	 * into sets, ordered by the name of the original file. Subdirectories are
+	 * scanned only if <tt>recursive</tt> is true, pieces of sharded or striped
+	 * jobs are found through their manifests either way. Pieces which can not
+	 * be read are skipped.
+	 *
+	 * @param dirs directories to be scanned
+	 * @param recursive true if subdirectories should be scanned as well
+	 * @return sets of the pieces found
+	 * @throws IOException if a directory can not be listed
+	 */
+	public List<PieceSet> scan(List<File> dirs, boolean recursive) throws IOException {
+		/* List all directories, reusing the listings which have not changed. */
+		Map<Path, Listing> listings = new LinkedHashMap<>();
+		List<Path> pending = new ArrayList<>();
+		for (File dir : dirs) {
+			pending.add(dir.toPath().toAbsolutePath().normalize());
+		}
+		while (!pending.isEmpty()) {
+			Path dir = pending.remove(pending.size() - 1);
+			if (listings.containsKey(dir)) {
+				continue;
+			}
+			Listing listing = listing(dir, recursive);
+			listings.put(dir, listing);
+			if (recursive) {
+				pending.addAll(listing.subdirs);
+			}
+		}
+
+		/* Nothing has changed since the last scan of the same directories. */
+		String scanKey = recursive + ":" + listings.keySet();
+		Result cached = results.get(scanKey);
+		if (cached != null && cached.isValid(listings)) {
+			return new ArrayList<>(cached.sets);
+		}
+
+		/* Manifests list their pieces, so those pieces are never opened. */
+		List<PieceSet> sets = new ArrayList<>();
+		Set<Path> covered = new HashSet<>();
+		Map<Path, Long> external = new HashMap<>();
+		for (Listing listing : listings.values()) {
+			for (Manifest manifest : listing.manifests()) {
+				sets.add(manifestSet(manifest, listings, covered, external));
+			}
+		}
+
+		/* Read the headers of all other pieces which are not cached yet. */
+		Map<Piece, Listing> unread = new LinkedHashMap<>();
+		for (Listing listing : listings.values()) {
+			for (Piece piece : listing.pieces.values()) {
+				if (!covered.contains(piece.path) && !listing.headers.containsKey(piece.path.getFileName().toString())) {
+					unread.put(piece, listing);
+				}
+			}
+		}
+		readHeaders(unread);
+
+		/* Group the pieces by the ID of the original file, or by name. */
+		Map<String, List<Info>> groups = new LinkedHashMap<>();
+		for (Listing listing : listings.values()) {
+			for (Piece piece : listing.pieces.values()) {
+				Info info = listing.headers.get(piece.path.getFileName().toString());
+				if (covered.contains(piece.path) || info == null || info == Info.UNREADABLE) {
+					continue;
+				}
+				String key = info.header != null
+						? info.header.getFileId().toString()
+						: piece.path.resolveSibling(piece.name).toString();
+				groups.computeIfAbsent(key, (k) -> new ArrayList<>()).add(info);
+			}
+		}
+		for (List<Info> group : groups.values()) {
+			sets.add(group.get(0).header != null ? headerSet(group) : legacySet(group));
+		}
+
+		sets.sort((s1, s2) -> s1.getName().compareTo(s2.getName()));
+		results.put(scanKey, new Result(listings, external, sets));
+		return sets;
+	}
+
+	/**
+	 * Forgets all cached listings, manifests, piece headers and sets.
+	 */
+	public void clear() {
+		cache.clear();
+		results.clear();
+	}
+
+	/**
+	 * Returns the listing of the specified directory, from the cache if the
+	 * directory has not been modified since it was listed.
+	 *
+	 * @param dir normalized path of the directory
+	 * @param recursive true if subdirectories should be listed as well
+	 * @return the listing of the directory
+	 * @throws IOException if the directory can not be listed
+	 */
+	private Listing listing(Path dir, boolean recursive) throws IOException {
+		FileTime modified = Files.getLastModifiedTime(dir);
+		Listing cached = cache.get(dir);
+		if (cached != null && cached.modified.equals(modified) && (cached.recursive || !recursive)) {
+			return cached;
+		}
+
+		Listing listing = new Listing(dir, modified, recursive);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				Matcher m = PIECE_PATTERN.matcher(name);
+				if (m.matches()) {
+					listing.pieces.put(name, new Piece(path, m.group(1), m.group(2)));
+				} else if (name.endsWith(MANIFEST_EXTENSION)) {
+					listing.manifestFiles.add(path);
+				} else if (recursive && Files.isDirectory(path)) {
+					listing.subdirs.add(path);
+				}
+			}
+		}
+		cache.put(dir, listing);
+		return listing;
+	}
+
+	/**
+	 * Returns the set of the pieces listed by the specified manifest and
+	 * marks them as covered. Pieces in the scanned directories are looked up
+	 * in their listings by their file name, while pieces of other directories
+	 * and files not named as pieces, such as chunks, are checked on disk. The
+	 * last modified times of the other directories are collected.
+	 *
+	 * @param manifest manifest listing the pieces
+	 * @param listings listings of the scanned directories
+	 * @param covered paths of the pieces listed by manifests
+	 * @param external last modified times of the other directories
+	 * @return the set of the pieces
+	 */
+	private static PieceSet manifestSet(Manifest manifest, Map<Path, Listing> listings, Set<Path> covered,
+			Map<Path, Long> external) {
+		List<File> pieces = new ArrayList<>();
+		List<Integer> missing = new ArrayList<>();
+		long length = 0;
+		for (Manifest.Entry entry : manifest.getEntries()) {
+			File file = manifest.getPieceFile(entry);
+			Path path = file.toPath().toAbsolutePath().normalize();
+			Listing listing = listings.get(path.getParent());
+			if (listing == null) {
+				external.computeIfAbsent(path.getParent(), (dir) -> dir.toFile().lastModified());
+			}
+			String name = path.getFileName().toString();
+			boolean present = listing != null && PIECE_PATTERN.matcher(name).matches()
+					? listing.pieces.containsKey(name)
+					: file.isFile();
+			if (present) {
+				pieces.add(file);
+				covered.add(path);
+				length += entry.getLength();
+			} else {
+				missing.add(entry.getIndex());
+			}
+		}
+		return new PieceSet(manifest.getName(), manifest.getFileId(), manifest, pieces, missing, length,
+				manifest.getOriginalLength());
+	}
+
+	/**
+	 * Returns the set of the specified pieces with headers, all of the same
+	 * original file. A piece whose index has already been found in another
+	 * directory is a copy and is left out.
+	 *
+	 * @param group pieces of the same original file
+	 * @return the set of the pieces
+	 */
+	private static PieceSet headerSet(List<Info> group) {
+		TreeMap<Integer, Info> byIndex = new TreeMap<>();
+		int count = 0;
+		long originalLength = -1;
+		for (Info info : group) {
+			byIndex.putIfAbsent(info.header.getIndex(), info);
+			count = Math.max(count, info.header.getCount());
+			if (info.header.getCount() > 0) {
+				originalLength = info.header.getOriginalLength();
+			}
+		}
+
+		/* Pieces of an interrupted stream do not know how many there are. */
+		List<Integer> missing = new ArrayList<>();
+		int last = count > 0 ? count : byIndex.lastKey() + 2;
+		for (int i = 0; i < last; i++) {
+			if (!byIndex.containsKey(i)) {
+				missing.add(i);
+			}
+		}
+		return newSet(group.get(0).header.getName(), group.get(0).header.getFileId(), byIndex, missing,
+				originalLength);
+	}
+
+	/**
+	 * Returns the set of the specified legacy pieces, all with the same name.
+	 * Legacy pieces do not know how many of them there are, so only the pieces
+	 * missing between the pieces found are known to be missing.
+	 *
+	 * @param group legacy pieces with the same name
+	 * @return the set of the pieces
+	 */
+	private static PieceSet legacySet(List<Info> group) {
+		TreeMap<Integer, Info> byIndex = new TreeMap<>();
+		for (Info info : group) {
+			byIndex.put(info.piece.index, info);
+		}
+		List<Integer> missing = new ArrayList<>();
+		for (int i = byIndex.firstKey(); i < byIndex.lastKey(); i++) {
+			if (!byIndex.containsKey(i)) {
+				missing.add(i);
+			}
+		}
+		return newSet(group.get(0).piece.name, null, byIndex, missing, -1);
+	}
+
+	/**
+	 * Returns a new set of the specified pieces.
+	 *
+	 * @param name name of the original file
+	 * @param fileId ID of the original file, or null for legacy pieces
+	 * @param byIndex pieces found, by index
+	 * @param missing indexes of the missing pieces
+	 * @param originalLength length of the original file, or -1
+	 * @return a new set of the pieces
+	 */
+	private static PieceSet newSet(String name, UUID fileId, TreeMap<Integer, Info> byIndex, List<Integer> missing,
+			long originalLength) {
+		List<File> pieces = new ArrayList<>(byIndex.size());
+		long length = 0;
+		for (Info info : byIndex.values()) {
+			pieces.add(info.piece.path.toFile());
+			length += info.length;
+		}
+		return new PieceSet(name, fileId, null, pieces, missing, length, originalLength);
+	}
+
+	/**
+	 * Reads the headers of the specified pieces and caches them in their
+	 * listings. Headers are read by a pool of threads which lives only as
+	 * long as this method, so an idle discovery holds no threads.
+	 *
+	 * @param unread pieces whose headers are read, with their listings
+	 * @throws IOException if reading is interrupted
+	 */
+	private void readHeaders(Map<Piece, Listing> unread) throws IOException {
+		if (unread.isEmpty()) {
+			return;
+		}
+		if (parallelism == 1 || unread.size() == 1) {
+			for (Map.Entry<Piece, Listing> e : unread.entrySet()) {
+				readHeader(e.getKey(), e.getValue());
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, unread.size()), (r) -> {
+			Thread thread = new Thread(r, "decomposer-discovery-" + THREAD_COUNT.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>(unread.size());
+			for (Map.Entry<Piece, Listing> e : unread.entrySet()) {
+				tasks.add(() -> {
+					readHeader(e.getKey(), e.getValue());
+					return null;
+				});
+			}
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading piece headers", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Can not read piece headers", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the header of the specified piece, or the length of a legacy
+	 * piece, and caches it in the specified listing. A piece which can not be
+	 * read is cached as unreadable and left out of all sets.
+	 *
+	 * @param piece the piece
+	 * @param listing listing of the directory of the piece
+	 */
+	private static void readHeader(Piece piece, Listing listing) {
+		File file = piece.path.toFile();
+		Info info;
+		try {
+			PieceHeader header = PieceHeader.read(file);
+			long length = header != null ? header.getLength() : DecomposerEngine.getPieceLength(file);
+			info = new Info(piece, header, length);
+		} catch (IOException e) {
+			info = Info.UNREADABLE;
+		}
+		listing.headers.put(piece.path.getFileName().toString(), info);
+	}
+
+	/**
+	 * Cached result of a scan.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static final class Result {
+		/** Listings the sets were found in */
+		private final Map<Path, Listing> listings;
+		/** Last modified times of the other directories holding pieces */
+		private final Map<Path, Long> external;
+		/** Sets found */
+		private final List<PieceSet> sets;
+
+		/**
+		 * Constructs a new result.
+		 *
+		 * @param listings listings the sets were found in
+		 * @param external last modified times of the other directories
+		 * @param sets sets found
+		 */
+		Result(Map<Path, Listing> listings, Map<Path, Long> external, List<PieceSet> sets) {
+			this.listings = listings;
+			this.external = external;
+			this.sets = Collections.unmodifiableList(new ArrayList<>(sets));
+		}
+
+		/**
+		 * Returns true if the specified listings are the ones the sets were
+		 * found in, and none of the other directories has changed.
+		 *
+		 * @param current current listings of the scanned directories
+		 * @return true if the sets are still valid
+		 */
+		boolean isValid(Map<Path, Listing> current) {
+			if (!current.keySet().equals(listings.keySet())) {
+				return false;
+			}
+			for (Map.Entry<Path, Listing> e : current.entrySet()) {
+				if (listings.get(e.getKey()) != e.getValue()) {
+					return false;
+				}
+			}
+			for (Map.Entry<Path, Long> e : external.entrySet()) {
+				if (e.getKey().toFile().lastModified() != e.getValue()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Cached listing of a directory.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static final class Listing {
+		/** Normalized path of the directory */
+		private final Path dir;
+		/** Last modified time of the directory when it was listed */
+		private final FileTime modified;
+		/** True if the subdirectories were listed */
+		private final boolean recursive;
+		/** Pieces in the directory, by file name */
+		private final Map<String, Piece> pieces = new TreeMap<>();
+		/** Manifest files in the directory */
+		private final List<Path> manifestFiles = new ArrayList<>();
+		/** Subdirectories, listed only if recursive */
+		private final List<Path> subdirs = new ArrayList<>();
+		/** Headers of the pieces read so far, by file name */
+		private final Map<String, Info> headers = new ConcurrentHashMap<>();
+		/** Manifests read from the manifest files, null until read */
+		private List<Manifest> manifests;
+
+		/**
+		 * Constructs a new empty listing.
+		 *
+		 * @param dir normalized path of the directory
+		 * @param modified last modified time of the directory
+		 * @param recursive true if the subdirectories are listed
+		 */
+		Listing(Path dir, FileTime modified, boolean recursive) {
+			this.dir = dir;
+			this.modified = modified;
+			this.recursive = recursive;
+		}
+
+		/**
+		 * Returns the manifests in the directory, reading them the first time.
+		 * Manifests which can not be read are left out, their pieces are then
+		 * grouped by their headers.
+		 *
+		 * @return the manifests in the directory
+		 */
+		synchronized List<Manifest> manifests() {
+			if (manifests == null) {
+				List<Manifest> read = new ArrayList<>(manifestFiles.size());
+				Map<UUID, Boolean> seen = new HashMap<>();
+				for (Path path : manifestFiles) {
+					try {
+						Manifest manifest = Manifest.read(path.toFile());
+						if (seen.putIfAbsent(manifest.getFileId(), Boolean.TRUE) == null) {
+							read.add(manifest);
+						}
+					} catch (IOException e) {
+						/* Damaged manifest, fall back to the piece headers. */
+					}
+				}
+				manifests = Collections.unmodifiableList(read);
+			}
+			return manifests;
+		}
+
+		@Override
+		public String toString() {
+			return dir.toString();
+		}
+	}
+
+	/**
+	 * A piece file found in a directory listing.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static final class Piece {
+		/** Path of the piece */
+		private final Path path;
+		/** Name of the original file, taken from the name of the piece */
+		private final String name;
+		/** Index taken from the name of the piece */
+		private final int index;
+
+		/**
+		 * Constructs a new piece.
+		 *
+		 * @param path path of the piece
+		 * @param name name of the original file
+		 * @param index index from the name of the piece
+		 */
+		Piece(Path path, String name, String index) {
+			this.path = path;
+			this.name = name;
+			this.index = parseIndex(index);
+		}
+
+		/**
+		 * Parses the index from the name of a piece, saturating indexes too
+		 * large for an int.
+		 *
+		 * @param index index from the name of the piece
+		 * @return the parsed index
+		 */
+		private static int parseIndex(String index) {
+			try {
+				return Integer.parseInt(index);
+			} catch (NumberFormatException e) {
+				return Integer.MAX_VALUE;
+			}
+		}
+	}
+
+	/**
+	 * Header and data length of a piece.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static final class Info {
+		/** Cached for pieces which can not be read */
+		private static final Info UNREADABLE = new Info(null, null, -1);
+
+		/** The piece */
+		private final Piece piece;
+		/** Header of the piece, or null for a legacy piece */
+		private final PieceHeader header;
+		/** Length of the data stored in the piece */
+		private final long length;
+
+		/**
+		 * Constructs a new piece info.
+		 *
+		 * @param piece the piece
+		 * @param header header of the piece, or null for a legacy piece
+		 * @param length length of the data stored in the piece
+		 */
+		Info(Piece piece, PieceHeader header, long length) {
+			this.piece = piece;
+			this.header = header;
+			this.length = length;
+		}
+	}
+
+}
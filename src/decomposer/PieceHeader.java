@@ -0,0 +1,417 @@
+package decomposer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A self-describing header written at the start of every piece. The header
+ * tells which file the piece belongs to, where its data goes in that file and
+ * how many pieces there are, so pieces can be composed without being listed
+ * in order and without parsing their file names.
+ * <p>
+ * The header is stored in big-endian order as follows:
+ *
+ * <pre>
+ *  0  int    magic number "FDCP"
+ *  4  short  format version
+ *  6  short  header length, including the name
+ *  8  int    flags, marking the checksums at the end of the piece
+ * 12  long   file ID, most significant bits
+ * 20  long   file ID, least significant bits
+ * 28  int    index of the piece
+ * 32  int    number of pieces
+ * 36  long   offset of the data in the original file
+ * 44  long   length of the data
+ * 52  long   length of the original file
+ * 60  short  length of the name in bytes
+ * 62  byte[] name of the original file, in UTF-8
+ * </pre>
+ *
+ * Pieces whose data is {@linkplain Codec compressed} have a header of
+ * version 2, which continues after the name as follows:
+ *
+ * <pre>
+ *  0  int    ID of the codec
+ *  4  long   length of the compressed data stored in the piece
+ * </pre>
+ *
+ * Pieces that are not compressed keep writing version 1, so they can still
+ * be composed by older versions.
+ *
+ * Pieces written before the header was introduced start with a 4-byte
+ * implant holding only the ordinal number of the piece. The magic number
+ * can never be mistaken for such an implant.
+ *
+ * @author Mario Bobic
+ */
+public final class PieceHeader {
+
+	/** Magic number every header starts with */
+	public static final int MAGIC = 0x46444350;
+	/** Latest version of the header format */
+	public static final int VERSION = 2;
+	/** Length of the header without the name */
+	private static final int FIXED_LENGTH = 62;
+	/** Length of the fields following the name in version 2 */
+	private static final int CODEC_LENGTH = 12;
+
+	/** Flags marking the checksums at the end of the piece */
+	private final int flags;
+	/** ID shared by all pieces of one file */
+	private final UUID fileId;
+	/** Index of the piece */
+	private final int index;
+	/** Number of pieces */
+	private final int count;
+	/** Offset of the data in the original file */
+	private final long offset;
+	/** Length of the data */
+	private final long length;
+	/** Length of the original file */
+	private final long originalLength;
+	/** ID of the codec compressing the data, or 0 if it is not compressed */
+	private final int codecId;
+	/** Length of the data as stored in the piece */
+	private final long storedLength;
+	/** Name of the original file */
+	private final String name;
+	/** Encoded name of the original file */
+	private final byte[] nameBytes;
+	/** Length of the header, including the name and any unknown fields */
+	private final int headerLength;
+
+	/**
+	 * Constructs a new header.
+	 *
+	 * @param fileId ID shared by all pieces of one file
+	 * @param index index of the piece
+	 * @param count number of pieces
+	 * @param offset offset of the data in the original file
+	 * @param length length of the data
+	 * @param originalLength length of the original file
+	 * @param name name of the original file
+	 * @param checksum checksums stored at the end of the piece
+	 */
+	public PieceHeader(UUID fileId, int index, int count, long offset, long length,
+			long originalLength, String name, ChecksumMode checksum) {
+		this(fileId, index, count, offset, length, originalLength, name, checksum, null);
+	}
+
+	/**
+	 * Constructs a new header of a piece whose data is compressed with the
+	 * specified codec. The length of the compressed data is not known until
+	 * the piece has been written, so it is set to the length of the data and
+	 * must be corrected by {@linkplain #withStoredLength(long)}.
+	 *
+	 * @param fileId ID shared by all pieces of one file
+	 * @param index index of the piece
+	 * @param count number of pieces
+	 * @param offset offset of the data in the original file
+	 * @param length length of the data
+	 * @param originalLength length of the original file
+	 * @param name name of the original file
+	 * @param checksum checksums stored at the end of the piece
+	 * @param codec codec compressing the data, or null
+	 */
+	public PieceHeader(UUID fileId, int index, int count, long offset, long length,
+			long originalLength, String name, ChecksumMode checksum, Codec codec) {
+		this(PieceDigest.flags(checksum), fileId, index, count, offset, length, originalLength,
+				codec != null ? codec.getId() : 0, length, name, 0);
+	}
+
+	/**
+	 * Constructs a new header with raw flags.
+	 *
+	 * @param flags flags marking the checksums at the end of the piece
+	 * @param fileId ID shared by all pieces of one file
+	 * @param index index of the piece
+	 * @param count number of pieces
+	 * @param offset offset of the data in the original file
+	 * @param length length of the data
+	 * @param originalLength length of the original file
+	 * @param codecId ID of the codec compressing the data, or 0
+	 * @param storedLength length of the data as stored in the piece
+	 * @param name name of the original file
+	 * @param headerLength length of the header read from a piece, or 0 to
+	 *        compute it from the name
+	 */
+	private PieceHeader(int flags, UUID fileId, int index, int count, long offset, long length,
+			long originalLength, int codecId, long storedLength, String name, int headerLength) {
+		this.flags = flags;
+		this.fileId = fileId;
+		this.index = index;
+		this.count = count;
+		this.offset = offset;
+		this.length = length;
+		this.originalLength = originalLength;
+		this.codecId = codecId;
+		this.storedLength = storedLength;
+		this.name = name;
+		this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		int minLength = FIXED_LENGTH + nameBytes.length + (codecId != 0 ? CODEC_LENGTH : 0);
+		if (minLength > 0xFFFF) {
+			throw new IllegalArgumentException("Name of the original file is too long");
+		}
+		this.headerLength = headerLength != 0 ? headerLength : minLength;
+	}
+
+	/**
+	 * Returns the ID shared by all pieces of one file.
+	 *
+	 * @return the file ID
+	 */
+	public UUID getFileId() {
+		return fileId;
+	}
+
+	/**
+	 * Returns the index of the piece.
+	 *
+	 * @return the index of the piece
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the number of pieces of the original file.
+	 *
+	 * @return the number of pieces
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the offset of the data of this piece in the original file.
+	 *
+	 * @return the offset of the data
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the length of the data of this piece.
+	 *
+	 * @return the length of the data
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the length of the original file.
+	 *
+	 * @return the length of the original file
+	 */
+	public long getOriginalLength() {
+		return originalLength;
+	}
+
+	/**
+	 * Returns the ID of the {@linkplain Codec codec} compressing the data of
+	 * this piece, or 0 if the data is stored as it is.
+	 *
+	 * @return the ID of the codec, or 0
+	 */
+	public int getCodecId() {
+		return codecId;
+	}
+
+	/**
+	 * Returns the length of the data as stored in the piece, which differs
+	 * from the length of the data only if it is compressed.
+	 *
+	 * @return the length of the stored data
+	 */
+	public long getStoredLength() {
+		return storedLength;
+	}
+
+	/**
+	 * Returns the name of the original file. Names read from pieces never
+	 * contain a path, so they can safely be resolved against a directory.
+	 *
+	 * @return the name of the original file
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the checksums stored at the end of the piece.
+	 *
+	 * @return the checksums stored at the end of the piece
+	 */
+	public ChecksumMode getChecksum() {
+		return PieceDigest.modeOf(flags);
+	}
+
+	/**
+	 * Returns the length of this header in bytes, which is also the position
+	 * where the data of the piece starts.
+	 *
+	 * @return the length of this header
+	 */
+	public int getHeaderLength() {
+		return headerLength;
+	}
+
+	/**
+	 * Returns a copy of this header with the specified number of pieces and
+	 * original length. Used when decomposing streams, where both are known
+	 * only after all pieces have been written. The copy has the same length
+	 * as this header.
+	 *
+	 * @param count number of pieces
+	 * @param originalLength length of the original file
+	 * @return a copy of this header
+	 */
+	public PieceHeader withTotals(int count, long originalLength) {
+		return new PieceHeader(flags, fileId, index, count, offset, length, originalLength,
+				codecId, storedLength, name, headerLength);
+	}
+
+	/**
+	 * Returns a copy of this header with the specified length of the stored
+	 * data. Used when compressing pieces, where the length is known only
+	 * after the data has been written. The copy has the same length as this
+	 * header.
+	 *
+	 * @param storedLength length of the data as stored in the piece
+	 * @return a copy of this header
+	 */
+	public PieceHeader withStoredLength(long storedLength) {
+		return new PieceHeader(flags, fileId, index, count, offset, length, originalLength,
+				codecId, storedLength, name, headerLength);
+	}
+
+	/**
+	 * Returns a buffer holding this header, ready to be written. Fields
+	 * unknown to this version of the format are written as zeros.
+	 *
+	 * @return a buffer holding this header
+	 */
+	public ByteBuffer toBuffer() {
+		ByteBuffer b = ByteBuffer.allocate(headerLength);
+		b.putInt(MAGIC);
+		b.putShort((short) (codecId != 0 ? 2 : 1));
+		b.putShort((short) getHeaderLength());
+		b.putInt(flags);
+		b.putLong(fileId.getMostSignificantBits());
+		b.putLong(fileId.getLeastSignificantBits());
+		b.putInt(index);
+		b.putInt(count);
+		b.putLong(offset);
+		b.putLong(length);
+		b.putLong(originalLength);
+		b.putShort((short) nameBytes.length);
+		b.put(nameBytes);
+		if (codecId != 0) {
+			b.putInt(codecId);
+			b.putLong(storedLength);
+		}
+		b.clear();
+		return b;
+	}
+
+	/**
+	 * Reads the header of the specified piece. Returns null if the piece has
+	 * no header, which means it is either a legacy piece starting with an
+	 * implant, or not a piece at all.
+	 *
+	 * @param piece the piece file
+	 * @return the header of the piece, or null
+	 * @throws IOException if the header is of an unsupported version, or is
+	 *         damaged, or can not be read
+	 */
+	public static PieceHeader read(File piece) throws IOException {
+		try (FileChannel in = FileChannel.open(piece.toPath(), READ)) {
+			return read(in, piece);
+		}
+	}
+
+	/**
+	 * Reads the header from the current position of the specified channel.
+	 * Returns null if the channel does not start with a header. The channel
+	 * is left positioned right after the header, if there is one.
+	 *
+	 * @param in channel of the piece
+	 * @param piece the piece file, used in error messages
+	 * @return the header of the piece, or null
+	 * @throws IOException if the header is of an unsupported version, or is
+	 *         damaged, or can not be read
+	 */
+	static PieceHeader read(ReadableByteChannel in, File piece) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(FIXED_LENGTH);
+		while (b.hasRemaining()) {
+			if (in.read(b) < 0) {
+				if (b.position() < 4 || b.getInt(0) != MAGIC) {
+					return null;
+				}
+				throw new EOFException("Header of piece " + piece.getName() + " is incomplete");
+			}
+		}
+		b.flip();
+
+		if (b.getInt() != MAGIC) {
+			return null;
+		}
+		int version = b.getShort();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Piece " + piece.getName() + " has unsupported format version " + version);
+		}
+		int headerLength = b.getShort() & 0xFFFF;
+		int flags = b.getInt();
+		UUID fileId = new UUID(b.getLong(), b.getLong());
+		int index = b.getInt();
+		int count = b.getInt();
+		long offset = b.getLong();
+		long length = b.getLong();
+		long originalLength = b.getLong();
+		int nameLength = b.getShort() & 0xFFFF;
+		if (headerLength < FIXED_LENGTH + nameLength || index < 0 || offset < 0 || length < 0) {
+			throw new IOException("Header of piece " + piece.getName() + " is damaged");
+		}
+
+		ByteBuffer rest = ByteBuffer.allocate(headerLength - FIXED_LENGTH);
+		while (rest.hasRemaining()) {
+			if (in.read(rest) < 0) {
+				throw new EOFException("Header of piece " + piece.getName() + " is incomplete");
+			}
+		}
+		String name = new String(rest.array(), 0, nameLength, StandardCharsets.UTF_8);
+		int codecId = 0;
+		long storedLength = length;
+		if (version >= 2) {
+			if (rest.capacity() < nameLength + CODEC_LENGTH) {
+				throw new IOException("Header of piece " + piece.getName() + " is damaged");
+			}
+			codecId = rest.getInt(nameLength);
+			storedLength = rest.getLong(nameLength + Integer.BYTES);
+			if (storedLength < 0) {
+				throw new IOException("Header of piece " + piece.getName() + " is damaged");
+			}
+		}
+		if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals(".") || name.equals("..")) {
+			throw new IOException("Header of piece " + piece.getName() + " holds an invalid name");
+		}
+		return new PieceHeader(flags, fileId, index, count, offset, length, originalLength,
+				codecId, storedLength, name, headerLength);
+	}
+
+	@Override
+	public String toString() {
+		return name + " [" + (index + 1) + "/" + count + ", " + offset + "+" + length + "]";
+	}
+
+}
@@ -0,0 +1,138 @@
+package decomposer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A set of pieces of one original file, found by a {@linkplain
+ * PieceDiscovery}. Pieces are identified by the manifest listing them, by
+ * the ID of the original file in their headers or, for legacy pieces, by
+ * their file name. A set is complete if none of its pieces is missing.
+ *
+ * @author Mario Bobic
+ */
+public final class PieceSet {
+
+	/** Name of the original file */
+	private final String name;
+	/** ID of the original file, or null for legacy pieces */
+	private final UUID fileId;
+	/** Manifest listing the pieces, or null if they were found by their headers */
+	private final Manifest manifest;
+	/** Pieces found, ordered by index */
+	private final List<File> pieces;
+	/** Indexes of the missing pieces */
+	private final List<Integer> missing;
+	/** Length of the data of the pieces found */
+	private final long length;
+	/** Length of the original file, or -1 if it is not known */
+	private final long originalLength;
+
+	/**
+	 * Constructs a new set of pieces.
+	 *
+	 * @param name name of the original file
+	 * @param fileId ID of the original file, or null for legacy pieces
+	 * @param manifest manifest listing the pieces, or null
+	 * @param pieces pieces found, ordered by index
+	 * @param missing indexes of the missing pieces
+	 * @param length length of the data of the pieces found
+	 * @param originalLength length of the original file, or -1 if it is not known
+	 */
+	PieceSet(String name, UUID fileId, Manifest manifest, List<File> pieces, List<Integer> missing, long length,
+			long originalLength) {
+		this.name = name;
+		this.fileId = fileId;
+		this.manifest = manifest;
+		this.pieces = Collections.unmodifiableList(new ArrayList<>(pieces));
+		this.missing = Collections.unmodifiableList(new ArrayList<>(missing));
+		this.length = length;
+		this.originalLength = originalLength;
+	}
+
+	/**
+	 * Returns the name of the original file.
+	 *
+	 * @return the name of the original file
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the ID of the original file, or null for legacy pieces.
+	 *
+	 * @return the ID of the original file, or null
+	 */
+	public UUID getFileId() {
+		return fileId;
+	}
+
+	/**
+	 * Returns the manifest listing the pieces, or null if the pieces were
+	 * found by their headers.
+	 *
+	 * @return the manifest, or null
+	 */
+	public Manifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Returns an unmodifiable list of the pieces found, ordered by index.
+	 *
+	 * @return the pieces found
+	 */
+	public List<File> getPieces() {
+		return pieces;
+	}
+
+	/**
+	 * Returns an unmodifiable list of the indexes of the missing pieces.
+	 * Missing legacy pieces are only found between the pieces found, since
+	 * legacy pieces do not tell how many of them there are.
+	 *
+	 * @return the indexes of the missing pieces
+	 */
+	public List<Integer> getMissing() {
+		return missing;
+	}
+
+	/**
+	 * Returns true if no piece of this set is missing.
+	 *
+	 * @return true if this set is complete
+	 */
+	public boolean isComplete() {
+		return missing.isEmpty();
+	}
+
+	/**
+	 * Returns the length of the data stored in the pieces found, without
+	 * their headers and checksums.
+	 *
+	 * @return the length of the data of the pieces found
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the length of the original file, or -1 if it is not known.
+	 *
+	 * @return the length of the original file, or -1
+	 */
+	public long getOriginalLength() {
+		return originalLength;
+	}
+
+	@Override
+	public String toString() {
+		int count = pieces.size() + missing.size();
+		return name + " (" + pieces.size() + " of " + count + " pieces" + (isComplete() ? "" : ", incomplete") + ")";
+	}
+
+}
@@ -0,0 +1,48 @@
+package decomposer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thrown when composing is stopped because one of the pieces has been
+ * tampered with.
+ *
+ * @author Mario Bobic
+ */
+public class PieceTamperedException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	/** The tampered piece */
+	private final File piece;
+
+	/**
+	 * Constructs a new exception for the specified tampered piece.
+	 *
+	 * @param piece the tampered piece
+	 */
+	public PieceTamperedException(File piece) {
+		this(piece, "Decomposed piece " + piece.getName() + " has been modified");
+	}
+
+	/**
+	 * Constructs a new exception for the specified tampered piece with the
+	 * specified detail message.
+	 *
+	 * @param piece the tampered piece
+	 * @param message the detail message
+	 */
+	public PieceTamperedException(File piece, String message) {
+		super(message);
+		this.piece = piece;
+	}
+
+	/**
+	 * Returns the tampered piece.
+	 *
+	 * @return the tampered piece
+	 */
+	public File getPiece() {
+		return piece;
+	}
+
+}
@@ -0,0 +1,23 @@
+package decomposer;
+
+/**
+ * A functional interface used for listening for the progress of a composing or
+ * decomposing job. The listener receives {@linkplain ProgressSnapshot snapshots}
+ * at a fixed rate, from a thread other than the ones the job is running on,
+ * and one last snapshot from the thread that has run the job.
+ *
+ * @author Mario Bobic
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+	/** A listener that ignores all progress notifications */
+	public static final ProgressListener NONE = (snapshot) -> {};
+
+	/**
+	 * Invoked when a new snapshot of the progress of the job is published.
+	 *
+	 * @param snapshot snapshot of the progress
+	 */
+	void progressed(ProgressSnapshot snapshot);
+}
@@ -0,0 +1,207 @@
+package decomposer;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the progress of a composing or decomposing job,
+ * published by the {@linkplain ProgressTracker} at a fixed rate. Besides the
+ * number of processed bytes, a snapshot holds the throughput, the estimated
+ * time remaining and the state of every piece of the job.
+ *
+ * @author Mario Bobic
+ */
+public final class ProgressSnapshot {
+
+	/** Number of bytes processed so far */
+	private final long processed;
+	/** Total number of bytes to be processed, or -1 if unknown */
+	private final long total;
+	/** Nanoseconds elapsed since the job has started */
+	private final long elapsedNanos;
+	/** Moving average of the throughput in bytes per second */
+	private final double movingThroughput;
+	/** State of every piece of the job */
+	private final PieceState[] pieceStates;
+	/** True if this is the last snapshot of the job */
+	private final boolean finished;
+
+	/**
+	 * Constructs a new snapshot.
+	 *
+	 * @param processed number of bytes processed so far
+	 * @param total total number of bytes to be processed, or -1 if unknown
+	 * @param elapsedNanos nanoseconds elapsed since the job has started
+	 * @param movingThroughput moving average of the throughput in bytes per second
+	 * @param pieceStates state of every piece of the job, not copied
+	 * @param finished true if this is the last snapshot of the job
+	 */
+	ProgressSnapshot(long processed, long total, long elapsedNanos, double movingThroughput,
+			PieceState[] pieceStates, boolean finished) {
+		this.processed = processed;
+		this.total = total;
+		this.elapsedNanos = elapsedNanos;
+		this.movingThroughput = movingThroughput;
+		this.pieceStates = pieceStates;
+		this.finished = finished;
+	}
+
+	/**
+	 * Returns the number of bytes processed so far.
+	 *
+	 * @return the number of bytes processed so far
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	/**
+	 * Returns the total number of bytes to be processed, or -1 if it is not
+	 * known, for example when decomposing a stream.
+	 *
+	 * @return the total number of bytes to be processed, or -1
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the progress of the job in percent.
+	 *
+	 * @return the progress in percent, between 0 and 100
+	 */
+	public int getPercent() {
+		if (total <= 0) {
+			return finished ? 100 : 0;
+		}
+		return (int) Math.min(100, 100 * processed / total);
+	}
+
+	/**
+	 * Returns the nanoseconds elapsed since the job has started.
+	 *
+	 * @return the nanoseconds elapsed since the job has started
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns the average throughput since the job has started, in bytes per
+	 * second.
+	 *
+	 * @return the average throughput in bytes per second
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : processed * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns the moving average of the throughput over the last few
+	 * seconds, in bytes per second.
+	 *
+	 * @return the moving average of the throughput in bytes per second
+	 */
+	public double getMovingThroughput() {
+		return movingThroughput;
+	}
+
+	/**
+	 * Returns the estimated time remaining in nanoseconds, based on the
+	 * moving average of the throughput, or -1 if it can not be estimated yet.
+	 *
+	 * @return the estimated time remaining in nanoseconds, or -1
+	 */
+	public long getEtaNanos() {
+		if (finished) {
+			return 0;
+		}
+		if (movingThroughput <= 0 || total < 0) {
+			return -1;
+		}
+		return (long) ((total - processed) / movingThroughput * 1e9);
+	}
+
+	/**
+	 * Returns the state of every piece of the job.
+	 *
+	 * @return a copy of the piece states
+	 */
+	public PieceState[] getPieceStates() {
+		return Arrays.copyOf(pieceStates, pieceStates.length);
+	}
+
+	/**
+	 * Returns the number of pieces in the specified state.
+	 *
+	 * @param state state of the pieces
+	 * @return the number of pieces in the specified state
+	 */
+	public int count(PieceState state) {
+		int count = 0;
+		for (PieceState s : pieceStates) {
+			if (s == state) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns true if this is the last snapshot of the job.
+	 *
+	 * @return true if this is the last snapshot of the job
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (total < 0) {
+			sb.append(humanReadableByteCount(processed)).append(", ");
+		} else {
+			sb.append(getPercent()).append("%, ");
+		}
+		sb.append(humanReadableByteCount((long) movingThroughput)).append("/s");
+		long eta = getEtaNanos();
+		if (eta > 0) {
+			long seconds = (eta + 999_999_999) / 1_000_000_000;
+			sb.append(String.format(", ETA %d:%02d", seconds / 60, seconds % 60));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Converts the number of bytes to a human readable byte count with binary
+	 * prefixes, such as {@code 1.5 GiB}.
+	 *
+	 * @param bytes number of bytes
+	 * @return human readable byte count with binary prefixes
+	 */
+	public static String humanReadableByteCount(long bytes) {
+		/* Use the natural 1024 units and binary prefixes. */
+		int unit = 1024;
+		if (bytes < unit) return bytes + " B";
+		int exp = (int) (Math.log(bytes) / Math.log(unit));
+		String pre = "kMGTPE".charAt(exp - 1) + "i";
+		return String.format("%.1f %sB", bytes / Math.pow(unit, exp), pre);
+	}
+
+	/**
+	 * States of a single piece of a job.
+	 *
+	 * @author Mario Bobic
+	 */
+	public enum PieceState {
+		/** The piece has not been touched yet */
+		PENDING,
+		/** The piece is being written or read */
+		RUNNING,
+		/** The piece has been completely written or read */
+		DONE,
+		/** Writing or reading of the piece has failed */
+		FAILED
+	}
+
+}
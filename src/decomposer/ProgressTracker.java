@@ -0,0 +1,177 @@
+package decomposer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import decomposer.ProgressSnapshot.PieceState;
+
+/**
+ * Tracks the progress of a single job. Workers add the number of copied bytes
+ * to a lock-free accumulator and mark the state of their pieces, while
+ * {@linkplain ProgressSnapshot snapshots} are published to the listener of the
+ * job at a fixed rate. This keeps the number of notifications independent of
+ * the amount of data and of the number of workers.
+ *
+ * @author Mario Bobic
+ */
+public class ProgressTracker {
+
+	/** Window of the moving average of the throughput in nanoseconds */
+	private static final double WINDOW_NANOS = 5e9;
+
+	/** Thread publishing the snapshots of all jobs */
+	private static final ScheduledExecutorService PUBLISHER = Executors.newSingleThreadScheduledExecutor((r) -> {
+		Thread t = new Thread(r, "decomposer-progress");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** Number of bytes processed so far */
+	private final LongAdder processed = new LongAdder();
+	/** Ordinals of the states of all pieces */
+	private final AtomicIntegerArray states;
+	/** Total number of bytes to be processed */
+	private final long total;
+	/** Listener the snapshots are published to */
+	private final ProgressListener listener;
+	/** Time when the job has started */
+	private final long start = System.nanoTime();
+
+	/** Time of the last published snapshot */
+	private long lastTime = start;
+	/** Number of processed bytes in the last published snapshot */
+	private long lastProcessed;
+	/** Moving average of the throughput in bytes per second */
+	private double movingThroughput;
+	/** True if the last snapshot has been published */
+	private boolean finished;
+	/** Periodic publishing task, or null if not started */
+	private ScheduledFuture<?> task;
+
+	/**
+	 * Constructs a new tracker.
+	 *
+	 * @param total total number of bytes to be processed, or -1 if unknown
+	 * @param pieces number of pieces of the job, or 0 if unknown
+	 * @param listener listener the snapshots are published to
+	 */
+	public ProgressTracker(long total, int pieces, ProgressListener listener) {
+		this.total = total;
+		this.states = new AtomicIntegerArray(pieces);
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts publishing snapshots every {@code intervalMillis} milliseconds.
+	 * Nothing is published if the listener ignores all notifications.
+	 *
+	 * @param intervalMillis interval between two snapshots in milliseconds
+	 * @return this tracker
+	 */
+	public synchronized ProgressTracker start(long intervalMillis) {
+		if (listener != ProgressListener.NONE && task == null) {
+			task = PUBLISHER.scheduleAtFixedRate(this::publish, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	/**
+	 * Adds the specified number of processed bytes. This method never blocks.
+	 *
+	 * @param n number of processed bytes
+	 */
+	public void add(long n) {
+		processed.add(n);
+	}
+
+	/**
+	 * Sets the state of the piece with the specified ordinal number.
+	 *
+	 * @param piece ordinal number of the piece
+	 * @param state new state of the piece
+	 */
+	public void setState(int piece, PieceState state) {
+		states.set(piece, state.ordinal());
+	}
+
+	/**
+	 * Stops publishing and publishes the last snapshot of the job on the
+	 * calling thread.
+	 */
+	public void finish() {
+		synchronized (this) {
+			if (task != null) {
+				task.cancel(false);
+			}
+		}
+		publish(true);
+	}
+
+	/**
+	 * Returns a snapshot of the current progress without publishing it.
+	 *
+	 * @return a snapshot of the current progress
+	 */
+	public synchronized ProgressSnapshot snapshot() {
+		return snapshot(System.nanoTime(), processed.sum(), finished);
+	}
+
+	/**
+	 * Publishes a periodic snapshot.
+	 */
+	private void publish() {
+		publish(false);
+	}
+
+	/**
+	 * Updates the moving average of the throughput and publishes a snapshot.
+	 * Nothing is published once the last snapshot has been published.
+	 *
+	 * @param last true if this is the last snapshot of the job
+	 */
+	private void publish(boolean last) {
+		/* Snapshots are published under the lock, so the last one is
+		 * guaranteed to be the last one seen by the listener. */
+		synchronized (this) {
+			if (finished) {
+				return;
+			}
+			long now = System.nanoTime();
+			long sum = processed.sum();
+			long dt = now - lastTime;
+			if (dt > 0) {
+				double rate = (sum - lastProcessed) * 1e9 / dt;
+				double alpha = 1 - Math.exp(-dt / WINDOW_NANOS);
+				movingThroughput = lastProcessed == 0 && movingThroughput == 0
+						? rate : movingThroughput + alpha * (rate - movingThroughput);
+			}
+			lastTime = now;
+			lastProcessed = sum;
+			finished = last;
+			listener.progressed(snapshot(now, sum, last));
+		}
+	}
+
+	/**
+	 * Creates a snapshot of the specified values and the current piece
+	 * states.
+	 *
+	 * @param now current time
+	 * @param sum number of bytes processed so far
+	 * @param last true if this is the last snapshot of the job
+	 * @return a new snapshot
+	 */
+	private ProgressSnapshot snapshot(long now, long sum, boolean last) {
+		PieceState[] values = PieceState.values();
+		PieceState[] pieceStates = new PieceState[states.length()];
+		for (int i = 0; i < pieceStates.length; i++) {
+			pieceStates[i] = values[states.get(i)];
+		}
+		return new ProgressSnapshot(sum, total, now - start, movingThroughput, pieceStates, last);
+	}
+
+}
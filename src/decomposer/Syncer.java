@@ -0,0 +1,161 @@
+package decomposer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Forces the files written by one job to the storage device as required by
+ * the {@linkplain Durability} of the job. Writers split their data into
+ * steps, and report every finished step, every complete piece and every
+ * other complete file. Complete files which are not forced right away, and
+ * the directories of all complete files, are forced by {@linkplain #sync()}.
+ * <p>
+ * A syncer of durability {@linkplain Durability#NONE} never forces anything,
+ * so writers need not check the durability themselves. A syncer may be used
+ * by several threads at the same time.
+ *
+ * @author Mario Bobic
+ */
+final class Syncer {
+
+	/** Durability of the job */
+	private final Durability durability;
+	/** Number of bytes written to a file between two batched syncs */
+	private final long interval;
+	/** Complete files to be forced by the next sync */
+	private final Set<File> files = new LinkedHashSet<>();
+	/** Directories of the complete files to be forced by the next sync */
+	private final Set<File> dirs = new LinkedHashSet<>();
+
+	/**
+	 * Constructs a new syncer.
+	 *
+	 * @param durability durability of the job
+	 * @param interval number of bytes written to a file between two batched
+	 *        syncs
+	 */
+	public Syncer(Durability durability, long interval) {
+		this.durability = durability;
+		this.interval = interval;
+	}
+
+	/**
+	 * Returns the number of bytes to be written as the next step, after
+	 * which {@linkplain #stepWritten(FileChannel)} must be called. Batched
+	 * steps are a multiple of the unit, other steps are not split at all.
+	 *
+	 * @param remaining number of bytes remaining to be written
+	 * @param unit unit the steps must be a multiple of, 1 for any step
+	 * @return the number of bytes of the next step
+	 */
+	public long step(long remaining, int unit) {
+		if (durability != Durability.BATCHED) {
+			return remaining;
+		}
+		return Math.min(remaining, Math.max(unit, interval / unit * unit));
+	}
+
+	/**
+	 * Returns true if the data written so far must be forced after the
+	 * specified number of bytes, for writers that can not split their data
+	 * into steps and count the bytes themselves.
+	 *
+	 * @param written number of bytes written since the last sync
+	 * @return true if the data must be forced
+	 */
+	public boolean isDue(long written) {
+		return durability == Durability.BATCHED && written >= interval;
+	}
+
+	/**
+	 * Reports that a step has been written to the specified file, forcing
+	 * its data if the syncs are batched.
+	 *
+	 * @param out channel of the file
+	 * @throws IOException if the data can not be forced
+	 */
+	public void stepWritten(FileChannel out) throws IOException {
+		if (durability == Durability.BATCHED) {
+			out.force(false);
+		}
+	}
+
+	/**
+	 * Reports that the specified piece is complete, forcing it right away
+	 * unless the syncs are grouped, in which case it is forced by the next
+	 * sync. The channel must still be open.
+	 *
+	 * @param out channel of the piece
+	 * @param piece the piece file
+	 * @throws IOException if the piece can not be forced
+	 */
+	public void pieceWritten(FileChannel out, File piece) throws IOException {
+		switch (durability) {
+		case NONE:
+			return;
+		case GROUP:
+			fileWritten(piece);
+			return;
+		default:
+			out.force(true);
+			synchronized (this) {
+				dirs.add(piece.getAbsoluteFile().getParentFile());
+			}
+		}
+	}
+
+	/**
+	 * Reports that the specified file is complete, to be forced by the next
+	 * sync together with its directory.
+	 *
+	 * @param file the complete file
+	 */
+	public void fileWritten(File file) {
+		if (durability == Durability.NONE) {
+			return;
+		}
+		File absolute = file.getAbsoluteFile();
+		synchronized (this) {
+			files.add(absolute);
+			dirs.add(absolute.getParentFile());
+		}
+	}
+
+	/**
+	 * Forces all files reported complete since the last sync, and then their
+	 * directories. Some platforms can not force directories, their
+	 * directories are left to the file system.
+	 *
+	 * @throws IOException if a file can not be forced
+	 */
+	public void sync() throws IOException {
+		List<File> syncedFiles;
+		List<File> syncedDirs;
+		synchronized (this) {
+			syncedFiles = new ArrayList<>(files);
+			syncedDirs = new ArrayList<>(dirs);
+			files.clear();
+			dirs.clear();
+		}
+		for (File file : syncedFiles) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), WRITE)) {
+				channel.force(true);
+			}
+		}
+		for (File dir : syncedDirs) {
+			try (FileChannel channel = FileChannel.open(dir.toPath(), READ)) {
+				channel.force(true);
+			} catch (IOException e) {
+				/* Directories can not be opened on every platform. */
+			}
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+package decomposer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of verifying the pieces listed in a {@linkplain Manifest}.
+ * Every piece ends up in exactly one of the lists of this report.
+ *
+ * @author Mario Bobic
+ */
+public final class VerifyReport {
+
+	/** Indexes of pieces whose data has been hashed and matches */
+	private final List<Integer> verified;
+	/** Indexes of pieces skipped by a quick verify because they are unchanged */
+	private final List<Integer> unchanged;
+	/** Indexes of pieces whose files do not exist */
+	private final List<Integer> missing;
+	/** Indexes of pieces whose size or data does not match */
+	private final List<Integer> corrupted;
+
+	/**
+	 * Constructs a new report.
+	 *
+	 * @param verified indexes of pieces whose data matches
+	 * @param unchanged indexes of pieces skipped because they are unchanged
+	 * @param missing indexes of pieces whose files do not exist
+	 * @param corrupted indexes of pieces whose size or data does not match
+	 */
+	VerifyReport(List<Integer> verified, List<Integer> unchanged, List<Integer> missing, List<Integer> corrupted) {
+		this.verified = Collections.unmodifiableList(verified);
+		this.unchanged = Collections.unmodifiableList(unchanged);
+		this.missing = Collections.unmodifiableList(missing);
+		this.corrupted = Collections.unmodifiableList(corrupted);
+	}
+
+	/**
+	 * Returns the indexes of pieces whose data has been hashed and matches
+	 * the manifest.
+	 *
+	 * @return indexes of verified pieces
+	 */
+	public List<Integer> getVerified() {
+		return verified;
+	}
+
+	/**
+	 * Returns the indexes of pieces which have not been hashed because their
+	 * size and modification time match the manifest.
+	 *
+	 * @return indexes of unchanged pieces
+	 */
+	public List<Integer> getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Returns the indexes of pieces whose files do not exist.
+	 *
+	 * @return indexes of missing pieces
+	 */
+	public List<Integer> getMissing() {
+		return missing;
+	}
+
+	/**
+	 * Returns the indexes of pieces whose size or data does not match the
+	 * manifest.
+	 *
+	 * @return indexes of corrupted pieces
+	 */
+	public List<Integer> getCorrupted() {
+		return corrupted;
+	}
+
+	/**
+	 * Returns true if no piece is missing or corrupted.
+	 *
+	 * @return true if the pieces are intact
+	 */
+	public boolean isIntact() {
+		return missing.isEmpty() && corrupted.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d verified, %d unchanged, %d missing, %d corrupted",
+				verified.size(), unchanged.size(), missing.size(), corrupted.size());
+	}
+
+}
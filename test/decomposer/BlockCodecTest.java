@@ -0,0 +1,164 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static decomposer.DecomposerConstants.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Tests of compressing pieces block by block with {@linkplain BlockCodec},
+ * and of reading single blocks of compressed pieces.
+ *
+ * @author Mario Bobic
+ */
+public class BlockCodecTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void compressibleDataRoundTrip() throws Exception {
+		byte[] data = compressibleData(2 * COMPRESSION_BLOCK_SIZE + 12345, 1);
+		for (Codec codec : new Codec[] { Codecs.DEFLATE, Codecs.DEFLATE_FAST }) {
+			long stored = compress(codec, data);
+			assertTrue(stored < data.length * 3 / 4, codec.getName() + " stored " + stored);
+			assertArrayEquals(data, decompress(codec, data.length, stored), codec.getName());
+		}
+	}
+
+	@Test
+	public void incompressibleDataIsStoredRaw() throws Exception {
+		byte[] data = randomData(3 * COMPRESSION_BLOCK_SIZE + 1, 2);
+		long stored = compress(Codecs.DEFLATE, data);
+		/* Every block costs only the word of its length. */
+		assertEquals(data.length + 4 * Integer.BYTES, stored);
+		assertArrayEquals(data, decompress(Codecs.DEFLATE, data.length, stored));
+	}
+
+	@Test
+	public void mixedDataRoundTrip() throws Exception {
+		/* Compressing is paused after the random blocks, and taken up again after a while. */
+		byte[] data = compressibleData(40 * COMPRESSION_BLOCK_SIZE - 100, 3);
+		byte[] random = randomData(8 * COMPRESSION_BLOCK_SIZE, 4);
+		System.arraycopy(random, 0, data, 0, random.length);
+
+		long stored = compress(Codecs.DEFLATE_FAST, data);
+		assertTrue(stored < data.length - 4 * COMPRESSION_BLOCK_SIZE, "stored " + stored);
+		assertArrayEquals(data, decompress(Codecs.DEFLATE_FAST, data.length, stored));
+	}
+
+	@Test
+	public void readsSingleBlocks() throws Exception {
+		byte[] data = compressibleData(4 * COMPRESSION_BLOCK_SIZE + 777, 5);
+		long stored = compress(Codecs.DEFLATE, data);
+
+		try (FileChannel in = FileChannel.open(dir.resolve("piece"), READ);
+				Codec.Decompressor decompressor = Codecs.DEFLATE.newDecompressor()) {
+			long[] positions = BlockCodec.blockPositions(in, 0, data.length, stored);
+			assertEquals(5, positions.length);
+			byte[] block = new byte[COMPRESSION_BLOCK_SIZE];
+			for (int b = positions.length - 1; b >= 0; b--) {
+				int offset = b * COMPRESSION_BLOCK_SIZE;
+				int n = Math.min(COMPRESSION_BLOCK_SIZE, data.length - offset);
+				BlockCodec.readBlock(in, positions[b], n, block, decompressor);
+				for (int i = 0; i < n; i++) {
+					assertEquals(data[offset + i], block[i], "block " + b + " byte " + i);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void damagedBlocksAreRejected() throws Exception {
+		byte[] data = compressibleData(2 * COMPRESSION_BLOCK_SIZE, 6);
+		long stored = compress(Codecs.DEFLATE, data);
+		assertThrows(DataFormatException.class, () -> decompress(Codecs.DEFLATE, data.length, stored + 1));
+		assertThrows(DataFormatException.class, () -> decompress(Codecs.DEFLATE, data.length, stored - 1));
+
+		/* A length word pointing past the block. */
+		try (FileChannel out = FileChannel.open(dir.resolve("piece"), WRITE)) {
+			ByteBuffer word = ByteBuffer.allocate(Integer.BYTES).putInt(0, COMPRESSION_BLOCK_SIZE);
+			out.write(word, 0);
+		}
+		assertThrows(DataFormatException.class, () -> decompress(Codecs.DEFLATE, data.length, stored));
+	}
+
+	/**
+	 * Compresses the specified data into the piece file.
+	 *
+	 * @param codec codec compressing the blocks
+	 * @param data the data
+	 * @return the number of bytes stored in the piece
+	 * @throws IOException if an I/O error occurs
+	 */
+	private long compress(Codec codec, byte[] data) throws IOException {
+		Path source = dir.resolve("source");
+		Files.write(source, data);
+		try (FileChannel in = FileChannel.open(source, READ);
+				FileChannel out = FileChannel.open(dir.resolve("piece"), CREATE, WRITE, TRUNCATE_EXISTING)) {
+			long stored = new BlockCodec(codec, (n) -> {}).compress(in, 0, data.length, out, null);
+			assertEquals(stored, out.size());
+			return stored;
+		}
+	}
+
+	/**
+	 * Decompresses the piece file and returns the original data.
+	 *
+	 * @param codec codec of the blocks
+	 * @param length length of the original data
+	 * @param storedLength number of bytes stored in the piece
+	 * @return the original data
+	 * @throws DataFormatException if the stored blocks are damaged
+	 * @throws IOException if an I/O error occurs
+	 */
+	private byte[] decompress(Codec codec, int length, long storedLength) throws DataFormatException, IOException {
+		Path composed = dir.resolve("composed");
+		try (FileChannel in = FileChannel.open(dir.resolve("piece"), READ);
+				FileChannel out = FileChannel.open(composed, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			new BlockCodec(codec, (n) -> {}).decompress(in, out, 0, length, storedLength, null);
+		}
+		return Files.readAllBytes(composed);
+	}
+
+	/**
+	 * Returns data drawn from a small alphabet, which compresses well.
+	 *
+	 * @param length length of the data
+	 * @param seed seed of the random data
+	 * @return compressible data
+	 */
+	private static byte[] compressibleData(int length, long seed) {
+		Random random = new Random(seed);
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+	/**
+	 * Returns random data, which does not compress at all.
+	 *
+	 * @param length length of the data
+	 * @param seed seed of the random data
+	 * @return random data
+	 */
+	private static byte[] randomData(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,113 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of resuming a {@linkplain CheckpointJournal} after a job has been
+ * killed, including at every point where the journal may have been torn.
+ *
+ * @author Mario Bobic
+ */
+public class CheckpointJournalTest {
+
+	private static final UUID FILE_ID = new UUID(1, 2);
+	private static final long[] JOB = { 1000, 4, 0 };
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void resumesRecordedPieces() throws IOException {
+		File file = dir.resolve("job.journal").toFile();
+		try (CheckpointJournal journal = CheckpointJournal.open(file, FILE_ID, JOB)) {
+			assertFalse(journal.isResumed());
+			journal.progress(0, 100);
+			journal.progress(1, 50);
+			journal.done(0, new byte[] { 1, 2, 3 });
+			journal.progress(1, 80);
+		}
+
+		try (CheckpointJournal journal = CheckpointJournal.open(file, new UUID(3, 4), JOB)) {
+			assertTrue(journal.isResumed());
+			assertEquals(FILE_ID, journal.getFileId());
+			assertTrue(journal.isDone(0));
+			assertArrayEquals(new byte[] { 1, 2, 3 }, journal.getTrailer(0));
+			assertEquals(0, journal.getProgress(0));
+			assertFalse(journal.isDone(1));
+			assertEquals(80, journal.getProgress(1));
+			assertEquals(0, journal.getProgress(2));
+		}
+	}
+
+	@Test
+	public void differentJobStartsOver() throws IOException {
+		File file = dir.resolve("job.journal").toFile();
+		try (CheckpointJournal journal = CheckpointJournal.open(file, FILE_ID, JOB)) {
+			journal.done(0, new byte[0]);
+		}
+
+		UUID otherId = new UUID(3, 4);
+		try (CheckpointJournal journal = CheckpointJournal.open(file, otherId, 1000, 5, 0)) {
+			assertFalse(journal.isResumed());
+			assertEquals(otherId, journal.getFileId());
+			assertFalse(journal.isDone(0));
+		}
+	}
+
+	@Test
+	public void truncatedAtEveryOffset() throws IOException {
+		/* Remember where every record ends, to know which ones survive a cut. */
+		File file = dir.resolve("job.journal").toFile();
+		List<Integer> ends = new ArrayList<>();
+		try (CheckpointJournal journal = CheckpointJournal.open(file, FILE_ID, JOB)) {
+			ends.add((int) file.length());
+			journal.progress(2, 4096);
+			ends.add((int) file.length());
+			journal.done(1, new byte[] { 9, 8, 7, 6 });
+			ends.add((int) file.length());
+			journal.progress(2, 8192);
+			ends.add((int) file.length());
+			journal.done(2, new byte[] { 5 });
+			ends.add((int) file.length());
+		}
+		byte[] bytes = Files.readAllBytes(file.toPath());
+
+		for (int length = 0; length <= bytes.length; length++) {
+			Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+			int records = -1;
+			for (int end : ends) {
+				if (end <= length) {
+					records++;
+				}
+			}
+
+			try (CheckpointJournal journal = CheckpointJournal.open(file, new UUID(3, 4), JOB)) {
+				String at = "length " + length;
+				assertEquals(records >= 0, journal.isResumed(), at);
+				assertEquals(records >= 0 ? FILE_ID : new UUID(3, 4), journal.getFileId(), at);
+				assertEquals(records >= 2, journal.isDone(1), at);
+				assertEquals(records >= 4, journal.isDone(2), at);
+				assertEquals(records >= 4 ? 0 : records >= 3 ? 8192 : records >= 1 ? 4096 : 0, journal.getProgress(2), at);
+				/* A torn record is cut off, so the next record can be read back. */
+				assertEquals(ends.get(Math.max(records, 0)).intValue(), (int) file.length(), at);
+				journal.progress(3, length);
+			}
+			try (CheckpointJournal journal = CheckpointJournal.open(file, FILE_ID, JOB)) {
+				assertEquals(length, journal.getProgress(3), "length " + length);
+			}
+		}
+	}
+
+}
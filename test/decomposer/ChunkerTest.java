@@ -0,0 +1,147 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of content-defined chunking with {@linkplain Chunker}, most notably
+ * that the chunks of a file survive bytes inserted into it.
+ *
+ * @author Mario Bobic
+ */
+public class ChunkerTest {
+
+	private static final int AVG_SIZE = 8192;
+
+	@Test
+	public void chunksMakeUpTheData() throws IOException {
+		byte[] data = randomData(1_000_000, 1);
+		List<byte[]> chunks = chunks(data, AVG_SIZE);
+
+		ByteArrayOutputStream joined = new ByteArrayOutputStream();
+		for (int i = 0; i < chunks.size(); i++) {
+			byte[] chunk = chunks.get(i);
+			joined.write(chunk);
+			assertTrue(chunk.length <= 4 * AVG_SIZE, "chunk " + i);
+			if (i < chunks.size() - 1) {
+				assertTrue(chunk.length >= AVG_SIZE / 4, "chunk " + i);
+			}
+		}
+		assertArrayEquals(data, joined.toByteArray());
+		/* Normalized chunking keeps the sizes close to the average. */
+		assertTrue(Math.abs(data.length / chunks.size() - AVG_SIZE) < AVG_SIZE / 2);
+	}
+
+	@Test
+	public void emptyDataHasOneEmptyChunk() throws IOException {
+		List<byte[]> chunks = chunks(new byte[0], AVG_SIZE);
+		assertEquals(1, chunks.size());
+		assertEquals(0, chunks.get(0).length);
+	}
+
+	@Test
+	public void boundariesDoNotDependOnReads() throws IOException {
+		byte[] data = randomData(300_000, 2);
+		List<byte[]> expected = chunks(data, AVG_SIZE);
+
+		/* A channel returning a few bytes at a time yields the same chunks. */
+		ByteBuffer source = ByteBuffer.wrap(data);
+		ReadableByteChannel trickle = new ReadableByteChannel() {
+			@Override
+			public int read(ByteBuffer b) {
+				if (!source.hasRemaining()) {
+					return -1;
+				}
+				int n = Math.min(Math.min(b.remaining(), source.remaining()), 1000);
+				ByteBuffer slice = source.duplicate();
+				slice.limit(slice.position() + n);
+				b.put(slice);
+				source.position(source.position() + n);
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Chunker chunker = new Chunker(trickle, AVG_SIZE);
+		for (byte[] chunk : expected) {
+			assertArrayEquals(chunk, chunker.next());
+		}
+		assertNull(chunker.next());
+	}
+
+	@Test
+	public void boundariesSurviveInsertion() throws IOException {
+		byte[] data = randomData(1_000_000, 3);
+		byte[] inserted = randomData(100, 4);
+		byte[] changed = new byte[data.length + inserted.length];
+		int at = data.length / 2;
+		System.arraycopy(data, 0, changed, 0, at);
+		System.arraycopy(inserted, 0, changed, at, inserted.length);
+		System.arraycopy(data, at, changed, at + inserted.length, data.length - at);
+
+		Set<ByteBuffer> before = new HashSet<>();
+		for (byte[] chunk : chunks(data, AVG_SIZE)) {
+			before.add(ByteBuffer.wrap(chunk));
+		}
+		List<byte[]> after = chunks(changed, AVG_SIZE);
+		int lost = 0;
+		for (byte[] chunk : after) {
+			if (!before.contains(ByteBuffer.wrap(chunk))) {
+				lost++;
+			}
+		}
+		/* Only the chunks around the insertion change. */
+		assertTrue(lost >= 1 && lost <= 3, "changed chunks " + lost + " of " + after.size());
+	}
+
+	/**
+	 * Splits the specified data into chunks.
+	 *
+	 * @param data the data
+	 * @param avgSize average chunk size
+	 * @return the chunks
+	 * @throws IOException if the data can not be read
+	 */
+	private static List<byte[]> chunks(byte[] data, int avgSize) throws IOException {
+		Chunker chunker = new Chunker(Channels.newChannel(new ByteArrayInputStream(data)), avgSize);
+		List<byte[]> chunks = new ArrayList<>();
+		for (byte[] chunk; (chunk = chunker.next()) != null;) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Returns random data of the specified length.
+	 *
+	 * @param length length of the data
+	 * @param seed seed of the random data
+	 * @return random data
+	 */
+	private static byte[] randomData(int length, long seed) {
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,99 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@linkplain Crc32c} against the known answers of RFC 3720 and
+ * against each other, the built-in and the portable implementation.
+ *
+ * @author Mario Bobic
+ */
+public class Crc32cTest {
+
+	@Test
+	public void knownAnswers() {
+		byte[] zeros = new byte[32];
+		byte[] ones = new byte[32];
+		byte[] ascending = new byte[32];
+		byte[] descending = new byte[32];
+		for (int i = 0; i < 32; i++) {
+			ones[i] = (byte) 0xFF;
+			ascending[i] = (byte) i;
+			descending[i] = (byte) (31 - i);
+		}
+
+		for (boolean portable : new boolean[] { false, true }) {
+			assertEquals(0x00000000, crc(new byte[0], portable));
+			assertEquals(0xE3069283, crc("123456789".getBytes(StandardCharsets.US_ASCII), portable));
+			assertEquals(0x8A9136AA, crc(zeros, portable));
+			assertEquals(0x62A8AB43, crc(ones, portable));
+			assertEquals(0x46DD794E, crc(ascending, portable));
+			assertEquals(0x113FDB5C, crc(descending, portable));
+		}
+	}
+
+	@Test
+	public void portableMatchesBuiltIn() {
+		Random random = new Random(42);
+		for (int length : new int[] { 1, 7, 8, 9, 63, 64, 65, 4096, 100_003 }) {
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			assertEquals(crc(data, false), crc(data, true), "length " + length);
+		}
+	}
+
+	@Test
+	public void splitUpdatesMatchOneUpdate() {
+		byte[] data = new byte[67];
+		new Random(7).nextBytes(data);
+		int expected = crc(data, true);
+
+		for (boolean portable : new boolean[] { false, true }) {
+			for (int split = 0; split <= data.length; split++) {
+				Crc32c crc = portable ? Crc32c.portable() : new Crc32c();
+				crc.update(ByteBuffer.wrap(data, 0, split));
+				crc.update(ByteBuffer.wrap(data, split, data.length - split));
+				assertEquals(expected, crc.getValue(), "split at " + split);
+			}
+		}
+	}
+
+	@Test
+	public void directAndOffsetBuffers() {
+		byte[] data = new byte[1000];
+		new Random(3).nextBytes(data);
+		int expected = crc(data, true);
+
+		for (boolean portable : new boolean[] { false, true }) {
+			ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+			direct.position(5);
+			direct.put(data);
+			direct.position(5).limit(5 + data.length);
+
+			Crc32c crc = portable ? Crc32c.portable() : new Crc32c();
+			crc.update(direct);
+			assertEquals(expected, crc.getValue());
+			assertEquals(direct.limit(), direct.position());
+		}
+	}
+
+	/**
+	 * Returns the CRC32C of the specified data.
+	 *
+	 * @param data the data
+	 * @param portable true to use the portable implementation
+	 * @return the checksum
+	 */
+	private static int crc(byte[] data, boolean portable) {
+		Crc32c crc = portable ? Crc32c.portable() : new Crc32c();
+		crc.update(ByteBuffer.wrap(data));
+		return crc.getValue();
+	}
+
+}
@@ -0,0 +1,49 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of validating the options of a {@linkplain DecomposeJob}.
+ *
+ * @author Mario Bobic
+ */
+public class DecomposeJobTest {
+
+	private static final File SOURCE = new File("f.bin");
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	@Test
+	public void chunksAcceptTheirOptions() {
+		DecomposeJob job = DecomposeJob.builder(SOURCE).chunkSize(CHUNK_SIZE).parallelism(4).build();
+		assertEquals(CHUNK_SIZE, job.getChunkSize());
+	}
+
+	@Test
+	public void chunksRejectIgnoredOptions() {
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(CHUNK_SIZE).pieceSize(1 << 20).build());
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(CHUNK_SIZE).shardSize(10).build());
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(CHUNK_SIZE).manifest(false).build());
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(CHUNK_SIZE).checkpointInterval(1 << 20).build());
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(CHUNK_SIZE).codec(Codecs.DEFLATE).build());
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(CHUNK_SIZE).parityPieces(1).build());
+	}
+
+	@Test
+	public void chunkSizeIsBounded() {
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(DecomposerConstants.MIN_CHUNK_SIZE - 1).build());
+		assertThrows(IllegalArgumentException.class,
+				() -> DecomposeJob.builder(SOURCE).chunkSize(DecomposerConstants.MAX_CHUNK_SIZE + 1).build());
+	}
+
+}
@@ -0,0 +1,183 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of reading the original file straight from its pieces with a
+ * {@linkplain DecomposedFileChannel}.
+ *
+ * @author Mario Bobic
+ */
+public class DecomposedFileChannelTest {
+
+	@TempDir
+	Path dir;
+
+	private final DecomposerEngine engine = new DecomposerEngine();
+
+	@Test
+	public void randomReadsOfPieces() throws IOException {
+		/* More pieces than the channel keeps open at a time. */
+		byte[] data = randomData(1_000_000);
+		Manifest manifest = decompose(DecomposeJob.builder(source(data)).pieces(12));
+		try (DecomposedFileChannel channel = DecomposedFileChannel.open(manifest)) {
+			assertEquals("source.bin", channel.getName());
+			assertEquals(data.length, channel.size());
+			randomReads(channel, data, 500);
+		}
+	}
+
+	@Test
+	public void randomReadsOfCompressedPieces() throws IOException {
+		byte[] data = compressibleData(3 * DecomposerConstants.COMPRESSION_BLOCK_SIZE + 4321);
+		Manifest manifest = decompose(DecomposeJob.builder(source(data)).pieces(3).codec(Codecs.DEFLATE));
+		try (DecomposedFileChannel channel = DecomposedFileChannel.open(manifest)) {
+			assertEquals(data.length, channel.size());
+			randomReads(channel, data, 200);
+		}
+	}
+
+	@Test
+	public void sequentialReadOfPiecesWithoutManifest() throws IOException {
+		byte[] data = randomData(700_000);
+		decompose(DecomposeJob.builder(source(data)).pieces(5).manifest(false));
+		List<File> pieces = new ArrayList<>(Arrays.asList(dir.resolve("pieces").toFile().listFiles()));
+		Collections.shuffle(pieces, new Random(1));
+
+		try (InputStream in = DecomposedFileChannel.open(pieces).newInputStream()) {
+			byte[] read = new byte[data.length];
+			int n = 0;
+			for (int r; n < read.length && (r = in.read(read, n, Math.min(3000, read.length - n))) > 0; n += r);
+			assertEquals(data.length, n);
+			assertArrayEquals(data, read);
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void readsPastTheEndAndClosing() throws IOException {
+		byte[] data = randomData(100_000);
+		Manifest manifest = decompose(DecomposeJob.builder(source(data)).pieces(2));
+		DecomposedFileChannel channel = DecomposedFileChannel.open(manifest);
+		channel.position(data.length + 10);
+		assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+		assertThrows(IllegalArgumentException.class, () -> channel.position(-1));
+		assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+
+		channel.close();
+		assertFalse(channel.isOpen());
+		assertThrows(ClosedChannelException.class, () -> channel.read(ByteBuffer.allocate(10)));
+	}
+
+	@Test
+	public void missingPieceIsRejected() throws IOException {
+		byte[] data = randomData(100_000);
+		Manifest manifest = decompose(DecomposeJob.builder(source(data)).pieces(3));
+		Files.delete(manifest.getPieceFile(manifest.getEntries().get(1)).toPath());
+		assertThrows(IOException.class, () -> DecomposedFileChannel.open(Manifest.read(manifest.getFile())));
+	}
+
+	/**
+	 * Reads ranges of random positions and lengths from the channel, mixed with
+	 * short runs of sequential reads, and compares them to the original data.
+	 *
+	 * @param channel channel over the original file
+	 * @param data the original data
+	 * @param count number of reads
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void randomReads(DecomposedFileChannel channel, byte[] data, int count) throws IOException {
+		Random random = new Random(count);
+		for (int i = 0; i < count; i++) {
+			int position = random.nextInt(data.length);
+			int length = random.nextInt(4) == 0 ? random.nextInt(300_000) : random.nextInt(5000);
+			length = Math.min(length, data.length - position);
+			channel.position(position);
+
+			/* Read in a few calls, which continue sequentially. */
+			ByteBuffer dst = ByteBuffer.allocate(length);
+			while (dst.hasRemaining()) {
+				ByteBuffer part = dst.duplicate();
+				part.limit(Math.min(dst.limit(), dst.position() + 1 + random.nextInt(length)));
+				assertTrue(channel.read(part) > 0);
+				dst.position(part.position());
+			}
+			assertEquals(position + length, channel.position());
+			assertArrayEquals(Arrays.copyOfRange(data, position, position + length), dst.array(),
+					"read " + length + " bytes at " + position);
+		}
+	}
+
+	/**
+	 * Decomposes a source file into the directory of the pieces and returns
+	 * the manifest of the pieces, if one was written.
+	 *
+	 * @param builder builder of the job decomposing the source file
+	 * @return manifest of the pieces, or null
+	 * @throws IOException if an I/O error occurs
+	 */
+	private Manifest decompose(DecomposeJob.Builder builder) throws IOException {
+		File outputDir = dir.resolve("pieces").toFile();
+		engine.decompose(builder.outputDir(outputDir).build());
+		File manifest = Manifest.manifestFile(outputDir, "source.bin");
+		return manifest.isFile() ? Manifest.read(manifest) : null;
+	}
+
+	/**
+	 * Writes the source file.
+	 *
+	 * @param data data of the file
+	 * @return the source file
+	 * @throws IOException if the file can not be written
+	 */
+	private File source(byte[] data) throws IOException {
+		Path file = dir.resolve("source.bin");
+		Files.write(file, data);
+		return file.toFile();
+	}
+
+	/**
+	 * Returns random data of the specified length.
+	 *
+	 * @param length length of the data
+	 * @return random data
+	 */
+	private static byte[] randomData(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Returns data drawn from a small alphabet, which compresses well.
+	 *
+	 * @param length length of the data
+	 * @return compressible data
+	 */
+	private static byte[] compressibleData(int length) {
+		Random random = new Random(length);
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+}
@@ -0,0 +1,124 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of the argument parsing of {@linkplain DecomposerCli}.
+ *
+ * @author Mario Bobic
+ */
+public class DecomposerCliTest {
+
+	@TempDir
+	Path dir;
+
+	/** Standard error of the last run */
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	@Test
+	public void parseSize() {
+		assertEquals(4096, DecomposerCli.parseSize("4096"));
+		assertEquals(64 * 1024, DecomposerCli.parseSize("64K"));
+		assertEquals(64 * 1024, DecomposerCli.parseSize("64k"));
+		assertEquals(2L << 30, DecomposerCli.parseSize("2G"));
+		assertEquals(8_388_607L << 40, DecomposerCli.parseSize("8388607T"));
+	}
+
+	@Test
+	public void parseSizeRejectsInvalidSizes() {
+		assertThrows(NumberFormatException.class, () -> DecomposerCli.parseSize(""));
+		assertThrows(NumberFormatException.class, () -> DecomposerCli.parseSize("K"));
+		assertThrows(NumberFormatException.class, () -> DecomposerCli.parseSize("12X"));
+		assertThrows(NumberFormatException.class, () -> DecomposerCli.parseSize("8388608T"));
+		assertThrows(NumberFormatException.class, () -> DecomposerCli.parseSize("99999999999T"));
+		assertThrows(NumberFormatException.class, () -> DecomposerCli.parseIntSize("2G"));
+	}
+
+	@Test
+	public void invalidSizeIsUsageError() {
+		assertEquals(DecomposerCli.EXIT_USAGE, run("decompose", "--piece-size", "", "file"));
+		assertTrue(err.toString().startsWith("Size must not be empty"));
+	}
+
+	@Test
+	public void treeKeepsItsStructureInOutputDir() throws IOException {
+		byte[] a = write("in/a/x.bin", 100_000);
+		byte[] b = write("in/b/x.bin", 50_000);
+		String out = dir.resolve("out").toString();
+
+		assertEquals(DecomposerCli.EXIT_OK, run("decompose", "-r", "-j", "2", "-n", "3", "-o", out,
+				dir.resolve("in").toString()));
+		assertTrue(dir.resolve("out/a/x.bin.manifest").toFile().isFile());
+		assertTrue(dir.resolve("out/b/x.bin.manifest").toFile().isFile());
+
+		String composed = dir.resolve("composed").toString();
+		assertEquals(DecomposerCli.EXIT_OK, run("compose", "-o", composed + "/a", dir.resolve("out/a").toString()));
+		assertEquals(DecomposerCli.EXIT_OK, run("compose", "-o", composed + "/b", dir.resolve("out/b").toString()));
+		assertArrayEquals(a, Files.readAllBytes(dir.resolve("composed/a/x.bin")));
+		assertArrayEquals(b, Files.readAllBytes(dir.resolve("composed/b/x.bin")));
+	}
+
+	@Test
+	public void clashingOutputsAreUsageError() throws IOException {
+		write("in/a/x.bin", 1000);
+		write("in/b/x.bin", 1000);
+		File out = dir.resolve("out").toFile();
+
+		assertEquals(DecomposerCli.EXIT_USAGE, run("decompose", "-o", out.getPath(),
+				dir.resolve("in/a/x.bin").toString(), dir.resolve("in/b/x.bin").toString()));
+		assertTrue(err.toString().contains("would both be decomposed into"));
+		/* Nothing is written before the clash is found. */
+		assertFalse(out.exists());
+	}
+
+	@Test
+	public void invalidConcurrencyIsUsageError() throws IOException {
+		String input = dir.toString();
+		assertEquals(DecomposerCli.EXIT_USAGE, run("decompose", "-j", "0", input));
+		assertTrue(err.toString().startsWith("Number of jobs must be at least 1"));
+		assertEquals(DecomposerCli.EXIT_USAGE, run("decompose", "--device-limit", input + "=0", input));
+		assertEquals(DecomposerCli.EXIT_USAGE, run("decompose", "--device-limit", input + "=x", input));
+		assertEquals(DecomposerCli.EXIT_USAGE, run("verify", "-j", "-1", input));
+	}
+
+	/**
+	 * Runs the command line interface with the specified arguments, keeping
+	 * its standard error.
+	 *
+	 * @param args command line arguments
+	 * @return the exit code
+	 */
+	private int run(String... args) {
+		err.reset();
+		return new DecomposerCli(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err)).run(args);
+	}
+
+	/**
+	 * Writes a file of random data under the temporary directory.
+	 *
+	 * @param path path of the file relative to the temporary directory
+	 * @param length length of the file
+	 * @return data of the file
+	 * @throws IOException if the file can not be written
+	 */
+	private byte[] write(String path, int length) throws IOException {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		Path file = dir.resolve(path);
+		Files.createDirectories(file.getParent());
+		Files.write(file, data);
+		return data;
+	}
+
+}
@@ -0,0 +1,431 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of composing with {@linkplain DecomposerEngine} when pieces are lost
+ * or damaged, or the output fails, and of copying with every copy mode,
+ * composing compressed pieces and striping pieces across directories.
+ *
+ * @author Mario Bobic
+ */
+public class DecomposerEngineTest {
+
+	@TempDir
+	Path dir;
+
+	private final DecomposerEngine engine = new DecomposerEngine();
+
+	@Test
+	public void lostPieceIsRebuiltFromParity() throws IOException {
+		byte[] data = randomData(100_000);
+		Manifest manifest = decompose(data, 4, 1, null);
+		corrupt(manifest, 2, 100);
+
+		File output = dir.resolve("composed.bin").toFile();
+		engine.compose(ComposeJob.builder(manifest, output).build());
+		assertArrayEquals(data, Files.readAllBytes(output.toPath()));
+	}
+
+	@Test
+	public void notEnoughParityAndStop() throws IOException {
+		byte[] data = randomData(100_000);
+		Manifest manifest = decompose(data, 4, 1, null);
+		corrupt(manifest, 1, 100);
+		corrupt(manifest, 3, 200);
+
+		File output = dir.resolve("composed.bin").toFile();
+		assertThrows(PieceTamperedException.class, () -> engine.compose(ComposeJob.builder(manifest, output)
+				.tamperHandler(ComposeJob.TamperHandler.STOP)
+				.build()));
+		assertFalse(output.exists());
+	}
+
+	@Test
+	public void notEnoughParityAndContinue() throws IOException {
+		byte[] data = randomData(100_000);
+		Manifest manifest = decompose(data, 4, 1, null);
+		byte[] expected = data.clone();
+		expected[(int) manifest.getEntries().get(1).getOffset() + 100] ^= 0xFF;
+		corrupt(manifest, 1, 100);
+		/* A piece of the wrong size is set aside without being copied. */
+		try (RandomAccessFile raf = new RandomAccessFile(manifest.getPieceFile(manifest.getEntries().get(3)), "rw")) {
+			raf.setLength(raf.length() + 1);
+		}
+
+		/* The damaged pieces are copied as they are, leaving no holes. */
+		File output = dir.resolve("composed.bin").toFile();
+		engine.compose(ComposeJob.builder(manifest, output)
+				.tamperHandler((piece, index) -> true)
+				.build());
+		assertArrayEquals(expected, Files.readAllBytes(output.toPath()));
+	}
+
+	@Test
+	public void notEnoughParityAndTruncatedPiece() throws IOException {
+		byte[] data = randomData(100_000);
+		Manifest manifest = decompose(data, 4, 1, null);
+		corrupt(manifest, 0, 100);
+		File truncated = manifest.getPieceFile(manifest.getEntries().get(2));
+		try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+			raf.setLength(raf.length() / 2);
+		}
+
+		File output = dir.resolve("composed.bin").toFile();
+		IOException e = assertThrows(IOException.class, () -> engine.compose(ComposeJob.builder(manifest, output)
+				.tamperHandler((piece, index) -> true)
+				.build()));
+		assertFalse(e instanceof PieceTamperedException);
+	}
+
+	@Test
+	public void failedComposingDeletesOutput() throws IOException {
+		byte[] data = randomData(1_000_000);
+		Manifest manifest = decompose(data, 4, 0, null);
+		corrupt(manifest, 2, 100);
+
+		File output = dir.resolve("composed.bin").toFile();
+		assertThrows(PieceTamperedException.class, () -> engine.compose(ComposeJob.builder(manifest, output)
+				.tamperHandler(ComposeJob.TamperHandler.STOP)
+				.build()));
+		assertFalse(output.exists());
+
+		/* The next run is not refused by a file left behind. */
+		engine.compose(ComposeJob.builder(manifest, output)
+				.tamperHandler((piece, index) -> true)
+				.build());
+		assertEquals(data.length, output.length());
+	}
+
+	@Test
+	public void failedComposingWithCheckpointsKeepsOutput() throws IOException {
+		byte[] data = randomData(1_000_000);
+		Manifest manifest = decompose(data, 4, 0, null);
+		corrupt(manifest, 2, 100);
+
+		File output = dir.resolve("composed.bin").toFile();
+		assertThrows(PieceTamperedException.class, () -> engine.compose(ComposeJob.builder(manifest, output)
+				.tamperHandler(ComposeJob.TamperHandler.STOP)
+				.checkpointInterval(64 * 1024)
+				.build()));
+		assertTrue(output.exists());
+		assertTrue(new File(output.getPath() + DecomposerConstants.JOURNAL_EXTENSION).exists());
+	}
+
+	@Test
+	public void mappedComposingWithEveryDurability() throws IOException {
+		byte[] data = randomData(3_000_000);
+		Manifest manifest = decompose(data, 3, 0, null);
+
+		/* The mapped windows are forced in steps, or before checkpoints without durability. */
+		for (Durability durability : Durability.values()) {
+			File output = dir.resolve("composed-" + durability + ".bin").toFile();
+			engine.compose(ComposeJob.builder(manifest, output)
+					.copyMode(CopyMode.MAPPED)
+					.durability(durability)
+					.syncInterval(256 * 1024)
+					.checkpointInterval(durability == Durability.NONE ? 512 * 1024 : 0)
+					.build());
+			assertArrayEquals(data, Files.readAllBytes(output.toPath()), durability.toString());
+		}
+	}
+
+	@Test
+	public void everyCopyModeRoundTrip() throws IOException {
+		/* Small buffers and shallow pipelines, so that the pipelines wrap around many times. */
+		byte[] data = randomData(2_500_000);
+		File source = dir.resolve("source.bin").toFile();
+		Files.write(source.toPath(), data);
+		for (CopyMode mode : CopyMode.values()) {
+			File outputDir = dir.resolve("pieces-" + mode).toFile();
+			engine.decompose(DecomposeJob.builder(source)
+					.outputDir(outputDir)
+					.pieces(3)
+					.parallelism(2)
+					.copyMode(mode)
+					.bufferSize(DecomposerConstants.MIN_BUFFER_SIZE)
+					.pipelineDepth(2)
+					.build());
+			Manifest manifest = Manifest.read(Manifest.manifestFile(outputDir, source.getName()));
+
+			File output = dir.resolve("composed-" + mode + ".bin").toFile();
+			engine.compose(ComposeJob.builder(manifest, output)
+					.parallelism(2)
+					.copyMode(mode)
+					.bufferSize(DecomposerConstants.MIN_BUFFER_SIZE)
+					.pipelineDepth(2)
+					.build());
+			assertArrayEquals(data, Files.readAllBytes(output.toPath()), mode.toString());
+		}
+	}
+
+	@Test
+	public void pipelinedComposingDetectsDamage() throws IOException {
+		byte[] data = randomData(2_000_000);
+		Manifest manifest = decompose(data, 4, 0, null);
+		corrupt(manifest, 2, 300_000);
+
+		for (CopyMode mode : new CopyMode[] { CopyMode.PIPELINED, CopyMode.ASYNC }) {
+			File output = dir.resolve("composed-" + mode + ".bin").toFile();
+			assertThrows(PieceTamperedException.class, () -> engine.compose(ComposeJob.builder(manifest, output)
+					.copyMode(mode)
+					.tamperHandler(ComposeJob.TamperHandler.STOP)
+					.build()), mode.toString());
+			assertFalse(output.exists(), mode.toString());
+		}
+	}
+
+	@Test
+	public void stripedPiecesRoundTrip() throws IOException {
+		assertEquals(Arrays.asList(3, 3, 3), stripe(9, null));
+		assertEquals(Arrays.asList(6, 3, 3), stripe(12, new int[] { 2, 1, 1 }));
+	}
+
+	@Test
+	public void gatheredStripesAreComposed() throws IOException {
+		stripe(6, null);
+		Manifest manifest = Manifest.read(Manifest.manifestFile(dir.resolve("striped-6").resolve("stripe-0").toFile(), "source.bin"));
+
+		/* Striped pieces moved next to the manifest are found there. */
+		for (Manifest.Entry entry : manifest.getEntries()) {
+			File piece = manifest.getPieceFile(entry);
+			Files.move(piece.toPath(), manifest.getFile().toPath().resolveSibling(piece.getName()),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		File output = dir.resolve("gathered.bin").toFile();
+		engine.compose(ComposeJob.builder(manifest, output).build());
+		assertArrayEquals(randomData(600_000), Files.readAllBytes(output.toPath()));
+	}
+
+	@Test
+	public void failedStreamReleasesBuffers() throws IOException {
+		byte[] data = randomData(4_000_000);
+		Manifest manifest = decompose(data, 8, 0, null);
+		CountingPool pool = new CountingPool();
+		DecomposerEngine engine = new DecomposerEngine(pool);
+
+		/* The output fails after a few buffers, while the reader waits on a full queue. */
+		AtomicInteger writes = new AtomicInteger();
+		WritableByteChannel failing = new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer b) throws IOException {
+				if (writes.incrementAndGet() > 3) {
+					throw new IOException("Output failed");
+				}
+				int n = b.remaining();
+				b.position(b.limit());
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+
+		assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+			IOException e = assertThrows(IOException.class, () -> engine.compose(ComposeJob.builder(manifest, null)
+					.bufferSize(64 * 1024)
+					.pipelineDepth(2)
+					.build(), failing));
+			assertEquals("Output failed", e.getMessage());
+		});
+		assertEquals(0, pool.outstanding.get());
+	}
+
+	@Test
+	public void compressedPiecesRoundTrip() throws IOException {
+		byte[] data = compressibleData(3 * DecomposerConstants.COMPRESSION_BLOCK_SIZE + 1000);
+		for (Codec codec : new Codec[] { Codecs.DEFLATE, Codecs.DEFLATE_FAST }) {
+			Manifest manifest = decompose(data, 3, 0, codec);
+			assertEquals(codec.getId(), manifest.getCodecId());
+			for (Manifest.Entry entry : manifest.getEntries()) {
+				assertTrue(entry.getStoredLength() < entry.getLength(), codec.getName());
+			}
+
+			File output = dir.resolve("composed.bin").toFile();
+			Files.deleteIfExists(output.toPath());
+			engine.compose(ComposeJob.builder(manifest, output).build());
+			assertArrayEquals(data, Files.readAllBytes(output.toPath()), codec.getName());
+		}
+	}
+
+	@Test
+	public void damagedCompressedPieceIsDetected() throws IOException {
+		byte[] data = compressibleData(3 * DecomposerConstants.COMPRESSION_BLOCK_SIZE + 1000);
+		Manifest manifest = decompose(data, 3, 0, Codecs.DEFLATE);
+		corrupt(manifest, 1, 1000);
+
+		File output = dir.resolve("composed.bin").toFile();
+		assertThrows(PieceTamperedException.class, () -> engine.compose(ComposeJob.builder(manifest, output)
+				.tamperHandler(ComposeJob.TamperHandler.STOP)
+				.build()));
+		assertFalse(output.exists());
+	}
+
+	/**
+	 * Decomposes the specified data into pieces with parity pieces and returns
+	 * their manifest.
+	 *
+	 * @param data data of the decomposed file
+	 * @param pieces number of pieces
+	 * @param parity number of parity pieces
+	 * @param codec codec compressing the pieces, or null
+	 * @return manifest of the pieces
+	 * @throws IOException if an I/O error occurs
+	 */
+	private Manifest decompose(byte[] data, int pieces, int parity, Codec codec) throws IOException {
+		File source = dir.resolve("source.bin").toFile();
+		Files.write(source.toPath(), data);
+		File outputDir = dir.resolve("pieces").toFile();
+		engine.decompose(DecomposeJob.builder(source)
+				.outputDir(outputDir)
+				.pieces(pieces)
+				.parityPieces(parity)
+				.codec(codec)
+				.build());
+		return Manifest.read(Manifest.manifestFile(outputDir, source.getName()));
+	}
+
+	/**
+	 * Decomposes random data into pieces striped across three directories,
+	 * which are new for every number of pieces, checks that every piece is in
+	 * its stripe directory, and composes the pieces back.
+	 *
+	 * @param pieces number of pieces
+	 * @param weights weights of the directories, or null for equal weights
+	 * @return the number of pieces in every directory
+	 * @throws IOException if an I/O error occurs
+	 */
+	private List<Integer> stripe(int pieces, int[] weights) throws IOException {
+		byte[] data = randomData(pieces * 100_000);
+		File source = dir.resolve("source.bin").toFile();
+		Files.write(source.toPath(), data);
+		List<File> dirs = new ArrayList<>();
+		for (int d = 0; d < 3; d++) {
+			dirs.add(dir.resolve("striped-" + pieces).resolve("stripe-" + d).toFile());
+		}
+		engine.decompose(DecomposeJob.builder(source)
+				.outputDir(dirs.get(0))
+				.stripeDirs(dirs.subList(1, 3))
+				.stripeWeights(weights)
+				.pieces(pieces)
+				.parallelism(3)
+				.build());
+
+		Manifest manifest = Manifest.read(Manifest.manifestFile(dirs.get(0), source.getName()));
+		List<Integer> counts = new ArrayList<>(Collections.nCopies(3, 0));
+		for (Manifest.Entry entry : manifest.getEntries()) {
+			assertTrue(new File(dirs.get(entry.getStripe()), entry.getFileName()).isFile());
+			counts.set(entry.getStripe(), counts.get(entry.getStripe()) + 1);
+		}
+		for (int d = 0; d < 3; d++) {
+			String[] names = dirs.get(d).list((parent, name) -> name.endsWith(DecomposerConstants.FILE_EXTENSION));
+			assertEquals(counts.get(d).intValue(), names.length);
+		}
+
+		File output = dir.resolve("composed.bin").toFile();
+		Files.deleteIfExists(output.toPath());
+		engine.compose(ComposeJob.builder(manifest, output).build());
+		assertArrayEquals(data, Files.readAllBytes(output.toPath()));
+		return counts;
+	}
+
+	/**
+	 * Flips a byte of the data of the specified piece, keeping its size.
+	 *
+	 * @param manifest manifest listing the piece
+	 * @param index index of the piece
+	 * @param position position of the byte in the data of the piece
+	 * @throws IOException if an I/O error occurs
+	 */
+	private static void corrupt(Manifest manifest, int index, long position) throws IOException {
+		Manifest.Entry entry = manifest.getEntries().get(index);
+		try (RandomAccessFile raf = new RandomAccessFile(manifest.getPieceFile(entry), "rw")) {
+			raf.seek(entry.getDataStart() + position);
+			int b = raf.read();
+			raf.seek(entry.getDataStart() + position);
+			raf.write(b ^ 0xFF);
+		}
+	}
+
+	/**
+	 * Returns random data of the specified length.
+	 *
+	 * @param length length of the data
+	 * @return random data
+	 */
+	private static byte[] randomData(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Returns data drawn from a small alphabet, which compresses well.
+	 *
+	 * @param length length of the data
+	 * @return compressible data
+	 */
+	private static byte[] compressibleData(int length) {
+		Random random = new Random(length);
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+	/**
+	 * A buffer pool counting the buffers acquired and not yet released.
+	 *
+	 * @author Mario Bobic
+	 */
+	private static class CountingPool extends BufferPool {
+		/** Number of buffers acquired and not yet released */
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		/**
+		 * Constructs a new counting pool.
+		 */
+		public CountingPool() {
+			super(16);
+		}
+
+		@Override
+		public ByteBuffer acquire(int size) {
+			outstanding.incrementAndGet();
+			return super.acquire(size);
+		}
+
+		@Override
+		public void release(ByteBuffer buffer) {
+			outstanding.decrementAndGet();
+			super.release(buffer);
+		}
+	}
+
+}
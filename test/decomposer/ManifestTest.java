@@ -0,0 +1,215 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of writing and reading {@linkplain Manifest manifests} of every
+ * format version, and of rejecting damaged manifests.
+ *
+ * @author Mario Bobic
+ */
+public class ManifestTest {
+
+	private static final UUID FILE_ID = new UUID(0x1122334455667788L, 0x99AABBCCDDEEFF00L);
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void roundTripEveryVersion() throws IOException {
+		File stripe = dir.resolve("stripe").toFile().getAbsoluteFile();
+		for (int version = 1; version <= Manifest.VERSION; version++) {
+			for (ChecksumMode checksum : ChecksumMode.values()) {
+				int codecId = version >= 2 ? Codecs.DEFLATE.getId() : 0;
+				List<File> stripeDirs = version >= 4 ? Collections.singletonList(stripe) : Collections.<File>emptyList();
+				List<Manifest.Entry> entries = entries(3, checksum, version >= 4 ? 1 : 0, 0);
+				List<Manifest.Entry> parity = version >= 3 ? entries(2, checksum, 0, 100) : Collections.<Manifest.Entry>emptyList();
+				File file = dir.resolve("v" + version + checksum + ".manifest").toFile();
+				Manifest manifest = new Manifest(file, FILE_ID, "file.bin", 3000, checksum, codecId, stripeDirs,
+						entries, parity);
+				manifest.write();
+
+				byte[] bytes = Files.readAllBytes(file.toPath());
+				assertEquals(version, ByteBuffer.wrap(bytes).getShort(4), "version written");
+
+				Manifest read = Manifest.read(file);
+				assertEquals(FILE_ID, read.getFileId());
+				assertEquals("file.bin", read.getName());
+				assertEquals(3000, read.getOriginalLength());
+				assertEquals(checksum, read.getChecksum());
+				assertEquals(codecId, read.getCodecId());
+				assertEquals(stripeDirs, read.getStripeDirs());
+				assertEquals(3, read.getCount());
+				assertArrayEquals(manifest.getFileHash(), read.getFileHash());
+				assertEntries(entries, read.getEntries(), version);
+				assertEntries(parity, read.getParity(), version);
+			}
+		}
+	}
+
+	@Test
+	public void readsHandEncodedVersion1() throws Exception {
+		byte[] checksum = { 1, 2, 3, 4 };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0x4644434D);
+		out.writeShort(1);
+		out.writeLong(FILE_ID.getMostSignificantBits());
+		out.writeLong(FILE_ID.getLeastSignificantBits());
+		out.writeUTF("old.bin");
+		out.writeLong(10);
+		out.writeInt(PieceDigest.flags(ChecksumMode.CRC32C));
+		out.writeInt(1);
+		out.writeInt(0);
+		out.writeUTF("old.bin-0.decomposed");
+		out.writeLong(0);
+		out.writeLong(10);
+		out.writeLong(80);
+		out.writeLong(123456789L);
+		out.write(checksum);
+		out.write(MessageDigest.getInstance("SHA-256").digest(checksum));
+		byte[] body = bytes.toByteArray();
+		out.writeInt(crc(body));
+
+		File file = dir.resolve("old.bin.manifest").toFile();
+		Files.write(file.toPath(), bytes.toByteArray());
+		Manifest read = Manifest.read(file);
+		assertEquals(FILE_ID, read.getFileId());
+		assertEquals("old.bin", read.getName());
+		assertEquals(ChecksumMode.CRC32C, read.getChecksum());
+		assertEquals(0, read.getCodecId());
+		assertTrue(read.getStripeDirs().isEmpty());
+		assertTrue(read.getParity().isEmpty());
+		Manifest.Entry entry = read.getEntries().get(0);
+		assertEquals("old.bin-0.decomposed", entry.getFileName());
+		assertEquals(0, entry.getStripe());
+		assertEquals(10, entry.getLength());
+		assertEquals(10, entry.getStoredLength());
+		assertEquals(80, entry.getSize());
+		assertEquals(123456789L, entry.getLastModified());
+		assertArrayEquals(checksum, entry.getChecksum());
+		assertEquals(new File(dir.toFile(), "old.bin-0.decomposed"), read.getPieceFile(entry));
+	}
+
+	@Test
+	public void everyDamagedByteIsRejected() throws IOException {
+		File file = dir.resolve("file.bin.manifest").toFile();
+		new Manifest(file, FILE_ID, "file.bin", 3000, ChecksumMode.SHA256, Codecs.DEFLATE.getId(),
+				Collections.singletonList(dir.resolve("stripe").toFile().getAbsoluteFile()),
+				entries(3, ChecksumMode.SHA256, 1, 0), entries(1, ChecksumMode.SHA256, 0, 100)).write();
+		byte[] bytes = Files.readAllBytes(file.toPath());
+
+		for (int i = 0; i < bytes.length; i++) {
+			byte[] damaged = bytes.clone();
+			damaged[i] ^= 0x01;
+			Files.write(file.toPath(), damaged);
+			assertThrows(IOException.class, () -> Manifest.read(file), "byte " + i);
+		}
+		for (int length = 0; length < bytes.length; length++) {
+			Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+			assertThrows(IOException.class, () -> Manifest.read(file), "length " + length);
+		}
+	}
+
+	@Test
+	public void unsupportedVersionIsRejected() throws IOException {
+		File file = dir.resolve("file.bin.manifest").toFile();
+		new Manifest(file, FILE_ID, "file.bin", 3000, ChecksumMode.NONE, 0,
+				entries(3, ChecksumMode.NONE, 0, 0), Collections.<Manifest.Entry>emptyList()).write();
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		ByteBuffer.wrap(bytes).putShort(4, (short) (Manifest.VERSION + 1));
+		byte[] body = Arrays.copyOf(bytes, bytes.length - 4);
+		ByteBuffer.wrap(bytes).putInt(bytes.length - 4, crc(body));
+		Files.write(file.toPath(), bytes);
+
+		IOException e = assertThrows(IOException.class, () -> Manifest.read(file));
+		assertTrue(e.getMessage().contains("unsupported format version"));
+	}
+
+	@Test
+	public void pathsLeavingTheDirectoryAreRejected() throws IOException {
+		for (String name : new String[] { "../x", "/abs", "a//b", "a/./b", "a\\b" }) {
+			File file = dir.resolve("file.bin.manifest").toFile();
+			List<Manifest.Entry> entries = new ArrayList<>();
+			entries.add(new Manifest.Entry(0, name, 0, 10, 10, 10, 0, new byte[0]));
+			new Manifest(file, FILE_ID, "file.bin", 10, ChecksumMode.NONE, 0, entries,
+					Collections.<Manifest.Entry>emptyList()).write();
+			assertThrows(IOException.class, () -> Manifest.read(file), name);
+		}
+	}
+
+	/**
+	 * Returns entries of pieces with distinct values in every field.
+	 *
+	 * @param count number of entries
+	 * @param checksum checksums of the pieces
+	 * @param stripe stripe of every other piece
+	 * @param base value distinguishing these entries from others
+	 * @return the entries
+	 */
+	private static List<Manifest.Entry> entries(int count, ChecksumMode checksum, int stripe, int base) {
+		List<Manifest.Entry> entries = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			byte[] sum = new byte[checksum.getLength()];
+			Arrays.fill(sum, (byte) (base + i + 1));
+			entries.add(new Manifest.Entry(i, "sub/file.bin-" + (base + i) + ".decomposed", i % 2 == 1 ? stripe : 0,
+					1000L * i, 1000 + base, 900 + base + i, 1100 + base + i, 1_600_000_000_000L + base + i, sum));
+		}
+		return entries;
+	}
+
+	/**
+	 * Asserts that the read entries equal the written ones, as far as the
+	 * specified version stores them.
+	 *
+	 * @param expected entries written
+	 * @param actual entries read
+	 * @param version format version of the manifest
+	 */
+	private static void assertEntries(List<Manifest.Entry> expected, List<Manifest.Entry> actual, int version) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Manifest.Entry e = expected.get(i);
+			Manifest.Entry a = actual.get(i);
+			assertEquals(e.getIndex(), a.getIndex());
+			assertEquals(e.getFileName(), a.getFileName());
+			assertEquals(e.getStripe(), a.getStripe());
+			assertEquals(e.getOffset(), a.getOffset());
+			assertEquals(e.getLength(), a.getLength());
+			assertEquals(version >= 2 ? e.getStoredLength() : e.getLength(), a.getStoredLength());
+			assertEquals(e.getSize(), a.getSize());
+			assertEquals(e.getLastModified(), a.getLastModified());
+			assertArrayEquals(e.getChecksum(), a.getChecksum());
+		}
+	}
+
+	/**
+	 * Returns the CRC32C of the specified bytes.
+	 *
+	 * @param bytes the bytes
+	 * @return the CRC32C of the bytes
+	 */
+	private static int crc(byte[] bytes) {
+		Crc32c crc = new Crc32c();
+		crc.update(ByteBuffer.wrap(bytes));
+		return crc.getValue();
+	}
+
+}
@@ -0,0 +1,219 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of encoding parity and rebuilding lost pieces with
+ * {@linkplain ParityCodec}.
+ *
+ * @author Mario Bobic
+ */
+public class ParityCodecTest {
+
+	private static final int BLOCK_SIZE = 256;
+
+	@Test
+	public void singleParityIsXor() {
+		byte[][] data = randomBlocks(5, 1);
+		byte[][] parity = new byte[1][BLOCK_SIZE];
+		new ParityCodec(5, 1).encode(data, parity, 0, BLOCK_SIZE);
+
+		byte[] xor = new byte[BLOCK_SIZE];
+		for (byte[] block : data) {
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				xor[i] ^= block[i];
+			}
+		}
+		assertArrayEquals(xor, parity[0]);
+	}
+
+	@Test
+	public void rebuildsEveryCombinationOfLostPieces() {
+		int[][] configurations = { { 1, 1 }, { 2, 2 }, { 5, 1 }, { 4, 3 }, { 10, 4 } };
+		for (int[] configuration : configurations) {
+			int dataCount = configuration[0];
+			int parityCount = configuration[1];
+			ParityCodec codec = new ParityCodec(dataCount, parityCount);
+			byte[][] data = randomBlocks(dataCount, dataCount * 31 + parityCount);
+			byte[][] parity = new byte[parityCount][BLOCK_SIZE];
+			codec.encode(data, parity, 0, BLOCK_SIZE);
+
+			for (int count = 1; count <= Math.min(dataCount, parityCount); count++) {
+				for (int[] lost : combinations(dataCount, count)) {
+					for (int[] rows : combinations(parityCount, count)) {
+						String at = dataCount + "+" + parityCount + " lost " + Arrays.toString(lost)
+								+ " rows " + Arrays.toString(rows);
+						assertRebuilt(codec, data, parity, lost, rows, at);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rebuildsWithManyPieces() {
+		/* Too many combinations to try them all, so a random sample. */
+		int dataCount = 200;
+		int parityCount = ParityCodec.MAX_TOTAL - dataCount;
+		ParityCodec codec = new ParityCodec(dataCount, parityCount);
+		byte[][] data = randomBlocks(dataCount, 5);
+		byte[][] parity = new byte[parityCount][BLOCK_SIZE];
+		codec.encode(data, parity, 0, BLOCK_SIZE);
+
+		Random random = new Random(6);
+		for (int n = 0; n < 50; n++) {
+			int count = 1 + random.nextInt(parityCount);
+			int[] lost = sample(random, dataCount, count);
+			int[] rows = sample(random, parityCount, count);
+			assertRebuilt(codec, data, parity, lost, rows, "sample " + n);
+		}
+	}
+
+	@Test
+	public void rangesAreCodedIndependently() {
+		ParityCodec codec = new ParityCodec(6, 3);
+		byte[][] data = randomBlocks(6, 7);
+		byte[][] whole = new byte[3][BLOCK_SIZE];
+		codec.encode(data, whole, 0, BLOCK_SIZE);
+
+		byte[][] split = new byte[3][BLOCK_SIZE];
+		codec.encode(data, split, 0, 100);
+		codec.encode(data, split, 100, BLOCK_SIZE);
+		for (int j = 0; j < 3; j++) {
+			assertArrayEquals(whole[j], split[j]);
+		}
+
+		int[] lost = { 1, 4 };
+		byte[][] damaged = copy(data);
+		byte[][] used = { whole[2].clone(), whole[0].clone() };
+		ParityCodec.Rebuilder rebuilder = codec.rebuilder(lost, new int[] { 2, 0 });
+		rebuilder.rebuild(damaged, used, 0, 37);
+		rebuilder.rebuild(damaged, used, 37, BLOCK_SIZE);
+		for (int i = 0; i < data.length; i++) {
+			assertArrayEquals(data[i], damaged[i]);
+		}
+	}
+
+	@Test
+	public void tooManyPiecesAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new ParityCodec(ParityCodec.MAX_TOTAL, 1));
+	}
+
+	/**
+	 * Destroys the specified lost pieces, rebuilds them from the specified
+	 * parity pieces and asserts that all pieces equal the original ones.
+	 *
+	 * @param codec the codec
+	 * @param data blocks of all pieces
+	 * @param parity blocks of all parity pieces
+	 * @param lost indexes of the lost pieces
+	 * @param rows indexes of the parity pieces used for rebuilding
+	 * @param at description of the case, for failure messages
+	 */
+	private static void assertRebuilt(ParityCodec codec, byte[][] data, byte[][] parity, int[] lost, int[] rows,
+			String at) {
+		byte[][] damaged = copy(data);
+		for (int index : lost) {
+			Arrays.fill(damaged[index], (byte) 0x5A);
+		}
+		byte[][] used = new byte[rows.length][];
+		for (int r = 0; r < rows.length; r++) {
+			used[r] = parity[rows[r]].clone();
+		}
+
+		codec.rebuilder(lost, rows).rebuild(damaged, used, 0, BLOCK_SIZE);
+		for (int i = 0; i < data.length; i++) {
+			assertArrayEquals(data[i], damaged[i], at);
+		}
+	}
+
+	/**
+	 * Returns all combinations of the specified number of indexes less than
+	 * the specified bound, each in ascending order.
+	 *
+	 * @param n bound of the indexes, exclusive
+	 * @param k number of indexes in every combination
+	 * @return all combinations
+	 */
+	private static List<int[]> combinations(int n, int k) {
+		List<int[]> combinations = new ArrayList<>();
+		int[] c = new int[k];
+		for (int i = 0; i < k; i++) {
+			c[i] = i;
+		}
+		while (true) {
+			combinations.add(c.clone());
+			int i = k - 1;
+			while (i >= 0 && c[i] == n - k + i) {
+				i--;
+			}
+			if (i < 0) {
+				return combinations;
+			}
+			c[i]++;
+			for (int j = i + 1; j < k; j++) {
+				c[j] = c[j - 1] + 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns distinct random indexes less than the specified bound.
+	 *
+	 * @param random source of randomness
+	 * @param n bound of the indexes, exclusive
+	 * @param k number of indexes
+	 * @return the indexes, in random order
+	 */
+	private static int[] sample(Random random, int n, int k) {
+		int[] all = new int[n];
+		for (int i = 0; i < n; i++) {
+			all[i] = i;
+		}
+		for (int i = 0; i < k; i++) {
+			int j = i + random.nextInt(n - i);
+			int t = all[i];
+			all[i] = all[j];
+			all[j] = t;
+		}
+		return Arrays.copyOf(all, k);
+	}
+
+	/**
+	 * Returns blocks of random data.
+	 *
+	 * @param count number of blocks
+	 * @param seed seed of the random data
+	 * @return the blocks
+	 */
+	private static byte[][] randomBlocks(int count, long seed) {
+		Random random = new Random(seed);
+		byte[][] blocks = new byte[count][BLOCK_SIZE];
+		for (byte[] block : blocks) {
+			random.nextBytes(block);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Returns a deep copy of the specified blocks.
+	 *
+	 * @param blocks the blocks
+	 * @return copy of the blocks
+	 */
+	private static byte[][] copy(byte[][] blocks) {
+		byte[][] copy = new byte[blocks.length][];
+		for (int i = 0; i < blocks.length; i++) {
+			copy[i] = blocks[i].clone();
+		}
+		return copy;
+	}
+
+}
@@ -0,0 +1,140 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of finding sets of pieces with {@linkplain PieceDiscovery}, through
+ * manifests or through the headers of the pieces.
+ *
+ * @author Mario Bobic
+ */
+public class PieceDiscoveryTest {
+
+	@TempDir
+	Path dir;
+
+	private final DecomposerEngine engine = new DecomposerEngine();
+
+	@Test
+	public void findsPiecesOfManifest() throws IOException {
+		decompose(DecomposeJob.builder(source("f.bin", 100_000)).pieces(4));
+
+		for (boolean recursive : new boolean[] { false, true }) {
+			List<PieceSet> sets = scan(recursive);
+			assertEquals(1, sets.size());
+			PieceSet set = sets.get(0);
+			assertEquals("f.bin", set.getName());
+			assertNotNull(set.getManifest());
+			assertEquals(4, set.getPieces().size());
+			assertTrue(set.isComplete());
+			assertEquals(100_000, set.getLength());
+		}
+	}
+
+	@Test
+	public void findsShardedPiecesRecursively() throws IOException {
+		decompose(DecomposeJob.builder(source("f.bin", 100_000)).pieces(5).shardSize(2));
+
+		/* The pieces in the shards are covered by the manifest, not grouped again by their headers. */
+		for (boolean recursive : new boolean[] { false, true }) {
+			List<PieceSet> sets = scan(recursive);
+			assertEquals(1, sets.size(), "recursive " + recursive);
+			PieceSet set = sets.get(0);
+			assertNotNull(set.getManifest());
+			assertEquals(5, set.getPieces().size(), "recursive " + recursive);
+			assertTrue(set.getMissing().isEmpty(), "recursive " + recursive);
+		}
+	}
+
+	@Test
+	public void findsChunksRecursively() throws IOException {
+		decompose(DecomposeJob.builder(source("f.bin", 200_000)).chunkSize(16 * 1024));
+
+		for (boolean recursive : new boolean[] { false, true }) {
+			List<PieceSet> sets = scan(recursive);
+			assertEquals(1, sets.size(), "recursive " + recursive);
+			PieceSet set = sets.get(0);
+			assertTrue(set.isComplete(), "recursive " + recursive);
+			assertEquals(set.getManifest().getCount(), set.getPieces().size());
+			assertEquals(200_000, set.getLength());
+		}
+	}
+
+	@Test
+	public void groupsPiecesByHeader() throws IOException {
+		decompose(DecomposeJob.builder(source("a.bin", 50_000)).pieces(3).manifest(false));
+		decompose(DecomposeJob.builder(source("b.bin", 70_000)).pieces(4).manifest(false));
+		Files.delete(dir.resolve("pieces").resolve(DecomposerEngine.pieceName("b.bin", 2)));
+
+		List<PieceSet> sets = scan(false);
+		assertEquals(2, sets.size());
+		assertEquals("a.bin", sets.get(0).getName());
+		assertNull(sets.get(0).getManifest());
+		assertTrue(sets.get(0).isComplete());
+		assertEquals(50_000, sets.get(0).getOriginalLength());
+		assertEquals("b.bin", sets.get(1).getName());
+		assertEquals(Collections.singletonList(2), sets.get(1).getMissing());
+		assertEquals(3, sets.get(1).getPieces().size());
+	}
+
+	@Test
+	public void rescanSeesRemovedPieces() throws IOException {
+		decompose(DecomposeJob.builder(source("f.bin", 100_000)).pieces(4));
+		PieceDiscovery discovery = new PieceDiscovery(2);
+		File pieces = dir.resolve("pieces").toFile();
+		assertTrue(discovery.scan(Collections.singletonList(pieces), true).get(0).isComplete());
+
+		Files.delete(dir.resolve("pieces").resolve(DecomposerEngine.pieceName("f.bin", 1)));
+		PieceSet set = discovery.scan(Collections.singletonList(pieces), true).get(0);
+		assertEquals(Collections.singletonList(1), set.getMissing());
+	}
+
+	/**
+	 * Scans the directory of the pieces with a new discovery.
+	 *
+	 * @param recursive true if subdirectories should be scanned as well
+	 * @return sets of the pieces found
+	 * @throws IOException if a directory can not be listed
+	 */
+	private List<PieceSet> scan(boolean recursive) throws IOException {
+		return new PieceDiscovery(4).scan(Collections.singletonList(dir.resolve("pieces").toFile()), recursive);
+	}
+
+	/**
+	 * Decomposes a source file into the directory of the pieces.
+	 *
+	 * @param builder builder of the job decomposing the source file
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void decompose(DecomposeJob.Builder builder) throws IOException {
+		engine.decompose(builder.outputDir(dir.resolve("pieces").toFile()).build());
+	}
+
+	/**
+	 * Writes a source file of random data.
+	 *
+	 * @param name name of the file
+	 * @param length length of the file
+	 * @return the source file
+	 * @throws IOException if the file can not be written
+	 */
+	private File source(String name, int length) throws IOException {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		Path file = dir.resolve(name);
+		Files.write(file, data);
+		return file.toFile();
+	}
+
+}
@@ -0,0 +1,169 @@
+package decomposer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of reading and writing {@linkplain PieceHeader piece headers} of
+ * every format version, and of telling them apart from legacy pieces.
+ *
+ * @author Mario Bobic
+ */
+public class PieceHeaderTest {
+
+	private static final UUID FILE_ID = new UUID(0x0123456789ABCDEFL, 0xFEDCBA9876543210L);
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void roundTripVersion1() throws IOException {
+		PieceHeader header = new PieceHeader(FILE_ID, 3, 10, 3000, 1000, 9999, "file.bin", ChecksumMode.SHA256);
+		ByteBuffer b = header.toBuffer();
+		assertEquals(1, b.getShort(4));
+		assertEquals(b.remaining(), header.getHeaderLength());
+
+		PieceHeader read = read(b);
+		assertEquals(FILE_ID, read.getFileId());
+		assertEquals(3, read.getIndex());
+		assertEquals(10, read.getCount());
+		assertEquals(3000, read.getOffset());
+		assertEquals(1000, read.getLength());
+		assertEquals(9999, read.getOriginalLength());
+		assertEquals("file.bin", read.getName());
+		assertEquals(ChecksumMode.SHA256, read.getChecksum());
+		assertEquals(0, read.getCodecId());
+		assertEquals(1000, read.getStoredLength());
+		assertEquals(header.getHeaderLength(), read.getHeaderLength());
+	}
+
+	@Test
+	public void roundTripVersion2() throws IOException {
+		PieceHeader header = new PieceHeader(FILE_ID, 0, 2, 0, 5000, 10000, "ünïcode.txt", ChecksumMode.CRC32C,
+				Codecs.DEFLATE).withStoredLength(1234);
+		ByteBuffer b = header.toBuffer();
+		assertEquals(2, b.getShort(4));
+
+		PieceHeader read = read(b);
+		assertEquals("ünïcode.txt", read.getName());
+		assertEquals(Codecs.DEFLATE.getId(), read.getCodecId());
+		assertEquals(5000, read.getLength());
+		assertEquals(1234, read.getStoredLength());
+		assertEquals(ChecksumMode.CRC32C, read.getChecksum());
+	}
+
+	@Test
+	public void readsHandEncodedVersion1() throws IOException {
+		byte[] name = "a.bin".getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0x46444350);
+		out.writeShort(1);
+		out.writeShort(62 + name.length);
+		out.writeInt(PieceDigest.flags(ChecksumMode.CRC32C));
+		out.writeLong(FILE_ID.getMostSignificantBits());
+		out.writeLong(FILE_ID.getLeastSignificantBits());
+		out.writeInt(1);
+		out.writeInt(2);
+		out.writeLong(50);
+		out.writeLong(40);
+		out.writeLong(90);
+		out.writeShort(name.length);
+		out.write(name);
+
+		PieceHeader read = read(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals(FILE_ID, read.getFileId());
+		assertEquals(1, read.getIndex());
+		assertEquals(2, read.getCount());
+		assertEquals(50, read.getOffset());
+		assertEquals(40, read.getLength());
+		assertEquals(90, read.getOriginalLength());
+		assertEquals("a.bin", read.getName());
+		assertEquals(ChecksumMode.CRC32C, read.getChecksum());
+	}
+
+	@Test
+	public void unknownFieldsAreSkipped() throws IOException {
+		PieceHeader header = new PieceHeader(FILE_ID, 0, 1, 0, 10, 10, "x", ChecksumMode.NONE);
+		ByteBuffer b = header.toBuffer();
+		ByteBuffer longer = ByteBuffer.allocate(b.remaining() + 20);
+		/* Sixteen bytes of fields of a newer version, then the data. */
+		longer.put(b).position(header.getHeaderLength() + 16);
+		longer.putInt(0xCAFEBABE).flip();
+		longer.putShort(6, (short) (header.getHeaderLength() + 16));
+
+		ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(longer.array()));
+		PieceHeader read = PieceHeader.read(in, new File("x-0.decomposed"));
+		assertEquals(header.getHeaderLength() + 16, read.getHeaderLength());
+		ByteBuffer rest = ByteBuffer.allocate(4);
+		in.read(rest);
+		assertEquals(0xCAFEBABE, rest.getInt(0));
+	}
+
+	@Test
+	public void legacyPiecesHaveNoHeader() throws IOException {
+		/* A legacy piece starts with an implant, an empty piece with nothing. */
+		assertNull(read(ByteBuffer.wrap(new byte[] { 0, 0, 0, 5, 1, 2, 3 })));
+		assertNull(read(ByteBuffer.wrap(new byte[0])));
+		assertNull(read(ByteBuffer.wrap(new byte[] { 0x46, 0x44 })));
+	}
+
+	@Test
+	public void unsupportedVersionIsRejected() {
+		ByteBuffer b = new PieceHeader(FILE_ID, 0, 1, 0, 10, 10, "x", ChecksumMode.NONE).toBuffer();
+		b.putShort(4, (short) (PieceHeader.VERSION + 1));
+		assertThrows(IOException.class, () -> read(b));
+	}
+
+	@Test
+	public void truncatedHeaderIsIncomplete() throws IOException {
+		ByteBuffer b = new PieceHeader(FILE_ID, 0, 1, 0, 10, 10, "file.bin", ChecksumMode.NONE,
+				Codecs.DEFLATE).toBuffer();
+		byte[] bytes = Arrays.copyOf(b.array(), b.remaining());
+		for (int length = 4; length < bytes.length; length++) {
+			byte[] truncated = Arrays.copyOf(bytes, length);
+			assertThrows(EOFException.class, () -> read(ByteBuffer.wrap(truncated)), "length " + length);
+		}
+	}
+
+	@Test
+	public void invalidNamesAreRejected() {
+		for (String name : new String[] { "", ".", "..", "a/b", "a\\b" }) {
+			ByteBuffer b = new PieceHeader(FILE_ID, 0, 1, 0, 10, 10, name, ChecksumMode.NONE).toBuffer();
+			assertThrows(IOException.class, () -> read(b), name);
+		}
+	}
+
+	/**
+	 * Writes the specified bytes to a piece file and reads its header.
+	 *
+	 * @param b bytes of the piece
+	 * @return the header of the piece, or null
+	 * @throws IOException if the header can not be read
+	 */
+	private PieceHeader read(ByteBuffer b) throws IOException {
+		File piece = dir.resolve("file.bin-0.decomposed").toFile();
+		byte[] bytes = new byte[b.remaining()];
+		b.duplicate().get(bytes);
+		Files.write(piece.toPath(), bytes);
+		return PieceHeader.read(piece);
+	}
+
+}